@@ -37,6 +37,8 @@ import org.identityconnectors.framework.common.exceptions.ConfigurationException
 import org.identityconnectors.framework.spi.AbstractConfiguration;
 import org.identityconnectors.framework.spi.ConfigurationProperty;
 
+import com.evolveum.polygon.csvfile.util.RecordIndex;
+
 /**
  * Extends the {@link AbstractConfiguration} class to provide all the necessary
  * parameters to initialize the CSVFile Connector.
@@ -60,6 +62,9 @@ public class CSVFileConfiguration extends AbstractConfiguration {
     private String passwordAttribute = null;
     private boolean alwaysQualify = true;
     private int preserveLastTokens = 10;
+    private boolean usingIndex = false;
+    private boolean usingJournal = false;
+    private int journalCompactionThreshold = 1000;
 
     @ConfigurationProperty(displayMessageKey = "UI_PRESERVE_LAST_TOKENS",
             helpMessageKey = "UI_PRESERVE_LAST_TOKENS_HELP")
@@ -174,6 +179,36 @@ public class CSVFileConfiguration extends AbstractConfiguration {
         this.alwaysQualify = alwaysQualify;
     }
 
+    @ConfigurationProperty(displayMessageKey = "UI_FLAT_USING_INDEX",
+    helpMessageKey = "UI_FLAT_USING_INDEX_HELP")
+    public boolean isUsingIndex() {
+        return usingIndex;
+    }
+
+    public void setUsingIndex(boolean usingIndex) {
+        this.usingIndex = usingIndex;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "UI_FLAT_USING_JOURNAL",
+    helpMessageKey = "UI_FLAT_USING_JOURNAL_HELP")
+    public boolean isUsingJournal() {
+        return usingJournal;
+    }
+
+    public void setUsingJournal(boolean usingJournal) {
+        this.usingJournal = usingJournal;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "UI_FLAT_JOURNAL_COMPACTION_THRESHOLD",
+    helpMessageKey = "UI_FLAT_JOURNAL_COMPACTION_THRESHOLD_HELP")
+    public int getJournalCompactionThreshold() {
+        return journalCompactionThreshold;
+    }
+
+    public void setJournalCompactionThreshold(int journalCompactionThreshold) {
+        this.journalCompactionThreshold = journalCompactionThreshold;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -204,6 +239,14 @@ public class CSVFileConfiguration extends AbstractConfiguration {
             throw new ConfigurationException("Field delimiter '" + fieldDelimiter + "' can't be equal to value qualifier.");
         }
 
+        if (usingIndex && !RecordIndex.isSupported(encoding)) {
+            throw new ConfigurationException("Index can't be used with encoding '" + encoding + "'.");
+        }
+
+        if (usingJournal && journalCompactionThreshold <= 0) {
+            throw new ConfigurationException("Journal compaction threshold must be greater than zero.");
+        }
+
         if (StringUtil.isEmpty(uniqueAttribute)) {
             throw new ConfigurationException("Unique attribute is not defined.");
         }
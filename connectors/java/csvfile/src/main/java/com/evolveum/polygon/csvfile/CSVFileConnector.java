@@ -82,7 +82,6 @@ import org.identityconnectors.framework.common.objects.SyncDeltaType;
 import org.identityconnectors.framework.common.objects.SyncResultsHandler;
 import org.identityconnectors.framework.common.objects.SyncToken;
 import org.identityconnectors.framework.common.objects.Uid;
-import org.identityconnectors.framework.common.objects.filter.AbstractFilterTranslator;
 import org.identityconnectors.framework.common.objects.filter.FilterTranslator;
 import org.identityconnectors.framework.spi.Configuration;
 import org.identityconnectors.framework.spi.Connector;
@@ -100,9 +99,12 @@ import org.identityconnectors.framework.spi.operations.TestOp;
 import org.identityconnectors.framework.spi.operations.UpdateAttributeValuesOp;
 
 import com.evolveum.polygon.csvfile.sync.Change;
-import com.evolveum.polygon.csvfile.sync.InMemoryDiff;
+import com.evolveum.polygon.csvfile.sync.ChangeHandler;
+import com.evolveum.polygon.csvfile.sync.StreamingDiff;
 import com.evolveum.polygon.csvfile.util.CSVSchemaException;
 import com.evolveum.polygon.csvfile.util.CsvItem;
+import com.evolveum.polygon.csvfile.util.Journal;
+import com.evolveum.polygon.csvfile.util.RecordIndex;
 import com.evolveum.polygon.csvfile.util.TokenFileNameFilter;
 import com.evolveum.polygon.csvfile.util.Utils;
 
@@ -142,6 +144,21 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
 
     private static final ReentrantReadWriteLock LOCK = new ReentrantReadWriteLock();
 
+    /**
+     * Indexes of csv files by absolute path, shared by all connector instances.
+     */
+    private static final Map<String, RecordIndex> INDEXES = new HashMap<String, RecordIndex>();
+
+    /**
+     * Journals of csv files by absolute path, shared by all connector instances.
+     */
+    private static final Map<String, Journal> JOURNALS = new HashMap<String, Journal>();
+
+    /**
+     * Number of connector instances using the journal of a csv file, by absolute path. Guarded by {@link #JOURNALS}.
+     */
+    private static final Map<String, Integer> JOURNAL_USERS = new HashMap<String, Integer>();
+
     private static final DateFormat FORMAT = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z");
     private Pattern linePattern;
     /**
@@ -150,6 +167,11 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
      */
     private CSVFileConfiguration configuration;
 
+    /**
+     * True if this instance is counted in {@link #JOURNAL_USERS}. Guarded by {@link #JOURNALS}.
+     */
+    private boolean usingJournal;
+
     /**
      * Gets the Configuration context for this connector.
      */
@@ -186,6 +208,8 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
         builder.append(fieldDelimiter);
         builder.append("]*)");
         linePattern = Pattern.compile(builder.toString());
+
+        replayJournal();
     }
 
     /**
@@ -194,6 +218,7 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
      * @see org.identityconnectors.framework.spi.Connector#dispose()
      */
     public void dispose() {
+        releaseJournal();
     }
 
     /**
@@ -238,6 +263,12 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
         }
         Uid uid = new Uid(uidAttr.getValue().get(0).toString());
 
+        if (configuration.isUsingJournal()) {
+            uid = createJournaled(uid, createAttributes);
+            log.ok("create::end");
+            return uid;
+        }
+
         BufferedReader reader;
         BufferedWriter writer = null;
 
@@ -275,6 +306,7 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
             handleGenericException(ex, "Couldn't create account");
         } finally {
             closeWriter(writer, null);
+            invalidateIndex();
             LOCK.writeLock().unlock();
         }
 
@@ -376,8 +408,7 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
         isAccount(objectClass);
 
         log.ok("createFilterTranslator::end");
-        return new AbstractFilterTranslator<String>() {
-        };
+        return new CSVFileFilterTranslator(configuration);
     }
 
     /**
@@ -391,23 +422,74 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
         BufferedReader reader = null;
         LOCK.readLock().lock();
         try {
+            Map<String, String> journalRecords = Collections.emptyMap();
+            if (configuration.isUsingJournal()) {
+                journalRecords = getJournal().getRecords();
+            }
+
+            if (query != null && journalRecords.containsKey(query)) {
+                String line = journalRecords.get(query);
+                if (line != null) {
+                    List<String> header = readCsvHeader();
+                    handler.handle(createConnectorObject(header, createJournalItem(header, line)));
+                }
+                log.ok("executeQuery::end");
+                return;
+            }
+
+            if (query != null && configuration.isUsingIndex()) {
+                RecordIndex index = getIndex();
+                CsvItem item = index.find(query);
+                if (item != null) {
+                    handler.handle(createConnectorObject(index.getHeader(), item));
+                }
+                log.ok("executeQuery::end");
+                return;
+            }
+
             reader = createReader(configuration);
             List<String> header = readHeader(reader, linePattern, configuration);
+            int uniqueIndex = header.indexOf(configuration.getUniqueAttribute());
 
+            Set<String> replaced = new HashSet<String>();
+            boolean handling = true;
             String line;
             CsvItem item;
             int lineNumber = 1;
-            while ((line = reader.readLine()) != null) {
+            while (handling && (line = reader.readLine()) != null) {
                 lineNumber++;
                 if (isEmptyOrComment(line)) {
                     continue;
                 }
                 item = Utils.createCsvItem(header, line, lineNumber, linePattern, configuration);
+                String uid = item.getAttribute(uniqueIndex);
+                if (journalRecords.containsKey(uid)) {
+                    // record was changed or deleted after last compaction
+                    String journalLine = journalRecords.get(uid);
+                    if (!replaced.add(uid) || journalLine == null) {
+                        continue;
+                    }
+                    item = createJournalItem(header, journalLine);
+                }
+                if (query != null && !query.equals(uid)) {
+                    continue;
+                }
 
                 ConnectorObject object = createConnectorObject(header, item);
-                if (!handler.handle(object)) {
-                    break;
+                handling = handler.handle(object);
+            }
+
+            // records created after last compaction
+            Iterator<Entry<String, String>> iterator = journalRecords.entrySet().iterator();
+            while (handling && iterator.hasNext()) {
+                Entry<String, String> entry = iterator.next();
+                if (entry.getValue() == null || replaced.contains(entry.getKey())) {
+                    continue;
+                }
+                if (query != null && !query.equals(entry.getKey())) {
+                    continue;
                 }
+                handling = handler.handle(createConnectorObject(header, createJournalItem(header, entry.getValue())));
             }
         } catch (Exception ex) {
             handleGenericException(ex, "Can't execute query");
@@ -431,6 +513,7 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
                 configuration.getFilePath().getName() + "." + timestamp);
         LOCK.writeLock().lock();
         try {
+            compactJournal();
             copyAndReplace(configuration.getFilePath(), syncFile);
         } catch (Exception ex) {
             handleGenericException(ex, "Couldn't create file copy for sync");
@@ -486,6 +569,7 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
                 configuration.getFilePath().getName() + "." + timestamp + TMP_EXTENSION);
         LOCK.writeLock().lock();
         try {
+            compactJournal();
             copyAndReplace(configuration.getFilePath(), syncFile);
         } catch (Exception ex) {
             handleGenericException(ex, "Could not create file copy for sync");
@@ -496,25 +580,24 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
         File tokenSyncFile = new File(configuration.getFilePath().getParent(), configuration.getFilePath().getName()
                 + "." + tokenLongValue);
         log.info("Diff actual file {0} with last file based on token {1}.", syncFile.getName(), tokenSyncFile.getName());
-        InMemoryDiff memoryDiff = new InMemoryDiff(tokenSyncFile, syncFile, linePattern, configuration);
+        StreamingDiff diff = new StreamingDiff(tokenSyncFile, syncFile, linePattern, configuration);
         try {
-            List<Change> changes = memoryDiff.diff();
-            log.info("Found {0} differences.", changes.size());
-            if (changes.size() == 0) {
+            final SyncToken newToken = new SyncToken(Long.toString(timestamp));
+            final SyncResultsHandler syncHandler = handler;
+            int changes = diff.diff(new ChangeHandler() {
+
+                public boolean handle(Change change) {
+                    return syncHandler.handle(createSyncDelta(change, newToken));
+                }
+            });
+            log.info("Found {0} differences.", changes);
+            if (changes == 0) {
                 //this was only phantom change, nothing was really changed, delete sync file (new token not necessary)
                 log.info("Deleting file {0}.", syncFile.getName());
                 syncFile.delete();
                 return;
             }
 
-            SyncToken newToken = new SyncToken(Long.toString(timestamp));
-            for (Change change : changes) {
-                SyncDelta delta = createSyncDelta(change, newToken);
-                if (!handler.handle(delta)) {
-                    break;
-                }
-            }
-
             File newFile = new File(configuration.getFilePath().getParent(), configuration.getFilePath().getName() + "." + timestamp);
             log.info("Renaming file {0} to {1}.", syncFile.getName(), newFile.getName());
             syncFile.renameTo(newFile);
@@ -713,6 +796,335 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
         return file;
     }
 
+    /**
+     * Returns index of the csv file, the index is rebuilt if the file was modified since it was built.
+     * Must be called while holding the lock.
+     */
+    private RecordIndex getIndex() throws IOException {
+        String path = configuration.getFilePath().getAbsolutePath();
+        synchronized (INDEXES) {
+            RecordIndex index = INDEXES.get(path);
+            if (index == null || !index.isValid(configuration)) {
+                log.info("Building index for file {0}.", path);
+                index = RecordIndex.build(configuration, linePattern);
+                INDEXES.put(path, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Drops index of the csv file, lastModified has only second precision on some file systems so it
+     * can't be relied on to detect our own changes. Must be called while holding the write lock.
+     */
+    private void invalidateIndex() {
+        if (configuration.getFilePath() == null) {
+            return;
+        }
+        synchronized (INDEXES) {
+            INDEXES.remove(configuration.getFilePath().getAbsolutePath());
+        }
+    }
+
+    /**
+     * Journal of the csv file, opened and replayed on first use.
+     */
+    private Journal getJournal() throws IOException {
+        String path = configuration.getFilePath().getAbsolutePath();
+        synchronized (JOURNALS) {
+            if (!usingJournal) {
+                Integer users = JOURNAL_USERS.get(path);
+                JOURNAL_USERS.put(path, users == null ? 1 : users + 1);
+                usingJournal = true;
+            }
+            Journal journal = JOURNALS.get(path);
+            if (journal == null) {
+                journal = Journal.open(configuration.getFilePath());
+                JOURNALS.put(path, journal);
+            }
+            return journal;
+        }
+    }
+
+    /**
+     * Closes a journal which failed to write, it will be replayed from disk on next use.
+     */
+    private void discardJournal(Journal journal) {
+        synchronized (JOURNALS) {
+            String path = configuration.getFilePath().getAbsolutePath();
+            if (JOURNALS.get(path) == journal) {
+                JOURNALS.remove(path);
+            }
+        }
+        journal.close();
+    }
+
+    /**
+     * Closes the journal when the last connector instance using it is disposed. Doesn't take the lock, the
+     * connector may be disposed by a nested operation.
+     */
+    private void releaseJournal() {
+        synchronized (JOURNALS) {
+            if (!usingJournal) {
+                return;
+            }
+            usingJournal = false;
+            String path = configuration.getFilePath().getAbsolutePath();
+            Integer users = JOURNAL_USERS.get(path);
+            if (users != null && users > 1) {
+                JOURNAL_USERS.put(path, users - 1);
+                return;
+            }
+            JOURNAL_USERS.remove(path);
+            Journal journal = JOURNALS.remove(path);
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the records of a journal left on disk to the csv file when the journal is first used, so its records
+     * are neither ignored nor lost if the connector doesn't use the journal.
+     */
+    private void replayJournal() {
+        if (configuration.getFilePath() == null || !isJournalToReplay()) {
+            // don't take the write lock, the connector may be created by a nested operation
+            return;
+        }
+        LOCK.writeLock().lock();
+        try {
+            if (!isJournalToReplay()) {
+                return;
+            }
+            Journal journal = getJournal();
+            log.info("Replaying journal {0} with {1} entries.", journal.getFile().getName(), journal.size());
+            compactJournal(journal);
+        } catch (Exception ex) {
+            handleGenericException(ex, "Couldn't replay journal");
+        } finally {
+            if (!configuration.isUsingJournal()) {
+                releaseJournal();
+            }
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns true if the journal isn't open yet and its file isn't empty.
+     */
+    private boolean isJournalToReplay() {
+        synchronized (JOURNALS) {
+            return !JOURNALS.containsKey(configuration.getFilePath().getAbsolutePath())
+                    && new File(configuration.getFilePath().getPath() + Journal.EXTENSION).length() > 0;
+        }
+    }
+
+    private List<String> readCsvHeader() throws IOException {
+        BufferedReader reader = null;
+        try {
+            reader = createReader(configuration);
+            return readHeader(reader, linePattern, configuration);
+        } finally {
+            closeReader(reader, null);
+        }
+    }
+
+    private CsvItem createJournalItem(List<String> header, String line) {
+        return Utils.createCsvItem(header, line, 0, linePattern, configuration);
+    }
+
+    /**
+     * Finds record in journal or in the csv file. Must be called while holding the lock.
+     */
+    private CsvItem findCurrentRecord(Journal journal, List<String> header, String uid) throws IOException {
+        Map<String, String> records = journal.getRecords();
+        if (records.containsKey(uid)) {
+            String line = records.get(uid);
+            return line != null ? createJournalItem(header, line) : null;
+        }
+
+        if (configuration.isUsingIndex()) {
+            return getIndex().find(uid);
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = createReader(configuration);
+            readHeader(reader, linePattern, configuration);
+            return findAccount(reader, header, uid);
+        } finally {
+            closeReader(reader, null);
+        }
+    }
+
+    private Uid createJournaled(Uid uid, Set<Attribute> createAttributes) {
+        Journal journal = null;
+        long sequence = 0;
+        LOCK.writeLock().lock();
+        try {
+            journal = getJournal();
+            List<String> header = readCsvHeader();
+            if (findCurrentRecord(journal, header, uid.getUidValue()) != null) {
+                throw new AlreadyExistsException("Account already exists '" + uid.getUidValue() + "'.");
+            }
+
+            StringBuilder record = createRecord(header, createAttributes);
+            if (record.length() == 0) {
+                throw new ConnectorException("Can't insert empty record.");
+            }
+            sequence = journal.put(uid.getUidValue(), record.toString());
+        } catch (Exception ex) {
+            handleGenericException(ex, "Couldn't create account");
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+
+        commitJournal(journal, sequence, "Couldn't create account");
+        return uid;
+    }
+
+    private Uid doUpdateJournaled(Operation operation, Uid uid, Set<Attribute> attributes) {
+        Journal journal = null;
+        long sequence = 0;
+        LOCK.writeLock().lock();
+        try {
+            journal = getJournal();
+            List<String> header = readCsvHeader();
+            CsvItem item = findCurrentRecord(journal, header, uid.getUidValue());
+            if (item == null) {
+                throw new UnknownUidException("Uid '" + uid.getUidValue() + "' not found in file.");
+            }
+
+            if (Operation.DELETE == operation) {
+                sequence = journal.delete(uid.getUidValue());
+            } else {
+                String line = updateLine(operation, header, item, attributes);
+                Uid newUid = createConnectorObject(header, createJournalItem(header, line)).getUid();
+                if (!newUid.getUidValue().equals(uid.getUidValue())) {
+                    if (findCurrentRecord(journal, header, newUid.getUidValue()) != null) {
+                        throw new AlreadyExistsException("Account already exists '" + newUid.getUidValue() + "'.");
+                    }
+                    journal.delete(uid.getUidValue());
+                }
+                sequence = journal.put(newUid.getUidValue(), line);
+                uid = newUid;
+            }
+        } catch (Exception ex) {
+            handleGenericException(ex, "Couldn't do " + operation + " on account '" + uid.getUidValue() + "'");
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+
+        commitJournal(journal, sequence, "Couldn't do " + operation + " on account '" + uid.getUidValue() + "'");
+        return uid;
+    }
+
+    /**
+     * Waits for the journal entry to be written outside of the lock, so entries of concurrent writers are written
+     * together, and compacts the journal when it's big enough.
+     */
+    private void commitJournal(Journal journal, long sequence, String message) {
+        try {
+            journal.sync(sequence);
+        } catch (Exception ex) {
+            discardJournal(journal);
+            handleGenericException(ex, message);
+        }
+
+        if (journal.size() < configuration.getJournalCompactionThreshold()) {
+            return;
+        }
+        LOCK.writeLock().lock();
+        try {
+            compactJournal();
+        } catch (Exception ex) {
+            handleGenericException(ex, "Couldn't compact journal");
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes records from the journal to the csv file and empties the journal. Must be called while holding the
+     * write lock.
+     */
+    private void compactJournal() throws IOException {
+        if (!configuration.isUsingJournal()) {
+            return;
+        }
+        compactJournal(getJournal());
+    }
+
+    private void compactJournal(Journal journal) throws IOException {
+        if (journal.size() == 0) {
+            return;
+        }
+        journal.flush();
+        log.info("Compacting journal {0} with {1} entries.", journal.getFile().getName(), journal.size());
+
+        Map<String, String> records = journal.getRecords();
+        Set<String> written = new HashSet<String>();
+        BufferedReader reader = null;
+        BufferedWriter writer = null;
+        FileOutputStream fos = null;
+        File tmpFile = createTempFile();
+        try {
+            reader = createReader(configuration);
+            fos = new FileOutputStream(tmpFile);
+            writer = new BufferedWriter(new OutputStreamWriter(fos, configuration.getEncoding()));
+            List<String> header = readHeader(reader, writer, linePattern, configuration);
+            int uniqueIndex = header.indexOf(configuration.getUniqueAttribute());
+
+            String line;
+            int lineNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (!isEmptyOrComment(line)) {
+                    String uid = Utils.createCsvItem(header, line, lineNumber, linePattern, configuration)
+                            .getAttribute(uniqueIndex);
+                    if (records.containsKey(uid)) {
+                        line = records.get(uid);
+                        if (!written.add(uid) || line == null) {
+                            continue;
+                        }
+                    }
+                }
+                writer.write(line);
+                writer.write('\n');
+            }
+            for (Entry<String, String> entry : records.entrySet()) {
+                if (entry.getValue() != null && !written.contains(entry.getKey())) {
+                    writer.write(entry.getValue());
+                    writer.write('\n');
+                }
+            }
+            writer.flush();
+            fos.getFD().sync();
+
+            closeReader(reader, null);
+            closeWriter(writer, null);
+            reader = null;
+            writer = null;
+
+            if (configuration.getFilePath().delete()) {
+                tmpFile.renameTo(configuration.getFilePath());
+            } else {
+                throw new ConnectorIOException("Couldn't delete old file '" + configuration.getFilePath().getAbsolutePath()
+                        + "' and replace it by new file '" + tmpFile.getAbsolutePath() + "'.");
+            }
+            // replaying the journal over the new file wouldn't change it, so a crash before this point is harmless
+            journal.clear();
+        } finally {
+            closeReader(reader, null);
+            closeWriter(writer, null);
+            if (tmpFile.exists()) {
+                tmpFile.delete();
+            }
+            invalidateIndex();
+        }
+    }
+
     private CsvItem findAccount(BufferedReader reader, List<String> header, String username) throws IOException {
         int lineNumber = 1;
         String line;
@@ -868,10 +1280,20 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
         BufferedReader reader = null;
         LOCK.readLock().lock();
         try {
-            reader = createReader(configuration);
-            List<String> header = readHeader(reader, linePattern, configuration);
-
-            CsvItem account = findAccount(reader, header, username);
+            List<String> header;
+            CsvItem account;
+            if (configuration.isUsingJournal()) {
+                header = readCsvHeader();
+                account = findCurrentRecord(getJournal(), header, username);
+            } else if (configuration.isUsingIndex()) {
+                RecordIndex index = getIndex();
+                header = index.getHeader();
+                account = index.find(username);
+            } else {
+                reader = createReader(configuration);
+                header = readHeader(reader, linePattern, configuration);
+                account = findAccount(reader, header, username);
+            }
             if (account == null) {
                 String message;
                 if (testPassword) {
@@ -926,6 +1348,12 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
             throw new IllegalArgumentException("Attribute set can't be null.");
         }
 
+        if (configuration.isUsingJournal()) {
+            uid = doUpdateJournaled(operation, uid, attributes);
+            log.ok("doUpdate::end");
+            return uid;
+        }
+
         BufferedReader reader = null;
         BufferedWriter writer = null;
         LOCK.writeLock().lock();
@@ -965,6 +1393,7 @@ public class CSVFileConnector implements Connector, AuthenticateOp, ResolveUsern
             } catch (Exception ex) {
                 //only try to cleanup tmp file, it will be replaced later, if exists
             }
+            invalidateIndex();
             LOCK.writeLock().unlock();
         }
 
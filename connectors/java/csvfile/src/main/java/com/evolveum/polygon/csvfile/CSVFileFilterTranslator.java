@@ -0,0 +1,81 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package com.evolveum.polygon.csvfile;
+
+import java.util.List;
+
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.AbstractFilterTranslator;
+import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+
+/**
+ * Translates equality on the unique attribute to a query holding the unique
+ * attribute value. All other filters are left to the framework.
+ *
+ * @author $author$
+ * @since 1.4
+ */
+class CSVFileFilterTranslator extends AbstractFilterTranslator<String> {
+
+    private final CSVFileConfiguration configuration;
+
+    CSVFileFilterTranslator(CSVFileConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Override
+    protected String createEqualsExpression(EqualsFilter filter, boolean not) {
+        if (not) {
+            return null;
+        }
+
+        Attribute attribute = filter.getAttribute();
+        if (!isUniqueAttribute(attribute.getName())) {
+            return null;
+        }
+        List<Object> values = attribute.getValue();
+        if (values == null || values.size() != 1 || values.get(0) == null) {
+            return null;
+        }
+
+        return values.get(0).toString();
+    }
+
+    @Override
+    protected String createAndExpression(String leftExpression, String rightExpression) {
+        // both sides match a single record, results are filtered by the framework
+        return leftExpression;
+    }
+
+    private boolean isUniqueAttribute(String name) {
+        if (Uid.NAME.equals(name) || name.equals(configuration.getUniqueAttribute())) {
+            return true;
+        }
+
+        return Name.NAME.equals(name) && configuration.isUniqueAndNameAttributeEqual();
+    }
+}
@@ -0,0 +1,594 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package com.evolveum.polygon.csvfile.sync;
+
+import static com.evolveum.polygon.csvfile.util.Utils.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+
+import com.evolveum.polygon.csvfile.CSVFileConfiguration;
+import com.evolveum.polygon.csvfile.util.CSVSchemaException;
+import com.evolveum.polygon.csvfile.util.CsvItem;
+import com.evolveum.polygon.csvfile.util.Utils;
+
+/**
+ * Computes the same changes as {@link InMemoryDiff} in bounded memory.
+ * <p/>
+ * Both files are sorted by the unique attribute using an external merge sort
+ * with sorted runs stored next to the csv file, the sorted streams are then
+ * compared in a single pass and every change is passed to the
+ * {@link ChangeHandler} as soon as it is found. Each record carries a hash of
+ * its values, so records with different values are detected without parsing
+ * them again.
+ *
+ * @author $author$
+ * @since 1.4
+ */
+public class StreamingDiff {
+
+    private static final Log log = Log.getLog(StreamingDiff.class);
+
+    /**
+     * Number of characters of records kept in memory while sorting.
+     */
+    public static final int DEFAULT_MAX_CHARS_IN_MEMORY = 4 * 1024 * 1024;
+
+    /**
+     * Maximum number of sorted runs merged at once.
+     */
+    static final int MAX_MERGE_FAN_IN = 64;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Same order as {@link CsvItemComparator}, records with equal unique
+     * attribute are kept in file order so that the first one wins.
+     */
+    private static final Comparator<Record> RECORD_ORDER = new Comparator<Record>() {
+
+        @Override
+        public int compare(Record r1, Record r2) {
+            int compare = String.CASE_INSENSITIVE_ORDER.compare(r1.uid, r2.uid);
+            if (compare != 0) {
+                return compare;
+            }
+            return r1.lineNumber < r2.lineNumber ? -1 : (r1.lineNumber == r2.lineNumber ? 0 : 1);
+        }
+    };
+
+    private final CSVFileConfiguration configuration;
+    private final Pattern linePattern;
+    private final File oldFile;
+    private final File newFile;
+    private final int maxCharsInMemory;
+
+    private final List<File> runFiles = new ArrayList<File>();
+
+    public StreamingDiff(File oldFile, File newFile, Pattern linePattern, CSVFileConfiguration configuration) {
+        this(oldFile, newFile, linePattern, configuration, DEFAULT_MAX_CHARS_IN_MEMORY);
+    }
+
+    public StreamingDiff(File oldFile, File newFile, Pattern linePattern, CSVFileConfiguration configuration,
+                         int maxCharsInMemory) {
+        notNullArgument(newFile, "newFile");
+        notNullArgument(linePattern, "linePattern");
+        notNullArgument(configuration, "configuration");
+        if (maxCharsInMemory <= 0) {
+            throw new IllegalArgumentException("Argument 'maxCharsInMemory' must be positive.");
+        }
+
+        this.oldFile = oldFile;
+        this.newFile = newFile;
+        this.configuration = configuration;
+        this.linePattern = linePattern;
+        this.maxCharsInMemory = maxCharsInMemory;
+    }
+
+    /**
+     * Computes the diff and passes changes to the handler.
+     *
+     * @param handler receives changes, sorted by unique attribute
+     * @return number of changes passed to the handler
+     */
+    public int diff(ChangeHandler handler) {
+        notNullArgument(handler, "handler");
+        log.info("Computing streaming diff from old {0} ({1}) and new {2} ({3}).",
+                (oldFile != null ? oldFile.getName() : "null"), (oldFile != null ? oldFile.length() : 0),
+                newFile.getName(), newFile.length());
+
+        RecordIterator newRecords = null;
+        RecordIterator oldRecords = null;
+        try {
+            List<String> headers = readHeaders(newFile);
+            if (oldFile != null) {
+                List<String> oldHeaders = readHeaders(oldFile);
+                if (!Arrays.equals(headers.toArray(), oldHeaders.toArray())) {
+                    throw new CSVSchemaException("Headers in files '" + newFile.getPath()
+                            + "' and '" + oldFile.getPath() + "' doesn't match.");
+                }
+            }
+            int uidIndex = headers.indexOf(configuration.getUniqueAttribute());
+
+            newRecords = sort(newFile, headers, uidIndex);
+            if (oldFile != null) {
+                oldRecords = sort(oldFile, headers, uidIndex);
+            } else {
+                oldRecords = new ListIterator(Collections.<Record>emptyList());
+            }
+
+            return compare(headers, newRecords, oldRecords, handler);
+        } catch (IOException ex) {
+            throw new ConnectorIOException(ex.getMessage(), ex);
+        } finally {
+            close(newRecords);
+            close(oldRecords);
+            for (File file : runFiles) {
+                if (file.exists() && !file.delete()) {
+                    log.warn("Couldn't delete temporary file {0}.", file.getAbsolutePath());
+                }
+            }
+            runFiles.clear();
+        }
+    }
+
+    private int compare(List<String> headers, RecordIterator newRecords, RecordIterator oldRecords,
+                        ChangeHandler handler) throws IOException {
+        int count = 0;
+        Record newRecord = newRecords.next();
+        Record oldRecord = oldRecords.next();
+        while (newRecord != null || oldRecord != null) {
+            Change change = null;
+            int compare;
+            if (newRecord == null) {
+                compare = 1;
+            } else if (oldRecord == null) {
+                compare = -1;
+            } else {
+                compare = String.CASE_INSENSITIVE_ORDER.compare(newRecord.uid, oldRecord.uid);
+            }
+
+            if (compare < 0) {
+                change = createChange(newRecord, Change.Type.CREATE, headers);
+                newRecord = newRecords.next();
+            } else if (compare > 0) {
+                change = createChange(oldRecord, Change.Type.DELETE, headers);
+                oldRecord = oldRecords.next();
+            } else {
+                if (!isEqual(newRecord, oldRecord)) {
+                    change = createChange(newRecord, Change.Type.MODIFY, headers);
+                }
+                newRecord = newRecords.next();
+                oldRecord = oldRecords.next();
+            }
+
+            if (change != null) {
+                count++;
+                if (!handler.handle(change)) {
+                    break;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private boolean isEqual(Record newRecord, Record oldRecord) {
+        if (newRecord.hash != oldRecord.hash) {
+            return false;
+        }
+        if (newRecord.line.equals(oldRecord.line)) {
+            return true;
+        }
+        // same hash but the lines differ, e.g. in qualifiers or whitespace
+        return parse(newRecord).equals(parse(oldRecord));
+    }
+
+    private Change createChange(Record record, Change.Type type, List<String> headers) {
+        return new Change(record.uid, type, headers, parse(record));
+    }
+
+    private List<String> parse(Record record) {
+        return Utils.parseValues(record.line, linePattern, configuration);
+    }
+
+    private List<String> readHeaders(File file) throws IOException {
+        BufferedReader reader = null;
+        try {
+            reader = createReader(file, configuration);
+            List<String> headers = readHeader(reader, linePattern, configuration);
+            int index = headers.indexOf(configuration.getUniqueAttribute());
+            if (index < 0) {
+                throw new CSVSchemaException("Header in '" + file.getAbsolutePath()
+                        + "' doesn't contain unique attribute '" + configuration.getUniqueAttribute()
+                        + "' as defined in configuration.");
+            }
+            return headers;
+        } finally {
+            closeReader(reader, null);
+        }
+    }
+
+    /**
+     * Reads the file in chunks, sorts them in memory and merges them back.
+     * Records with the same unique attribute are removed, the first one in
+     * the file is kept.
+     */
+    private RecordIterator sort(File file, List<String> headers, int uidIndex) throws IOException {
+        List<File> runs = new ArrayList<File>();
+        List<Record> chunk = new ArrayList<Record>();
+        long chunkChars = 0;
+
+        BufferedReader reader = null;
+        try {
+            reader = createReader(file, configuration);
+            readHeader(reader, linePattern, configuration);
+
+            String line;
+            int lineNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (isEmptyOrComment(line)) {
+                    continue;
+                }
+
+                CsvItem item = Utils.createCsvItem(headers, line, lineNumber, linePattern, configuration);
+                chunk.add(new Record(item.getAttribute(uidIndex), hash(item.getAttributes()), lineNumber, line));
+                chunkChars += line.length();
+                if (chunkChars >= maxCharsInMemory) {
+                    runs.add(writeRun(chunk));
+                    chunk.clear();
+                    chunkChars = 0;
+                }
+            }
+        } finally {
+            closeReader(reader, null);
+        }
+
+        if (runs.isEmpty()) {
+            Collections.sort(chunk, RECORD_ORDER);
+            return new DistinctIterator(new ListIterator(chunk));
+        }
+        if (!chunk.isEmpty()) {
+            runs.add(writeRun(chunk));
+            chunk.clear();
+        }
+
+        while (runs.size() > MAX_MERGE_FAN_IN) {
+            List<File> merged = new ArrayList<File>();
+            for (int i = 0; i < runs.size(); i += MAX_MERGE_FAN_IN) {
+                List<File> group = runs.subList(i, Math.min(i + MAX_MERGE_FAN_IN, runs.size()));
+                merged.add(mergeRuns(group));
+            }
+            runs = merged;
+        }
+        log.ok("File {0} sorted using {1} runs.", file.getName(), runs.size());
+
+        return new DistinctIterator(openRuns(runs));
+    }
+
+    private File writeRun(List<Record> records) throws IOException {
+        Collections.sort(records, RECORD_ORDER);
+
+        File run = createRunFile();
+        RunWriter writer = new RunWriter(run);
+        try {
+            for (Record record : records) {
+                writer.write(record);
+            }
+        } finally {
+            writer.close();
+        }
+        return run;
+    }
+
+    private File mergeRuns(List<File> runs) throws IOException {
+        File run = createRunFile();
+        RecordIterator iterator = openRuns(runs);
+        RunWriter writer = null;
+        try {
+            writer = new RunWriter(run);
+            Record record;
+            while ((record = iterator.next()) != null) {
+                writer.write(record);
+            }
+        } finally {
+            close(iterator);
+            if (writer != null) {
+                writer.close();
+            }
+        }
+
+        for (File file : runs) {
+            file.delete();
+        }
+        return run;
+    }
+
+    private RecordIterator openRuns(List<File> runs) throws IOException {
+        List<RecordIterator> iterators = new ArrayList<RecordIterator>(runs.size());
+        try {
+            for (File run : runs) {
+                iterators.add(new RunIterator(run));
+            }
+            return new MergeIterator(iterators);
+        } catch (IOException ex) {
+            for (RecordIterator iterator : iterators) {
+                close(iterator);
+            }
+            throw ex;
+        }
+    }
+
+    private File createRunFile() throws IOException {
+        File run = File.createTempFile(newFile.getName() + ".", ".run", newFile.getAbsoluteFile().getParentFile());
+        runFiles.add(run);
+        return run;
+    }
+
+    private static long hash(List<String> values) {
+        long hash = FNV_OFFSET_BASIS;
+        for (String value : values) {
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= FNV_PRIME;
+            }
+            // value separator, so that ("ab", "c") and ("a", "bc") differ
+            hash ^= 0xffff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static void close(RecordIterator iterator) {
+        if (iterator == null) {
+            return;
+        }
+        try {
+            iterator.close();
+        } catch (IOException ex) {
+            log.warn(ex, "Couldn't close sorted records.");
+        }
+    }
+
+    private static final class Record {
+
+        final String uid;
+        final long hash;
+        final int lineNumber;
+        final String line;
+
+        Record(String uid, long hash, int lineNumber, String line) {
+            this.uid = uid;
+            this.hash = hash;
+            this.lineNumber = lineNumber;
+            this.line = line;
+        }
+    }
+
+    private interface RecordIterator {
+
+        /**
+         * @return next record or null if there are no more records
+         */
+        Record next() throws IOException;
+
+        void close() throws IOException;
+    }
+
+    private static final class ListIterator implements RecordIterator {
+
+        private final List<Record> records;
+        private int index = 0;
+
+        ListIterator(List<Record> records) {
+            this.records = records;
+        }
+
+        @Override
+        public Record next() {
+            return index < records.size() ? records.get(index++) : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class DistinctIterator implements RecordIterator {
+
+        private final RecordIterator iterator;
+        private Record last;
+
+        DistinctIterator(RecordIterator iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public Record next() throws IOException {
+            Record record;
+            do {
+                record = iterator.next();
+            } while (record != null && last != null
+                    && String.CASE_INSENSITIVE_ORDER.compare(record.uid, last.uid) == 0);
+            if (record != null) {
+                last = record;
+            }
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            iterator.close();
+        }
+    }
+
+    private static final class MergeIterator implements RecordIterator {
+
+        private final List<RecordIterator> iterators;
+        private final PriorityQueue<Head> heads;
+
+        MergeIterator(List<RecordIterator> iterators) throws IOException {
+            this.iterators = iterators;
+            this.heads = new PriorityQueue<Head>(Math.max(1, iterators.size()), new Comparator<Head>() {
+
+                @Override
+                public int compare(Head h1, Head h2) {
+                    return RECORD_ORDER.compare(h1.record, h2.record);
+                }
+            });
+            for (RecordIterator iterator : iterators) {
+                Record record = iterator.next();
+                if (record != null) {
+                    heads.add(new Head(record, iterator));
+                }
+            }
+        }
+
+        @Override
+        public Record next() throws IOException {
+            Head head = heads.poll();
+            if (head == null) {
+                return null;
+            }
+            Record record = head.record;
+            head.record = head.iterator.next();
+            if (head.record != null) {
+                heads.add(head);
+            }
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException first = null;
+            for (RecordIterator iterator : iterators) {
+                try {
+                    iterator.close();
+                } catch (IOException ex) {
+                    if (first == null) {
+                        first = ex;
+                    }
+                }
+            }
+            if (first != null) {
+                throw first;
+            }
+        }
+
+        private static final class Head {
+
+            Record record;
+            final RecordIterator iterator;
+
+            Head(Record record, RecordIterator iterator) {
+                this.record = record;
+                this.iterator = iterator;
+            }
+        }
+    }
+
+    private static final class RunWriter {
+
+        private final DataOutputStream out;
+
+        RunWriter(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        }
+
+        void write(Record record) throws IOException {
+            writeString(record.uid);
+            out.writeLong(record.hash);
+            out.writeInt(record.lineNumber);
+            writeString(record.line);
+        }
+
+        // writeUTF() is limited to 64k bytes
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class RunIterator implements RecordIterator {
+
+        private final DataInputStream in;
+
+        RunIterator(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        }
+
+        @Override
+        public Record next() throws IOException {
+            String uid;
+            try {
+                uid = readString();
+            } catch (EOFException ex) {
+                return null;
+            }
+            long hash = in.readLong();
+            int lineNumber = in.readInt();
+            return new Record(uid, hash, lineNumber, readString());
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, UTF8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
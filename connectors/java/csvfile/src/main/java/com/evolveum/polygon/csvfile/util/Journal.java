@@ -0,0 +1,320 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package com.evolveum.polygon.csvfile.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+
+/**
+ * Append only log of records created, updated or deleted since the csv file
+ * was last compacted.
+ * <p/>
+ * Changes are visible in {@link #getRecords()} as soon as they are appended,
+ * {@link #sync(long)} blocks until they are written and forced to disk.
+ * Appends of concurrent callers are written and forced together, the first
+ * caller that finds no write in progress writes all pending entries.
+ * <p/>
+ * Each entry is one UTF-8 line, {@code P<length>:<uid><record>} for a created
+ * or updated record and {@code D<length>:<uid>} for a deleted one. An
+ * incomplete last line left by a crash is dropped when the journal is opened.
+ * Callers must serialize appends with changes to the csv file.
+ *
+ * @author $author$
+ * @since 1.4
+ */
+public class Journal {
+
+    private static final Log log = Log.getLog(Journal.class);
+
+    public static final String EXTENSION = ".journal";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final char PUT = 'P';
+    private static final char DELETE = 'D';
+
+    private final File file;
+    private final FileChannel channel;
+
+    /**
+     * Current record line by uid, null value marks deleted record.
+     */
+    private final Map<String, String> records = new LinkedHashMap<String, String>();
+
+    private List<String> pending = new ArrayList<String>();
+    private long appended;
+    private long durable;
+    private boolean writing;
+    private IOException failure;
+    private int size;
+
+    private Journal(File file) throws IOException {
+        this.file = file;
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    /**
+     * Opens journal of the csv file and replays its entries, creates an empty
+     * one if it doesn't exist.
+     *
+     * @param csvFile the csv file
+     * @return the journal
+     * @throws IOException if journal can't be read
+     */
+    public static Journal open(File csvFile) throws IOException {
+        Journal journal = new Journal(new File(csvFile.getPath() + EXTENSION));
+        try {
+            journal.replay();
+        } catch (IOException ex) {
+            journal.close();
+            throw ex;
+        } catch (RuntimeException ex) {
+            journal.close();
+            throw ex;
+        }
+        return journal;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Records changed since the last compaction, deleted records have null
+     * value. Must not be modified by callers.
+     */
+    public Map<String, String> getRecords() {
+        return Collections.unmodifiableMap(records);
+    }
+
+    /**
+     * @return number of entries since the last compaction
+     */
+    public int size() {
+        return size;
+    }
+
+    public long put(String uid, String line) {
+        long sequence = append(PUT, uid, line);
+        records.put(uid, line);
+        return sequence;
+    }
+
+    public long delete(String uid) {
+        long sequence = append(DELETE, uid, "");
+        records.put(uid, null);
+        return sequence;
+    }
+
+    /**
+     * Waits until entry with the given sequence number is forced to disk.
+     *
+     * @param sequence value returned by {@link #put(String, String)} or
+     *                 {@link #delete(String)}
+     */
+    public void sync(long sequence) throws IOException {
+        List<String> batch;
+        long batchEnd;
+        synchronized (this) {
+            while (true) {
+                checkFailure();
+                if (durable >= sequence) {
+                    return;
+                }
+                if (!writing) {
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new ConnectorIOException("Interrupted while waiting for journal " + file + " write.", ex);
+                }
+            }
+            writing = true;
+            batch = pending;
+            batchEnd = appended;
+            pending = new ArrayList<String>();
+        }
+
+        IOException error = null;
+        try {
+            write(batch);
+        } catch (IOException ex) {
+            error = ex;
+        }
+
+        synchronized (this) {
+            writing = false;
+            if (error != null) {
+                failure = error;
+            } else {
+                durable = batchEnd;
+            }
+            notifyAll();
+            checkFailure();
+        }
+        log.ok("Journal {0}, {1} entries written.", file.getName(), batch.size());
+    }
+
+    /**
+     * Waits until all appended entries are forced to disk.
+     */
+    public void flush() throws IOException {
+        long sequence;
+        synchronized (this) {
+            sequence = appended;
+        }
+        sync(sequence);
+    }
+
+    /**
+     * Empties the journal, called after its records were written to the csv
+     * file.
+     */
+    public synchronized void clear() throws IOException {
+        checkFailure();
+        while (writing) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ConnectorIOException("Interrupted while waiting for journal " + file + " write.", ex);
+            }
+        }
+        channel.truncate(0);
+        channel.force(true);
+        records.clear();
+        pending.clear();
+        durable = appended;
+        size = 0;
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            log.warn(ex, "Couldn't close journal {0}.", file);
+        }
+    }
+
+    private synchronized long append(char type, String uid, String line) {
+        StringBuilder entry = new StringBuilder(uid.length() + line.length() + 8);
+        entry.append(type).append(uid.length()).append(':').append(uid).append(line);
+        pending.add(entry.toString());
+        size++;
+        return ++appended;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Journal " + file + " is broken, reason: " + failure.getMessage(), failure);
+        }
+    }
+
+    private void write(List<String> batch) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String entry : batch) {
+            out.write(entry.getBytes(UTF8));
+            out.write('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+        long position = channel.size();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.force(false);
+    }
+
+    private void replay() throws IOException {
+        long length = channel.size();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Journal " + file + " is too big (" + length + " bytes).");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        byte[] bytes = buffer.array();
+
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            replay(new String(bytes, start, i - start, UTF8));
+            start = i + 1;
+        }
+        if (start < bytes.length) {
+            log.warn("Dropping incomplete last entry of journal {0}.", file);
+            channel.truncate(start);
+            channel.force(true);
+        }
+        log.info("Journal {0} opened with {1} entries.", file, size);
+    }
+
+    private void replay(String entry) throws IOException {
+        int colon = entry.indexOf(':');
+        if (colon < 2) {
+            throw new IOException("Invalid entry in journal " + file + ": " + entry);
+        }
+        int uidLength;
+        try {
+            uidLength = Integer.parseInt(entry.substring(1, colon));
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid entry in journal " + file + ": " + entry, ex);
+        }
+        if (colon + 1 + uidLength > entry.length()) {
+            throw new IOException("Invalid entry in journal " + file + ": " + entry);
+        }
+        String uid = entry.substring(colon + 1, colon + 1 + uidLength);
+        switch (entry.charAt(0)) {
+            case PUT:
+                records.put(uid, entry.substring(colon + 1 + uidLength));
+                break;
+            case DELETE:
+                records.put(uid, null);
+                break;
+            default:
+                throw new IOException("Invalid entry in journal " + file + ": " + entry);
+        }
+        size++;
+    }
+}
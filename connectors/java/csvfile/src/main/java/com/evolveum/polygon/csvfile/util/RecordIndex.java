@@ -0,0 +1,344 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package com.evolveum.polygon.csvfile.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConfigurationException;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+import com.evolveum.polygon.csvfile.CSVFileConfiguration;
+
+/**
+ * Maps values of the unique attribute to the byte offset of their record in
+ * the csv file, so a single record can be read without scanning the file.
+ * <p/>
+ * Only hash codes and offsets are kept in memory, every candidate record is
+ * read back and compared with the requested value. The index is bound to the
+ * size and last modification time of the file it was built from, use
+ * {@link #isValid(CSVFileConfiguration)} before each lookup.
+ *
+ * @author $author$
+ * @since 1.4
+ */
+public class RecordIndex {
+
+    private static final Log log = Log.getLog(RecordIndex.class);
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    private final File file;
+    private final long lastModified;
+    private final long length;
+    private final String signature;
+    private final Charset charset;
+    private final Pattern linePattern;
+    private final CSVFileConfiguration configuration;
+
+    private List<String> header;
+    private int uniqueIndex;
+
+    private int[] hashes;
+    private long[] offsets;
+    private int size;
+
+    private RecordIndex(CSVFileConfiguration configuration, Pattern linePattern) {
+        this.configuration = configuration;
+        this.linePattern = linePattern;
+        this.file = configuration.getFilePath();
+        this.lastModified = file.lastModified();
+        this.length = file.length();
+        this.signature = createSignature(configuration);
+        this.charset = Charset.forName(configuration.getEncoding());
+        this.hashes = new int[16];
+        this.offsets = new long[16];
+        Arrays.fill(offsets, -1);
+    }
+
+    /**
+     * Checks whether records in the given encoding can be located by byte
+     * offset, i.e. a line feed is always encoded as a single byte.
+     *
+     * @param encoding name of the charset
+     * @return true if the index can be used with this encoding
+     */
+    public static boolean isSupported(String encoding) {
+        if (StringUtil.isEmpty(encoding) || !Charset.isSupported(encoding)) {
+            return false;
+        }
+        byte[] lineFeed = "\n".getBytes(Charset.forName(encoding));
+        return lineFeed.length == 1 && lineFeed[0] == '\n';
+    }
+
+    /**
+     * Reads the whole csv file and builds a new index for it.
+     *
+     * @param configuration connector configuration
+     * @param linePattern   pattern used to parse records
+     * @return the index
+     * @throws IOException if the file can't be read
+     */
+    public static RecordIndex build(CSVFileConfiguration configuration, Pattern linePattern) throws IOException {
+        if (!isSupported(configuration.getEncoding())) {
+            throw new ConfigurationException("Index can't be used with encoding '"
+                    + configuration.getEncoding() + "'.");
+        }
+
+        RecordIndex index = new RecordIndex(configuration, linePattern);
+        long start = System.currentTimeMillis();
+        index.load();
+        log.ok("Index for file {0} with {1} records built in {2} ms.", index.file, index.size,
+                System.currentTimeMillis() - start);
+        return index;
+    }
+
+    /**
+     * Index is valid as long as the file and the parsing related configuration
+     * didn't change since it was built.
+     */
+    public boolean isValid(CSVFileConfiguration configuration) {
+        return file.equals(configuration.getFilePath())
+                && signature.equals(createSignature(configuration))
+                && lastModified == file.lastModified()
+                && length == file.length();
+    }
+
+    public List<String> getHeader() {
+        return header;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Reads the record with the given unique attribute value.
+     *
+     * @param uid value of the unique attribute
+     * @return the record or null if there is none
+     * @throws IOException if the file can't be read
+     */
+    public CsvItem find(String uid) throws IOException {
+        if (uid == null || size == 0) {
+            return null;
+        }
+
+        int hash = uid.hashCode();
+        int mask = offsets.length - 1;
+        RandomAccessFile raf = null;
+        try {
+            for (int slot = spread(hash) & mask; offsets[slot] != -1; slot = (slot + 1) & mask) {
+                if (hashes[slot] != hash) {
+                    continue;
+                }
+                if (raf == null) {
+                    raf = new RandomAccessFile(file, "r");
+                }
+                String line = readLine(raf.getChannel(), offsets[slot]);
+                if (line == null) {
+                    continue;
+                }
+                List<String> values = Utils.parseValues(line, linePattern, configuration);
+                if (values.size() == header.size() && uid.equals(values.get(uniqueIndex))) {
+                    return new CsvItem(values);
+                }
+            }
+        } finally {
+            if (raf != null) {
+                raf.close();
+            }
+        }
+
+        return null;
+    }
+
+    private void load() throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            byte[] line = new byte[256];
+            int lineLength = 0;
+            long lineStart = 0;
+            long position = 0;
+            int lineNumber = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    position++;
+                    if (b != '\n') {
+                        if (lineLength == line.length) {
+                            line = Arrays.copyOf(line, lineLength * 2);
+                        }
+                        line[lineLength++] = b;
+                        continue;
+                    }
+
+                    lineNumber++;
+                    addLine(decode(line, lineLength), lineNumber, lineStart);
+                    lineStart = position;
+                    lineLength = 0;
+                }
+            }
+            if (lineLength > 0) {
+                lineNumber++;
+                addLine(decode(line, lineLength), lineNumber, lineStart);
+            }
+        } finally {
+            in.close();
+        }
+
+        if (header == null) {
+            throw new ConnectorException("Csv file '" + file + "' doesn't contain header.");
+        }
+    }
+
+    private void addLine(String line, int lineNumber, long offset) {
+        if (Utils.isEmptyOrComment(line)) {
+            return;
+        }
+        if (header == null) {
+            header = Utils.parseValues(line, linePattern, configuration);
+            uniqueIndex = header.indexOf(configuration.getUniqueAttribute());
+            if (uniqueIndex == -1) {
+                throw new ConfigurationException("Header in csv file doesn't contain "
+                        + "unique attribute name as defined in configuration.");
+            }
+            return;
+        }
+
+        CsvItem item = Utils.createCsvItem(header, line, lineNumber, linePattern, configuration);
+        String uid = item.getAttribute(uniqueIndex);
+        if (StringUtil.isEmpty(uid)) {
+            return;
+        }
+        put(uid.hashCode(), offset);
+    }
+
+    private void put(int hash, long offset) {
+        if (size + 1 > offsets.length * LOAD_FACTOR) {
+            resize(offsets.length * 2);
+        }
+        int mask = offsets.length - 1;
+        int slot = spread(hash) & mask;
+        while (offsets[slot] != -1) {
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        offsets[slot] = offset;
+        size++;
+    }
+
+    private void resize(int capacity) {
+        int[] oldHashes = hashes;
+        long[] oldOffsets = offsets;
+        hashes = new int[capacity];
+        offsets = new long[capacity];
+        Arrays.fill(offsets, -1);
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldOffsets.length; i++) {
+            if (oldOffsets[i] == -1) {
+                continue;
+            }
+            int slot = spread(oldHashes[i]) & mask;
+            while (offsets[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = oldHashes[i];
+            offsets[slot] = oldOffsets[i];
+        }
+    }
+
+    private String readLine(FileChannel channel, long offset) throws IOException {
+        if (offset >= channel.size()) {
+            return null;
+        }
+
+        byte[] line = new byte[READ_BUFFER_SIZE];
+        int lineLength = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        long position = offset;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            position += read;
+
+            int end = 0;
+            while (end < read && buffer.get(end) != '\n') {
+                end++;
+            }
+            if (lineLength + end > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + end));
+            }
+            buffer.position(0);
+            buffer.get(line, lineLength, end);
+            lineLength += end;
+            if (end < read) {
+                break;
+            }
+        }
+
+        return decode(line, lineLength);
+    }
+
+    private String decode(byte[] line, int lineLength) {
+        // same as BufferedReader.readLine(), which drops the carriage return
+        if (lineLength > 0 && line[lineLength - 1] == '\r') {
+            lineLength--;
+        }
+        return new String(line, 0, lineLength, charset);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static String createSignature(CSVFileConfiguration configuration) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(configuration.getUniqueAttribute()).append('\n');
+        builder.append(configuration.getEncoding()).append('\n');
+        builder.append(configuration.getFieldDelimiter()).append('\n');
+        builder.append(configuration.getValueQualifier());
+        return builder.toString();
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package com.evolveum.polygon.csvfile;
+
+import static org.testng.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.testng.annotations.Test;
+
+import com.evolveum.polygon.csvfile.util.Journal;
+import com.evolveum.polygon.csvfile.util.TestUtils;
+import com.evolveum.polygon.csvfile.util.Utils;
+
+/**
+ * @author $author$
+ */
+public class JournalOpTest extends AbstractCsvTest {
+
+    private static final Log LOG = Log.getLog(JournalOpTest.class);
+
+    private File file;
+    private File backup;
+    private final List<CSVFileConnector> connectors = new ArrayList<CSVFileConnector>();
+
+    public JournalOpTest() {
+        super(LOG);
+    }
+
+    @Override
+    public void customBeforeMethod(Method method) throws Exception {
+        backup = TestUtils.getTestFile("update-backup.csv");
+        // journals are shared by file path, every test needs its own file
+        file = File.createTempFile("journal-", ".csv", backup.getParentFile());
+        Utils.copyAndReplace(backup, file);
+    }
+
+    @Override
+    public void customAfterMethod(Method method) throws Exception {
+        for (CSVFileConnector connector : connectors) {
+            connector.dispose();
+        }
+        connectors.clear();
+        file.delete();
+        new File(file.getPath() + Journal.EXTENSION).delete();
+    }
+
+    @Test
+    public void createUpdateDelete() throws Exception {
+        CSVFileConnector connector = createConnector(100);
+
+        Set<Attribute> attributes = new HashSet<Attribute>();
+        attributes.add(new Name("fanfi"));
+        attributes.add(AttributeBuilder.build("firstName", "igor"));
+        connector.create(ObjectClass.ACCOUNT, attributes, null);
+
+        attributes.clear();
+        attributes.add(AttributeBuilder.build("lastName", "repan2"));
+        connector.update(ObjectClass.ACCOUNT, new Uid("vilo"), attributes, null);
+        connector.delete(ObjectClass.ACCOUNT, new Uid("miso"), null);
+
+        assertNull(TestUtils.compareFiles(file, backup), "Csv file was changed.");
+        assertTrue(new File(file.getPath() + Journal.EXTENSION).length() > 0);
+
+        List<ConnectorObject> objects = search(connector, null);
+        assertEquals(objects.size(), 2);
+        assertEquals(objects.get(0).getUid().getUidValue(), "vilo");
+        assertEquals(objects.get(0).getAttributeByName("lastName").getValue().get(0), "repan2");
+        assertEquals(objects.get(1).getUid().getUidValue(), "fanfi");
+
+        assertEquals(search(connector, "miso").size(), 0);
+        assertEquals(search(connector, "fanfi").size(), 1);
+        assertEquals(connector.resolveUsername(ObjectClass.ACCOUNT, "fanfi", null).getUidValue(), "fanfi");
+    }
+
+    @Test(expectedExceptions = AlreadyExistsException.class)
+    public void createExisting() throws Exception {
+        CSVFileConnector connector = createConnector(100);
+
+        Set<Attribute> attributes = new HashSet<Attribute>();
+        attributes.add(new Name("vilo"));
+        connector.create(ObjectClass.ACCOUNT, attributes, null);
+    }
+
+    @Test(expectedExceptions = UnknownUidException.class)
+    public void updateDeleted() throws Exception {
+        CSVFileConnector connector = createConnector(100);
+        connector.delete(ObjectClass.ACCOUNT, new Uid("vilo"), null);
+
+        Set<Attribute> attributes = new HashSet<Attribute>();
+        attributes.add(AttributeBuilder.build("lastName", "repan2"));
+        connector.update(ObjectClass.ACCOUNT, new Uid("vilo"), attributes, null);
+    }
+
+    @Test
+    public void compaction() throws Exception {
+        CSVFileConnector connector = createConnector(2);
+
+        Set<Attribute> attributes = new HashSet<Attribute>();
+        attributes.add(AttributeBuilder.build("lastName", "repan2"));
+        connector.update(ObjectClass.ACCOUNT, new Uid("vilo"), attributes, null);
+        assertNull(TestUtils.compareFiles(file, backup), "Csv file was changed.");
+
+        connector.delete(ObjectClass.ACCOUNT, new Uid("miso"), null);
+        assertNotNull(TestUtils.compareFiles(file, backup), "Csv file wasn't compacted.");
+        assertEquals(new File(file.getPath() + Journal.EXTENSION).length(), 0);
+
+        List<ConnectorObject> objects = search(connector, null);
+        assertEquals(objects.size(), 1);
+        assertEquals(objects.get(0).getAttributeByName("lastName").getValue().get(0), "repan2");
+    }
+
+    @Test
+    public void concurrentCreates() throws Exception {
+        final CSVFileConnector connector = createConnector(150);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            final int thread = i;
+            threads.add(new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 50; j++) {
+                            Set<Attribute> attributes = new HashSet<Attribute>();
+                            attributes.add(new Name("user" + thread + "-" + j));
+                            connector.create(ObjectClass.ACCOUNT, attributes, null);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+
+        assertEquals(search(connector, null).size(), 402);
+        assertEquals(search(connector, "user7-49").size(), 1);
+    }
+
+    @Test
+    public void replay() throws Exception {
+        Journal journal = Journal.open(file);
+        journal.put("vilo", "\"viliam\",\"vilo\",\"repan2\",\"Z29vZA==\"");
+        long sequence = journal.delete("miso");
+        journal.sync(sequence);
+        journal.close();
+
+        // incomplete entry written before a crash
+        FileOutputStream out = new FileOutputStream(journal.getFile(), true);
+        out.write("P4:fanfi".getBytes("UTF-8"));
+        out.close();
+
+        journal = Journal.open(file);
+        try {
+            Map<String, String> records = journal.getRecords();
+            assertEquals(records.size(), 2);
+            assertEquals(records.get("vilo"), "\"viliam\",\"vilo\",\"repan2\",\"Z29vZA==\"");
+            assertTrue(records.containsKey("miso"));
+            assertNull(records.get("miso"));
+            assertEquals(journal.size(), 2);
+
+            journal.flush();
+            journal.clear();
+            assertEquals(journal.size(), 0);
+            assertEquals(journal.getFile().length(), 0);
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void disposeLastConnector() throws Exception {
+        CSVFileConnector first = createConnector(100);
+        CSVFileConnector second = createConnector(100);
+
+        Set<Attribute> attributes = new HashSet<Attribute>();
+        attributes.add(AttributeBuilder.build("lastName", "repan2"));
+        first.update(ObjectClass.ACCOUNT, new Uid("vilo"), attributes, null);
+        first.dispose();
+        connectors.remove(first);
+
+        // journal is still open for the second connector
+        second.delete(ObjectClass.ACCOUNT, new Uid("miso"), null);
+        assertNull(TestUtils.compareFiles(file, backup), "Csv file was changed.");
+        second.dispose();
+        connectors.remove(second);
+
+        // journal was closed, the next connector opens and replays it again
+        List<ConnectorObject> objects = search(createConnector(100), null);
+        assertEquals(objects.size(), 1);
+        assertEquals(objects.get(0).getAttributeByName("lastName").getValue().get(0), "repan2");
+    }
+
+    @Test
+    public void replayWithoutJournal() throws Exception {
+        Journal journal = Journal.open(file);
+        journal.put("vilo", "\"viliam\",\"vilo\",\"repan2\",\"Z29vZA==\"");
+        long sequence = journal.delete("miso");
+        journal.sync(sequence);
+        journal.close();
+
+        CSVFileConnector connector = createConnector(100, false);
+
+        assertEquals(journal.getFile().length(), 0);
+        assertNotNull(TestUtils.compareFiles(file, backup), "Journal wasn't written to csv file.");
+        List<ConnectorObject> objects = search(connector, null);
+        assertEquals(objects.size(), 1);
+        assertEquals(objects.get(0).getAttributeByName("lastName").getValue().get(0), "repan2");
+    }
+
+    private CSVFileConnector createConnector(int compactionThreshold) {
+        return createConnector(compactionThreshold, true);
+    }
+
+    private CSVFileConnector createConnector(int compactionThreshold, boolean usingJournal) {
+        CSVFileConfiguration config = new CSVFileConfiguration();
+        config.setFilePath(file);
+        config.setUniqueAttribute("uid");
+        config.setPasswordAttribute("password");
+        config.setUsingJournal(usingJournal);
+        config.setJournalCompactionThreshold(compactionThreshold);
+
+        CSVFileConnector connector = new CSVFileConnector();
+        connector.init(config);
+        connectors.add(connector);
+        return connector;
+    }
+
+    private List<ConnectorObject> search(CSVFileConnector connector, String query) {
+        final List<ConnectorObject> results = new ArrayList<ConnectorObject>();
+        connector.executeQuery(ObjectClass.ACCOUNT, query, new ResultsHandler() {
+
+            @Override
+            public boolean handle(ConnectorObject object) {
+                results.add(object);
+                return true;
+            }
+        }, null);
+        return results;
+    }
+}
@@ -46,11 +46,14 @@ import com.evolveum.polygon.csvfile.CSVFileConfiguration;
 import com.evolveum.polygon.csvfile.CSVFileConnector;
 import com.evolveum.polygon.csvfile.util.CSVSchemaException;
 import com.evolveum.polygon.csvfile.util.TestUtils;
+import com.evolveum.polygon.csvfile.util.Utils;
 
 import java.io.File;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.testng.Assert.*;
 
@@ -165,6 +168,103 @@ public class SearchOpTest extends AbstractCsvTest {
         testEntryTwo(results.get(1));
     }
 
+    @Test
+    public void translateUidFilter() {
+        FilterTranslator<String> translator = connector.createFilterTranslator(ObjectClass.ACCOUNT, null);
+
+        List<String> queries = translator.translate(FilterBuilder.equalTo(new Uid("vilo")));
+        assertEquals(queries.size(), 1);
+        assertEquals(queries.get(0), "vilo");
+
+        queries = translator.translate(FilterBuilder.equalTo(new Name("vilo")));
+        assertEquals(queries.size(), 1);
+        assertEquals(queries.get(0), "vilo");
+
+        queries = translator.translate(FilterBuilder.equalTo(AttributeBuilder.build("firstName", "viliam")));
+        assertTrue(queries.isEmpty());
+
+        queries = translator.translate(FilterBuilder.not(FilterBuilder.equalTo(new Uid("vilo"))));
+        assertTrue(queries.isEmpty());
+    }
+
+    @Test
+    public void correctUidQuery() {
+        final List<ConnectorObject> results = new ArrayList<ConnectorObject>();
+        ResultsHandler handler = new ResultsHandler() {
+
+            @Override
+            public boolean handle(ConnectorObject co) {
+                results.add(co);
+                return true;
+            }
+        };
+        connector.executeQuery(ObjectClass.ACCOUNT, "miso", handler, null);
+
+        assertEquals(1, results.size());
+        testEntryTwo(results.get(0));
+    }
+
+    @Test
+    public void indexedUidQuery() throws Exception {
+        CSVFileConfiguration config = (CSVFileConfiguration) connector.getConfiguration();
+        config.setUsingIndex(true);
+
+        final List<ConnectorObject> results = new ArrayList<ConnectorObject>();
+        ResultsHandler handler = new ResultsHandler() {
+
+            @Override
+            public boolean handle(ConnectorObject co) {
+                results.add(co);
+                return true;
+            }
+        };
+        connector.executeQuery(ObjectClass.ACCOUNT, "miso", handler, null);
+        connector.executeQuery(ObjectClass.ACCOUNT, "vilo", handler, null);
+        connector.executeQuery(ObjectClass.ACCOUNT, "unknown", handler, null);
+
+        assertEquals(2, results.size());
+        testEntryTwo(results.get(0));
+        testEntryOne(results.get(1));
+    }
+
+    @Test
+    public void indexedUidQueryAfterUpdate() throws Exception {
+        File file = new File(TestUtils.getTestFile("search.csv").getParentFile(), "search-index.csv");
+        Utils.copyAndReplace(TestUtils.getTestFile("search.csv"), file);
+        try {
+            CSVFileConfiguration config = (CSVFileConfiguration) connector.getConfiguration();
+            config.setFilePath(file);
+            config.setUsingIndex(true);
+
+            final List<ConnectorObject> results = new ArrayList<ConnectorObject>();
+            ResultsHandler handler = new ResultsHandler() {
+
+                @Override
+                public boolean handle(ConnectorObject co) {
+                    results.add(co);
+                    return true;
+                }
+            };
+            connector.executeQuery(ObjectClass.ACCOUNT, "miso", handler, null);
+            assertEquals(1, results.size());
+            testAttribute(results.get(0), "firstName", "michal");
+
+            Set<Attribute> attributes = new HashSet<Attribute>();
+            attributes.add(AttributeBuilder.build("firstName", "michael and a much longer first name"));
+            connector.update(ObjectClass.ACCOUNT, new Uid("vilo"), attributes, null);
+            attributes.clear();
+            attributes.add(AttributeBuilder.build("firstName", "misko"));
+            connector.update(ObjectClass.ACCOUNT, new Uid("miso"), attributes, null);
+
+            results.clear();
+            connector.executeQuery(ObjectClass.ACCOUNT, "miso", handler, null);
+            assertEquals(1, results.size());
+            testAttribute(results.get(0), "firstName", "misko");
+        } finally {
+            file.delete();
+        }
+    }
+
     private void testEntryOne(ConnectorObject object) {
         assertNotNull(object);
         assertNotNull(object.getUid());
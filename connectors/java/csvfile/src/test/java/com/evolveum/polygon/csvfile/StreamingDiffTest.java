@@ -0,0 +1,189 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package com.evolveum.polygon.csvfile;
+
+import org.identityconnectors.common.logging.Log;
+import org.testng.annotations.Test;
+
+import com.evolveum.polygon.csvfile.CSVFileConfiguration;
+import com.evolveum.polygon.csvfile.CSVFileConnector;
+import com.evolveum.polygon.csvfile.sync.Change;
+import com.evolveum.polygon.csvfile.sync.ChangeHandler;
+import com.evolveum.polygon.csvfile.sync.InMemoryDiff;
+import com.evolveum.polygon.csvfile.sync.StreamingDiff;
+import com.evolveum.polygon.csvfile.util.TestUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author $author$
+ */
+public class StreamingDiffTest extends AbstractCsvTest {
+
+    private static final Log LOG = Log.getLog(StreamingDiffTest.class);
+
+    public StreamingDiffTest() {
+        super(LOG);
+    }
+
+    @Test
+    public void test1() throws Exception {
+        List<Change> changes = diff(new File("./src/test/resources/diff/test1.csv"),
+                new File("./src/test/resources/diff/test1.csv.tmp"), StreamingDiff.DEFAULT_MAX_CHARS_IN_MEMORY);
+        assertEquals(changes.size(), 1);
+        assertEquals(changes.get(0).getType(), Change.Type.CREATE);
+    }
+
+    @Test
+    public void test2() throws Exception {
+        List<Change> changes = diff(new File("./src/test/resources/diff/test2.csv"),
+                new File("./src/test/resources/diff/test2.csv.tmp"), StreamingDiff.DEFAULT_MAX_CHARS_IN_MEMORY);
+        assertEquals(changes.size(), 0);
+    }
+
+    @Test
+    public void test3() throws Exception {
+        List<Change> changes = diff(new File("./src/test/resources/diff/test3.csv"),
+                new File("./src/test/resources/diff/test3.csv.tmp"), StreamingDiff.DEFAULT_MAX_CHARS_IN_MEMORY);
+        assertEquals(changes.size(), 1);
+        assertEquals(changes.get(0).getType(), Change.Type.CREATE);
+    }
+
+    @Test
+    public void sameAsInMemoryDiff() throws Exception {
+        File folder = new File("./target");
+        folder.mkdirs();
+        File oldFile = File.createTempFile("streaming-diff-old", ".csv", folder);
+        File newFile = File.createTempFile("streaming-diff-new", ".csv", folder);
+        try {
+            writeFile(oldFile, false);
+            writeFile(newFile, true);
+
+            // small memory limit forces several levels of merged runs
+            List<Change> streaming = diff(oldFile, newFile, 100);
+            List<Change> inMemory = createInMemoryDiff(oldFile, newFile).diff();
+
+            assertTrue(streaming.size() > 0);
+            assertEquals(streaming.size(), inMemory.size());
+            for (int i = 0; i < streaming.size(); i++) {
+                assertEquals(streaming.get(i).getUid(), inMemory.get(i).getUid());
+                assertEquals(streaming.get(i).getType(), inMemory.get(i).getType());
+                assertEquals(streaming.get(i).getAttributes(), inMemory.get(i).getAttributes());
+            }
+            for (String name : newFile.getAbsoluteFile().getParentFile().list()) {
+                assertTrue(!name.endsWith(".run"), "Temporary file " + name + " wasn't deleted.");
+            }
+        } finally {
+            oldFile.delete();
+            newFile.delete();
+        }
+    }
+
+    @Test
+    public void stoppedHandler() throws Exception {
+        final List<Change> changes = new ArrayList<Change>();
+        StreamingDiff diff = new StreamingDiff(null, new File("./src/test/resources/diff/test1.csv.tmp"),
+                createConnector().getLinePattern(), createConfiguration());
+        int count = diff.diff(new ChangeHandler() {
+
+            @Override
+            public boolean handle(Change change) {
+                changes.add(change);
+                return false;
+            }
+        });
+        assertEquals(count, 1);
+        assertEquals(changes.size(), 1);
+        assertEquals(changes.get(0).getType(), Change.Type.CREATE);
+    }
+
+    private void writeFile(File file, boolean changed) throws Exception {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "utf-8");
+        try {
+            writer.write("firstName,id,lastName,password\n");
+            for (int i = 0; i < 500; i++) {
+                // every 7th record is deleted, every 11th added, every 5th modified
+                if (changed && i % 7 == 0) {
+                    continue;
+                }
+                if (!changed && i % 11 == 0) {
+                    continue;
+                }
+                String lastName = changed && i % 5 == 0 ? "changed" + i : "last" + i;
+                writer.write("\"first" + i + "\",\"" + (i * 7919 % 500) + "\",\"" + lastName + "\",\"pwd\"\n");
+                if (i % 50 == 0) {
+                    // duplicate unique attribute, first record wins
+                    writer.write("\"dup" + i + "\",\"" + (i * 7919 % 500) + "\",\"dup\",\"pwd\"\n");
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private List<Change> diff(File oldFile, File newFile, int maxCharsInMemory) throws Exception {
+        final List<Change> changes = new ArrayList<Change>();
+        StreamingDiff diff = new StreamingDiff(oldFile, newFile, createConnector().getLinePattern(),
+                createConfiguration(), maxCharsInMemory);
+        int count = diff.diff(new ChangeHandler() {
+
+            @Override
+            public boolean handle(Change change) {
+                changes.add(change);
+                return true;
+            }
+        });
+        assertEquals(count, changes.size());
+        return changes;
+    }
+
+    private InMemoryDiff createInMemoryDiff(File oldFile, File newFile) throws Exception {
+        return new InMemoryDiff(oldFile, newFile, createConnector().getLinePattern(), createConfiguration());
+    }
+
+    private CSVFileConfiguration createConfiguration() throws Exception {
+        CSVFileConfiguration config = new CSVFileConfiguration();
+        config.setEncoding("utf-8");
+        //just to make connector initialization happy
+        config.setFilePath(TestUtils.getTestFile("../../../src/test/resources/files/sync.csv"));
+        config.setUniqueAttribute("id");
+        config.setPasswordAttribute("password");
+        return config;
+    }
+
+    private CSVFileConnector createConnector() throws Exception {
+        CSVFileConnector connector = new CSVFileConnector();
+        connector.init(createConfiguration());
+        return connector;
+    }
+}
@@ -544,6 +544,75 @@ public class DatabaseTableConfiguration extends AbstractConfiguration {
 	public void setSuppressPassword(boolean suppressPassword) {
 		this.suppressPassword = suppressPassword;
 	}
+
+    /**
+     * The JDBC fetch size of the search and sync statements, 0 is the driver default
+     */
+    private int fetchSize = 0;
+
+    /**
+     * The number of rows fetched from the database in one round trip
+     * @return the fetch size
+     */
+    @ConfigurationProperty(order = 23,
+            displayMessageKey = "FETCH_SIZE_DISPLAY", 
+            helpMessageKey = "FETCH_SIZE_HELP")
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * @param value
+     */
+    public void setFetchSize(int value) {
+        this.fetchSize = value;
+    }
+
+    /**
+     * The maximum number of rows read by one sync query, 0 reads all the changes at once
+     */
+    private int syncPageSize = 0;
+
+    /**
+     * The sync is read in keyset pages of this size
+     * @return the sync page size
+     */
+    @ConfigurationProperty(order = 24, operations = SyncOp.class,
+            displayMessageKey = "SYNC_PAGE_SIZE_DISPLAY", 
+            helpMessageKey = "SYNC_PAGE_SIZE_HELP")
+    public int getSyncPageSize() {
+        return syncPageSize;
+    }
+
+    /**
+     * @param value
+     */
+    public void setSyncPageSize(int value) {
+        this.syncPageSize = value;
+    }
+
+    /**
+     * The number of the idle prepared statements kept open per connection, 0 disables the cache
+     */
+    private int statementCacheSize = 0;
+
+    /**
+     * The prepared statements are reused for the same SQL
+     * @return the statement cache size
+     */
+    @ConfigurationProperty(order = 25,
+            displayMessageKey = "STATEMENT_CACHE_SIZE_DISPLAY", 
+            helpMessageKey = "STATEMENT_CACHE_SIZE_HELP")
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * @param value
+     */
+    public void setStatementCacheSize(int value) {
+        this.statementCacheSize = value;
+    }
     
 	
     // =======================================================================
@@ -630,6 +699,15 @@ public class DatabaseTableConfiguration extends AbstractConfiguration {
             log.ok("datasource configuration is ok");        
         }
         
+        if (getFetchSize() < 0) {
+            throw new IllegalArgumentException(getMessage(MSG_FETCH_SIZE_NEGATIVE));
+        }
+        if (getSyncPageSize() < 0) {
+            throw new IllegalArgumentException(getMessage(MSG_SYNC_PAGE_SIZE_NEGATIVE));
+        }
+        if (getStatementCacheSize() < 0) {
+            throw new IllegalArgumentException(getMessage(MSG_STATEMENT_CACHE_SIZE_NEGATIVE));
+        }
         try {
             DatabaseTableSQLUtil.quoteName(getQuoting(), "test");
         } catch (IllegalArgumentException e) {
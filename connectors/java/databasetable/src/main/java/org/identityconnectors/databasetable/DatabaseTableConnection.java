@@ -72,7 +72,9 @@ public class DatabaseTableConnection extends DatabaseConnection {
      */
     static DatabaseTableConnection createDBTableConnection(DatabaseTableConfiguration config) {
         Connection connection = getNativeConnection(config);
-        return new DatabaseTableConnection(connection, config);
+        final DatabaseTableConnection conn = new DatabaseTableConnection(connection, config);
+        conn.setStatementCacheSize(config.getStatementCacheSize());
+        return conn;
     }
 
     /**
@@ -247,7 +249,7 @@ public class DatabaseTableConnection extends DatabaseConnection {
     @Override
     public PreparedStatement prepareStatement(final String sql, final List<SQLParam> params) throws SQLException {
         log.info("Prepare SQL Statement : {0}", sql);
-        final PreparedStatement prepareStatement = getConnection().prepareStatement(sql);
+        final PreparedStatement prepareStatement = getPreparedStatement(sql);
         DatabaseTableSQLUtil.setParams(sms, prepareStatement, params);
         log.ok("SQL Statement ok");
         return prepareStatement;
@@ -47,9 +47,11 @@ import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.databasetable.mapping.MappingStrategy;
 import org.identityconnectors.dbcommon.DatabaseQueryBuilder;
 import org.identityconnectors.dbcommon.FilterWhereBuilder;
 import org.identityconnectors.dbcommon.InsertIntoBuilder;
+import org.identityconnectors.dbcommon.ResultSetColumns;
 import org.identityconnectors.dbcommon.SQLParam;
 import org.identityconnectors.dbcommon.SQLUtil;
 import org.identityconnectors.dbcommon.UpdateSetBuilder;
@@ -62,6 +64,7 @@ import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.AttributeInfo;
 import org.identityconnectors.framework.common.objects.AttributeInfoBuilder;
 import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
 import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.ObjectClass;
@@ -73,6 +76,8 @@ import org.identityconnectors.framework.common.objects.OperationalAttributes;
 import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.Schema;
 import org.identityconnectors.framework.common.objects.SchemaBuilder;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.SyncDelta;
 import org.identityconnectors.framework.common.objects.SyncDeltaBuilder;
 import org.identityconnectors.framework.common.objects.SyncDeltaType;
 import org.identityconnectors.framework.common.objects.SyncResultsHandler;
@@ -82,6 +87,7 @@ import org.identityconnectors.framework.common.objects.filter.FilterTranslator;
 import org.identityconnectors.framework.spi.Configuration;
 import org.identityconnectors.framework.spi.ConnectorClass;
 import org.identityconnectors.framework.spi.PoolableConnector;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
 import org.identityconnectors.framework.spi.operations.AuthenticateOp;
 import org.identityconnectors.framework.spi.operations.CreateOp;
 import org.identityconnectors.framework.spi.operations.DeleteOp;
@@ -123,6 +129,11 @@ public class DatabaseTableConnector implements PoolableConnector, CreateOp, Sear
      */
     static Log log = Log.getLog(DatabaseTableConnector.class);
 
+    /**
+     * The prefix of the paged sync token, the token holds the change log value and the key
+     */
+    private static final String KEYSET_TOKEN_PREFIX = "keyset:";
+
     /**
      * Place holder for the {@link Connection} passed into the callback
      * {@link ConnectionFactory#setConnection(Connection)}.
@@ -521,21 +532,49 @@ public class DatabaseTableConnector implements PoolableConnector, CreateOp, Sear
         log.ok("Column Names {0} To Get", columnNamesToGet);        
         // For all account query there is no need to replace or quote anything
         final DatabaseQueryBuilder query = new DatabaseQueryBuilder(tblname, columnNamesToGet);
-        query.setWhere(where);
+        // The paged results are keyset paged on the key column, the cookie is the last returned key
+        final int pageSize = options != null && options.getPageSize() != null ? options.getPageSize() : 0;
+        FilterWhereBuilder queryWhere = where;
+        if (pageSize > 0) {
+            final String keyColumnName = quoteName(config.getKeyColumn());
+            final String cookie = options.getPagedResultsCookie();
+            if (StringUtil.isNotBlank(cookie)) {
+                log.ok("Paged results cookie {0}", cookie);
+                final FilterWhereBuilder after = new FilterWhereBuilder();
+                after.addBind(new SQLParam(keyColumnName, cookie, getColumnType(config.getKeyColumn())), ">");
+                if (where != null && StringUtil.isNotBlank(where.getWhereClause())) {
+                    queryWhere = new FilterWhereBuilder();
+                    queryWhere.join("AND", where, after);
+                } else {
+                    queryWhere = after;
+                }
+            }
+            final List<OrderBy> orderBy = new ArrayList<OrderBy>();
+            orderBy.add(new OrderBy(keyColumnName, true));
+            query.setOrderBy(orderBy);
+        }
+        query.setWhere(queryWhere);
 
         ResultSet result = null;
         PreparedStatement statement = null;
         try {
             openConnection();
             statement = getConn().prepareStatement(query);
+            setFetchSize(statement);
+            if (pageSize > 0) {
+                statement.setMaxRows(pageSize);
+            }
             result = statement.executeQuery();
             log.ok("executeQuery {0} on {1}", query.getSQL(), oclass);
+            final RowMapper mapper = new RowMapper(result);
+            int count = 0;
+            String lastKey = null;
             while (result.next()) {
-                final Map<String, SQLParam> columnValues = getConn().getColumnValues(result);
-                log.ok("Column values {0} from result set ", columnValues);
                 // create the connector object
-                final ConnectorObjectBuilder bld = buildConnectorObject(columnValues);
-                if (!handler.handle(bld.build())) {
+                final ConnectorObject object = mapper.buildConnectorObject(result).build();
+                count++;
+                lastKey = object.getUid().getUidValue();
+                if (!handler.handle(object)) {
                     log.ok("Stop processing of the result set");
                     break;
                 }
@@ -543,6 +582,11 @@ public class DatabaseTableConnector implements PoolableConnector, CreateOp, Sear
             // commit changes
             log.info("commit executeQuery account");
             commit();            
+            if (handler instanceof SearchResultsHandler) {
+                // A full page could be followed by the next one
+                final String nextCookie = pageSize > 0 && count == pageSize ? lastKey : null;
+                ((SearchResultsHandler) handler).handleResult(new SearchResult(nextCookie, -1));
+            }
         } catch (SQLException e) {
             log.error(e, "Query {0} on {1} error", query.getSQL(), oclass);    
             SQLUtil.rollbackQuietly(getConn());
@@ -590,44 +634,81 @@ public class DatabaseTableConnector implements PoolableConnector, CreateOp, Sear
         //Add also the token column
         columnNames.add(changeLogColumnName);
         orderBy.add(new OrderBy(changeLogColumnName, true));
+        // The pages are keyset paged on the token and the key column
+        final int pageSize = config.getSyncPageSize();
+        final String keyColumnName = quoteName(config.getKeyColumn());
+        if (pageSize > 0) {
+            orderBy.add(new OrderBy(keyColumnName, true));
+        }
         log.ok("OrderBy {0}", orderBy);        
 
-        // The first token is not null set the FilterWhereBuilder
-        final FilterWhereBuilder where = new FilterWhereBuilder();
+        Object tokenVal = null;
+        String lastKey = null;
         if(token != null && token.getValue() != null) {
-            final Object tokenVal = token.getValue();
-            log.info("Sync token is {0}", tokenVal);        
-            final Integer sqlType = getColumnType(config.getChangeLogColumn());
-            where.addBind(new SQLParam(changeLogColumnName, tokenVal, sqlType),">" );
+            tokenVal = token.getValue();
+            // The paged sync token resumes after the key within the same change log value
+            final String[] keyset = parseKeysetToken(tokenVal);
+            if (keyset != null) {
+                tokenVal = keyset[0];
+                lastKey = keyset[1];
+            }
+            log.info("Sync token is {0}, key {1}", tokenVal, lastKey);        
         }
-        final DatabaseQueryBuilder query = new DatabaseQueryBuilder(tblname, columnNames);
-        query.setWhere(where);
-        query.setOrderBy(orderBy);
         
+        DatabaseQueryBuilder query = null;
         ResultSet result = null;
         PreparedStatement statement = null;
         try {
             openConnection();
             
-            statement = getConn().prepareStatement(query);
-            result = statement.executeQuery();
-            log.info("execute sync query {0} on {1}", query.getSQL(), oclass);
-            while (result.next()) {
-                final Map<String, SQLParam> columnValues = getConn().getColumnValues(result);
-                log.ok("Column values {0} from sync result set ", columnValues);
-                
-                // create the connector object..
-                final SyncDeltaBuilder sdb = buildSyncDelta(columnValues);
-                if (!handler.handle(sdb.build())) {
-                    log.ok("Stop processing of the sync result set");
-                    break;
+            boolean more = true;
+            while (more) {
+                // The first token is not null set the FilterWhereBuilder
+                query = new DatabaseQueryBuilder(tblname, columnNames);
+                query.setWhere(buildSyncWhere(changeLogColumnName, tokenVal, keyColumnName, lastKey));
+                query.setOrderBy(orderBy);
+
+                statement = getConn().prepareStatement(query);
+                setFetchSize(statement);
+                if (pageSize > 0) {
+                    statement.setMaxRows(pageSize);
+                }
+                result = statement.executeQuery();
+                log.info("execute sync query {0} on {1}", query.getSQL(), oclass);
+                final RowMapper mapper = new RowMapper(result);
+                int count = 0;
+                while (result.next()) {
+                    // create the connector object..
+                    final SyncDeltaBuilder bld = buildSyncDelta(mapper, result);
+                    count++;
+                    tokenVal = bld.getToken().getValue();
+                    lastKey = bld.getObject().getUid().getUidValue();
+                    if (pageSize > 0) {
+                        bld.setToken(new SyncToken(keysetToken(tokenVal, lastKey)));
+                    }
+                    final SyncDelta delta = bld.build();
+                    if (!handler.handle(delta)) {
+                        log.ok("Stop processing of the sync result set");
+                        more = false;
+                        break;
+                    }
+                }
+                // commit changes, every page separately
+                log.info("commit sync account");
+                commit();            
+                SQLUtil.closeQuietly(result);
+                result = null;
+                SQLUtil.closeQuietly(statement);
+                statement = null;
+                // The short page is the last one
+                if (pageSize <= 0 || count < pageSize) {
+                    more = false;
+                } else {
+                    log.ok("Sync page of {0} rows ends with token {1} and key {2}", count, tokenVal, lastKey);
                 }
             }
-            // commit changes
-            log.info("commit sync account");
-            commit();            
         } catch (SQLException e) {
-            log.error(e, "sync {0} on {1} error", query.getSQL(), oclass);
+            log.error(e, "sync {0} on {1} error", query != null ? query.getSQL() : null, oclass);
             SQLUtil.rollbackQuietly(getConn());
             throw new ConnectorException(config.getMessage(MSG_CAN_NOT_READ, tblname), e);              
         } finally {
@@ -639,6 +720,79 @@ public class DatabaseTableConnector implements PoolableConnector, CreateOp, Sear
         log.ok("Sync Account commited");        
     }
     
+    /**
+     * The sync where clause, the changes after the token or after the key of the last read row with the same token
+     * @param changeLogColumnName the quoted change log column
+     * @param tokenVal the token value, could be null
+     * @param keyColumnName the quoted key column
+     * @param lastKey the key of the last read row, null for the first page
+     * @return the where builder
+     */
+    private FilterWhereBuilder buildSyncWhere(String changeLogColumnName, Object tokenVal, String keyColumnName,
+            String lastKey) {
+        final FilterWhereBuilder where = new FilterWhereBuilder();
+        if (tokenVal == null) {
+            return where;
+        }
+        final Integer sqlType = getColumnType(config.getChangeLogColumn());
+        if (lastKey == null) {
+            where.addBind(new SQLParam(changeLogColumnName, tokenVal, sqlType), ">");
+            return where;
+        }
+        final FilterWhereBuilder after = new FilterWhereBuilder();
+        after.addBind(new SQLParam(changeLogColumnName, tokenVal, sqlType), ">");
+        final FilterWhereBuilder sameToken = new FilterWhereBuilder();
+        sameToken.addBind(new SQLParam(changeLogColumnName, tokenVal, sqlType), "=");
+        final FilterWhereBuilder afterKey = new FilterWhereBuilder();
+        afterKey.addBind(new SQLParam(keyColumnName, lastKey, getColumnType(config.getKeyColumn())), ">");
+        final FilterWhereBuilder sameTokenAfterKey = new FilterWhereBuilder();
+        sameTokenAfterKey.join("AND", sameToken, afterKey);
+        where.join("OR", after, sameTokenAfterKey);
+        return where;
+    }
+
+    /**
+     * The paged sync token, the change log value and the key of the row
+     * @param tokenVal the change log value
+     * @param key the key value
+     * @return the token value
+     */
+    private String keysetToken(Object tokenVal, String key) {
+        return KEYSET_TOKEN_PREFIX + key.length() + ":" + key + tokenVal;
+    }
+
+    /**
+     * Parse the paged sync token
+     * @param tokenVal the token value
+     * @return the change log value and the key, null for the plain change log token
+     */
+    private String[] parseKeysetToken(Object tokenVal) {
+        if (!(tokenVal instanceof String) || !((String) tokenVal).startsWith(KEYSET_TOKEN_PREFIX)) {
+            return null;
+        }
+        final String value = (String) tokenVal;
+        final int colon = value.indexOf(':', KEYSET_TOKEN_PREFIX.length());
+        try {
+            final int keyStart = colon + 1;
+            final int keyEnd = keyStart + Integer.parseInt(value.substring(KEYSET_TOKEN_PREFIX.length(), colon));
+            return new String[] { value.substring(keyEnd), value.substring(keyStart, keyEnd) };
+        } catch (RuntimeException e) {
+            log.error(e, "Invalid sync token {0}", value);
+            throw new IllegalArgumentException(config.getMessage(MSG_INVALID_SYNC_TOKEN_VALUE), e);
+        }
+    }
+
+    /**
+     * Set the configured fetch size
+     * @param statement the query statement
+     * @throws SQLException
+     */
+    private void setFetchSize(PreparedStatement statement) throws SQLException {
+        if (config.getFetchSize() > 0) {
+            statement.setFetchSize(config.getFetchSize());
+        }
+    }
+    
     /**
      * {@inheritDoc}
      */
@@ -1120,86 +1274,149 @@ public class DatabaseTableConnector implements PoolableConnector, CreateOp, Sear
     }    
     
     /**
-     * Construct a connector object
-     * <p>Taking care about special attributes</p>
-     *  
-     * @param columnValues from the result set
-     * @return ConnectorObjectBuilder object
+     * Maps the rows of one result set to connector objects.
+     * <p>The column metadata and the special columns are resolved once per
+     * result set, the rows are read by column index without the intermediate
+     * column values map.</p>
      */
-    private ConnectorObjectBuilder buildConnectorObject(Map<String, SQLParam> columnValues) {
-        log.info("build ConnectorObject");
-        String uidValue = null;
-        ConnectorObjectBuilder bld = new ConnectorObjectBuilder();               
-        for (Map.Entry<String, SQLParam> colValue : columnValues.entrySet()) {
-            final String columnName = colValue.getKey();
-            final SQLParam param = colValue.getValue();
-            // Map the special
-            if (columnName.equalsIgnoreCase(config.getKeyColumn())) {
-                if (param == null || param.getValue() == null) {
-                    log.error("Name cannot be null.");
-                    String msg = "Name cannot be null.";
-                    throw new IllegalArgumentException(msg);
+    private final class RowMapper {
+        private static final int ATTRIBUTE = 0;
+        private static final int KEY = 1;
+        private static final int PASSWORD = 2;
+        private static final int CHANGE_LOG = 3;
+
+        private final MappingStrategy sms;
+        private final ResultSetColumns columns;
+        private final int[] roles;
+        private final int changeLogColumn;
+        private Object token;
+
+        RowMapper(ResultSet result) throws SQLException {
+            sms = getConn().getSms();
+            columns = ResultSetColumns.resolve(result);
+            roles = new int[columns.getColumnCount() + 1];
+            for (int i = 1; i < roles.length; i++) {
+                final String columnName = columns.getColumnName(i);
+                if (columnName.equalsIgnoreCase(config.getKeyColumn())) {
+                    roles[i] = KEY;
+                } else if (columnName.equalsIgnoreCase(config.getPasswordColumn())) {
+                    roles[i] = PASSWORD;
+                } else if (columnName.equalsIgnoreCase(config.getChangeLogColumn())) {
+                    roles[i] = CHANGE_LOG;
+                } else {
+                    roles[i] = ATTRIBUTE;
+                }
+            }
+            changeLogColumn = columns.findColumn(config.getChangeLogColumn());
+            log.ok("Columns {0} resolved from result set", roles.length - 1);
+        }
+
+        /**
+         * Construct a connector object from the current row
+         * <p>Taking care about special attributes</p>
+         *  
+         * @param result the result set positioned on a row
+         * @return ConnectorObjectBuilder object
+         * @throws SQLException 
+         */
+        ConnectorObjectBuilder buildConnectorObject(ResultSet result) throws SQLException {
+            log.info("build ConnectorObject");
+            String uidValue = null;
+            token = null;
+            ConnectorObjectBuilder bld = new ConnectorObjectBuilder();               
+            for (int i = 1; i < roles.length; i++) {
+                final String columnName = columns.getColumnName(i);
+                final SQLParam param = sms.getSQLParam(result, i, columnName, columns.getColumnType(i));
+                if (i == changeLogColumn) {
+                    token = param != null ? param.getValue() : null;
                 }
-                uidValue = param.getValue().toString();
-                bld.setName(uidValue);
-            } else if (columnName.equalsIgnoreCase(config.getPasswordColumn())) {
-            	if (config.getSuppressPassword()) {
-	                // No Password in the result object
-	                log.ok("Password is supressed in the result object");
-            	} else {
-            		GuardedString passwordValue = null;
-            		if(param != null && param.getValue() != null) {
-            			passwordValue = new GuardedString(((String)param.getValue()).toCharArray());
-            		}
-            		if (passwordValue != null) {
-                        bld.addAttribute(AttributeBuilder.build(OperationalAttributes.PASSWORD_NAME, passwordValue));
+                // Map the special
+                switch (roles[i]) {
+                case KEY:
+                    if (param == null || param.getValue() == null) {
+                        log.error("Name cannot be null.");
+                        String msg = "Name cannot be null.";
+                        throw new IllegalArgumentException(msg);
+                    }
+                    uidValue = param.getValue().toString();
+                    bld.setName(uidValue);
+                    break;
+                case PASSWORD:
+                    if (config.getSuppressPassword()) {
+                        // No Password in the result object
+                        log.ok("Password is supressed in the result object");
                     } else {
-                        bld.addAttribute(AttributeBuilder.build(OperationalAttributes.PASSWORD_NAME));                    
+                        GuardedString passwordValue = null;
+                        if(param != null && param.getValue() != null) {
+                            passwordValue = new GuardedString(((String)param.getValue()).toCharArray());
+                        }
+                        if (passwordValue != null) {
+                            bld.addAttribute(AttributeBuilder.build(OperationalAttributes.PASSWORD_NAME, passwordValue));
+                        } else {
+                            bld.addAttribute(AttributeBuilder.build(OperationalAttributes.PASSWORD_NAME));                    
+                        }
+                    }
+                    break;
+                case CHANGE_LOG:
+                    //No changelogcolumn attribute in the results
+                    log.ok("changelogcolumn attribute in the result");                
+                    break;
+                default:
+                    if(param != null && param.getValue() != null) { 
+                        bld.addAttribute(AttributeBuilder.build(columnName, param.getValue()));
+                    } else {
+                        bld.addAttribute(AttributeBuilder.build(columnName));                    
                     }
-            	}
-            } else if (columnName.equalsIgnoreCase(config.getChangeLogColumn())) {
-            	//No changelogcolumn attribute in the results
-                log.ok("changelogcolumn attribute in the result");                
-            } else {
-            	if(param != null && param.getValue() != null) { 
-                    bld.addAttribute(AttributeBuilder.build(columnName, param.getValue()));
-                } else {
-                    bld.addAttribute(AttributeBuilder.build(columnName));                    
                 }
             }
+
+            // To be sure that uid and name are present for mysql
+            if(uidValue == null) {
+                final String msg = "The uid value is missing in query.";
+                log.error(msg);
+                throw new IllegalStateException(msg);
+            }
+            // Add Uid attribute to object
+            bld.setUid(new Uid(uidValue));
+            // only deals w/ accounts..
+            bld.setObjectClass(ObjectClass.ACCOUNT);
+            log.ok("ConnectorObject is builded");                
+            return bld;
         }
 
-        // To be sure that uid and name are present for mysql
-        if(uidValue == null) {
-            final String msg = "The uid value is missing in query.";
-            log.error(msg);
-            throw new IllegalStateException(msg);
+        /**
+         * @return true if the result set contains the change log column
+         */
+        boolean hasChangeLog() {
+            return changeLogColumn > 0;
         }
-        // Add Uid attribute to object
-        bld.setUid(new Uid(uidValue));
-        // only deals w/ accounts..
-        bld.setObjectClass(ObjectClass.ACCOUNT);
-        log.ok("ConnectorObject is builded");                
-        return bld;
-    }    
+
+        /**
+         * @return the change log column value of the last built row
+         */
+        Object getToken() {
+            return token;
+        }
+    }
     
 	/**
      * Construct a SyncDeltaBuilder the sync builder
      * <p>Taking care about special attributes</p>
      *  
-     * @param columnValues from the resultSet
+     * @param mapper the mapper of the result set
+     * @param result the result set positioned on a row
      * @return SyncDeltaBuilder the sync builder
+     * @throws SQLException 
      */
-    private SyncDeltaBuilder buildSyncDelta(Map<String, SQLParam> columnValues) {
+    private SyncDeltaBuilder buildSyncDelta(RowMapper mapper, ResultSet result) throws SQLException {
       	log.info("buildSyncDelta");                
         SyncDeltaBuilder bld = new SyncDeltaBuilder();
         // Find a token
-        SQLParam tokenParam = columnValues.get(config.getChangeLogColumn());
-        
-        if ( tokenParam == null ) {
+        if ( !mapper.hasChangeLog() ) {
             throw new IllegalArgumentException(config.getMessage(MSG_INVALID_SYNC_TOKEN_VALUE));
         }
-        Object token = tokenParam.getValue();
+        final ConnectorObjectBuilder objectBuilder = mapper.buildConnectorObject(result);
+        Object token = mapper.getToken();
         // Null token, set some acceptable value
         if ( token == null ) {
         	log.ok("token value is null, replacing to 0L");                
@@ -1208,7 +1425,7 @@ public class DatabaseTableConnector implements PoolableConnector, CreateOp, Sear
         
         // To be sure that sync token is present
         bld.setToken(new SyncToken(token));
-        bld.setObject(buildConnectorObject(columnValues).build());
+        bld.setObject(objectBuilder.build());
         
         // only deals w/ updates
         bld.setDeltaType(SyncDeltaType.CREATE_OR_UPDATE);
@@ -43,6 +43,7 @@ public class DatabaseTableConstants {
     static final String MSG_CAN_NOT_READ="can.not.read";
     static final String MSG_CAN_NOT_UPDATE="can.not.update";
     static final String MSG_DATABASE_BLANK = "database.blank";
+    static final String MSG_FETCH_SIZE_NEGATIVE = "fetch.size.negative";
     static final String MSG_HOST_BLANK = "host.blank";
     static final String MSG_CHANGELOG_COLUMN_BLANK="changelog.column.blank";
     static final String MSG_INVALID_ATTRIBUTE_SET="invalid.attribute.set";
@@ -63,6 +64,8 @@ public class DatabaseTableConstants {
     static final String MSG_PWD_COLUMN_BLANK="pwd.column.blank";   
     static final String MSG_QUERY_INVALID = "query.invalid"; 
     static final String MSG_RESULT_HANDLER_NULL="result.handler.null";
+    static final String MSG_STATEMENT_CACHE_SIZE_NEGATIVE = "statement.cache.size.negative";
+    static final String MSG_SYNC_PAGE_SIZE_NEGATIVE = "sync.page.size.negative";
     static final String MSG_TABLE_BLANK = "table.blank";
     static final String MSG_UID_BLANK="uid.blank";
     static final String MSG_USER_BLANK = "admin.user.blank";
@@ -209,6 +209,39 @@ public class DatabaseTableConfigurationTests {
         config.validate();
         AssertJUnit.fail("testConfigurationPasswdEQChange");
     }      
+
+    /**
+     * test method
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testConfigurationNegativeFetchSize() {
+        DatabaseTableConfiguration config = getConfiguration();
+        config.setFetchSize(-1);
+        config.validate();
+        AssertJUnit.fail("testConfigurationNegativeFetchSize");
+    }      
+
+    /**
+     * test method
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testConfigurationNegativeSyncPageSize() {
+        DatabaseTableConfiguration config = getConfiguration();
+        config.setSyncPageSize(-1);
+        config.validate();
+        AssertJUnit.fail("testConfigurationNegativeSyncPageSize");
+    }      
+
+    /**
+     * test method
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testConfigurationNegativeStatementCacheSize() {
+        DatabaseTableConfiguration config = getConfiguration();
+        config.setStatementCacheSize(-1);
+        config.validate();
+        AssertJUnit.fail("testConfigurationNegativeStatementCacheSize");
+    }      
     
     /**
      * test method
@@ -58,6 +58,7 @@ import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.ObjectClassInfo;
 import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
 import org.identityconnectors.framework.common.objects.Schema;
+import org.identityconnectors.framework.common.objects.SearchResult;
 import org.identityconnectors.framework.common.objects.SyncDelta;
 import org.identityconnectors.framework.common.objects.SyncDeltaType;
 import org.identityconnectors.framework.common.objects.SyncResultsHandler;
@@ -65,6 +66,7 @@ import org.identityconnectors.framework.common.objects.SyncToken;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
 import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
 import org.identityconnectors.test.common.TestHelpers;
 
 /**
@@ -735,6 +737,48 @@ public abstract class DatabaseTableTestBase {
         AssertJUnit.assertNotNull(AttributeUtil.find(JPEGPHOTO, actual));
         AssertJUnit.assertEquals(AttributeUtil.find(JPEGPHOTO, expected), AttributeUtil.find(JPEGPHOTO, actual));
     }
+
+    /**
+     * Test the paged search, each page resumes after the key of the cookie
+     * @throws Exception
+     */
+    @Test
+    public void testSearchPaged() throws Exception {
+        log.ok("testSearchPaged");
+        // create connector
+        final DatabaseTableConfiguration cfg = getConfiguration();
+        cfg.setFetchSize(10);
+        con = getConnector(cfg);
+        deleteAllFromAccounts(con.getConn());
+        final Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < 5; i++) {
+            expected.add(con.create(ObjectClass.ACCOUNT, getCreateAttributeSet(cfg), null).getUidValue());
+        }
+
+        final List<String> found = new ArrayList<String>();
+        final String[] cookie = new String[1];
+        int pages = 0;
+        do {
+            final OperationOptionsBuilder opOption = new OperationOptionsBuilder();
+            opOption.setPageSize(2);
+            opOption.setPagedResultsCookie(cookie[0]);
+            con.executeQuery(ObjectClass.ACCOUNT, null, new SearchResultsHandler() {
+                public boolean handle(ConnectorObject obj) {
+                    found.add(obj.getUid().getUidValue());
+                    return true;
+                }
+
+                public void handleResult(SearchResult result) {
+                    cookie[0] = result.getPagedResultsCookie();
+                }
+            }, opOption.build());
+            pages++;
+        } while (cookie[0] != null && pages < 10);
+        // 2 + 2 + 1 rows, the last page is not full so it has no cookie
+        AssertJUnit.assertEquals(3, pages);
+        AssertJUnit.assertEquals(expected.size(), found.size());
+        AssertJUnit.assertEquals(expected, new HashSet<String>(found));
+    }
     
     // TEest SYNCmethod    
     
@@ -835,6 +879,74 @@ public abstract class DatabaseTableTestBase {
         AssertJUnit.assertFalse(ERR1, empt.found);
     }      
     
+    /**
+     * Test the keyset paged sync reads all the changes with the same token
+     * @throws Exception 
+     * @throws SQLException 
+     */
+    @Test
+    public void testSyncPaged() throws Exception {
+        final String SQL_TEMPLATE = "UPDATE Accounts SET changelog = ? WHERE accountId = ?";
+        // create connector
+        final DatabaseTableConfiguration cfg = getConfiguration();
+        cfg.setSyncPageSize(1);
+        cfg.setFetchSize(10);
+        con = getConnector(cfg);
+        final Long changelog = 10L;
+
+        // create the objects, all of them with the same last change
+        final Set<String> expected = new HashSet<String>();
+        PreparedStatement ps = null;
+        DatabaseTableConnection conn = DatabaseTableConnection.createDBTableConnection(cfg);
+        try {
+            for (int i = 0; i < 3; i++) {
+                final Uid uid = con.create(ObjectClass.ACCOUNT, getCreateAttributeSet(cfg), null);
+                expected.add(uid.getUidValue());
+                List<SQLParam> values = new ArrayList<SQLParam>();
+                values.add(new SQLParam("changelog", changelog, Types.INTEGER));
+                values.add(new SQLParam("accountId", uid.getUidValue(), Types.VARCHAR));
+                ps = conn.prepareStatement(SQL_TEMPLATE, values);
+                ps.execute();
+                SQLUtil.closeQuietly(ps);
+                ps = null;
+            }
+            conn.commit();
+        } finally {
+            SQLUtil.closeQuietly(ps);
+            SQLUtil.closeQuietly(conn);
+        }
+
+        final List<String> found = new ArrayList<String>();
+        con.sync(ObjectClass.ACCOUNT, new SyncToken(changelog - 1), new SyncResultsHandler() {
+            public boolean handle(SyncDelta delta) {
+                found.add(delta.getUid().getUidValue());
+                return true;
+            }
+        }, null);
+        AssertJUnit.assertEquals(expected.size(), found.size());
+        AssertJUnit.assertEquals(expected, new HashSet<String>(found));
+
+        // stop on the page boundary inside the same change log value and resume from the token
+        final List<SyncDelta> first = new ArrayList<SyncDelta>();
+        con.sync(ObjectClass.ACCOUNT, new SyncToken(changelog - 1), new SyncResultsHandler() {
+            public boolean handle(SyncDelta delta) {
+                first.add(delta);
+                return false;
+            }
+        }, null);
+        AssertJUnit.assertEquals(1, first.size());
+        final List<String> resumed = new ArrayList<String>();
+        resumed.add(first.get(0).getUid().getUidValue());
+        con.sync(ObjectClass.ACCOUNT, first.get(0).getToken(), new SyncResultsHandler() {
+            public boolean handle(SyncDelta delta) {
+                resumed.add(delta.getUid().getUidValue());
+                return true;
+            }
+        }, null);
+        AssertJUnit.assertEquals(expected.size(), resumed.size());
+        AssertJUnit.assertEquals(expected, new HashSet<String>(resumed));
+    }      
+    
     
     /**
      * Test creating of the connector object, searching using UID and delete
@@ -51,6 +51,11 @@ public class DatabaseConnection {
      */
     private Connection nativeConn = null;
 
+    /**
+     * The prepared statement cache, null when disabled.
+     */
+    private StatementCache statementCache = null;
+
     /**
      * Test constructor.
      */
@@ -78,6 +83,7 @@ public class DatabaseConnection {
      */
     @SuppressWarnings("deprecation")
     public void dispose() {
+        clearStatementCache();
         SQLUtil.closeQuietly(nativeConn);
     }
 
@@ -133,9 +139,69 @@ public class DatabaseConnection {
      *            new connection
      */
     public void setConnection(final Connection connection) {
+        clearStatementCache();
         this.nativeConn = connection;
     }
 
+    /**
+     * Set the size of the prepared statement cache.
+     * <p>
+     * The statements returned by the prepare methods are kept open when closed
+     * and reused for the same SQL, until evicted or the connection is
+     * disposed.
+     * </p>
+     *
+     * @param size
+     *            the maximum number of the idle statements, 0 disables the
+     *            cache
+     */
+    public void setStatementCacheSize(final int size) {
+        clearStatementCache();
+        this.statementCache = size > 0 ? new StatementCache(size) : null;
+    }
+
+    /**
+     * The number of statements taken from the cache.
+     *
+     * @return the cache hits
+     */
+    public long getStatementCacheHits() {
+        return statementCache != null ? statementCache.getHits() : 0;
+    }
+
+    /**
+     * The number of statements prepared on the connection while the cache is
+     * enabled.
+     *
+     * @return the cache misses
+     */
+    public long getStatementCacheMisses() {
+        return statementCache != null ? statementCache.getMisses() : 0;
+    }
+
+    /**
+     * Prepare the statement on the connection, the cached one when the cache
+     * is enabled.
+     *
+     * @param sql
+     *            the normalized sql statement
+     * @return the prepared statement
+     * @throws SQLException
+     *             an exception in statement
+     */
+    protected PreparedStatement getPreparedStatement(final String sql) throws SQLException {
+        if (statementCache != null) {
+            return statementCache.prepareStatement(getConnection(), sql);
+        }
+        return getConnection().prepareStatement(sql);
+    }
+
+    private void clearStatementCache() {
+        if (statementCache != null) {
+            statementCache.clear();
+        }
+    }
+
     /**
      * Indirect call of prepare statement with mapped prepare statement
      * parameters.
@@ -153,7 +219,7 @@ public class DatabaseConnection {
         LOG.ok("prepareStatement: statement {0}", sql);
         final List<SQLParam> out = new ArrayList<SQLParam>();
         final String nomalized = SQLUtil.normalizeNullValues(sql, params, out);
-        final PreparedStatement prepareStatement = getConnection().prepareStatement(nomalized);
+        final PreparedStatement prepareStatement = getPreparedStatement(nomalized);
         SQLUtil.setParams(prepareStatement, out);
         LOG.ok("prepareStatement: normalizzed statement {0} prepared", nomalized);
         return prepareStatement;
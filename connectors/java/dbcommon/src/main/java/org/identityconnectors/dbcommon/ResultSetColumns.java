@@ -0,0 +1,179 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.identityconnectors.dbcommon;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.identityconnectors.common.Assertions;
+import org.identityconnectors.common.CollectionUtil;
+
+/**
+ * The column names and types of a result set, read once from its
+ * {@link ResultSetMetaData}.
+ * <p>
+ * {@link SQLUtil#getColumnValues(ResultSet)} asks the metadata for every row
+ * and collects the values in a new map. Readers of many rows should resolve
+ * the columns once per statement and read the values by column index.
+ * </p>
+ *
+ * @since 1.4
+ */
+public final class ResultSetColumns {
+
+    private final String[] names;
+    private final int[] types;
+
+    /**
+     * Reads the columns of the metadata.
+     *
+     * @param meta
+     *            the result set metadata
+     * @throws SQLException
+     *             any SQL error
+     */
+    public ResultSetColumns(final ResultSetMetaData meta) throws SQLException {
+        Assertions.nullCheck(meta, "meta");
+        final int count = meta.getColumnCount();
+        names = new String[count + 1];
+        types = new int[count + 1];
+        for (int i = 1; i <= count; i++) {
+            names[i] = meta.getColumnName(i);
+            types[i] = meta.getColumnType(i);
+        }
+    }
+
+    /**
+     * Reads the columns of the result set.
+     *
+     * @param resultSet
+     *            the result set
+     * @return the columns
+     * @throws SQLException
+     *             any SQL error
+     */
+    public static ResultSetColumns resolve(final ResultSet resultSet) throws SQLException {
+        Assertions.nullCheck(resultSet, "resultSet");
+        return new ResultSetColumns(resultSet.getMetaData());
+    }
+
+    /**
+     * @return the number of columns
+     */
+    public int getColumnCount() {
+        return names.length - 1;
+    }
+
+    /**
+     * @param column
+     *            the first column is 1
+     * @return the column name
+     */
+    public String getColumnName(final int column) {
+        return names[column];
+    }
+
+    /**
+     * @param column
+     *            the first column is 1
+     * @return the SQL type from {@link java.sql.Types}
+     */
+    public int getColumnType(final int column) {
+        return types[column];
+    }
+
+    /**
+     * Finds the column ignoring case.
+     *
+     * @param name
+     *            the column name
+     * @return the column index or 0 if there is no such column
+     */
+    public int findColumn(final String name) {
+        if (name != null) {
+            for (int i = 1; i < names.length; i++) {
+                if (name.equalsIgnoreCase(names[i])) {
+                    return i;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Reads the value of one column of the current row.
+     *
+     * @param resultSet
+     *            the result set positioned on a row
+     * @param column
+     *            the first column is 1
+     * @return the parameter
+     * @throws SQLException
+     *             any SQL error
+     * @see SQLUtil#getSQLParam(ResultSet, int, String, int)
+     */
+    public SQLParam getSQLParam(final ResultSet resultSet, final int column) throws SQLException {
+        return SQLUtil.getSQLParam(resultSet, column, names[column], types[column]);
+    }
+
+    /**
+     * Reads the value of one column of the current row converted to an
+     * attribute value.
+     *
+     * @param resultSet
+     *            the result set positioned on a row
+     * @param column
+     *            the first column is 1
+     * @return the attribute value
+     * @throws SQLException
+     *             any SQL error
+     * @see SQLUtil#jdbc2AttributeValue(Object)
+     */
+    public Object getAttributeValue(final ResultSet resultSet, final int column) throws SQLException {
+        return SQLUtil.jdbc2AttributeValue(getSQLParam(resultSet, column).getValue());
+    }
+
+    /**
+     * Reads the current row into a case insensitive map, like
+     * {@link SQLUtil#getColumnValues(ResultSet)} does without asking the
+     * metadata again.
+     *
+     * @param resultSet
+     *            the result set positioned on a row
+     * @return the column values by column name
+     * @throws SQLException
+     *             any SQL error
+     */
+    public Map<String, SQLParam> getColumnValues(final ResultSet resultSet) throws SQLException {
+        Assertions.nullCheck(resultSet, "resultSet");
+        final Map<String, SQLParam> ret = CollectionUtil.<SQLParam> newCaseInsensitiveMap();
+        for (int i = 1; i < names.length; i++) {
+            ret.put(names[i], getSQLParam(resultSet, i));
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.identityconnectors.dbcommon;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * The least recently used cache of the idle prepared statements of one
+ * connection, keyed by the SQL.
+ * <p>
+ * The cache returns a proxy of the statement. Closing the proxy closes the
+ * result sets it returned, clears the parameters, resets the changed limits
+ * and returns the statement to the cache. The result sets are proxies too,
+ * their {@code getStatement()} returns the statement proxy. A statement in use
+ * is not in the cache, the same SQL prepared twice at once gets two
+ * statements.
+ * </p>
+ *
+ * @since 1.4
+ */
+final class StatementCache {
+    /**
+     * Setup logging for the {@link StatementCache}.
+     */
+    private static final Log LOG = Log.getLog(StatementCache.class);
+
+    private final int maxSize;
+    private final Map<String, PreparedStatement> idle;
+    private long hits = 0;
+    private long misses = 0;
+    private int generation = 0;
+
+    /**
+     * @param maxSize
+     *            the maximum number of the idle statements
+     */
+    StatementCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.idle = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    LOG.ok("evict statement {0}", eldest.getKey());
+                    SQLUtil.closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Take the idle statement or prepare a new one.
+     *
+     * @param conn
+     *            the connection
+     * @param sql
+     *            the normalized sql
+     * @return the statement proxy
+     * @throws SQLException
+     *             an exception in statement
+     */
+    synchronized PreparedStatement prepareStatement(final Connection conn, final String sql)
+            throws SQLException {
+        PreparedStatement statement = idle.remove(sql);
+        if (statement != null) {
+            hits++;
+        } else {
+            misses++;
+            statement = conn.prepareStatement(sql);
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { PreparedStatement.class },
+                new CachedStatement(sql, statement, generation));
+    }
+
+    /**
+     * Close all the idle statements, the statements in use are closed when
+     * released.
+     */
+    synchronized void clear() {
+        generation++;
+        final List<PreparedStatement> statements = new ArrayList<PreparedStatement>(idle.values());
+        idle.clear();
+        for (PreparedStatement statement : statements) {
+            SQLUtil.closeQuietly(statement);
+        }
+        LOG.ok("statement cache cleared, hits {0}, misses {1}", hits, misses);
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    private synchronized void release(final String sql, final PreparedStatement statement,
+            final int statementGeneration) {
+        if (statementGeneration != generation) {
+            SQLUtil.closeQuietly(statement);
+            return;
+        }
+        final PreparedStatement replaced = idle.put(sql, statement);
+        if (replaced != null && replaced != statement) {
+            SQLUtil.closeQuietly(replaced);
+        }
+    }
+
+    /**
+     * The statement proxy handler, the close returns the statement to the
+     * cache.
+     */
+    private final class CachedStatement implements InvocationHandler {
+        private final String sql;
+        private final PreparedStatement statement;
+        private final int statementGeneration;
+        private boolean closed = false;
+        private boolean maxRows = false;
+        private boolean fetchSize = false;
+        private boolean queryTimeout = false;
+        private final List<ResultSet> resultSets = new ArrayList<ResultSet>();
+
+        CachedStatement(final String sql, final PreparedStatement statement,
+                final int statementGeneration) {
+            this.sql = sql;
+            this.statement = statement;
+            this.statementGeneration = statementGeneration;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("close".equals(name) && method.getParameterTypes().length == 0) {
+                if (!closed) {
+                    closed = true;
+                    reset();
+                }
+                return null;
+            } else if ("isClosed".equals(name)) {
+                return closed;
+            } else if (closed) {
+                throw new SQLException("The statement is closed");
+            } else if ("setMaxRows".equals(name)) {
+                maxRows = true;
+            } else if ("setFetchSize".equals(name)) {
+                fetchSize = true;
+            } else if ("setQueryTimeout".equals(name)) {
+                queryTimeout = true;
+            }
+            final Object result;
+            try {
+                result = method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+            if (result instanceof ResultSet) {
+                resultSets.add((ResultSet) result);
+                return Proxy.newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[] { ResultSet.class }, new CachedResultSet(
+                                (ResultSet) result, proxy));
+            }
+            return result;
+        }
+
+        private void reset() {
+            for (ResultSet resultSet : resultSets) {
+                SQLUtil.closeQuietly(resultSet);
+            }
+            resultSets.clear();
+            try {
+                statement.clearParameters();
+                if (maxRows) {
+                    statement.setMaxRows(0);
+                }
+                if (fetchSize) {
+                    statement.setFetchSize(0);
+                }
+                if (queryTimeout) {
+                    statement.setQueryTimeout(0);
+                }
+                release(sql, statement, statementGeneration);
+            } catch (SQLException e) {
+                LOG.error(e, "statement {0} reset failed", sql);
+                SQLUtil.closeQuietly(statement);
+            }
+        }
+
+        /**
+         * The result set proxy handler, it does not let out the cached
+         * statement.
+         */
+        private final class CachedResultSet implements InvocationHandler {
+            private final ResultSet resultSet;
+            private final Object statementProxy;
+
+            CachedResultSet(final ResultSet resultSet, final Object statementProxy) {
+                this.resultSet = resultSet;
+                this.statementProxy = statementProxy;
+            }
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                final boolean noArgs = method.getParameterTypes().length == 0;
+                if ("getStatement".equals(method.getName()) && noArgs) {
+                    return statementProxy;
+                } else if ("close".equals(method.getName()) && noArgs) {
+                    resultSets.remove(resultSet);
+                }
+                try {
+                    return method.invoke(resultSet, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getTargetException();
+                }
+            }
+        }
+    }
+}
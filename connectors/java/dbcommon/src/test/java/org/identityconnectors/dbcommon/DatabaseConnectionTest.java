@@ -22,6 +22,7 @@
  */
 package org.identityconnectors.dbcommon;
 
+import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertSame;
 import static org.testng.AssertJUnit.assertTrue;
@@ -29,6 +30,7 @@ import static org.testng.AssertJUnit.assertTrue;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -238,4 +240,84 @@ public class DatabaseConnectionTest {
         dbc.commit();
         assertTrue("commit called", tp.isDone());
     }
+
+    /**
+     * Test method for
+     * {@link org.identityconnectors.dbcommon.DatabaseConnection#setStatementCacheSize(int)}
+     * .
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testStatementCache() throws Exception {
+        final ExpectProxy<Connection> tpc = new ExpectProxy<Connection>();
+        final ExpectProxy<PreparedStatement> tps = new ExpectProxy<PreparedStatement>();
+        final PreparedStatement xps = tps.getProxy(PreparedStatement.class);
+        tpc.expectAndReturn("prepareStatement", xps);
+        tps.expect("setObject");
+        tps.expect("setObject");
+        tps.expect("setMaxRows");
+        tps.expectAndReturn("execute", true);
+        tps.expect("clearParameters");
+        tps.expect("setMaxRows");
+        tps.expect("setObject");
+        tps.expect("setObject");
+        tps.expect("setMaxRows");
+        tps.expectAndReturn("execute", true);
+        tps.expect("clearParameters");
+        tps.expect("setMaxRows");
+        tps.expect("close");
+        tpc.expectAndReturn("isClosed", Boolean.FALSE);
+        tpc.expect("close");
+
+        DatabaseConnection dbc = new DatabaseConnection(tpc.getProxy(Connection.class));
+        dbc.setStatementCacheSize(1);
+        for (int i = 0; i < 2; i++) {
+            final PreparedStatement ps = dbc.prepareStatement(SELECT_SQL_STATEMENT, values);
+            ps.setMaxRows(1);
+            ps.execute();
+            ps.close();
+            assertTrue("statement closed", ps.isClosed());
+        }
+        assertEquals(1, dbc.getStatementCacheHits());
+        assertEquals(1, dbc.getStatementCacheMisses());
+        dbc.dispose();
+
+        assertTrue("statement prepared once", tpc.isDone());
+        assertTrue("statement reused", tps.isDone());
+    }
+
+    /**
+     * The cached statement closes the result sets it returned and does not let
+     * out the cached statement.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testStatementCacheClosesResultSet() throws Exception {
+        final ExpectProxy<Connection> tpc = new ExpectProxy<Connection>();
+        final ExpectProxy<PreparedStatement> tps = new ExpectProxy<PreparedStatement>();
+        final ExpectProxy<ResultSet> trs = new ExpectProxy<ResultSet>();
+        tpc.expectAndReturn("prepareStatement", tps.getProxy(PreparedStatement.class));
+        tps.expect("setObject");
+        tps.expect("setObject");
+        tps.expectAndReturn("executeQuery", trs.getProxy(ResultSet.class));
+        trs.expect("close");
+        tps.expect("clearParameters");
+        tps.expect("close");
+        tpc.expectAndReturn("isClosed", Boolean.FALSE);
+        tpc.expect("close");
+
+        DatabaseConnection dbc = new DatabaseConnection(tpc.getProxy(Connection.class));
+        dbc.setStatementCacheSize(1);
+        final PreparedStatement ps = dbc.prepareStatement(SELECT_SQL_STATEMENT, values);
+        final ResultSet rs = ps.executeQuery();
+        assertSame(ps, rs.getStatement());
+        ps.close();
+        dbc.dispose();
+
+        assertTrue("statement prepared once", tpc.isDone());
+        assertTrue("statement returned to the cache", tps.isDone());
+        assertTrue("result set closed", trs.isDone());
+    }
 }
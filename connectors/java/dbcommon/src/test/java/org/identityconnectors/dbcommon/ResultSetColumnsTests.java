@@ -0,0 +1,84 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.identityconnectors.dbcommon;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * The result set columns tests
+ */
+public class ResultSetColumnsTests {
+
+    /**
+     * The metadata is read once for all rows.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void testReadRowsByIndex() throws SQLException {
+        final ExpectProxy<ResultSet> trs = new ExpectProxy<ResultSet>();
+        final ResultSet resultSetProxy = trs.getProxy(ResultSet.class);
+        final ExpectProxy<ResultSetMetaData> trsmd = new ExpectProxy<ResultSetMetaData>();
+        final ResultSetMetaData metaDataProxy = trsmd.getProxy(ResultSetMetaData.class);
+
+        trs.expectAndReturn("getMetaData", metaDataProxy);
+        trsmd.expectAndReturn("getColumnCount", 2);
+        trsmd.expectAndReturn("getColumnName", "login");
+        trsmd.expectAndReturn("getColumnType", Types.VARCHAR);
+        trsmd.expectAndReturn("getColumnName", "changed");
+        trsmd.expectAndReturn("getColumnType", Types.TIMESTAMP);
+
+        final Timestamp changed = new Timestamp(0);
+        trs.expectAndReturn("getString", "user1");
+        trs.expectAndReturn("getTimestamp", changed);
+        trs.expectAndReturn("getString", "user2");
+        trs.expectAndReturn("getTimestamp", null);
+
+        final ResultSetColumns columns = ResultSetColumns.resolve(resultSetProxy);
+        assertTrue("metadata not read", trsmd.isDone());
+        assertEquals(2, columns.getColumnCount());
+        assertEquals(2, columns.findColumn("CHANGED"));
+        assertEquals(0, columns.findColumn("missing"));
+
+        assertEquals("user1", columns.getAttributeValue(resultSetProxy, 1));
+        assertEquals(SQLUtil.timestamp2String(changed), columns.getAttributeValue(resultSetProxy, 2));
+
+        final Map<String, SQLParam> actual = columns.getColumnValues(resultSetProxy);
+        assertTrue("values not read", trs.isDone());
+        assertEquals("user2", actual.get("LOGIN").getValue());
+        assertEquals(Types.TIMESTAMP, actual.get("changed").getSqlType());
+        assertEquals(null, actual.get("changed").getValue());
+    }
+}
@@ -29,12 +29,18 @@ import static org.identityconnectors.ldap.LdapUtil.escapeAttrValue;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.naming.InvalidNameException;
+import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
 import javax.naming.directory.AttributeInUseException;
 import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.DirContext;
@@ -84,6 +90,33 @@ public class GroupHelper {
         return handler.getResults();
     }
 
+    /**
+     * Returns the LDAP groups of the entries, resolved by one group search
+     * returning the member attribute. The memberships are taken from the
+     * group membership cache when it is enabled.
+     *
+     * @return the group DNs for every entry DN.
+     */
+    public Map<String, List<String>> getLdapGroups(Collection<String> entryDNs) {
+        Map<String, List<String>> result = new LinkedHashMap<String, List<String>>();
+        List<String> missing = getCached("ldap:", entryDNs, result, false);
+        if (!missing.isEmpty()) {
+            log.ok("Retrieving LDAP groups for {0} entries", missing.size());
+            String memberAttr = getLdapGroupMemberAttribute();
+            ToMembersHandler handler = new ToMembersHandler(memberAttr, missing, true);
+            LdapSearches.findEntries(handler, conn, createAttributeFilter(memberAttr, missing), memberAttr);
+            if (handler.isIncomplete()) {
+                // The server did not return all the member values, AD returns ranges for large groups.
+                log.ok("Member attribute {0} not returned, retrieving the groups of every entry", memberAttr);
+                for (String entryDN : missing) {
+                    handler.getResults().put(entryDN, getLdapGroups(entryDN));
+                }
+            }
+            putCached("ldap:", handler.getResults(), result, false);
+        }
+        return result;
+    }
+
     public Set<GroupMembership> getLdapGroupMemberships(String entryDN) {
         log.ok("Retrieving LDAP group memberships for {0}", entryDN);
         String filter = createAttributeFilter(getLdapGroupMemberAttribute(), singletonList(entryDN));
@@ -128,6 +161,30 @@ public class GroupHelper {
         return handler.getResults();
     }
 
+    /**
+     * Returns the POSIX groups of every POSIX reference attribute value, resolved
+     * by one group search returning the <code>memberUid</code> attribute.
+     * The memberships are taken from the group membership cache when it is enabled.
+     *
+     * @return the group DNs for every reference attribute value.
+     */
+    public Map<String, List<String>> getPosixGroupsByRef(Collection<String> posixRefAttrs) {
+        Map<String, List<String>> result = new LinkedHashMap<String, List<String>>();
+        List<String> missing = getCached("posix:", posixRefAttrs, result, true);
+        if (!missing.isEmpty()) {
+            log.ok("Retrieving POSIX groups for {0}", missing);
+            ToMembersHandler handler = new ToMembersHandler("memberUid", missing, false);
+            LdapSearches.findEntries(handler, conn, createAttributeFilter("memberUid", missing), "memberUid");
+            if (handler.isIncomplete()) {
+                for (String posixRefAttr : missing) {
+                    handler.getResults().put(posixRefAttr, getPosixGroups(singletonList(posixRefAttr)));
+                }
+            }
+            putCached("posix:", handler.getResults(), result, true);
+        }
+        return result;
+    }
+
     public Set<GroupMembership> getPosixGroupMemberships(Collection<String> posixRefAttrs) {
         log.ok("Retrieving POSIX group memberships for {0}", posixRefAttrs);
         ToGroupMembershipHandler handler = new ToGroupMembershipHandler();
@@ -165,6 +222,37 @@ public class GroupHelper {
         }
     }
 
+    private List<String> getCached(String prefix, Collection<String> keys, Map<String, List<String>> result, boolean exact) {
+        GroupMembershipCache cache = conn.getGroupMembershipCache();
+        Set<String> missing = new LinkedHashSet<String>();
+        for (String key : keys) {
+            List<String> groups = cache != null ? cache.get(prefix + (exact ? key : key.toLowerCase())) : null;
+            if (groups != null) {
+                result.put(key, groups);
+            } else {
+                missing.add(key);
+            }
+        }
+        return new ArrayList<String>(missing);
+    }
+
+    private void putCached(String prefix, Map<String, List<String>> resolved, Map<String, List<String>> result, boolean exact) {
+        GroupMembershipCache cache = conn.getGroupMembershipCache();
+        for (Map.Entry<String, List<String>> entry : resolved.entrySet()) {
+            result.put(entry.getKey(), entry.getValue());
+            if (cache != null) {
+                cache.put(prefix + (exact ? entry.getKey() : entry.getKey().toLowerCase()), entry.getValue());
+            }
+        }
+    }
+
+    private void invalidateCache() {
+        GroupMembershipCache cache = conn.getGroupMembershipCache();
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
     private String createAttributeFilter(String memberAttr, Collection<?> memberValues) {
         StringBuilder builder = new StringBuilder();
         boolean multi = memberValues.size() > 1;
@@ -185,6 +273,7 @@ public class GroupHelper {
     }
 
     private void addMemberToGroup(String memberAttr, String memberValue, String groupDN, LdapContext context) {
+        invalidateCache();
         BasicAttribute attr = new BasicAttribute(memberAttr, memberValue);
         ModificationItem item = new ModificationItem(DirContext.ADD_ATTRIBUTE, attr);
         try {
@@ -202,6 +291,7 @@ public class GroupHelper {
     }
 
     private void removeMemberFromGroup(String memberAttr, String memberValue, String groupDN, LdapContext context) {
+        invalidateCache();
         BasicAttribute attr = new BasicAttribute(memberAttr, memberValue);
         ModificationItem item = new ModificationItem(DirContext.REMOVE_ATTRIBUTE, attr);
         try {
@@ -329,6 +419,71 @@ public class GroupHelper {
         }
     }
 
+    /**
+     * Maps the member values of the returned groups back to the requested members.
+     */
+    private static final class ToMembersHandler implements LdapSearchResultsHandler {
+
+        private final String memberAttr;
+        private final boolean dnValues;
+        private final Map<Object, String> requested = new HashMap<Object, String>();
+        private final Map<String, List<String>> results = new LinkedHashMap<String, List<String>>();
+        private boolean incomplete = false;
+
+        public ToMembersHandler(String memberAttr, Collection<String> members, boolean dnValues) {
+            this.memberAttr = memberAttr;
+            this.dnValues = dnValues;
+            for (String member : members) {
+                requested.put(dnValues ? LdapUtil.quietCreateLdapName(member) : member, member);
+                results.put(member, new ArrayList<String>());
+            }
+        }
+
+        public boolean handle(String baseDN, SearchResult searchResult) throws NamingException {
+            String groupDN = LdapEntry.create(baseDN, searchResult).getDN().toString();
+            Attribute attr = searchResult.getAttributes().get(memberAttr);
+            if (attr == null) {
+                incomplete = true;
+                return true;
+            }
+            NamingEnumeration<?> values = attr.getAll();
+            try {
+                while (values.hasMore()) {
+                    Object value = values.next();
+                    if (value == null) {
+                        continue;
+                    }
+                    String member = requested.get(toKey(value.toString()));
+                    if (member != null) {
+                        results.get(member).add(groupDN);
+                    }
+                }
+            } finally {
+                values.close();
+            }
+            return true;
+        }
+
+        private Object toKey(String value) {
+            if (!dnValues) {
+                return value;
+            }
+            try {
+                return new LdapName(value);
+            } catch (InvalidNameException e) {
+                return value;
+            }
+        }
+
+        public boolean isIncomplete() {
+            return incomplete;
+        }
+
+        public Map<String, List<String>> getResults() {
+            return results;
+        }
+    }
+
     private static final class ToGroupMembershipHandler implements LdapSearchResultsHandler {
 
         private final Set<GroupMembership> results = new HashSet<GroupMembership>();
@@ -0,0 +1,89 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.identityconnectors.ldap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A short-lived cache of the group memberships resolved by the searches.
+ * The entries expire after the configured timeout, the whole cache is
+ * cleared when the connector changes a group membership.
+ */
+final class GroupMembershipCache {
+
+    private static final int MAX_ENTRIES = 10000;
+
+    private final long timeout;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    GroupMembershipCache(long timeout) {
+        this.timeout = timeout;
+    }
+
+    synchronized List<String> get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.groups;
+    }
+
+    synchronized void put(String key, List<String> groups) {
+        if (entries.size() >= MAX_ENTRIES) {
+            long now = System.currentTimeMillis();
+            for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+                if (i.next().expires < now) {
+                    i.remove();
+                }
+            }
+            if (entries.size() >= MAX_ENTRIES) {
+                entries.clear();
+            }
+        }
+        entries.put(key, new Entry(groups, System.currentTimeMillis() + timeout));
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    private static final class Entry {
+
+        private final List<String> groups;
+        private final long expires;
+
+        Entry(List<String> groups, long expires) {
+            this.groups = groups;
+            this.expires = expires;
+        }
+    }
+}
@@ -149,6 +149,22 @@ public class LdapConfiguration extends AbstractConfiguration {
      */
     private boolean getGroupMemberId = false;
 
+    /**
+     * The number of entries whose group memberships are resolved by one group search.
+     */
+    private int groupMembershipBatchSize = 1;
+
+    /**
+     * The entry attribute listing the groups of the entry, like memberOf or isMemberOf.
+     * If set, the LDAP groups are read from the entry instead of searching the groups.
+     */
+    private String memberOfAttribute = null;
+
+    /**
+     * How long the group memberships resolved by a search are cached, in milliseconds.
+     */
+    private long groupMembershipCacheTimeout = 0;
+
     /**
      * If true, will modify group membership of renamed/deleted entries.
      */
@@ -301,6 +317,14 @@ public class LdapConfiguration extends AbstractConfiguration {
 
         checkNotBlank(groupMemberAttribute, "groupMemberAttribute.notBlank");
 
+        if (groupMembershipBatchSize <= 0) {
+            failValidation("groupMembershipBatchSize.legalValue");
+        }
+
+        if (groupMembershipCacheTimeout < 0) {
+            failValidation("groupMembershipCacheTimeout.legalValue");
+        }
+
         if (blockSize <= 0) {
             failValidation("blockSize.legalValue");
         }
@@ -578,6 +602,30 @@ public class LdapConfiguration extends AbstractConfiguration {
         this.groupMemberAttribute = groupMemberAttribute;
     }
 
+    public int getGroupMembershipBatchSize() {
+        return groupMembershipBatchSize;
+    }
+
+    public void setGroupMembershipBatchSize(int groupMembershipBatchSize) {
+        this.groupMembershipBatchSize = groupMembershipBatchSize;
+    }
+
+    public String getMemberOfAttribute() {
+        return memberOfAttribute;
+    }
+
+    public void setMemberOfAttribute(String memberOfAttribute) {
+        this.memberOfAttribute = memberOfAttribute;
+    }
+
+    public long getGroupMembershipCacheTimeout() {
+        return groupMembershipCacheTimeout;
+    }
+
+    public void setGroupMembershipCacheTimeout(long groupMembershipCacheTimeout) {
+        this.groupMembershipCacheTimeout = groupMembershipCacheTimeout;
+    }
+
     public boolean isGetGroupMemberId() {
         return getGroupMemberId;
     }
@@ -890,6 +938,9 @@ public class LdapConfiguration extends AbstractConfiguration {
         builder.append(passwordAttribute);
         builder.append(accountSearchFilter);
         builder.append(groupMemberAttribute);
+        builder.append(groupMembershipBatchSize);
+        builder.append(memberOfAttribute);
+        builder.append(groupMembershipCacheTimeout);
         builder.append(maintainLdapGroupMembership);
         builder.append(maintainPosixGroupMembership);
         builder.append(passwordHashAlgorithm);
@@ -112,6 +112,7 @@ public class LdapConnection {
     private LdapContext initCtx;
     private Set<String> supportedControls;
     private ServerType serverType;
+    private GroupMembershipCache groupMembershipCache;
 
     public LdapConnection(LdapConfiguration config) {
         this.config = config;
@@ -326,6 +327,17 @@ public class LdapConnection {
         return builder.toString();
     }
 
+    /**
+     * Returns the group membership cache, or {@code null} if the cache
+     * is disabled.
+     */
+    synchronized GroupMembershipCache getGroupMembershipCache() {
+        if (groupMembershipCache == null && config.getGroupMembershipCacheTimeout() > 0) {
+            groupMembershipCache = new GroupMembershipCache(config.getGroupMembershipCacheTimeout());
+        }
+        return groupMembershipCache;
+    }
+
     public void close() {
         try {
             quietClose(initCtx);
@@ -25,8 +25,12 @@
  */
 package org.identityconnectors.ldap.search;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static java.util.Collections.singletonList;
@@ -99,6 +103,8 @@ public class LdapSearch {
     private final String[] baseDNs;
     private PasswordDecryptor passwordDecryptor = null;
     private final ResultsHandler handler;
+    private Map<String, List<String>> ldapGroupsBatch = null;
+    private Map<String, List<String>> posixGroupsBatch = null;
 
     public static Set<String> getAttributesReturnedByDefault(LdapConnection conn, ObjectClass oclass) {
         if (oclass.equals(LdapSchemaMapping.ANY_OBJECT_CLASS)) {
@@ -146,11 +152,31 @@ public class LdapSearch {
         final String[] attrsToGetOption = options.getAttributesToGet();
         final Set<String> attrsToGet = getAttributesToGet(attrsToGetOption);
         LdapInternalSearch search = getInternalSearch(attrsToGet);
-        search.execute(new LdapSearchResultsHandler() {
-            public boolean handle(String baseDN, SearchResult result) throws NamingException {
-                return handler.handle(createConnectorObject(baseDN, result, attrsToGet, attrsToGetOption != null));
+        if (isGroupBatching(attrsToGet)) {
+            // Collect the entries and resolve the group memberships of a whole batch at once
+            final int batchSize = conn.getConfiguration().getGroupMembershipBatchSize();
+            final List<LdapEntry> batch = new ArrayList<LdapEntry>(batchSize);
+            final boolean[] stopped = { false };
+            search.execute(new LdapSearchResultsHandler() {
+                public boolean handle(String baseDN, SearchResult result) throws NamingException {
+                    batch.add(LdapEntry.create(baseDN, result));
+                    if (batch.size() < batchSize) {
+                        return true;
+                    }
+                    stopped[0] = !handleBatch(batch, handler, attrsToGet, attrsToGetOption != null);
+                    return !stopped[0];
+                }
+            });
+            if (!stopped[0] && !batch.isEmpty()) {
+                handleBatch(batch, handler, attrsToGet, attrsToGetOption != null);
             }
-        });
+        } else {
+            search.execute(new LdapSearchResultsHandler() {
+                public boolean handle(String baseDN, SearchResult result) throws NamingException {
+                    return handler.handle(createConnectorObject(baseDN, result, attrsToGet, attrsToGetOption != null));
+                }
+            });
+        }
         
         if (handler instanceof SearchResultsHandler) {
         	String pagedResultsCookie = search.getPagedResultsCookie();
@@ -179,6 +205,95 @@ public class LdapSearch {
         return results[0];
     }
 
+    private boolean isGroupBatching(Set<String> attrsToGet) {
+        LdapConfiguration config = conn.getConfiguration();
+        if (config.getGroupMembershipBatchSize() <= 1 && config.getGroupMembershipCacheTimeout() <= 0) {
+            return false;
+        }
+        for (String attrName : attrsToGet) {
+            if ((LdapConstants.isLdapGroups(attrName) && isBlank(config.getMemberOfAttribute()))
+                    || LdapConstants.isPosixGroups(attrName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean handleBatch(List<LdapEntry> batch, ResultsHandler handler, Set<String> attrsToGet, boolean emptyAttrWhenNotFound) {
+        try {
+            resolveGroups(batch, attrsToGet);
+            for (LdapEntry entry : batch) {
+                if (!handler.handle(createConnectorObject(entry, attrsToGet, emptyAttrWhenNotFound))) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            batch.clear();
+            ldapGroupsBatch = null;
+            posixGroupsBatch = null;
+        }
+    }
+
+    private void resolveGroups(List<LdapEntry> batch, Set<String> attrsToGet) {
+        boolean ldapGroups = false;
+        boolean posixGroups = false;
+        for (String attrName : attrsToGet) {
+            ldapGroups |= LdapConstants.isLdapGroups(attrName);
+            posixGroups |= LdapConstants.isPosixGroups(attrName);
+        }
+        if (ldapGroups && isBlank(conn.getConfiguration().getMemberOfAttribute())) {
+            List<String> entryDNs = new ArrayList<String>(batch.size());
+            for (LdapEntry entry : batch) {
+                entryDNs.add(entry.getDN().toString());
+            }
+            ldapGroupsBatch = groupHelper.getLdapGroups(entryDNs);
+        }
+        if (posixGroups) {
+            Set<String> posixRefAttrs = new LinkedHashSet<String>();
+            for (LdapEntry entry : batch) {
+                posixRefAttrs.addAll(getStringAttrValues(entry.getAttributes(), GroupHelper.getPosixRefAttribute()));
+            }
+            posixGroupsBatch = groupHelper.getPosixGroupsByRef(posixRefAttrs);
+        }
+    }
+
+    private List<String> getLdapGroups(LdapEntry entry) {
+        String memberOfAttr = conn.getConfiguration().getMemberOfAttribute();
+        if (!isBlank(memberOfAttr)) {
+            return new ArrayList<String>(getStringAttrValues(entry.getAttributes(), memberOfAttr));
+        }
+        String entryDN = entry.getDN().toString();
+        if (ldapGroupsBatch != null && ldapGroupsBatch.containsKey(entryDN)) {
+            return ldapGroupsBatch.get(entryDN);
+        }
+        if (conn.getConfiguration().getGroupMembershipCacheTimeout() > 0) {
+            return groupHelper.getLdapGroups(singletonList(entryDN)).get(entryDN);
+        }
+        return groupHelper.getLdapGroups(entryDN);
+    }
+
+    private List<String> getPosixGroups(Set<String> posixRefAttrs) {
+        if (posixGroupsBatch != null && posixGroupsBatch.keySet().containsAll(posixRefAttrs)) {
+            return unionGroups(posixRefAttrs, posixGroupsBatch);
+        }
+        if (conn.getConfiguration().getGroupMembershipCacheTimeout() > 0) {
+            return unionGroups(posixRefAttrs, groupHelper.getPosixGroupsByRef(posixRefAttrs));
+        }
+        return groupHelper.getPosixGroups(posixRefAttrs);
+    }
+
+    private static List<String> unionGroups(Collection<String> posixRefAttrs, Map<String, List<String>> groupsByRef) {
+        Set<String> result = new LinkedHashSet<String>();
+        for (String posixRefAttr : posixRefAttrs) {
+            List<String> groups = groupsByRef.get(posixRefAttr);
+            if (groups != null) {
+                result.addAll(groups);
+            }
+        }
+        return new ArrayList<String>(result);
+    }
+
     private LdapInternalSearch getInternalSearch(Set<String> attrsToGet) {
         // This is a bit tricky. If the LdapFilter has an entry DN,
         // we only need to look at that entry and check whether it matches
@@ -228,12 +343,16 @@ public class LdapSearch {
     private Set<String> getLdapAttributesToGet(Set<String> attrsToGet) {
         Set<String> cleanAttrsToGet = newCaseInsensitiveSet();
         cleanAttrsToGet.addAll(attrsToGet);
-        cleanAttrsToGet.remove(LdapConstants.LDAP_GROUPS_NAME);
+        boolean ldapGroups = cleanAttrsToGet.remove(LdapConstants.LDAP_GROUPS_NAME);
         boolean posixGroups = cleanAttrsToGet.remove(LdapConstants.POSIX_GROUPS_NAME);
         Set<String> result = conn.getSchemaMapping().getLdapAttributes(oclass, cleanAttrsToGet, true);
         if (posixGroups) {
             result.add(GroupHelper.getPosixRefAttribute());
         }
+        String memberOfAttr = conn.getConfiguration().getMemberOfAttribute();
+        if (ldapGroups && !isBlank(memberOfAttr)) {
+            result.add(memberOfAttr);
+        }
         // For compatibility with the adapter, we do not ask the server for DN attributes,
         // such as entryDN; we compute them ourselves. Some servers might not support such attributes anyway.
         result.removeAll(LdapEntry.ENTRY_DN_ATTRS);
@@ -247,8 +366,10 @@ public class LdapSearch {
      * is used to compute the connector object's name attribute.
      */
     private ConnectorObject createConnectorObject(String baseDN, SearchResult result, Set<String> attrsToGet, boolean emptyAttrWhenNotFound) {
-        LdapEntry entry = LdapEntry.create(baseDN, result);
+        return createConnectorObject(LdapEntry.create(baseDN, result), attrsToGet, emptyAttrWhenNotFound);
+    }
 
+    private ConnectorObject createConnectorObject(LdapEntry entry, Set<String> attrsToGet, boolean emptyAttrWhenNotFound) {
         ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
         builder.setObjectClass(oclass);
         builder.setUid(conn.getSchemaMapping().createUid(oclass, entry));
@@ -260,11 +381,11 @@ public class LdapSearch {
                 continue;
             }
             if (LdapConstants.isLdapGroups(attrName)) {
-                List<String> ldapGroups = groupHelper.getLdapGroups(entry.getDN().toString());
+                List<String> ldapGroups = getLdapGroups(entry);
                 attribute = AttributeBuilder.build(LdapConstants.LDAP_GROUPS_NAME, ldapGroups);
             } else if (LdapConstants.isPosixGroups(attrName)) {
                 Set<String> posixRefAttrs = getStringAttrValues(entry.getAttributes(), GroupHelper.getPosixRefAttribute());
-                List<String> posixGroups = groupHelper.getPosixGroups(posixRefAttrs);
+                List<String> posixGroups = getPosixGroups(posixRefAttrs);
                 attribute = AttributeBuilder.build(LdapConstants.POSIX_GROUPS_NAME, posixGroups);
 			} else if (LdapConstants.PASSWORD.is(attrName)) {
 				try {
@@ -31,6 +31,7 @@ import static org.identityconnectors.common.CollectionUtil.newSet;
 import static org.identityconnectors.common.CollectionUtil.nullAsEmpty;
 import static org.identityconnectors.common.StringUtil.isBlank;
 import static org.identityconnectors.ldap.LdapUtil.checkedListByFilter;
+import static org.identityconnectors.ldap.LdapUtil.escapeAttrValue;
 import static org.identityconnectors.ldap.LdapUtil.getStringAttrValue;
 import static org.identityconnectors.ldap.LdapUtil.isUnderContexts;
 import static org.identityconnectors.ldap.LdapUtil.nullAsEmpty;
@@ -39,10 +40,15 @@ import static org.identityconnectors.ldap.LdapUtil.quietCreateLdapName;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import javax.naming.InvalidNameException;
 import javax.naming.NamingException;
@@ -50,6 +56,7 @@ import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
 
 import org.identityconnectors.common.Base64;
 import org.identityconnectors.common.logging.Log;
@@ -62,7 +69,9 @@ import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
 import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.SyncDelta;
 import org.identityconnectors.framework.common.objects.SyncDeltaBuilder;
 import org.identityconnectors.framework.common.objects.SyncDeltaType;
@@ -140,6 +149,9 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
             String filter = getChangeLogSearchFilter(changeNumberAttr, currentChangeNumber[0]);
             LdapInternalSearch search = new LdapInternalSearch(conn, filter, singletonList(context), new DefaultSearchStrategy(false), controls);
 
+            // Collect the whole block of changes first, so that the modified
+            // entries can be fetched with a few searches instead of one per change.
+            final SortedMap<Integer, LdapEntry> window = new TreeMap<Integer, LdapEntry>();
             search.execute(new LdapSearchResultsHandler() {
                 public boolean handle(String baseDN, SearchResult result) throws NamingException {
                     results[0] = true;
@@ -149,22 +161,15 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
                     if (changeNumber > currentChangeNumber[0]) {
                         currentChangeNumber[0] = changeNumber;
                     }
-
-                    SyncDelta delta = createSyncDelta(entry, changeNumber, options.getAttributesToGet());
-                    if (delta != null) {
-                        boolean handled = handler.handle(delta);
-                        if (handled){
-                            processedChangeNumber[0] = changeNumber;
-                        } else{
-                            results[0] = false;
-                        }
-                        return handled;
-                    }
-                    processedChangeNumber[0] = changeNumber;
+                    window.put(changeNumber, entry);
                     return true;
                 }
             });
 
+            if (!processWindow(window, handler, options.getAttributesToGet(), processedChangeNumber)) {
+                results[0] = false;
+            }
+
             // We have already processed the current change.
             // In the next cycle we want to start with the next change.
             if (results[0]) {
@@ -177,7 +182,154 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
         }
     }
 
-    private SyncDelta createSyncDelta(LdapEntry changeLogEntry, int changeNumber, String[] attrsToGetOption) {
+    /**
+     * Creates the sync deltas for a block of change log entries and passes
+     * them to the handler in change number order. Returns {@code false} if the
+     * handler asked to stop. The processed change number only moves past a
+     * collapsed change once the change it was collapsed into was handled.
+     */
+    boolean processWindow(SortedMap<Integer, LdapEntry> window, SyncResultsHandler handler, String[] attrsToGetOption, int[] processedChangeNumber) {
+        List<PendingChange> changes = new ArrayList<PendingChange>(window.size());
+        Map<LdapName, PendingChange> lastChangeByDN = new HashMap<LdapName, PendingChange>();
+        Set<String> targetDNs = new LinkedHashSet<String>();
+        for (Map.Entry<Integer, LdapEntry> entry : window.entrySet()) {
+            PendingChange change = prepareChange(entry.getValue(), entry.getKey());
+            changes.add(change);
+            if (change == null) {
+                continue;
+            }
+            if (change.delta != null || "modrdn".equalsIgnoreCase(change.changeType)) {
+                // The entry is gone from its old DN, so earlier changes must be reported as they are.
+                lastChangeByDN.remove(change.targetName);
+            }
+            if (change.newTargetDN == null) {
+                continue;
+            }
+            targetDNs.add(change.newTargetDN);
+            LdapName newTargetName = quietCreateLdapName(change.newTargetDN);
+            PendingChange previous = lastChangeByDN.put(newTargetName, change);
+            if (previous != null && previous.isCollapsible()) {
+                // Both changes would report the same current state of the entry.
+                log.ok("Collapsing log entry {0} into log entry {1}", previous.changeNumber, change.changeNumber);
+                previous.collapsed = true;
+                change.absorbed += previous.absorbed + 1;
+                if (SyncDeltaType.CREATE.equals(previous.deltaType)) {
+                    change.deltaType = SyncDeltaType.CREATE;
+                }
+            }
+        }
+
+        // Always specify the attributes to get. This will return attributes with
+        // empty values when the attribute is not present, allowing the client to
+        // detect that the attribute has been removed.
+        Set<String> attrsToGet;
+        if (attrsToGetOption != null) {
+            attrsToGet = newSet(attrsToGetOption);
+            // Do not retrieve the password attribute from the entry (usually it is an unusable
+            // hashed value anyway). We will use the one from the change log below.
+            attrsToGet.remove(OperationalAttributes.PASSWORD_NAME);
+        } else {
+            attrsToGet = newSet(LdapSearch.getAttributesReturnedByDefault(conn, oclass));
+        }
+        // If objectClass is not in the list of attributes to get, prepare to remove it later.
+        boolean removeObjectClass = attrsToGet.add("objectClass");
+        Map<LdapName, ConnectorObject> objects = findTargetObjects(targetDNs, attrsToGet.toArray(new String[attrsToGet.size()]));
+
+        // The number of collapsed changes whose state has not been reported yet.
+        int unreported = 0;
+        Iterator<Integer> changeNumbers = window.keySet().iterator();
+        for (PendingChange change : changes) {
+            int changeNumber = changeNumbers.next();
+            SyncDelta delta = null;
+            if (change != null) {
+                if (change.collapsed) {
+                    unreported++;
+                    continue;
+                }
+                delta = change.delta;
+                if (delta == null) {
+                    delta = createSyncDelta(change, objects.get(quietCreateLdapName(change.newTargetDN)), removeObjectClass);
+                }
+            }
+            if (delta != null && !handler.handle(delta)) {
+                return false;
+            }
+            if (change != null) {
+                unreported -= change.absorbed;
+            }
+            if (unreported == 0) {
+                processedChangeNumber[0] = changeNumber;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fetches the given entries with as few searches as possible. The entries
+     * are looked up by the value of their RDN below the base contexts, and any
+     * entry the batched search did not find is looked up by its DN.
+     */
+    Map<LdapName, ConnectorObject> findTargetObjects(Collection<String> targetDNs, String[] attrsToGet) {
+        final Map<LdapName, ConnectorObject> result = new HashMap<LdapName, ConnectorObject>();
+        if (targetDNs.isEmpty()) {
+            return result;
+        }
+        final Set<LdapName> targetNames = new HashSet<LdapName>();
+        if (targetDNs.size() > 1) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("(|");
+            for (String targetDN : targetDNs) {
+                LdapName targetName = quietCreateLdapName(targetDN);
+                if (targetName.isEmpty()) {
+                    continue;
+                }
+                Rdn rdn = targetName.getRdn(targetName.size() - 1);
+                // Multi-valued RDNs are left to the lookup by DN.
+                if (rdn.size() == 1 && targetNames.add(targetName)) {
+                    builder.append('(');
+                    builder.append(rdn.getType());
+                    builder.append('=');
+                    escapeAttrValue(rdn.getValue(), builder);
+                    builder.append(')');
+                }
+            }
+            builder.append(')');
+
+            if (targetNames.size() > 1) {
+                log.ok("Searching for {0} modified entries", targetNames.size());
+                LdapFilter filter = LdapFilter.forNativeFilter(builder.toString()).and(LdapFilter.forNativeFilter(getModifiedEntrySearchFilter()));
+                OperationOptionsBuilder optionsBuilder = new OperationOptionsBuilder();
+                optionsBuilder.setAttributesToGet(attrsToGet);
+                new LdapSearch(conn, oclass, filter, null, optionsBuilder.build()).execute(new ResultsHandler() {
+                    public boolean handle(ConnectorObject object) {
+                        // The schema mapping always uses the entry DN as the Name.
+                        LdapName name = quietCreateLdapName(object.getName().getNameValue());
+                        // Other entries may share the RDN value of a modified entry.
+                        if (targetNames.contains(name)) {
+                            result.put(name, object);
+                        }
+                        return true;
+                    }
+                });
+            }
+        }
+
+        for (String targetDN : targetDNs) {
+            LdapName targetName = quietCreateLdapName(targetDN);
+            if (!result.containsKey(targetName)) {
+                LdapFilter filter = LdapFilter.forEntryDN(targetDN).withNativeFilter(getModifiedEntrySearchFilter());
+                result.put(targetName, LdapSearches.findObject(conn, oclass, filter, attrsToGet));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Applies the filters that only depend on the change log entry. Returns
+     * {@code null} if the entry should be skipped. Delete changes are
+     * returned with their sync delta already built.
+     */
+    private PendingChange prepareChange(LdapEntry changeLogEntry, int changeNumber) {
         log.ok("Attempting to create sync delta for log entry {0}", changeNumber);
 
         String targetDN = getStringAttrValue(changeLogEntry.getAttributes(), "targetDN");
@@ -193,19 +345,19 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
         }
 
         String changeType = getStringAttrValue(changeLogEntry.getAttributes(), "changeType");
-        SyncDeltaType deltaType = getSyncDeltaType(changeType);
-
-        SyncDeltaBuilder syncDeltaBuilder = new SyncDeltaBuilder();
-        syncDeltaBuilder.setToken(new SyncToken(changeNumber));
-        syncDeltaBuilder.setDeltaType(deltaType);
+        PendingChange change = new PendingChange(changeNumber, changeType, targetDN, targetName, getSyncDeltaType(changeType));
 
-        if (deltaType.equals(SyncDeltaType.DELETE)) {
+        if (change.deltaType.equals(SyncDeltaType.DELETE)) {
             log.ok("Creating sync delta for deleted entry");
             // XXX fix this!
             if (filterOutDeleteByModifiersNames(changeLogEntry)) {
                 log.ok("Skipping entry because modifiersName is in the list of modifiersName's to filter out");
                 return null;
             }
+            SyncDeltaBuilder syncDeltaBuilder = new SyncDeltaBuilder();
+            syncDeltaBuilder.setToken(new SyncToken(changeNumber));
+            syncDeltaBuilder.setDeltaType(change.deltaType);
+            syncDeltaBuilder.setObjectClass(oclass);
             String uidAttr = conn.getSchemaMapping().getLdapUidAttribute(oclass);            
             if (!LdapEntry.isDNAttribute(uidAttr)) {
                 String guid = null;
@@ -236,25 +388,26 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
             } else {
                 syncDeltaBuilder.setUid(new Uid(targetDN));
             }
-            return syncDeltaBuilder.build();
+            change.delta = syncDeltaBuilder.build();
+            return change;
         }
 
         String changes = getStringAttrValue(changeLogEntry.getAttributes(), "changes");
-        Map<String, List<Object>> attrChanges = getAttributeChanges(changeType, changes);
+        change.attrChanges = getAttributeChanges(changeType, changes);
 
-        if (filterOutByModifiersNames(attrChanges)) {
+        if (filterOutByModifiersNames(change.attrChanges)) {
             log.ok("Skipping entry because modifiersName is in the list of modifiersName's to filter out");
             return null;
         }
 
-        if (filterOutByAttributes(attrChanges)) {
+        if (filterOutByAttributes(change.attrChanges)) {
             log.ok("Skipping entry because no changed attributes in the list of attributes to synchronize");
             return null;
         }
         
         // If the change type was modrdn, we need to compute the DN that the entry
         // was modified to.
-        String newTargetDN = targetDN;
+        change.newTargetDN = targetDN;
         if ("modrdn".equalsIgnoreCase(changeType)) {
             String newRdn = getStringAttrValue(changeLogEntry.getAttributes(), "newRdn");
             if (isBlank(newRdn)) {
@@ -262,26 +415,12 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
                 return null;
             }
             String newSuperior = getStringAttrValue(changeLogEntry.getAttributes(), "newSuperior");
-            newTargetDN = getNewTargetDN(targetName, newSuperior, newRdn);
+            change.newTargetDN = getNewTargetDN(targetName, newSuperior, newRdn);
         }
+        return change;
+    }
 
-        // Always specify the attributes to get. This will return attributes with
-        // empty values when the attribute is not present, allowing the client to
-        // detect that the attribute has been removed.
-        Set<String> attrsToGet;
-        if (attrsToGetOption != null) {
-            attrsToGet = newSet(attrsToGetOption);
-            // Do not retrieve the password attribute from the entry (usually it is an unusable
-            // hashed value anyway). We will use the one from the change log below.
-            attrsToGet.remove(OperationalAttributes.PASSWORD_NAME);
-        } else {
-            attrsToGet = newSet(LdapSearch.getAttributesReturnedByDefault(conn, oclass));
-        }
-        // If objectClass is not in the list of attributes to get, prepare to remove it later.
-        boolean removeObjectClass = attrsToGet.add("objectClass");
-        LdapFilter filter = LdapFilter.forEntryDN(newTargetDN).withNativeFilter(getModifiedEntrySearchFilter());
-
-        ConnectorObject object = LdapSearches.findObject(conn, oclass, filter, attrsToGet.toArray(new String[attrsToGet.size()]));
+    private SyncDelta createSyncDelta(PendingChange change, ConnectorObject object, boolean removeObjectClass) {
         if (object == null) {
             log.ok("Skipping entry because the modified entry is missing, not of the right object class, or not matching the search filter");
             return null;
@@ -295,13 +434,11 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
         }
 
         Attribute passwordAttr = null;
-        if (conn.getConfiguration().isSynchronizePasswords()) {
-            List<Object> passwordValues = attrChanges.get(conn.getConfiguration().getPasswordAttributeToSynchronize());
-            if (!passwordValues.isEmpty()) {
-                byte[] encryptedPwd = (byte[]) passwordValues.get(0); 
-                String decryptedPwd = getPasswordDecryptor().decryptPassword(encryptedPwd);
-                passwordAttr = AttributeBuilder.buildPassword(new GuardedString(decryptedPwd.toCharArray()));
-            }
+        if (change.hasPasswordChange()) {
+            List<Object> passwordValues = change.attrChanges.get(conn.getConfiguration().getPasswordAttributeToSynchronize());
+            byte[] encryptedPwd = (byte[]) passwordValues.get(0); 
+            String decryptedPwd = getPasswordDecryptor().decryptPassword(encryptedPwd);
+            passwordAttr = AttributeBuilder.buildPassword(new GuardedString(decryptedPwd.toCharArray()));
         }
 
         if (removeObjectClass || passwordAttr != null) {
@@ -325,11 +462,14 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
         }
 
         log.ok("Creating sync delta for created or updated entry");
-        if ("modrdn".equalsIgnoreCase(changeType)) {
+        SyncDeltaBuilder syncDeltaBuilder = new SyncDeltaBuilder();
+        syncDeltaBuilder.setToken(new SyncToken(change.changeNumber));
+        syncDeltaBuilder.setDeltaType(change.deltaType);
+        if ("modrdn".equalsIgnoreCase(change.changeType)) {
             String uidAttr = conn.getSchemaMapping().getLdapUidAttribute(oclass);
             // We can only set the previous Uid if it is the entry DN, which is readily available.
             if (LdapEntry.isDNAttribute(uidAttr)) {
-                syncDeltaBuilder.setPreviousUid(conn.getSchemaMapping().createUid(oclass, targetDN));
+                syncDeltaBuilder.setPreviousUid(conn.getSchemaMapping().createUid(oclass, change.targetDN));
             }
         }
         syncDeltaBuilder.setUid(object.getUid());
@@ -418,7 +558,7 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
     private SyncDeltaType getSyncDeltaType(String changeType) {
         if ("delete".equalsIgnoreCase(changeType)) {
             return SyncDeltaType.DELETE;
-        } else if ("modify".equalsIgnoreCase(changeType)){
+        } else if ("modify".equalsIgnoreCase(changeType) || "modrdn".equalsIgnoreCase(changeType)){
             return SyncDeltaType.UPDATE;
         } else if ("add".equalsIgnoreCase(changeType)){
             return SyncDeltaType.CREATE;
@@ -671,4 +811,44 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
         }
         return result;
     }
+
+    /**
+     * A change log entry that passed the filters which do not need the
+     * modified entry.
+     */
+    private final class PendingChange {
+
+        final int changeNumber;
+        final String changeType;
+        final String targetDN;
+        final LdapName targetName;
+        SyncDeltaType deltaType;
+        String newTargetDN;
+        Map<String, List<Object>> attrChanges;
+        SyncDelta delta;
+        boolean collapsed;
+        // The number of earlier changes collapsed into this one.
+        int absorbed;
+
+        PendingChange(int changeNumber, String changeType, String targetDN, LdapName targetName, SyncDeltaType deltaType) {
+            this.changeNumber = changeNumber;
+            this.changeType = changeType;
+            this.targetDN = targetDN;
+            this.targetName = targetName;
+            this.deltaType = deltaType;
+        }
+
+        boolean hasPasswordChange() {
+            return conn.getConfiguration().isSynchronizePasswords()
+                    && !isEmpty(attrChanges.get(conn.getConfiguration().getPasswordAttributeToSynchronize()));
+        }
+
+        /**
+         * Returns {@code true} if a later change of the same entry reports
+         * everything this change would.
+         */
+        boolean isCollapsible() {
+            return delta == null && !"modrdn".equalsIgnoreCase(changeType) && !hasPasswordChange();
+        }
+    }
 }
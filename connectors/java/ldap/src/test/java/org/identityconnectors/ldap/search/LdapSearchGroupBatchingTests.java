@@ -0,0 +1,338 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.identityconnectors.ldap.search;
+
+import static java.util.Arrays.asList;
+import static org.identityconnectors.ldap.LdapUtil.quietCreateLdapName;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+
+import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.ldap.LdapConfiguration;
+import org.identityconnectors.ldap.LdapConnection;
+import org.identityconnectors.ldap.LdapConnection.ServerType;
+import org.identityconnectors.ldap.LdapConstants;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that resolving the group memberships of a batch of entries returns
+ * the same {@code ldapGroups} and {@code posixGroups} as resolving them entry
+ * by entry. The entries are read from an in-memory directory instead of a
+ * server.
+ */
+public class LdapSearchGroupBatchingTests {
+
+    private static final String BASE_CONTEXT = "dc=example,dc=com";
+
+    private Map<LdapName, Attributes> directory;
+    private int groupSearches;
+
+    @BeforeMethod
+    public void setUp() {
+        directory = new LinkedHashMap<LdapName, Attributes>();
+        groupSearches = 0;
+        addPerson("alice");
+        addPerson("bob");
+        addPerson("carol");
+        addPerson("dave");
+        addPerson("erin");
+        addGroup("groupOfUniqueNames", "staff", "uniqueMember", personDN("alice"), personDN("bob"),
+                personDN("erin"));
+        addGroup("groupOfUniqueNames", "admins", "uniqueMember", personDN("alice"));
+        addGroup("groupOfUniqueNames", "empty", "uniqueMember");
+        addGroup("posixGroup", "devs", "memberUid", "bob", "carol");
+        addGroup("posixGroup", "ops", "memberUid", "carol", "erin");
+    }
+
+    @Test
+    public void testBatchedGroupsMatchUnbatched() {
+        Map<String, Map<String, List<String>>> unbatched = search(newConnection(1, 0));
+        assertEquals(5, unbatched.size());
+        assertEquals(asList(groupDN("admins"), groupDN("staff")),
+                unbatched.get(personDN("alice")).get(LdapConstants.LDAP_GROUPS_NAME));
+        assertEquals(asList(groupDN("devs"), groupDN("ops")),
+                unbatched.get(personDN("carol")).get(LdapConstants.POSIX_GROUPS_NAME));
+        assertTrue(unbatched.get(personDN("dave")).get(LdapConstants.LDAP_GROUPS_NAME).isEmpty());
+
+        // Two full batches and a partial one
+        assertEquals(unbatched, search(newConnection(2, 0)));
+        assertEquals(unbatched, search(newConnection(10, 0)));
+    }
+
+    @Test
+    public void testCachedGroupsMatchUnbatched() {
+        Map<String, Map<String, List<String>>> unbatched = search(newConnection(1, 0));
+        LdapConnection conn = newConnection(1, 60000);
+        assertEquals(unbatched, search(conn));
+        groupSearches = 0;
+        assertEquals(unbatched, search(conn));
+        assertEquals(0, groupSearches);
+    }
+
+    @Test
+    public void testOneGroupSearchPerBatch() {
+        search(newConnection(1, 0));
+        // One LDAP and one POSIX group search per entry
+        assertEquals(10, groupSearches);
+        groupSearches = 0;
+        search(newConnection(2, 0));
+        assertEquals(6, groupSearches);
+    }
+
+    @Test
+    public void testHandlerStopsBatchedSearch() {
+        final List<String> names = new ArrayList<String>();
+        new LdapSearch(newConnection(2, 0), ObjectClass.ACCOUNT, null, new ResultsHandler() {
+            public boolean handle(ConnectorObject object) {
+                names.add(object.getName().getNameValue());
+                return names.size() < 3;
+            }
+        }, groupOptions()).execute();
+        assertEquals(asList(personDN("alice"), personDN("bob"), personDN("carol")), names);
+    }
+
+    private Map<String, Map<String, List<String>>> search(LdapConnection conn) {
+        final Map<String, Map<String, List<String>>> result =
+                new LinkedHashMap<String, Map<String, List<String>>>();
+        new LdapSearch(conn, ObjectClass.ACCOUNT, null, new ResultsHandler() {
+            public boolean handle(ConnectorObject object) {
+                Map<String, List<String>> groups = new LinkedHashMap<String, List<String>>();
+                for (String attrName : new String[] { LdapConstants.LDAP_GROUPS_NAME,
+                    LdapConstants.POSIX_GROUPS_NAME }) {
+                    List<String> values = new ArrayList<String>();
+                    for (Object value : AttributeUtil.find(attrName, object.getAttributes()).getValue()) {
+                        values.add(value.toString());
+                    }
+                    Collections.sort(values);
+                    groups.put(attrName, values);
+                }
+                result.put(object.getName().getNameValue(), groups);
+                return true;
+            }
+        }, groupOptions()).execute();
+        return result;
+    }
+
+    private static OperationOptions groupOptions() {
+        OperationOptionsBuilder builder = new OperationOptionsBuilder();
+        builder.setAttributesToGet(LdapConstants.LDAP_GROUPS_NAME, LdapConstants.POSIX_GROUPS_NAME);
+        return builder.build();
+    }
+
+    private LdapConnection newConnection(int batchSize, long cacheTimeout) {
+        LdapConfiguration config = new LdapConfiguration();
+        config.setBaseContexts(BASE_CONTEXT);
+        config.setUidAttribute("entryUUID");
+        config.setReadSchema(false);
+        config.setPagingStrategy(LdapConfiguration.PAGING_STRATEGY_NONE);
+        config.setGroupMembershipBatchSize(batchSize);
+        config.setGroupMembershipCacheTimeout(cacheTimeout);
+        final LdapContext context = (LdapContext) Proxy.newProxyInstance(
+                LdapContext.class.getClassLoader(), new Class<?>[] { LdapContext.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("search".equals(method.getName()) && args.length == 3
+                                && args[1] instanceof String) {
+                            return search((String) args[0], (String) args[1]);
+                        }
+                        if ("close".equals(method.getName())) {
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method.toString());
+                    }
+                });
+        return new LdapConnection(config) {
+            @Override
+            public LdapContext getInitialContext() {
+                return context;
+            }
+
+            @Override
+            public ServerType getServerType() {
+                return ServerType.UNKNOWN;
+            }
+        };
+    }
+
+    private NamingEnumeration<SearchResult> search(String baseDN, String filter)
+            throws NamingException {
+        if (filter.contains("uniqueMember=") || filter.contains("memberUid=")) {
+            groupSearches++;
+        }
+        LdapName base = quietCreateLdapName(baseDN);
+        List<SearchResult> results = new ArrayList<SearchResult>();
+        for (Map.Entry<LdapName, Attributes> entry : directory.entrySet()) {
+            if (entry.getKey().startsWith(base) && new FilterMatcher(filter).matches(entry.getValue())) {
+                LdapName relative = (LdapName) entry.getKey().getSuffix(base.size());
+                SearchResult result =
+                        new SearchResult(relative.toString(), null, entry.getValue(), true);
+                result.setNameInNamespace(entry.getKey().toString());
+                results.add(result);
+            }
+        }
+        return new ListEnumeration(results);
+    }
+
+    private void addPerson(String uid) {
+        Attributes attrs = new BasicAttributes(true);
+        Attribute objectClass = new BasicAttribute("objectClass");
+        for (String value : new String[] { "top", "person", "organizationalPerson", "inetOrgPerson" }) {
+            objectClass.add(value);
+        }
+        attrs.put(objectClass);
+        attrs.put("uid", uid);
+        attrs.put("entryUUID", "uuid-" + uid);
+        directory.put(quietCreateLdapName(personDN(uid)), attrs);
+    }
+
+    private void addGroup(String objectClass, String cn, String memberAttr, String... members) {
+        Attributes attrs = new BasicAttributes(true);
+        attrs.put("objectClass", objectClass);
+        attrs.put("cn", cn);
+        Attribute memberValues = new BasicAttribute(memberAttr);
+        for (String member : members) {
+            memberValues.add(member);
+        }
+        attrs.put(memberValues);
+        directory.put(quietCreateLdapName(groupDN(cn)), attrs);
+    }
+
+    private static String personDN(String uid) {
+        return "uid=" + uid + ",ou=people," + BASE_CONTEXT;
+    }
+
+    private static String groupDN(String cn) {
+        return "cn=" + cn + ",ou=groups," + BASE_CONTEXT;
+    }
+
+    /**
+     * Evaluates the equality, presence, AND and OR filters built by the
+     * connector.
+     */
+    private static final class FilterMatcher {
+
+        private final String filter;
+        private int pos;
+
+        FilterMatcher(String filter) {
+            this.filter = filter.startsWith("(") ? filter : "(" + filter + ")";
+        }
+
+        boolean matches(Attributes attrs) throws NamingException {
+            return matchFilter(attrs);
+        }
+
+        private boolean matchFilter(Attributes attrs) throws NamingException {
+            pos++; // '('
+            char op = filter.charAt(pos);
+            boolean result;
+            if (op == '&' || op == '|') {
+                pos++;
+                result = op == '&';
+                while (filter.charAt(pos) == '(') {
+                    boolean item = matchFilter(attrs);
+                    result = op == '&' ? result && item : result || item;
+                }
+            } else {
+                int end = filter.indexOf(')', pos);
+                String item = filter.substring(pos, end);
+                pos = end;
+                int eq = item.indexOf('=');
+                result = matchItem(attrs.get(item.substring(0, eq)), item.substring(eq + 1));
+            }
+            pos++; // ')'
+            return result;
+        }
+
+        private static boolean matchItem(Attribute attr, String value) throws NamingException {
+            if (attr == null) {
+                return false;
+            }
+            if ("*".equals(value)) {
+                return true;
+            }
+            for (int i = 0; i < attr.size(); i++) {
+                if (value.equalsIgnoreCase(attr.get(i).toString())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class ListEnumeration implements NamingEnumeration<SearchResult> {
+
+        private final Iterator<SearchResult> iterator;
+
+        ListEnumeration(List<SearchResult> results) {
+            iterator = results.iterator();
+        }
+
+        public boolean hasMore() {
+            return iterator.hasNext();
+        }
+
+        public SearchResult next() {
+            return iterator.next();
+        }
+
+        public boolean hasMoreElements() {
+            return iterator.hasNext();
+        }
+
+        public SearchResult nextElement() {
+            return iterator.next();
+        }
+
+        public void close() {
+        }
+    }
+}
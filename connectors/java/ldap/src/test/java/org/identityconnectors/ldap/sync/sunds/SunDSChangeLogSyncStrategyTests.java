@@ -0,0 +1,230 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.     
+ * 
+ * The contents of this file are subject to the terms of the Common Development 
+ * and Distribution License("CDDL") (the "License").  You may not use this file 
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at 
+ * http://IdentityConnectors.dev.java.net/legal/license.txt
+ * See the License for the specific language governing permissions and limitations 
+ * under the License. 
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at identityconnectors/legal/license.txt.
+ * If applicable, add the following below this CDDL Header, with the fields 
+ * enclosed by brackets [] replaced by your own identifying information: 
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.identityconnectors.ldap.sync.sunds;
+
+import static org.identityconnectors.ldap.LdapUtil.quietCreateLdapName;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.LdapName;
+
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.ldap.LdapConfiguration;
+import org.identityconnectors.ldap.LdapConnection;
+import org.identityconnectors.ldap.LdapEntry;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests how a block of change log entries is turned into sync deltas. The
+ * modified entries are read from an in-memory directory instead of a server.
+ */
+public class SunDSChangeLogSyncStrategyTests {
+
+    private static final String BASE_CONTEXT = "dc=example,dc=com";
+    private static final String[] ATTRS_TO_GET = { "cn" };
+
+    private Map<LdapName, ConnectorObject> directory;
+    private SunDSChangeLogSyncStrategy strategy;
+
+    @BeforeMethod
+    public void setUp() {
+        directory = new HashMap<LdapName, ConnectorObject>();
+        LdapConfiguration config = new LdapConfiguration();
+        config.setBaseContexts(BASE_CONTEXT);
+        config.setUidAttribute("entryUUID");
+        strategy = new SunDSChangeLogSyncStrategy(new LdapConnection(config), ObjectClass.ACCOUNT) {
+            @Override
+            Map<LdapName, ConnectorObject> findTargetObjects(Collection<String> targetDNs, String[] attrsToGet) {
+                Map<LdapName, ConnectorObject> result = new HashMap<LdapName, ConnectorObject>();
+                for (String targetDN : targetDNs) {
+                    LdapName targetName = quietCreateLdapName(targetDN);
+                    result.put(targetName, directory.get(targetName));
+                }
+                return result;
+            }
+        };
+    }
+
+    @Test
+    public void testRenameChain() {
+        addEntry("cn=c", "u1");
+        SortedMap<Integer, LdapEntry> window = new TreeMap<Integer, LdapEntry>();
+        window.put(1, change("cn=a", "add", "cn: a\n"));
+        window.put(2, change("cn=a", "modify", "replace: sn\nsn: A\n-\n"));
+        window.put(3, rename("cn=a", "cn=b"));
+        window.put(4, change("cn=b", "modify", "replace: sn\nsn: B\n-\n"));
+        window.put(5, rename("cn=b", "cn=c"));
+        window.put(6, change("cn=c", "modify", "replace: sn\nsn: C\n-\n"));
+
+        List<SyncDelta> deltas = new ArrayList<SyncDelta>();
+        int[] processed = { -1 };
+        assertTrue(strategy.processWindow(window, collect(deltas, -1), ATTRS_TO_GET, processed));
+
+        // Changes under the old names are skipped, as they are one by one.
+        assertEquals(processOneByOne(window), deltas);
+        assertEquals(2, deltas.size());
+        assertDelta(deltas.get(0), 5, SyncDeltaType.UPDATE, "u1");
+        assertDelta(deltas.get(1), 6, SyncDeltaType.UPDATE, "u1");
+        assertEquals(6, processed[0]);
+    }
+
+    @Test
+    public void testRenameFreesTheOldName() {
+        addEntry("cn=b", "u1");
+        addEntry("cn=a", "u2");
+        SortedMap<Integer, LdapEntry> window = new TreeMap<Integer, LdapEntry>();
+        window.put(1, change("cn=a", "modify", "replace: sn\nsn: A\n-\n"));
+        window.put(2, rename("cn=a", "cn=b"));
+        window.put(3, change("cn=a", "add", "cn: a\n"));
+        window.put(4, change("cn=a", "modify", "replace: sn\nsn: A\n-\n"));
+
+        List<SyncDelta> deltas = new ArrayList<SyncDelta>();
+        int[] processed = { -1 };
+        assertTrue(strategy.processWindow(window, collect(deltas, -1), ATTRS_TO_GET, processed));
+
+        // The change before the rename is not collapsed into the changes of the new entry.
+        assertEquals(3, deltas.size());
+        assertDelta(deltas.get(0), 1, SyncDeltaType.UPDATE, "u2");
+        assertDelta(deltas.get(1), 2, SyncDeltaType.UPDATE, "u1");
+        assertDelta(deltas.get(2), 4, SyncDeltaType.CREATE, "u2");
+        assertEquals(4, processed[0]);
+    }
+
+    @Test
+    public void testAddThenDeleteInOneWindow() {
+        SortedMap<Integer, LdapEntry> window = new TreeMap<Integer, LdapEntry>();
+        window.put(1, change("cn=a", "add", "cn: a\n"));
+        window.put(2, change("cn=a", "modify", "replace: sn\nsn: A\n-\n"));
+        window.put(3, change("cn=a", "delete", null, "targetEntryUUID", "u1"));
+
+        List<SyncDelta> deltas = new ArrayList<SyncDelta>();
+        int[] processed = { -1 };
+        assertTrue(strategy.processWindow(window, collect(deltas, -1), ATTRS_TO_GET, processed));
+
+        assertEquals(processOneByOne(window), deltas);
+        assertEquals(1, deltas.size());
+        assertDelta(deltas.get(0), 3, SyncDeltaType.DELETE, "u1");
+        assertEquals(3, processed[0]);
+    }
+
+    @Test
+    public void testTokenWhenHandlerStops() {
+        addEntry("cn=a", "u1");
+        addEntry("cn=x", "u2");
+        addEntry("cn=y", "u3");
+        SortedMap<Integer, LdapEntry> window = new TreeMap<Integer, LdapEntry>();
+        window.put(1, change("cn=a", "add", "cn: a\n"));
+        window.put(2, change("cn=x", "modify", "replace: sn\nsn: X\n-\n"));
+        window.put(3, change("cn=a", "modify", "replace: sn\nsn: A\n-\n"));
+        window.put(4, change("cn=y", "modify", "replace: sn\nsn: Y\n-\n"));
+
+        // The first change of the window is only reported by the third one.
+        List<SyncDelta> deltas = new ArrayList<SyncDelta>();
+        int[] processed = { -1 };
+        assertFalse(strategy.processWindow(window, collect(deltas, 2), ATTRS_TO_GET, processed));
+        assertEquals(2, deltas.size());
+        assertDelta(deltas.get(0), 2, SyncDeltaType.UPDATE, "u2");
+        assertDelta(deltas.get(1), 3, SyncDeltaType.CREATE, "u1");
+        assertEquals(-1, processed[0]);
+
+        // Without collapsed changes the token moves with each handled delta.
+        window.remove(1);
+        deltas.clear();
+        assertFalse(strategy.processWindow(window, collect(deltas, 2), ATTRS_TO_GET, processed));
+        assertEquals(2, deltas.size());
+        assertEquals(2, processed[0]);
+    }
+
+    private void addEntry(String rdn, String uid) {
+        String entryDN = rdn + "," + BASE_CONTEXT;
+        ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+        builder.setUid(uid);
+        builder.setName(entryDN);
+        builder.addAttribute(AttributeBuilder.build("objectClass", "inetOrgPerson"));
+        directory.put(quietCreateLdapName(entryDN), builder.build());
+    }
+
+    private static LdapEntry change(String rdn, String changeType, String changes, String... otherAttrs) {
+        BasicAttributes attrs = new BasicAttributes(true);
+        attrs.put("targetDN", rdn + "," + BASE_CONTEXT);
+        attrs.put("changeType", changeType);
+        if (changes != null) {
+            attrs.put("changes", changes);
+        }
+        for (int i = 0; i < otherAttrs.length; i += 2) {
+            attrs.put(otherAttrs[i], otherAttrs[i + 1]);
+        }
+        return LdapEntry.create("changeNumber=0,cn=changelog", attrs);
+    }
+
+    private static LdapEntry rename(String rdn, String newRdn) {
+        return change(rdn, "modrdn", null, "newRdn", newRdn, "deleteOldRdn", "TRUE");
+    }
+
+    private List<SyncDelta> processOneByOne(SortedMap<Integer, LdapEntry> window) {
+        List<SyncDelta> deltas = new ArrayList<SyncDelta>();
+        for (Map.Entry<Integer, LdapEntry> entry : window.entrySet()) {
+            SortedMap<Integer, LdapEntry> single = new TreeMap<Integer, LdapEntry>();
+            single.put(entry.getKey(), entry.getValue());
+            strategy.processWindow(single, collect(deltas, -1), ATTRS_TO_GET, new int[] { -1 });
+        }
+        return deltas;
+    }
+
+    /**
+     * Returns a handler that collects the deltas and asks to stop after
+     * {@code limit} deltas, or never if {@code limit} is negative.
+     */
+    private static SyncResultsHandler collect(final List<SyncDelta> deltas, final int limit) {
+        return new SyncResultsHandler() {
+            public boolean handle(SyncDelta delta) {
+                deltas.add(delta);
+                return deltas.size() != limit;
+            }
+        };
+    }
+
+    private static void assertDelta(SyncDelta delta, int changeNumber, SyncDeltaType type, String uid) {
+        assertEquals(changeNumber, delta.getToken().getValue());
+        assertEquals(type, delta.getDeltaType());
+        assertEquals(new Uid(uid), delta.getUid());
+    }
+}
@@ -40,6 +40,7 @@ import org.forgerock.json.resource.QueryResultHandler
 import org.forgerock.json.resource.ResourceException
 import org.forgerock.openicf.misc.crest.AbstractRemoteConnection
 import org.forgerock.openicf.misc.crest.AbstractRemoteConnection.HttpResponseResourceException
+import org.forgerock.openicf.misc.crest.PagedResultsPrefetchCache
 //Add import org.forgerock.openicf.misc.crest.AbstractRemoteConnection.HttpResponseResourceException
 
 import java.util.concurrent.Future
@@ -62,6 +63,11 @@ class RemoteConnection extends AbstractRemoteConnection {
         return configuration.isClosed();
     }
 
+    @Override
+    protected PagedResultsPrefetchCache getPrefetchCache() {
+        return configuration.prefetchPagedResults ? configuration.prefetchCache : null
+    }
+
     def <T> Future<T> execute(Context context, HttpUriRequest request, HttpAsyncResponseConsumer<T> responseConsumer, FutureCallback<T> callback) {
         return configuration.execute(context, request, responseConsumer, callback)
     }
@@ -128,7 +134,7 @@ class RemoteConnection extends AbstractRemoteConnection {
             boolean hasTrailingGarbage;
 
             def content = parser.parse(entity, {
-                handler.handleResource(getAsResource(new JsonValue(it)));
+                return handler.handleResource(getAsResource(new JsonValue(it)));
             }, { lexer, object ->
                 try {
                     hasTrailingGarbage = lexer.nextToken() != null;
@@ -137,6 +143,12 @@ class RemoteConnection extends AbstractRemoteConnection {
                 }
             })
 
+            if (parser.stopped) {
+                // The handler does not want more results, the rest of the
+                // response including the paging state is not read.
+                return new QueryResult(null, -1)
+            }
+
             if (content."${QueryResult.FIELD_ERROR}" != null) {
                 exception =
                         getAsResourceException(new JsonValue(content."${QueryResult.FIELD_ERROR}"));
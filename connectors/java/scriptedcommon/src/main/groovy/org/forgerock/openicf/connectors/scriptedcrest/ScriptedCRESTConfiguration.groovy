@@ -37,6 +37,7 @@ import org.apache.http.nio.protocol.HttpAsyncResponseConsumer
 import org.codehaus.groovy.runtime.InvokerHelper
 import org.forgerock.json.resource.Context
 import org.forgerock.json.resource.ResourceName
+import org.forgerock.openicf.misc.crest.PagedResultsPrefetchCache
 import org.forgerock.openicf.misc.scriptedcommon.ScriptedConfiguration
 import org.identityconnectors.common.Assertions
 import org.identityconnectors.common.security.GuardedString
@@ -132,6 +133,30 @@ class ScriptedCRESTConfiguration extends ScriptedConfiguration {
         proxy = null;
     }
 
+    // ===============================================
+    // Query
+    // ===============================================
+
+    boolean prefetchPagedResults = false;
+
+    /**
+     * Request the next page of a paged query while the current page is
+     * handled. Disabled by default, the prefetched page is a wasted request
+     * when the caller does not ask for the next page.
+     */
+    boolean getPrefetchPagedResults() {
+        return prefetchPagedResults
+    }
+
+    void setPrefetchPagedResults(boolean prefetchPagedResults) {
+        this.prefetchPagedResults = prefetchPagedResults
+    }
+
+    /**
+     * Prefetched pages which are not asked for within a minute are dropped.
+     */
+    final PagedResultsPrefetchCache prefetchCache = new PagedResultsPrefetchCache(16, 60000L)
+
     @Override
     void validate() {
         Assertions.nullCheck(serviceAddress, "serviceAddress")
@@ -142,6 +167,7 @@ class ScriptedCRESTConfiguration extends ScriptedConfiguration {
     void release() {
         synchronized (this) {
             super.release()
+            prefetchCache.clear()
             if (null != httpClient) {
                 httpClient.close();
                 httpClient = null;
@@ -24,13 +24,25 @@
 
 package org.forgerock.openicf.connectors.scriptedrest
 
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+
+import org.apache.http.HttpResponse
 import org.apache.http.client.HttpClient
+import org.apache.http.conn.ConnectionKeepAliveStrategy
 import org.apache.http.impl.client.CloseableHttpClient
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy
 import org.apache.http.impl.client.HttpClientBuilder
+import org.apache.http.pool.PoolStats
+import org.apache.http.protocol.HttpContext
 import org.codehaus.groovy.runtime.InvokerHelper
 import org.forgerock.openicf.misc.scriptedcommon.ScriptedConfiguration
 import org.identityconnectors.common.Assertions
 import org.identityconnectors.common.StringUtil
+import org.identityconnectors.common.logging.Log
 import org.identityconnectors.common.security.GuardedString
 import org.identityconnectors.framework.common.exceptions.ConfigurationException
 import org.identityconnectors.framework.spi.AbstractConfiguration
@@ -46,6 +58,8 @@ import org.identityconnectors.framework.spi.ConfigurationProperty
 @ConfigurationClass(skipUnsupported = true)
 public class ScriptedRESTConfiguration extends ScriptedConfiguration {
 
+    static final Log log = Log.getLog(ScriptedRESTConfiguration.class);
+
     // Exposed configuration properties.
 
     // ===============================================
@@ -112,6 +126,65 @@ public class ScriptedRESTConfiguration extends ScriptedConfiguration {
         this.serviceAddress = serviceAddress
     }
 
+    // ===============================================
+    // HTTP connection pool
+    // ===============================================
+
+    int maxConnections = 200;
+
+    /**
+     * The maximum number of connections in the pool.
+     */
+    int getMaxConnections() {
+        return maxConnections
+    }
+
+    void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections
+    }
+
+    int maxConnectionsPerRoute = 50;
+
+    /**
+     * The maximum number of connections in the pool to a single host.
+     */
+    int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute
+    }
+
+    void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute
+    }
+
+    long keepAliveTimeout = 60000L;
+
+    /**
+     * How long in milliseconds an idle connection is kept alive when the
+     * server does not send a Keep-Alive timeout. A negative value keeps it
+     * indefinitely.
+     */
+    long getKeepAliveTimeout() {
+        return keepAliveTimeout
+    }
+
+    void setKeepAliveTimeout(long keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout
+    }
+
+    long idleConnectionTimeout = 30000L;
+
+    /**
+     * Connections idle for longer than this many milliseconds are closed by a
+     * background thread. Zero or a negative value disables the eviction.
+     */
+    long getIdleConnectionTimeout() {
+        return idleConnectionTimeout
+    }
+
+    void setIdleConnectionTimeout(long idleConnectionTimeout) {
+        this.idleConnectionTimeout = idleConnectionTimeout
+    }
+
     // ===============================================
     // HTTP Proxy
     // ===============================================
@@ -151,6 +224,12 @@ public class ScriptedRESTConfiguration extends ScriptedConfiguration {
     @Override
     public void validate() {
         Assertions.nullCheck(getServiceAddress(), "serviceAddress")
+        if (maxConnections < 1) {
+            throw new ConfigurationException("The 'maxConnections' must be greater than 0")
+        }
+        if (maxConnectionsPerRoute < 1) {
+            throw new ConfigurationException("The 'maxConnectionsPerRoute' must be greater than 0")
+        }
         super.validate()
         if (StringUtil.isNotBlank(defaultAuthMethod)) {
             switch (defaultAuthMethod) {
@@ -178,8 +257,25 @@ public class ScriptedRESTConfiguration extends ScriptedConfiguration {
         }
     }
 
+    /**
+     * Thread shared by the configurations to close the idle connections.
+     */
+    private static final ScheduledThreadPoolExecutor EVICTOR = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                Thread newThread(Runnable r) {
+                    Thread thread = Executors.defaultThreadFactory().newThread(r)
+                    thread.setName("HttpConnectionEvictor")
+                    thread.setDaemon(true)
+                    return thread
+                }
+            });
+
     private CloseableHttpClient httpClient = null;
 
+    private ScriptedRESTConnectionManager connectionManager = null;
+
+    private ScheduledFuture<?> evictionTask = null;
+
     Closure initClosure = null;
     Closure releaseClosure = null;
     Closure decorateClosure = null;
@@ -217,15 +313,78 @@ public class ScriptedRESTConfiguration extends ScriptedConfiguration {
                     getGroovyScriptEngine()
                     Closure clone = initClosure.rehydrate(this, this, this);
                     clone.setResolveStrategy(Closure.DELEGATE_FIRST);
-                    HttpClientBuilder builder = HttpClientBuilder.create()
-                    clone(builder)
-                    httpClient = builder.build();
+                    connectionManager = new ScriptedRESTConnectionManager(maxConnections,
+                            maxConnectionsPerRoute)
+                    try {
+                        HttpClientBuilder builder = HttpClientBuilder.create()
+                        builder.setConnectionManager(connectionManager)
+                        builder.setKeepAliveStrategy(createKeepAliveStrategy())
+                        // The init closure may tune or replace the shared pool
+                        clone(builder)
+                        if (!usesConnectionManager(builder)) {
+                            log.warn("The init closure replaced the connection manager, the idle "
+                                    + "connections are not evicted and the pool statistics are "
+                                    + "not available")
+                            connectionManager.shutdown()
+                            connectionManager = null
+                        }
+                        httpClient = builder.build();
+                    } catch (Throwable t) {
+                        connectionManager?.shutdown()
+                        connectionManager = null
+                        throw t
+                    }
+                    if (null != connectionManager && idleConnectionTimeout > 0) {
+                        final ScriptedRESTConnectionManager cm = connectionManager
+                        final long timeout = idleConnectionTimeout
+                        evictionTask = EVICTOR.scheduleWithFixedDelay({
+                            cm.evictConnections(timeout)
+                        } as Runnable, timeout, timeout, TimeUnit.MILLISECONDS)
+                    }
                 }
             }
         }
         return httpClient;
     }
 
+    private boolean usesConnectionManager(HttpClientBuilder builder) {
+        try {
+            return builder.@connManager.is(connectionManager)
+        } catch (MissingFieldException e) {
+            // Unknown HttpClient version, assume the pool is not replaced
+            return true
+        }
+    }
+
+    /**
+     * Returns the pool the HTTP client is built with. The init closure of the
+     * customizer script can use it to set limits for specific routes. It is
+     * {@code null} if the init closure replaced the connection manager.
+     */
+    ScriptedRESTConnectionManager getConnectionManager() {
+        return connectionManager
+    }
+
+    /**
+     * Returns the statistics of the connection pool, or {@code null} before
+     * the HTTP client is created or if the init closure replaced the
+     * connection manager.
+     */
+    PoolStats getConnectionPoolStats() {
+        return connectionManager?.getTotalStats()
+    }
+
+    protected ConnectionKeepAliveStrategy createKeepAliveStrategy() {
+        final long timeout = keepAliveTimeout
+        return new ConnectionKeepAliveStrategy() {
+            long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(
+                        response, context)
+                return duration < 0 ? timeout : duration
+            }
+        }
+    }
+
     Object getDecoratedObject(HttpClient client) {
         if (null != decorateClosure) {
             Closure clone = decorateClosure.rehydrate(this, this, this);
@@ -239,10 +398,16 @@ public class ScriptedRESTConfiguration extends ScriptedConfiguration {
     void release() {
         synchronized (this) {
             super.release()
+            if (null != evictionTask) {
+                evictionTask.cancel(false)
+                evictionTask = null
+                EVICTOR.purge()
+            }
             if (null != httpClient) {
                 httpClient.close();
                 httpClient = null;
             }
+            connectionManager = null
         }
     }
 }
@@ -52,11 +52,25 @@ import static groovy.json.JsonTokenType.*;
  */
 public class StreamingJsonSlurper {
 
+    private boolean stopped = false;
+
+    /**
+     * Tells whether the parsing was stopped because the handler returned
+     * {@code false}. The content returned by {@code parse} is incomplete in
+     * that case.
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
     /**
      * Parse a JSON data structure from content from a reader
      *
      * @param reader
      *         reader over a JSON content
+     * @param handler
+     *         called with each object of the result array, the parsing stops
+     *         when it returns {@code false}
      * @return a data structure of lists and maps
      */
     public Object parse(Reader reader, Closure handler, Closure<Object> callback) {
@@ -76,7 +90,7 @@ public class StreamingJsonSlurper {
                     + token.getStartColumn());
         }
 
-        if (null != callback) {
+        if (null != callback && !stopped) {
             callback.call(lexer, content);
         }
         return content;
@@ -119,12 +133,18 @@ public class StreamingJsonSlurper {
 
             if (currentToken.getType() == OPEN_CURLY) {
                 if (null != handler) {
-                    handler.call(parseObject(lexer, null));
+                    if (Boolean.FALSE.equals(handler.call(parseObject(lexer, null)))) {
+                        stopped = true;
+                        return content;
+                    }
                 } else {
                     content.add(parseObject(lexer, handler));
                 }
             } else if (currentToken.getType() == OPEN_BRACKET) {
                 content.add(parseArray(lexer, handler));
+                if (stopped) {
+                    return content;
+                }
             } else if (currentToken.getType().ordinal() >= NULL.ordinal()) {
                 content.add(currentToken.getValue());
             } else if (currentToken.getType() == CLOSE_BRACKET) {
@@ -228,6 +248,9 @@ public class StreamingJsonSlurper {
             } else if (currentToken.getType() == OPEN_BRACKET) {
                 if (mapKey.equals(QueryResult.FIELD_RESULT)) {
                     content.put(mapKey, parseArray(lexer, handler));
+                    if (stopped) {
+                        return content;
+                    }
                 } else {
                     content.put(mapKey, parseArray(lexer, null));
                 }
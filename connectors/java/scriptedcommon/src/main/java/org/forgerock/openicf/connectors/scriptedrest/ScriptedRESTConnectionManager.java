@@ -0,0 +1,124 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.forgerock.openicf.connectors.scriptedrest;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * A {@link PoolingHttpClientConnectionManager} which records how many
+ * connections were leased from the pool and how long the callers waited for
+ * them.
+ */
+public class ScriptedRESTConnectionManager extends PoolingHttpClientConnectionManager {
+
+    private final AtomicLong leaseCount = new AtomicLong();
+
+    private final AtomicLong leaseTime = new AtomicLong();
+
+    private final AtomicLong maxLeaseTime = new AtomicLong();
+
+    public ScriptedRESTConnectionManager(int maxTotal, int maxPerRoute) {
+        super();
+        setMaxTotal(maxTotal);
+        setDefaultMaxPerRoute(maxPerRoute);
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+        final ConnectionRequest request = super.requestConnection(route, state);
+        return new ConnectionRequest() {
+
+            public HttpClientConnection get(long timeout, TimeUnit tunit)
+                    throws InterruptedException, ExecutionException,
+                    ConnectionPoolTimeoutException {
+                final long start = System.nanoTime();
+                try {
+                    return request.get(timeout, tunit);
+                } finally {
+                    recordLease(System.nanoTime() - start);
+                }
+            }
+
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    private void recordLease(long nanos) {
+        leaseCount.incrementAndGet();
+        leaseTime.addAndGet(nanos);
+        long max = maxLeaseTime.get();
+        while (nanos > max && !maxLeaseTime.compareAndSet(max, nanos)) {
+            max = maxLeaseTime.get();
+        }
+    }
+
+    /**
+     * Returns the number of connections leased from the pool.
+     */
+    public long getLeaseCount() {
+        return leaseCount.get();
+    }
+
+    /**
+     * Returns the total time in milliseconds spent waiting for a connection
+     * from the pool.
+     */
+    public long getLeaseTime() {
+        return TimeUnit.NANOSECONDS.toMillis(leaseTime.get());
+    }
+
+    /**
+     * Returns the longest time in milliseconds spent waiting for a connection
+     * from the pool.
+     */
+    public long getMaxLeaseTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLeaseTime.get());
+    }
+
+    /**
+     * Closes the expired connections and the ones idle for longer than the
+     * given time.
+     *
+     * @param idleTimeout
+     *            idle time in milliseconds, or {@code 0} to close only the
+     *            expired connections.
+     */
+    public void evictConnections(long idleTimeout) {
+        closeExpiredConnections();
+        if (idleTimeout > 0) {
+            closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+}
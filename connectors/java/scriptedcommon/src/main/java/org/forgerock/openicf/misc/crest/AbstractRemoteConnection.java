@@ -30,6 +30,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -59,6 +61,7 @@ import org.apache.http.nio.entity.ContentBufferEntity;
 import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
 import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
 import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SharedInputBuffer;
 import org.apache.http.nio.util.SimpleInputBuffer;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.Asserts;
@@ -80,6 +83,7 @@ import org.forgerock.json.resource.QueryResult;
 import org.forgerock.json.resource.QueryResultHandler;
 import org.forgerock.json.resource.ReadRequest;
 import org.forgerock.json.resource.Request;
+import org.forgerock.json.resource.Requests;
 import org.forgerock.json.resource.Resource;
 import org.forgerock.json.resource.ResourceException;
 import org.forgerock.json.resource.ResourceName;
@@ -109,6 +113,18 @@ public abstract class AbstractRemoteConnection implements Connection {
     static final Pattern CONTENT_TYPE_REGEX = Pattern.compile(
             "^application/json([ ]*;[ ]*charset=utf-8)?$", Pattern.CASE_INSENSITIVE);
 
+    /**
+     * Size of the buffer between the I/O reactor and the thread parsing a
+     * streamed query response. The connection stops reading when it is full.
+     */
+    static final int STREAMING_BUFFER_SIZE = 32 * 1024;
+
+    /**
+     * Set while the thread passes the results of a streamed query to its
+     * handler.
+     */
+    private static final ThreadLocal<Boolean> STREAMING = new ThreadLocal<Boolean>();
+
     private final ResourceName resourceName;
 
     private final HttpHost httpHost;
@@ -138,9 +154,23 @@ public abstract class AbstractRemoteConnection implements Connection {
     protected abstract JsonValue parseJsonBody(final HttpEntity entity, final boolean allowEmpty)
             throws ResourceException;
 
+    /**
+     * Parses the query response and passes each resource to the handler as
+     * soon as it is read. The parsing must stop when the handler returns
+     * false.
+     */
     protected abstract QueryResult parseQueryResponse(final HttpResponse response,
             final QueryResultHandler handler) throws ResourceException;
 
+    /**
+     * Returns the cache of the prefetched pages of paged queries.
+     *
+     * @return null, the default, if the next page should not be prefetched.
+     */
+    protected PagedResultsPrefetchCache getPrefetchCache() {
+        return null;
+    }
+
     public ResourceName getResourceName() {
         return resourceName;
     }
@@ -193,17 +223,68 @@ public abstract class AbstractRemoteConnection implements Connection {
         }
     }
 
+    /**
+     * Streams the query results to the handler while the response is being
+     * received. The response is aborted as soon as the handler returns false.
+     * If {@link #getPrefetchCache()} returns a cache and the result has a
+     * paged results cookie the next page is requested before this method
+     * returns.
+     * <p/>
+     * The pooled HTTP connection is held while the handler runs, so every
+     * request the handler sends needs one more connection of the route. A
+     * query sent by the handler is therefore received completely before its
+     * results are handled, it doesn't hold a connection while its own handler
+     * runs.
+     */
     @Override
     public QueryResult query(final Context context, final QueryRequest request,
             final QueryResultHandler handler) throws ResourceException {
-        final FutureResult<QueryResult> future = queryAsync(context, request, handler);
+        final HttpUriRequest httpRequest = convert(request);
+        final PagedResultsPrefetchCache cache = getPrefetchCache();
+        final Future<HttpResponse> prefetched =
+                null != cache ? cache.take(httpRequest.getURI().toString()) : null;
+        final boolean nested = Boolean.TRUE.equals(STREAMING.get());
+        StreamingResponseConsumer consumer = null;
+        boolean completed = false;
         try {
-            return future.get();
-        } catch (final InterruptedException e) {
-            throw interrupted(e);
+            final HttpResponse response;
+            if (null != prefetched) {
+                response = getResponse(prefetched);
+            } else if (nested) {
+                response = getResponse(execute(context, httpRequest, new HttpResponseConsumer(),
+                        null));
+            } else {
+                consumer = new StreamingResponseConsumer();
+                execute(context, httpRequest, consumer, consumer.getCallback());
+                response = consumer.getResponse();
+            }
+            final StreamingQueryResultHandler resultHandler =
+                    new StreamingQueryResultHandler(handler);
+            final QueryResult result;
+            if (null != consumer) {
+                STREAMING.set(Boolean.TRUE);
+                try {
+                    result = parseQueryResponse(response, resultHandler);
+                } finally {
+                    STREAMING.remove();
+                }
+            } else {
+                result = parseQueryResponse(response, resultHandler);
+            }
+            completed = !resultHandler.isStopped();
+            if (completed) {
+                prefetchNextPage(context, request, result);
+            }
+            handler.handleResult(result);
+            return result;
+        } catch (final ResourceException e) {
+            handler.handleError(e);
+            throw e;
         } finally {
-            // Cancel the request if it hasn't completed.
-            future.cancel(false);
+            if (!completed && null != consumer) {
+                // Drop the rest of the response.
+                consumer.abort();
+            }
         }
     }
 
@@ -250,6 +331,38 @@ public abstract class AbstractRemoteConnection implements Connection {
         }
     }
 
+    private void prefetchNextPage(final Context context, final QueryRequest request,
+            final QueryResult result) {
+        final PagedResultsPrefetchCache cache = getPrefetchCache();
+        if (null == cache || request.getPageSize() <= 0
+                || null == result.getPagedResultsCookie()
+                || result.getRemainingPagedResults() == 0) {
+            return;
+        }
+        try {
+            final HttpUriRequest httpRequest =
+                    convert(Requests.copyOfQueryRequest(request).setPagedResultsCookie(
+                            result.getPagedResultsCookie()));
+            cache.put(httpRequest.getURI().toString(), execute(context, httpRequest,
+                    new HttpResponseConsumer(), null));
+        } catch (final Throwable t) {
+            // Ignore - the page is requested again when it is needed.
+        }
+    }
+
+    private HttpResponse getResponse(final Future<HttpResponse> future) throws ResourceException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            future.cancel(true);
+            throw interrupted(e);
+        } catch (final ExecutionException e) {
+            throw adaptFailure(e.getCause());
+        } catch (final CancellationException e) {
+            throw new ServiceUnavailableException("Request was cancelled", e);
+        }
+    }
+
     @Override
     public Resource create(final Context context, final CreateRequest request)
             throws ResourceException {
@@ -518,10 +631,17 @@ public abstract class AbstractRemoteConnection implements Connection {
     }
 
     // Handle thread interruption.
-    private ResourceException interrupted(final InterruptedException e) {
+    private static ResourceException interrupted(final InterruptedException e) {
         return new ServiceUnavailableException("Client thread interrupted", e);
     }
 
+    private static ResourceException adaptFailure(final Throwable t) {
+        if (t instanceof HttpResponseResourceException) {
+            return ((HttpResponseResourceException) t).getCause();
+        }
+        return adapt(t);
+    }
+
     // Internal Class definitions
 
     @Immutable
@@ -565,6 +685,178 @@ public abstract class AbstractRemoteConnection implements Connection {
 
     }
 
+    /**
+     * A consumer which buffers the whole response. It is used to prefetch the
+     * next page of a paged query.
+     */
+    static class HttpResponseConsumer extends AbstractJsonValueResponseHandler<HttpResponse> {
+
+        @Override
+        protected HttpResponse buildResult(HttpContext context) throws Exception {
+            return response;
+        }
+    }
+
+    /**
+     * A consumer which makes the response available as soon as its head is
+     * received. The content is passed through a bounded
+     * {@link SharedInputBuffer}, the connection suspends reading while the
+     * buffer is full, so the parser controls the pace of the transfer.
+     */
+    static class StreamingResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+        private final CountDownLatch responseReceived = new CountDownLatch(1);
+
+        private volatile HttpResponse response;
+        private volatile SharedInputBuffer buf;
+        private volatile IOControl ioctrl;
+        private volatile Exception failure;
+        private volatile boolean completed = false;
+
+        /**
+         * Waits until the head of the response is received.
+         */
+        HttpResponse getResponse() throws ResourceException {
+            try {
+                responseReceived.await();
+            } catch (final InterruptedException e) {
+                abort();
+                throw interrupted(e);
+            }
+            final Exception ex = null != failure ? failure : getException();
+            if (null != ex) {
+                throw adaptFailure(ex);
+            } else if (null == response) {
+                throw new ServiceUnavailableException("Request was cancelled");
+            }
+            return response;
+        }
+
+        /**
+         * Stops receiving the response and closes the connection if the
+         * response is not complete.
+         */
+        void abort() {
+            if (cancel()) {
+                final IOControl control = ioctrl;
+                if (null != control) {
+                    try {
+                        control.shutdown();
+                    } catch (final IOException e) {
+                        // Ignore - the connection is discarded anyway.
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void onResponseReceived(final HttpResponse response) throws IOException {
+            this.response = response;
+        }
+
+        @Override
+        protected void onEntityEnclosed(final HttpEntity entity, final ContentType contentType)
+                throws IOException {
+            this.buf = new SharedInputBuffer(STREAMING_BUFFER_SIZE, new HeapByteBufferAllocator());
+            this.response.setEntity(new ContentBufferEntity(entity, this.buf));
+            responseReceived.countDown();
+        }
+
+        @Override
+        protected void onContentReceived(final ContentDecoder decoder, final IOControl ioctrl)
+                throws IOException {
+            Asserts.notNull(this.buf, "Content buffer");
+            this.ioctrl = ioctrl;
+            this.buf.consumeContent(decoder, ioctrl);
+        }
+
+        @Override
+        protected HttpResponse buildResult(final HttpContext context) throws Exception {
+            completed = true;
+            return response;
+        }
+
+        @Override
+        protected void releaseResources() {
+            if (!completed) {
+                // Wake up the reader, the content will not be complete.
+                shutdownBuffer();
+            }
+            responseReceived.countDown();
+        }
+
+        /**
+         * Returns the callback which releases the waiting reader if the
+         * exchange fails before the consumer is notified.
+         */
+        FutureCallback<HttpResponse> getCallback() {
+            return new FutureCallback<HttpResponse>() {
+
+                @Override
+                public void completed(final HttpResponse result) {
+                    responseReceived.countDown();
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    failure = ex;
+                    shutdownBuffer();
+                    responseReceived.countDown();
+                }
+
+                @Override
+                public void cancelled() {
+                    shutdownBuffer();
+                    responseReceived.countDown();
+                }
+            };
+        }
+
+        private void shutdownBuffer() {
+            final SharedInputBuffer buffer = buf;
+            if (null != buffer) {
+                buffer.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Passes the resources to the wrapped handler and remembers whether it
+     * asked to stop.
+     */
+    private static class StreamingQueryResultHandler implements QueryResultHandler {
+
+        private final QueryResultHandler handler;
+
+        private volatile boolean stopped = false;
+
+        StreamingQueryResultHandler(final QueryResultHandler handler) {
+            this.handler = handler;
+        }
+
+        boolean isStopped() {
+            return stopped;
+        }
+
+        @Override
+        public boolean handleResource(final Resource resource) {
+            if (!stopped && !handler.handleResource(resource)) {
+                stopped = true;
+            }
+            return !stopped;
+        }
+
+        @Override
+        public void handleError(final ResourceException error) {
+            // Ignore - reported by the query.
+        }
+
+        @Override
+        public void handleResult(final QueryResult result) {
+            // Ignore - reported by the query.
+        }
+    }
+
     /**
      * A {@link org.apache.http.client.ResponseHandler} that returns the
      * response body as a JsonValue for successful (2xx) responses. If the
@@ -0,0 +1,132 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.forgerock.openicf.misc.crest;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpResponse;
+
+/**
+ * A PagedResultsPrefetchCache holds the responses of paged query requests
+ * which were sent before the caller asked for the next page.
+ * <p/>
+ * Pages are keyed by the request URI. A page which is not taken within the
+ * timeout, or which does not fit in the cache, is cancelled.
+ */
+public class PagedResultsPrefetchCache {
+
+    private final ConcurrentMap<String, Page> pages = new ConcurrentHashMap<String, Page>();
+
+    private final int maxPages;
+
+    private final long timeout;
+
+    /**
+     * @param maxPages
+     *            the maximum number of pages kept at the same time.
+     * @param timeout
+     *            how long in milliseconds an unused page is kept.
+     */
+    public PagedResultsPrefetchCache(int maxPages, long timeout) {
+        this.maxPages = maxPages;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Adds a prefetched page to the cache. The page is cancelled if the cache
+     * is full.
+     */
+    public void put(final String key, final Future<HttpResponse> response) {
+        evictExpired();
+        if (pages.size() >= maxPages) {
+            response.cancel(true);
+            return;
+        }
+        final Page previous =
+                pages.put(key, new Page(response, System.currentTimeMillis() + timeout));
+        if (null != previous) {
+            previous.response.cancel(true);
+        }
+    }
+
+    /**
+     * Removes the prefetched page from the cache.
+     *
+     * @return the pending response or null if the page was not prefetched or
+     *         it has expired.
+     */
+    public Future<HttpResponse> take(final String key) {
+        final Page page = pages.remove(key);
+        if (null == page) {
+            return null;
+        } else if (page.isExpired(System.currentTimeMillis())) {
+            page.response.cancel(true);
+            return null;
+        }
+        return page.response;
+    }
+
+    /**
+     * Cancels and removes all pages.
+     */
+    public void clear() {
+        final Iterator<Page> iterator = pages.values().iterator();
+        while (iterator.hasNext()) {
+            iterator.next().response.cancel(true);
+            iterator.remove();
+        }
+    }
+
+    private void evictExpired() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Page> iterator = pages.values().iterator();
+        while (iterator.hasNext()) {
+            final Page page = iterator.next();
+            if (page.isExpired(now)) {
+                page.response.cancel(true);
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class Page {
+
+        private final Future<HttpResponse> response;
+
+        private final long expires;
+
+        Page(final Future<HttpResponse> response, final long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return now > expires;
+        }
+    }
+}
@@ -27,22 +27,36 @@ import static org.forgerock.openicf.misc.scriptedcommon.ScriptedConnectorBase.CO
 import static org.forgerock.openicf.misc.scriptedcommon.ScriptedConnectorBase.LOGGER;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.codehaus.groovy.control.CompilerConfiguration;
 import org.codehaus.groovy.control.customizers.ImportCustomizer;
 import org.codehaus.groovy.runtime.InvokerHelper;
 import org.codehaus.groovy.runtime.ResourceGroovyMethods;
+import org.identityconnectors.common.IOUtil;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
@@ -663,7 +677,13 @@ public class ScriptedConfiguration extends AbstractConfiguration implements Stat
                 clone.call();
                 releaseClosure = null;
             }
+            if (null != scriptWatcher) {
+                scriptWatcher.cancel(false);
+                scriptWatcher = null;
+                WATCHER.purge();
+            }
             groovyScriptEngine = null;
+            invalidateScripts();
             propertyBag.clear();
             loggerCache.clear();
             logger.ok("Shared state ScriptedConfiguration is successfully released");
@@ -675,6 +695,7 @@ public class ScriptedConfiguration extends AbstractConfiguration implements Stat
      */
     public void validate() {
         logger.info("Load and compile configured scripts");
+        final long start = System.currentTimeMillis();
         if (getClasspath() == null || getClasspath().length < 1) {
             throw new ConfigurationException("Missing required 'classpath' configuration property");
         }        
@@ -688,7 +709,8 @@ public class ScriptedConfiguration extends AbstractConfiguration implements Stat
         validateScript(getSyncScriptFileName());
         validateScript(getTestScriptFileName());
         validateScript(getUpdateScriptFileName());
-        logger.info("Load and compile of scripts are successful");
+        logger.info("Load and compile of scripts are successful in {0} ms",
+                System.currentTimeMillis() - start);
     }
 
     protected void validateScript(String scriptName) {
@@ -738,29 +760,44 @@ public class ScriptedConfiguration extends AbstractConfiguration implements Stat
     private final ConcurrentMap<String, Log> loggerCache = new ConcurrentHashMap<String, Log>(11);
 
     Object evaluate(String scriptName, Binding binding, Object delegate) throws Exception {
-        try {
-            Script scr = getGroovyScriptEngine().createScript(scriptName, binding);
-            binding.setVariable(LOGGER, getLogger(scr.getClass()));
-            if (scr instanceof DelegatingScript && null != delegate) {
-                ((DelegatingScript) scr).setDelegate(delegate);
-            }
-            return scr.run();
-        } catch (ResourceException e) {
-            throw ConnectorException.wrap(e);
-        } catch (ScriptException e) {
-            throw ConnectorException.wrap(e);
+        Class scriptClass = loadScript(scriptName);
+        if (null == scriptClass) {
+            throw new ConnectorException("Script file name is blank");
         }
+        Script scr = InvokerHelper.createScript(scriptClass, binding);
+        binding.setVariable(LOGGER, getLogger(scr.getClass()));
+        if (scr instanceof DelegatingScript && null != delegate) {
+            ((DelegatingScript) scr).setDelegate(delegate);
+        }
+        return scr.run();
     }
 
     Class loadScript(String scriptName) {
         if (StringUtil.isNotBlank(scriptName)) {
+            Class scriptClass = scriptCache.get(scriptName);
+            if (null != scriptClass) {
+                scriptCacheHits.incrementAndGet();
+                return scriptClass;
+            }
+            final int generation = scriptGeneration.get();
+            final long start = System.nanoTime();
             try {
-                return getGroovyScriptEngine().loadScriptByName(scriptName);
+                scriptClass = getGroovyScriptEngine().loadScriptByName(scriptName);
             } catch (ResourceException e) {
                 throw ConnectorException.wrap(e);
             } catch (ScriptException e) {
                 throw ConnectorException.wrap(e);
             }
+            final long elapsed = System.nanoTime() - start;
+            scriptCacheMisses.incrementAndGet();
+            scriptCompileTime.addAndGet(elapsed);
+            // Do not keep a class loaded while the scripts were changing
+            if (generation == scriptGeneration.get()) {
+                scriptCache.put(scriptName, scriptClass);
+            }
+            logger.ok("Loaded script {0} in {1} ms", scriptName, TimeUnit.NANOSECONDS
+                    .toMillis(elapsed));
+            return scriptClass;
         }
         return null;
     }
@@ -778,6 +815,201 @@ public class ScriptedConfiguration extends AbstractConfiguration implements Stat
         return logger;
     }
 
+    // =======================================================================
+    // Compiled script cache
+    // =======================================================================
+
+    /**
+     * Scripts are checked for changes no more often than this, even if the
+     * minimumRecompilationInterval is shorter.
+     */
+    private static final long MIN_CHECK_INTERVAL = 1000L;
+
+    /**
+     * Thread shared by the configurations to watch the script roots.
+     */
+    private static final ScheduledThreadPoolExecutor WATCHER;
+
+    static {
+        WATCHER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = Executors.defaultThreadFactory().newThread(r);
+                thread.setName("ScriptWatcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private final ConcurrentMap<String, Class> scriptCache = new ConcurrentHashMap<String, Class>();
+    private final AtomicInteger scriptGeneration = new AtomicInteger();
+    private final AtomicLong scriptCacheHits = new AtomicLong();
+    private final AtomicLong scriptCacheMisses = new AtomicLong();
+    private final AtomicLong scriptCompileTime = new AtomicLong();
+    private ScheduledFuture<?> scriptWatcher = null;
+
+    /**
+     * Returns the number of script loads served from the compiled script
+     * cache.
+     */
+    public long getScriptCacheHits() {
+        return scriptCacheHits.get();
+    }
+
+    /**
+     * Returns the number of script loads which had to go to the script
+     * engine.
+     */
+    public long getScriptCacheMisses() {
+        return scriptCacheMisses.get();
+    }
+
+    /**
+     * Returns the total time in milliseconds spent in the script engine to
+     * load and compile scripts.
+     */
+    public long getScriptCompileTime() {
+        return TimeUnit.NANOSECONDS.toMillis(scriptCompileTime.get());
+    }
+
+    /**
+     * Discards the compiled scripts. The next call loads them from the script
+     * engine which recompiles the changed ones and their dependants.
+     */
+    protected void invalidateScripts() {
+        scriptGeneration.incrementAndGet();
+        scriptCache.clear();
+    }
+
+    private void scheduleScriptWatcher(URL[] roots) {
+        final List<File> directories = new ArrayList<File>(roots.length);
+        for (URL root : roots) {
+            if ("file".equals(root.getProtocol())) {
+                try {
+                    File directory = new File(root.toURI());
+                    if (directory.isDirectory()) {
+                        directories.add(directory);
+                    }
+                } catch (Exception e) {
+                    logger.ok(e, "Script root {0} is not watched for changes", root);
+                }
+            }
+        }
+        if (!directories.isEmpty()) {
+            final long interval = Math.max(getMinimumRecompilationInterval(), MIN_CHECK_INTERVAL);
+            scriptWatcher =
+                    WATCHER.scheduleWithFixedDelay(new ScriptWatcher(directories), interval,
+                            interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Polls the script root directories and discards the compiled scripts
+     * when the content of a script file changes, or a script file is added or
+     * removed. Touching a file without changing it keeps the cache.
+     */
+    private final class ScriptWatcher implements Runnable {
+
+        private final List<File> roots;
+        private Map<File, ScriptFile> files = new HashMap<File, ScriptFile>();
+
+        ScriptWatcher(List<File> roots) {
+            this.roots = roots;
+            this.files = scan();
+        }
+
+        public void run() {
+            try {
+                final Map<File, ScriptFile> current = scan();
+                boolean changed = !current.keySet().equals(files.keySet());
+                for (Map.Entry<File, ScriptFile> entry : current.entrySet()) {
+                    if (changed) {
+                        break;
+                    }
+                    changed = !entry.getValue().digest.equals(files.get(entry.getKey()).digest);
+                }
+                files = current;
+                if (changed) {
+                    logger.info("Script change detected in {0}, compiled scripts are discarded",
+                            roots);
+                    invalidateScripts();
+                }
+            } catch (Throwable t) {
+                logger.warn(t, "Failed to check the scripts for changes");
+            }
+        }
+
+        private Map<File, ScriptFile> scan() {
+            final Map<File, ScriptFile> result = new HashMap<File, ScriptFile>();
+            final Set<String> extensions = config.getScriptExtensions();
+            for (File root : roots) {
+                scan(root, extensions, result);
+            }
+            return result;
+        }
+
+        private void scan(File file, Set<String> extensions, Map<File, ScriptFile> result) {
+            if (file.isDirectory()) {
+                File[] children = file.listFiles();
+                if (null != children) {
+                    for (File child : children) {
+                        scan(child, extensions, result);
+                    }
+                }
+            } else {
+                String name = file.getName();
+                int dot = name.lastIndexOf('.');
+                if (dot > 0 && extensions.contains(name.substring(dot + 1))) {
+                    ScriptFile previous = files.get(file);
+                    if (null != previous && previous.lastModified == file.lastModified()
+                            && previous.length == file.length()) {
+                        result.put(file, previous);
+                    } else {
+                        result.put(file, new ScriptFile(file));
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class ScriptFile {
+
+        private final long lastModified;
+        private final long length;
+        private final String digest;
+
+        ScriptFile(File file) {
+            lastModified = file.lastModified();
+            length = file.length();
+            digest = digest(file);
+        }
+
+        private static String digest(File file) {
+            InputStream in = null;
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-1");
+                in = new FileInputStream(file);
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    md.update(buffer, 0, read);
+                }
+                StringBuilder result = new StringBuilder();
+                for (byte b : md.digest()) {
+                    result.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+                }
+                return result.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw ConnectorException.wrap(e);
+            } catch (IOException e) {
+                // Unreadable for now, fall back to the time stamp
+                return file.lastModified() + ":" + file.length();
+            } finally {
+                IOUtil.quietClose(in);
+            }
+        }
+    }
+
     private GroovyScriptEngine groovyScriptEngine = null;
 
     protected GroovyScriptEngine getGroovyScriptEngine() {
@@ -792,10 +1024,11 @@ public class ScriptedConfiguration extends AbstractConfiguration implements Stat
                     final GroovyClassLoader loader =
                             new GroovyClassLoader(getParentLoader(), compilerConfiguration, true);
 
-                    groovyScriptEngine =
-                            new GroovyScriptEngine(getRoots(compilerConfiguration, loader), loader);
+                    final URL[] roots = getRoots(compilerConfiguration, loader);
+                    groovyScriptEngine = new GroovyScriptEngine(roots, loader);
 
                     initializeCustomizer();
+                    scheduleScriptWatcher(roots);
                 }
             }
         }
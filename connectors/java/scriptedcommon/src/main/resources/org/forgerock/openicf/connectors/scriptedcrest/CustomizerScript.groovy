@@ -74,7 +74,9 @@ customize {
         cm.setMaxTotal(200);
         // Increase default max connection per route to 20
         cm.setDefaultMaxPerRoute(20);
-        // Increase max connections for httpHost to 50
+        // Increase max connections for httpHost to 50. A streamed query holds
+        // its connection while the results are handled, the requests sent by
+        // the handlers need more connections of the route.
         cm.setMaxPerRoute(new HttpRoute(httpHost), 50);
 
         builder.setConnectionManager(cm)
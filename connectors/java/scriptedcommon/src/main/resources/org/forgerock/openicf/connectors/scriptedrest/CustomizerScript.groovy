@@ -37,7 +37,6 @@ import org.apache.http.impl.client.BasicAuthCache
 import org.apache.http.impl.client.BasicCookieStore
 import org.apache.http.impl.client.BasicCredentialsProvider
 import org.apache.http.impl.client.HttpClientBuilder
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager
 import org.forgerock.openicf.connectors.scriptedrest.ScriptedRESTConfiguration.AuthMethod
 import org.identityconnectors.common.security.GuardedString
 
@@ -54,15 +53,10 @@ customize {
 
         def httpHost = new HttpHost(c.serviceAddress?.host, c.serviceAddress?.port, c.serviceAddress?.scheme);
 
-        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
-        // Increase max total connection to 200
-        cm.setMaxTotal(200);
-        // Increase default max connection per route to 20
-        cm.setDefaultMaxPerRoute(20);
-        // Increase max connections for httpHost to 50
-        cm.setMaxPerRoute(new HttpRoute(httpHost), 50);
-
-        builder.setConnectionManager(cm)
+        // The builder already uses the shared connection pool of the configuration,
+        // sized by maxConnections and maxConnectionsPerRoute. Limits for a single
+        // route can be changed here, e.g.
+        // c.connectionManager.setMaxPerRoute(new HttpRoute(httpHost), 100);
 
 
         // configure timeout on the entire client
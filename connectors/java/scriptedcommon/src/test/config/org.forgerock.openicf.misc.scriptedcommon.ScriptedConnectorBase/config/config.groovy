@@ -111,6 +111,15 @@ environments {
             password = new GuardedString("Passw0rd".toCharArray())
         }
     }
+    CREST_PREFETCH {
+        configuration {
+            classpath = [URLDecoder.decode(ScriptedConnectorBase.class.getResource("/crest/").file, "UTF-8")]
+            serviceAddress = new URI("http://localhost:${httpPort}/crest/")
+            username = "admin"
+            password = new GuardedString("Passw0rd".toCharArray())
+            prefetchPagedResults = true
+        }
+    }
     CREST_SAMPLE {
         configuration {
             classpath = [URLDecoder.decode(ScriptedConnectorBase.class.getResource("/crest_sample/").file, "UTF-8"),
@@ -26,6 +26,16 @@ package org.forgerock.openicf.connectors;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 
 import org.eclipse.jetty.security.ConstraintMapping;
 import org.eclipse.jetty.security.ConstraintSecurityHandler;
@@ -34,6 +44,7 @@ import org.eclipse.jetty.security.SecurityHandler;
 import org.eclipse.jetty.security.authentication.BasicAuthenticator;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.UserIdentity;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.security.Constraint;
@@ -65,6 +76,11 @@ public abstract class RESTTestBase {
      */
     private static final Log logger = Log.getLog(RESTTestBase.class);
 
+    /**
+     * Number of the query requests received on /crest/users.
+     */
+    protected static final AtomicInteger CREST_USERS_QUERY_COUNT = new AtomicInteger();
+
     private ConnectorFacade facade = null;
     private Server server = null;
 
@@ -136,6 +152,8 @@ public abstract class RESTTestBase {
         holder.setInitParameter("connection-factory-class",
                 "org.forgerock.json.resource.servlet.MemoryBackendConnectionFactoryProvider");
         holder.setInitParameter("uri-template", "");
+        handler.addFilter(new FilterHolder(new QueryCountingFilter(CREST_USERS_QUERY_COUNT)),
+                "/crest/users/*", EnumSet.of(DispatcherType.REQUEST));
 
         // /crest/groups/*
         holder = handler.addServlet(HttpServlet.class, "/crest/groups/*");
@@ -161,6 +179,34 @@ public abstract class RESTTestBase {
 
     protected abstract ConnectorFacade getFacade();
 
+    /**
+     * Counts the requests which have a query parameter.
+     */
+    private static class QueryCountingFilter implements Filter {
+
+        private final AtomicInteger count;
+
+        QueryCountingFilter(AtomicInteger count) {
+            this.count = count;
+        }
+
+        public void init(FilterConfig filterConfig) throws ServletException {
+        }
+
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                throws IOException, ServletException {
+            if (null != request.getParameter("_queryFilter")
+                    || null != request.getParameter("_queryId")
+                    || null != request.getParameter("_queryExpression")) {
+                count.incrementAndGet();
+            }
+            chain.doFilter(request, response);
+        }
+
+        public void destroy() {
+        }
+    }
+
     protected ConnectorFacade getFacade(Class<? extends Connector> clazz, String environment) {
         if (null == facade) {
             facade = createConnectorFacade(clazz, environment);
@@ -29,6 +29,7 @@ import static org.identityconnectors.framework.common.objects.filter.FilterBuild
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.forgerock.openicf.connectors.scriptedcrest.ScriptedCRESTConnector;
@@ -50,6 +51,7 @@ import org.identityconnectors.framework.common.objects.SortKey;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.common.objects.filter.Filter;
 import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.identityconnectors.framework.impl.api.local.LocalConnectorFacadeImpl;
 import org.identityconnectors.test.common.ToListResultsHandler;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -174,6 +176,108 @@ public class ScriptedCRESTConnectorTest extends RESTTestBase {
 
     }
 
+    @Test
+    public void testQueryHandlerStops() throws Exception {
+        final ConnectorFacade facade = getFacade();
+        createUsers(facade, "STOP", 20);
+
+        OperationOptionsBuilder builder = new OperationOptionsBuilder();
+        builder.setPageSize(10);
+        final List<ConnectorObject> resultList = new ArrayList<ConnectorObject>();
+        SearchResult result =
+                facade.search(ObjectClass.ACCOUNT, startsWith(AttributeBuilder.build(Name.NAME,
+                        "STOP")), new ResultsHandler() {
+                    public boolean handle(ConnectorObject connectorObject) {
+                        resultList.add(connectorObject);
+                        return resultList.size() < 3;
+                    }
+                }, builder.build());
+        Assert.assertEquals(resultList.size(), 3);
+        Assert.assertNull(result.getPagedResultsCookie());
+
+        // The aborted response must not break the next query
+        ToListResultsHandler handler = new ToListResultsHandler();
+        facade.search(ObjectClass.ACCOUNT, startsWith(AttributeBuilder.build(Name.NAME, "STOP")),
+                handler, null);
+        Assert.assertEquals(handler.getObjects().size(), 20);
+    }
+
+    @Test
+    public void testQueryPrefetchedPage() throws Exception {
+        final ConnectorFacade facade =
+                createConnectorFacade(ScriptedCRESTConnector.class, "CREST_PREFETCH");
+        try {
+            createUsers(facade, "NEXT", 15);
+            final Filter filter = startsWith(AttributeBuilder.build(Name.NAME, "NEXT"));
+            final int queryCount = CREST_USERS_QUERY_COUNT.get();
+
+            OperationOptionsBuilder builder = new OperationOptionsBuilder();
+            builder.setPageSize(10);
+            ToListResultsHandler handler = new ToListResultsHandler();
+            SearchResult result =
+                    facade.search(ObjectClass.ACCOUNT, filter, handler, builder.build());
+            Assert.assertEquals(handler.getObjects().size(), 10);
+            Assert.assertNotNull(result.getPagedResultsCookie());
+
+            // Wait for the prefetch of the second page
+            for (int i = 0; i < 500 && CREST_USERS_QUERY_COUNT.get() < queryCount + 2; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(CREST_USERS_QUERY_COUNT.get(), queryCount + 2);
+
+            builder = new OperationOptionsBuilder(builder.build());
+            builder.setPagedResultsCookie(result.getPagedResultsCookie());
+            handler = new ToListResultsHandler();
+            result = facade.search(ObjectClass.ACCOUNT, filter, handler, builder.build());
+            Assert.assertEquals(handler.getObjects().size(), 5);
+            Assert.assertNull(result.getPagedResultsCookie());
+            // The second page was served from the prefetched response
+            Assert.assertEquals(CREST_USERS_QUERY_COUNT.get(), queryCount + 2);
+        } finally {
+            ((LocalConnectorFacadeImpl) facade).dispose();
+        }
+    }
+
+    @Test
+    public void testQueryNotPrefetchedByDefault() throws Exception {
+        final ConnectorFacade facade = getFacade();
+        createUsers(facade, "ONCE", 15);
+        final Filter filter = startsWith(AttributeBuilder.build(Name.NAME, "ONCE"));
+        final int queryCount = CREST_USERS_QUERY_COUNT.get();
+
+        OperationOptionsBuilder builder = new OperationOptionsBuilder();
+        builder.setPageSize(10);
+        SearchResult result =
+                facade.search(ObjectClass.ACCOUNT, filter, new ToListResultsHandler(), builder
+                        .build());
+        Assert.assertNotNull(result.getPagedResultsCookie());
+        Thread.sleep(200);
+        // Only the requested page was queried
+        Assert.assertEquals(CREST_USERS_QUERY_COUNT.get(), queryCount + 1);
+    }
+
+    @Test
+    public void testQueryErrorStatus() throws Exception {
+        final ConnectorFacade facade = getFacade();
+        final Filter filter = startsWith(AttributeBuilder.build(Name.NAME, "FAIL"));
+        createUsers(facade, "FAIL", 5);
+
+        OperationOptionsBuilder builder = new OperationOptionsBuilder();
+        builder.setPageSize(10);
+        builder.setPagedResultsCookie("invalid");
+        try {
+            facade.search(ObjectClass.ACCOUNT, filter, new ToListResultsHandler(), builder
+                    .build());
+            Assert.fail("Query with invalid paged results cookie must fail");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        ToListResultsHandler handler = new ToListResultsHandler();
+        facade.search(ObjectClass.ACCOUNT, filter, handler, null);
+        Assert.assertEquals(handler.getObjects().size(), 5);
+    }
+
     @Test
     public void testFilterTranslator() throws Exception {
         Filter left = startsWith(AttributeBuilder.build("attributeString", "reti"));
@@ -208,6 +312,13 @@ public class ScriptedCRESTConnectorTest extends RESTTestBase {
         Object response =  facade.runScriptOnResource(builder.build(), null);
     }
 
+    private void createUsers(ConnectorFacade facade, String prefix, int count) {
+        for (int i = 0; i < count; i++) {
+            String username = String.format("%s%04d", prefix, i);
+            facade.create(ObjectClass.ACCOUNT, createUserAttributes("John", username), null);
+        }
+    }
+
     private Set<Attribute> createUserAttributes(String firstName, String lastName) {
         Set<Attribute> createAttributes = new HashSet<Attribute>();
         createAttributes.add(new Name(lastName.toLowerCase()));
@@ -25,10 +25,19 @@
 package org.forgerock.openicf.connectors;
 
 import java.net.URI;
+import java.net.URLDecoder;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.forgerock.openicf.connectors.scriptedrest.ScriptedRESTConfiguration;
+import org.forgerock.openicf.connectors.scriptedrest.ScriptedRESTConnectionManager;
 import org.forgerock.openicf.connectors.scriptedrest.ScriptedRESTConnector;
+import org.forgerock.openicf.misc.scriptedcommon.ScriptedConnectorBase;
+import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.api.ConnectorFacade;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
@@ -69,6 +78,41 @@ public class ScriptedRESTConnectorTest extends RESTTestBase {
         facade.test();
     }
 
+    @Test
+    public void testConnectionPool() throws Exception {
+        final ScriptedRESTConfiguration config = new ScriptedRESTConfiguration();
+        config.setClasspath(new String[] { URLDecoder.decode(ScriptedConnectorBase.class
+                .getResource("/rest/").getFile(), "UTF-8") });
+        config.setServiceAddress(new URI("http://localhost:"
+                + System.getProperty("jetty.http.port", "28080") + "/rest/"));
+        config.setUsername("admin");
+        config.setPassword(new GuardedString("Passw0rd".toCharArray()));
+        config.setCustomizerScriptFileName("CustomizerScript.groovy");
+        config.setIdleConnectionTimeout(500L);
+        try {
+            final HttpClient client = config.getHttpClient();
+            final ScriptedRESTConnectionManager connectionManager = config.getConnectionManager();
+            Assert.assertNotNull(connectionManager);
+            for (int i = 0; i < 3; i++) {
+                HttpResponse response =
+                        client.execute(new HttpGet(config.getServiceAddress().resolve(
+                                "users/?_queryFilter=true")));
+                EntityUtils.consume(response.getEntity());
+            }
+            Assert.assertTrue(connectionManager.getLeaseCount() >= 3);
+            Assert.assertEquals(config.getConnectionPoolStats().getLeased(), 0);
+            Assert.assertTrue(config.getConnectionPoolStats().getAvailable() > 0);
+
+            // The idle connections are closed in the background
+            for (int i = 0; i < 100 && config.getConnectionPoolStats().getAvailable() > 0; i++) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(config.getConnectionPoolStats().getAvailable(), 0);
+        } finally {
+            config.release();
+        }
+    }
+
     @Test(enabled = false)
     public void testCreate() throws Exception {
         final ConnectorFacade facade = getFacade();
@@ -29,6 +29,7 @@ import static org.forgerock.openicf.connectors.RESTTestBase.createConnectorFacad
 import static org.identityconnectors.framework.common.objects.filter.FilterBuilder.*;
 import static org.identityconnectors.framework.common.objects.filter.FilterBuilder.not;
 
+import java.io.File;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.charset.Charset;
@@ -43,6 +44,7 @@ import java.util.Set;
 
 import org.forgerock.openicf.connectors.groovy.ScriptedConnector;
 import org.identityconnectors.common.CollectionUtil;
+import org.identityconnectors.common.IOUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedByteArray;
 import org.identityconnectors.common.security.GuardedString;
@@ -92,6 +94,7 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import groovy.json.JsonSlurper;
+import groovy.lang.Binding;
 
 public class ScriptedConnectorTest {
 
@@ -954,6 +957,44 @@ public class ScriptedConnectorTest {
         getFacade(TEST_NAME).update(UNKNOWN, new Uid("TESTOK1"), updateAttributes, null);
     }
 
+    // =======================================================================
+    // Compiled Script Cache Test
+    // =======================================================================
+
+    @Test
+    public void testScriptCacheInvalidation() throws Exception {
+        File root = File.createTempFile("scripts", "");
+        Assert.assertTrue(root.delete() && root.mkdir());
+        File script = new File(root, "CacheTest.groovy");
+        IOUtil.writeFileUTF8(script, "return 1");
+
+        ScriptedConfiguration configuration = new ScriptedConfiguration();
+        configuration.setScriptRoots(new String[] { root.getAbsolutePath() });
+        try {
+            assertThat(configuration.evaluate("CacheTest.groovy", new Binding(), null))
+                    .isEqualTo(1);
+            assertThat(configuration.evaluate("CacheTest.groovy", new Binding(), null))
+                    .isEqualTo(1);
+            assertThat(configuration.getScriptCacheHits()).isEqualTo(1);
+            assertThat(configuration.getScriptCacheMisses()).isEqualTo(1);
+
+            IOUtil.writeFileUTF8(script, "return 2");
+            // Make sure the engine sees a newer file
+            Assert.assertTrue(script.setLastModified(System.currentTimeMillis() + 10000L));
+
+            Object result = null;
+            for (int i = 0; i < 100 && !Integer.valueOf(2).equals(result); i++) {
+                Thread.sleep(100);
+                result = configuration.evaluate("CacheTest.groovy", new Binding(), null);
+            }
+            assertThat(result).isEqualTo(2);
+            assertThat(configuration.getScriptCacheMisses()).isEqualTo(2);
+        } finally {
+            configuration.release();
+            IOUtil.delete(root);
+        }
+    }
+
     protected Uid createTestUser(String username) {
         Set<Attribute> createAttributes = getTestConnectorObject(username);
         ConnectorFacade facade = getFacade(TEST_NAME);
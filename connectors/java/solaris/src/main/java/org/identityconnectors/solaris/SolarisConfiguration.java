@@ -164,6 +164,7 @@ public final class SolarisConfiguration extends AbstractConfiguration {
      * when performing full scan (
      * {@link SolarisEntries#getAllAccounts(java.util.Set, SolarisConnection)})
      * on all the accounts we can limit the number of accounts fetched at once.
+     * All the attributes of a block are fetched by a single script.
      */
     private int blockSize = 100;
 
@@ -664,6 +665,10 @@ public final class SolarisConfiguration extends AbstractConfiguration {
             throw new ConfigurationException(String.format(msg, "Connection type"));
         }
 
+        if (blockSize < 1) {
+            throw new ConfigurationException("'Block size' must be greater than 0.");
+        }
+
         if (StringUtil.isNotBlank(rootUser) && credentials == null) {
             throw new ConfigurationException(
                     "Missing 'credentials' property. Both 'rootUser' and 'credentials' have to be defined.");
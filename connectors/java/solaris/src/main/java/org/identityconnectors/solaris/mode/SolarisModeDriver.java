@@ -27,12 +27,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeInfo;
@@ -85,6 +87,14 @@ public class SolarisModeDriver extends UnixModeDriver {
     private static final String TMPFILE = "/tmp/connloginsError.$$";
     private static final String SHELL_CONT_CHARS = "> ";
     private static final int CHARS_PER_LINE = 160;
+
+    /**
+     * Marks the start of a section in the output of the bulk fetch script. A
+     * section holds the output of a single command for a single user.
+     */
+    private static final String SECTION_MARK = "#ICF#";
+    private static final String USER_SECTION = "user";
+    private static final String LOGINS_SECTION = "logins";
     
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("MM/DD/yyyy");
 
@@ -119,6 +129,192 @@ public class SolarisModeDriver extends UnixModeDriver {
         return fetchedEntries;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Auths, profiles and roles are fetched by a script which runs all the
+     * commands for the whole block at once, and separates the output of the
+     * commands by {@link #SECTION_MARK} lines.
+     */
+    @Override
+    public List<SolarisEntry> buildAccountEntries(List<String> blockUserNames,
+            Set<NativeAttribute> attrsToGet) {
+        if (super.isBlockFetchSupported(attrsToGet)) {
+            // 'logins' and 'last' only, the simple script is enough.
+            return buildAccountEntries(blockUserNames, attrsToGet
+                    .contains(NativeAttribute.LAST_LOGIN));
+        }
+
+        conn.doSudoStart();
+        String out = null;
+        try {
+            conn.executeCommand(conn.buildCommand(false, "rm -f", TMPFILE));
+
+            String getUsersScript = buildBulkGetUserScript(blockUserNames, attrsToGet);
+            out =
+                    conn.executeCommand(getUsersScript, conn.getConfiguration()
+                            .getBlockFetchTimeout());
+
+            conn.executeCommand(conn.buildCommand(false, "rm -f", TMPFILE));
+        } finally {
+            conn.doSudoReset();
+        }
+
+        return processBulkOutput(out, blockUserNames, attrsToGet);
+    }
+
+    @Override
+    public boolean isBlockFetchSupported(Set<NativeAttribute> attrsToGet) {
+        return true;
+    }
+
+    private String buildBulkGetUserScript(List<String> blockUserNames,
+            Set<NativeAttribute> attrsToGet) {
+        StringBuilder getUsersScript = new StringBuilder();
+        getUsersScript.append("WSUSERLIST=\"");
+        getUsersScript.append(buildUserList(blockUserNames) + "\n\";");
+        getUsersScript.append("for user in $WSUSERLIST; do ");
+        getUsersScript.append(buildSectionMark(USER_SECTION + " $user"));
+        getUsersScript.append(conn.buildCommand(true, "logins")).append(" -oxma -l $user 2>>")
+                .append(TMPFILE).append("; ");
+        if (attrsToGet.contains(NativeAttribute.LAST_LOGIN)) {
+            getUsersScript.append(buildSectionCommand("last", "-1 $user"));
+        }
+        if (attrsToGet.contains(NativeAttribute.AUTHS)) {
+            getUsersScript.append(buildSectionCommand("auths", "$user"));
+        }
+        if (attrsToGet.contains(NativeAttribute.PROFILES)) {
+            getUsersScript.append(buildSectionCommand("profiles", "$user"));
+        }
+        if (attrsToGet.contains(NativeAttribute.ROLES)) {
+            getUsersScript.append(buildSectionCommand("roles", "$user"));
+        }
+        getUsersScript.append("done");
+
+        return getUsersScript.toString();
+    }
+
+    private String buildSectionMark(String section) {
+        return "echo \"" + SECTION_MARK + " " + section + "\"; ";
+    }
+
+    private String buildSectionCommand(String command, String args) {
+        // the error messages are parsed the same way as for a single user
+        return buildSectionMark(command) + conn.buildCommand(true, command) + " " + args
+                + " 2>&1; ";
+    }
+
+    /**
+     * retrieve account info from the output of the bulk fetch script.
+     *
+     * @return the entries of the users found on the resource.
+     * @throws RuntimeException
+     *             if the output of some of the users is missing.
+     */
+    private List<SolarisEntry> processBulkOutput(String out, List<String> blockUserNames,
+            Set<NativeAttribute> attrsToGet) {
+        List<SolarisEntry> result = new ArrayList<SolarisEntry>();
+        Set<String> processedUserNames = new HashSet<String>();
+        Map<String, StringBuilder> sections = new HashMap<String, StringBuilder>();
+        String currentAccount = null;
+        String currentSection = null;
+
+        for (String line : out.split("\n")) {
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+
+            // the mark may follow the shell continuation chars
+            int index = line.indexOf(SECTION_MARK);
+            if (index != -1) {
+                String[] header =
+                        line.substring(index + SECTION_MARK.length()).trim().split(" ", 2);
+                if (USER_SECTION.equals(header[0])) {
+                    addBulkEntry(result, currentAccount, sections, attrsToGet);
+                    currentAccount = (header.length > 1) ? header[1].trim() : null;
+                    processedUserNames.add(currentAccount);
+                    currentSection = LOGINS_SECTION;
+                    sections.clear();
+                } else {
+                    currentSection = header[0];
+                }
+                continue;
+            }
+
+            if (currentAccount == null) {
+                continue;
+            }
+
+            // Weed out shell continuation chars
+            if (line.startsWith(SHELL_CONT_CHARS)) {
+                int contIndex = line.lastIndexOf(SHELL_CONT_CHARS);
+                line = line.substring(contIndex + SHELL_CONT_CHARS.length());
+            }
+
+            StringBuilder section = sections.get(currentSection);
+            if (section == null) {
+                section = new StringBuilder();
+                sections.put(currentSection, section);
+            }
+            section.append(line).append("\n");
+        }
+        addBulkEntry(result, currentAccount, sections, attrsToGet);
+
+        // the users without output are skipped only if 'logins' didn't find
+        // them, the output of the others was lost.
+        List<String> missingUserNames = new ArrayList<String>(blockUserNames);
+        missingUserNames.removeAll(processedUserNames);
+        if (!missingUserNames.isEmpty()) {
+            throw new RuntimeException("ERROR: expecting to return " + blockUserNames.size()
+                    + " users, missing output of " + missingUserNames);
+        }
+
+        return result;
+    }
+
+    private void addBulkEntry(List<SolarisEntry> result, String username,
+            Map<String, StringBuilder> sections, Set<NativeAttribute> attrsToGet) {
+        if (username == null) {
+            return;
+        }
+
+        // 'logins' prints nothing if the user was not found.
+        String loginsLine = getSection(sections, LOGINS_SECTION).split("\n")[0];
+        if (StringUtil.isBlank(loginsLine)) {
+            return;
+        }
+
+        SolarisEntry.Builder entryBuilder =
+                new SolarisEntry.Builder(username).addAttr(NativeAttribute.NAME, username);
+        entryBuilder.addAllAttributesFrom(LoginsCommand.getEntry(loginsLine, username));
+
+        if (attrsToGet.contains(NativeAttribute.LAST_LOGIN)) {
+            final Attribute last = LastCommand.parseOutput(username, getSection(sections, "last"));
+            entryBuilder.addAttr(NativeAttribute.LAST_LOGIN, last.getValue());
+        }
+        if (attrsToGet.contains(NativeAttribute.AUTHS)) {
+            final Attribute auths =
+                    AuthsCommand.parseOutput(username, getSection(sections, "auths"));
+            entryBuilder.addAttr(NativeAttribute.AUTHS, auths.getValue());
+        }
+        if (attrsToGet.contains(NativeAttribute.PROFILES)) {
+            final Attribute profiles =
+                    ProfilesCommand.parseOutput(username, getSection(sections, "profiles"));
+            entryBuilder.addAttr(NativeAttribute.PROFILES, profiles.getValue());
+        }
+        if (attrsToGet.contains(NativeAttribute.ROLES)) {
+            final Attribute roles =
+                    RolesCommand.parseOutput(username, getSection(sections, "roles"));
+            entryBuilder.addAttr(NativeAttribute.ROLES, roles.getValue());
+        }
+        result.add(entryBuilder.build());
+    }
+
+    private String getSection(Map<String, StringBuilder> sections, String name) {
+        StringBuilder section = sections.get(name);
+        return (section != null) ? section.toString().trim() : "";
+    }
+
     /** retrieve account info from the output. */
     private List<SolarisEntry> processOutput(String out, List<String> blockUserNames, boolean isLast) {
         // SVIDRA# getUsersFromCaptureList(CaptureList captureList, ArrayList
@@ -190,8 +386,8 @@ public class SolarisModeDriver extends UnixModeDriver {
         }
     }
 
-    private String buildGetUserScript(List<String> blockUserNames, boolean isLast) {
-        // make a list of users, separated by space.
+    /** make a list of users, separated by space. */
+    private String buildUserList(List<String> blockUserNames) {
         StringBuilder connUserList = new StringBuilder();
         int charsThisLine = 0;
         for (String user : blockUserNames) {
@@ -206,10 +402,13 @@ public class SolarisModeDriver extends UnixModeDriver {
             connUserList.append(" ");
             charsThisLine += length + 1;
         }
+        return connUserList.toString();
+    }
 
+    private String buildGetUserScript(List<String> blockUserNames, boolean isLast) {
         StringBuilder getUsersScript = new StringBuilder();
         getUsersScript.append("WSUSERLIST=\"");
-        getUsersScript.append(connUserList.toString() + "\n\";");
+        getUsersScript.append(buildUserList(blockUserNames) + "\n\";");
         getUsersScript.append("for user in $WSUSERLIST; do ");
 
         String getScript = null;
@@ -76,6 +76,34 @@ public abstract class UnixModeDriver {
     public abstract List<SolarisEntry> buildAccountEntries(List<String> blockUserNames,
             boolean isLast);
 
+    /**
+     * get the attributes for given block of users.
+     *
+     * The default implementation fetches the attributes supported by
+     * {@link #buildAccountEntries(List, boolean)} only.
+     *
+     * @param blockUserNames
+     * @param attrsToGet
+     * @return the SolarisEntry list initialized with the required attributes.
+     *         Users which were not found on the resource are left out.
+     * @see #isBlockFetchSupported(Set)
+     */
+    public List<SolarisEntry> buildAccountEntries(List<String> blockUserNames,
+            Set<NativeAttribute> attrsToGet) {
+        return buildAccountEntries(blockUserNames, attrsToGet.contains(NativeAttribute.LAST_LOGIN));
+    }
+
+    /**
+     * @return true if all the given attributes can be fetched with
+     *         {@link #buildAccountEntries(List, Set)}, false if the accounts
+     *         have to be fetched one by one.
+     */
+    public boolean isBlockFetchSupported(Set<NativeAttribute> attrsToGet) {
+        return !attrsToGet.contains(NativeAttribute.PROFILES)
+                && !attrsToGet.contains(NativeAttribute.AUTHS)
+                && !attrsToGet.contains(NativeAttribute.ROLES);
+    }
+
     public abstract String buildPasswdCommand(String username);
 
     public abstract void configurePasswordProperties(SolarisEntry entry, SolarisConnection conn);
@@ -46,6 +46,17 @@ public final class AuthsCommand {
      */
     public static Attribute getAuthsAttributeFor(String username, SolarisConnection conn) {
         final String out = conn.executeCommand(conn.buildCommand(true, "auths", username));
+        return parseOutput(username, out);
+    }
+
+    /**
+     * @param username
+     *            username
+     * @param out
+     *            output of the 'auths' command for the user
+     * @return the auths attribute for given user
+     */
+    public static Attribute parseOutput(String username, final String out) {
         List<String> auths = null;
         if (!out.endsWith("No such user") && !out.contains("No auth") && !out.endsWith("not found")) {
             auths = Arrays.asList(out.split(","));
@@ -51,8 +51,8 @@ public class BlockAccountIterator implements Iterator<SolarisEntry> {
     /** list of *all* usernames on the resource. */
     private List<String> accounts;
 
-    /** of last time of user login is required. */
-    private boolean isLast;
+    /** attributes fetched for each block of accounts. */
+    private final Set<NativeAttribute> attrsToGet;
 
     /** iterates through the full list of usernames. */
     private ListIterator<String> usernameIter;
@@ -81,8 +81,14 @@ public class BlockAccountIterator implements Iterator<SolarisEntry> {
             throw new UnsupportedOperationException(
                     "internal error: BlockAccountIterator does not support NIS accounts, use AccountIterator instead.");
         }
+        // auths, profiles and roles are supported only by some of the modes.
+        if (!conn.getModeDriver().isBlockFetchSupported(attrsToGet)) {
+            throw new UnsupportedOperationException(
+                    "Internal Error: the requested attributes are not supported for batch retrieval of accounts. Use individual retrieval. Use AccountIterator.");
+        }
         this.conn = conn;
         this.blockSize = blockSize;
+        this.attrsToGet = attrsToGet;
 
         if (CollectionUtil.isEmpty(usernames)) {
             // fetch usernames
@@ -99,18 +105,6 @@ public class BlockAccountIterator implements Iterator<SolarisEntry> {
         accounts = usernames;
         usernameIter = accounts.listIterator();
         entryIter = initNextBlockOfAccounts();
-
-        boolean isProfiles = attrsToGet.contains(NativeAttribute.PROFILES);
-        boolean isAuths = attrsToGet.contains(NativeAttribute.AUTHS);
-        isLast = attrsToGet.contains(NativeAttribute.LAST_LOGIN);
-        boolean isRoles = attrsToGet.contains(NativeAttribute.ROLES);
-
-        // todo: nice to have feature: any combination of attributes could be
-        // accepted., but this involves a complicated changes in the scripting.
-        if (isRoles || isAuths || isProfiles) {
-            throw new UnsupportedOperationException(
-                    "Internal Error: roles, auths, profiles are not supported for batch retrieval of accounts. Use individual retrieval. Use AccountIterator.");
-        }
     }
 
     private Iterator<SolarisEntry> initNextBlockOfAccounts() {
@@ -122,7 +116,7 @@ public class BlockAccountIterator implements Iterator<SolarisEntry> {
         }
 
         List<SolarisEntry> blockEntries =
-                conn.getModeDriver().buildAccountEntries(blockUserNames, isLast);
+                conn.getModeDriver().buildAccountEntries(blockUserNames, attrsToGet);
 
         if (logger.isInfo()) {
             for (SolarisEntry entry : blockEntries) {
@@ -40,6 +40,10 @@ public final class ProfilesCommand {
 
     public static Attribute getProfilesAttributeFor(String username, SolarisConnection conn) {
         final String out = conn.executeCommand(conn.buildCommand(true, "profiles", username));
+        return parseOutput(username, out);
+    }
+
+    public static Attribute parseOutput(String username, final String out) {
         List<String> profiles = null;
         if (StringUtil.isNotBlank(out) && !out.endsWith("No such user")
                 && !out.endsWith("No profiles") && !out.endsWith("not found")) {
@@ -46,6 +46,17 @@ public final class RolesCommand {
      */
     public static Attribute getRolesAttributeFor(String username, SolarisConnection conn) {
         final String out = conn.executeCommand(conn.buildCommand(true, "roles", username));
+        return parseOutput(username, out);
+    }
+
+    /**
+     * @param username
+     *            username
+     * @param out
+     *            output of the 'roles' command for the user
+     * @return the roles attribute for given user
+     */
+    public static Attribute parseOutput(String username, final String out) {
         List<String> roles = null;
         if (!out.endsWith("No such user") && !out.endsWith("No roles")
                 && !out.endsWith("not found")) {
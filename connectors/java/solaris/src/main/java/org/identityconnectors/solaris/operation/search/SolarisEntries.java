@@ -43,15 +43,13 @@ public final class SolarisEntries {
     public static Iterator<SolarisEntry> getAllAccounts(Set<NativeAttribute> attrsToGet,
             SolarisConnection conn) {
         // Impl. note: use AccountIterator in case specific attributes are
-        // required, that we won't be able to fetch from BlockAccountIteratr
-        if (conn.isNis() || attrsToGet.contains(NativeAttribute.PROFILES)
-                || attrsToGet.contains(NativeAttribute.AUTHS)
-                || attrsToGet.contains(NativeAttribute.ROLES)) {
+        // required, that the mode driver won't be able to fetch in blocks
+        if (conn.isNis() || !conn.getModeDriver().isBlockFetchSupported(attrsToGet)) {
             return new AccountIterator(attrsToGet, conn);
         }
 
-        // BlockAccount iterator is optimized for fetching info from 'logins'
-        // command and 'last login time' only.
+        // BlockAccount iterator fetches a block of users by a single script,
+        // see UnixModeDriver#buildAccountEntries(List, Set).
         return new BlockAccountIterator(attrsToGet, conn);
     }
 
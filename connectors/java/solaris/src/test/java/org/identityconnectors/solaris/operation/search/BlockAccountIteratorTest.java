@@ -75,6 +75,41 @@ public class BlockAccountIteratorTest extends SolarisTestBase {
         }
     }
 
+    @Test
+    public void testAuthsProfilesRolesAndLastLogin() {
+        if (getConnection().isNis()
+                || !getConnection().getModeDriver().isBlockFetchSupported(
+                        EnumSet.of(NativeAttribute.AUTHS))) {
+            // the mode fetches auths, profiles and roles for single users only
+            return;
+        }
+
+        String out =
+                getConnection().executeCommand(
+                        getConnection().buildCommand(false,
+                                "cut -d: -f1 /etc/passwd | grep -v \"^[+-]\""));
+        List<String> usernames = CollectionUtil.<String> newList();
+        for (String string : out.split("\n")) {
+            usernames.add(string.trim());
+        }
+
+        BlockAccountIterator bai =
+                new BlockAccountIterator(usernames, EnumSet.of(NativeAttribute.NAME,
+                        NativeAttribute.AUTHS, NativeAttribute.PROFILES, NativeAttribute.ROLES,
+                        NativeAttribute.LAST_LOGIN), 2, getConnection());
+        List<String> retrievedUsernames = new ArrayList<String>();
+        while (bai.hasNext()) {
+            SolarisEntry entry = bai.next();
+            retrievedUsernames.add(entry.getName());
+            AssertJUnit.assertNotNull(entry.searchForAttribute(NativeAttribute.AUTHS));
+            AssertJUnit.assertNotNull(entry.searchForAttribute(NativeAttribute.PROFILES));
+            AssertJUnit.assertNotNull(entry.searchForAttribute(NativeAttribute.ROLES));
+            AssertJUnit.assertNotNull(entry.searchForAttribute(NativeAttribute.LAST_LOGIN));
+        }
+        AssertJUnit.assertEquals(CollectionUtil.newSet(usernames), CollectionUtil
+                .newSet(retrievedUsernames));
+    }
+
     @Override
     public boolean createGroup() {
         return false;
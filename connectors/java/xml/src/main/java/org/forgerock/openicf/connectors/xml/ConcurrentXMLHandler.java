@@ -28,11 +28,18 @@ package org.forgerock.openicf.connectors.xml;
 import com.sun.xml.xsom.XSSchemaSet;
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.forgerock.openicf.connectors.xml.query.abstracts.Query;
+import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.Schema;
 import org.identityconnectors.framework.common.objects.Uid;
 
@@ -44,12 +51,40 @@ import org.identityconnectors.framework.common.objects.Uid;
  */
 public class ConcurrentXMLHandler implements XMLHandler {
 
+    private static final Log log = Log.getLog(ConcurrentXMLHandler.class);
+
+    /**
+     * Runs the write-behind flushes. The pending changes are written when the
+     * last user disposes the handler, so the thread is a daemon. It stops
+     * when idle.
+     */
+    private static final ScheduledThreadPoolExecutor FLUSHER = createFlusher();
+
     final private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     private XMLHandler proxy;
     private volatile int invokers = 0;
+    private final long writeBehindInterval;
+    private final int writeBehindMaxChanges;
+    private int pendingChanges = 0;
+    private ScheduledFuture<?> scheduledFlush = null;
 
     public ConcurrentXMLHandler(XMLConfiguration config, Schema connSchema, XSSchemaSet xsdSchemas) {
         proxy = new XMLHandlerImpl(config, connSchema, xsdSchemas);
+        writeBehindInterval = config.getWriteBehindInterval();
+        writeBehindMaxChanges = config.getWriteBehindMaxChanges();
+    }
+
+    private static ScheduledThreadPoolExecutor createFlusher() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "XMLConnector-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setKeepAliveTime(10, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     public Uid create(ObjectClass objClass, Set<Attribute> attributes) {
@@ -57,6 +92,7 @@ public class ConcurrentXMLHandler implements XMLHandler {
         lock.writeLock().lock();
         try {
             uid = proxy.create(objClass, attributes);
+            changed();
         }
         finally {
             lock.writeLock().unlock();
@@ -69,6 +105,7 @@ public class ConcurrentXMLHandler implements XMLHandler {
         lock.writeLock().lock();
         try {
             newUid = proxy.update(objClass, uid, replaceAttributes);
+            changed();
         }
         finally {
             lock.writeLock().unlock();
@@ -80,6 +117,7 @@ public class ConcurrentXMLHandler implements XMLHandler {
         lock.writeLock().lock();
         try {
             proxy.delete(objClass, uid);
+            changed();
         }
         finally {
             lock.writeLock().unlock();
@@ -98,6 +136,16 @@ public class ConcurrentXMLHandler implements XMLHandler {
         return result;
     }
 
+    public void search(Query query, ObjectClass objectClass, ResultsHandler handler) {
+        lock.readLock().lock();
+        try {
+            proxy.search(query, objectClass, handler);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
     public Uid authenticate(String username, GuardedString password) {
         Uid result = null;
         lock.readLock().lock();
@@ -111,7 +159,7 @@ public class ConcurrentXMLHandler implements XMLHandler {
     }    
 
     public XMLHandler init() {
-        lock.readLock().lock();
+        lock.writeLock().lock();
         try {
             if (0 == invokers) {
                 proxy.init();
@@ -119,21 +167,75 @@ public class ConcurrentXMLHandler implements XMLHandler {
             invokers++;
         }
         finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
         }
         return this;
     }
 
     public void dispose() {
-        lock.readLock().lock();
+        lock.writeLock().lock();
         try {
             invokers--;
             if (0 == invokers) {
-                proxy.dispose();
+                try {
+                    if (writeBehindInterval > 0) {
+                        // Write the pending changes instead of the scheduled flush
+                        flush();
+                    }
+                } finally {
+                    proxy.dispose();
+                }
             }
         }
         finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            synchronized (this) {
+                pendingChanges = 0;
+                if (null != scheduledFlush) {
+                    scheduledFlush.cancel(false);
+                    scheduledFlush = null;
+                }
+            }
+            proxy.flush();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Schedules the write-behind flush after a successful change. The caller
+     * holds the write lock.
+     */
+    private void changed() {
+        if (writeBehindInterval <= 0) {
+            return;
+        }
+        boolean flushNow = false;
+        synchronized (this) {
+            pendingChanges++;
+            if (writeBehindMaxChanges > 0 && pendingChanges >= writeBehindMaxChanges) {
+                flushNow = true;
+            } else if (null == scheduledFlush) {
+                scheduledFlush = FLUSHER.schedule(new Runnable() {
+                    public void run() {
+                        try {
+                            flush();
+                        } catch (RuntimeException e) {
+                            log.error(e, "Write-behind flush failed");
+                        }
+                    }
+                }, writeBehindInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            flush();
         }
     }
 
@@ -46,6 +46,9 @@ public class XMLConfiguration extends AbstractConfiguration {
     private File xsdFilePath = null;
     private File xsdIcfFilePath = null;
     private boolean createFileIfNotExists = false;
+    private boolean useEntryIndex = false;
+    private long writeBehindInterval = 0;
+    private int writeBehindMaxChanges = 0;
 
     public XMLConfiguration() {
         try {
@@ -95,7 +98,40 @@ public class XMLConfiguration extends AbstractConfiguration {
         this.createFileIfNotExists = createFileIfNotExists;
     }
 
+    @ConfigurationProperty(displayMessageKey = "USE_ENTRY_INDEX_DISPLAY", helpMessageKey = "USE_ENTRY_INDEX_HELP")
+    public boolean isUseEntryIndex() {
+        return useEntryIndex;
+    }
+
+    public void setUseEntryIndex(boolean useEntryIndex) {
+        this.useEntryIndex = useEntryIndex;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "WRITE_BEHIND_INTERVAL_DISPLAY", helpMessageKey = "WRITE_BEHIND_INTERVAL_HELP")
+    public long getWriteBehindInterval() {
+        return writeBehindInterval;
+    }
+
+    public void setWriteBehindInterval(long writeBehindInterval) {
+        this.writeBehindInterval = writeBehindInterval;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "WRITE_BEHIND_MAX_CHANGES_DISPLAY", helpMessageKey = "WRITE_BEHIND_MAX_CHANGES_HELP")
+    public int getWriteBehindMaxChanges() {
+        return writeBehindMaxChanges;
+    }
+
+    public void setWriteBehindMaxChanges(int writeBehindMaxChanges) {
+        this.writeBehindMaxChanges = writeBehindMaxChanges;
+    }
+
     public void validate() {
+        if (writeBehindInterval < 0) {
+            throw new IllegalArgumentException("writeBehindInterval can not be negative");
+        }
+        if (writeBehindMaxChanges < 0) {
+            throw new IllegalArgumentException("writeBehindMaxChanges can not be negative");
+        }
         if (null == xsdFilePath) {
             throw new IllegalArgumentException("Missing xsdFilePath property");
         } else if (!xsdFilePath.canRead()) {
@@ -26,10 +26,8 @@
 package org.forgerock.openicf.connectors.xml;
 
 import org.forgerock.openicf.connectors.xml.query.abstracts.Query;
-import org.forgerock.openicf.connectors.xml.query.QueryBuilder;
 import org.forgerock.openicf.connectors.xml.xsdparser.SchemaParser;
 import java.io.IOException;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -190,17 +188,16 @@ public class XMLConnector implements Connector, AuthenticateOp, CreateOp, Delete
      * (non-Javadoc)
      * @see org.identityconnectors.framework.spi.operations.SearchOp#executeQuery(org.identityconnectors.framework.common.objects.ObjectClass, java.lang.Object, org.identityconnectors.framework.common.objects.ResultsHandler, org.identityconnectors.framework.common.objects.OperationOptions)
      */
-    public void executeQuery(ObjectClass objClass, Query query, ResultsHandler handler, OperationOptions options) {
+    public void executeQuery(ObjectClass objClass, Query query, final ResultsHandler handler, OperationOptions options) {
         synchronized (getLock()) {
-            QueryBuilder queryBuilder = new QueryBuilder(query, objClass);
-            Collection<ConnectorObject> hits = xmlInstanceHandler.search(
-                    queryBuilder.toString(), objClass);
-            int count = 0;
-            for (ConnectorObject hit : hits) {
-                count++;
-                handler.handle(hit);
-            }
-            log.info("Query returned {0} object(s)", count);
+            final int[] count = new int[1];
+            xmlInstanceHandler.search(query, objClass, new ResultsHandler() {
+                public boolean handle(ConnectorObject hit) {
+                    count[0]++;
+                    return handler.handle(hit);
+                }
+            });
+            log.info("Query returned {0} object(s)", count[0]);
         }
     }
 
@@ -27,10 +27,12 @@ package org.forgerock.openicf.connectors.xml;
 
 import java.util.Collection;
 import java.util.Set;
+import org.forgerock.openicf.connectors.xml.query.abstracts.Query;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.Uid;
 
 public interface XMLHandler {
@@ -43,11 +45,23 @@ public interface XMLHandler {
 
     Collection<ConnectorObject> search(String query, ObjectClass objectClass);
 
+    /**
+     * Passes the matching entries to the handler as they are found and stops
+     * when the handler returns {@code false}. A {@code null} query matches
+     * all entries of the object class.
+     */
+    void search(Query query, ObjectClass objectClass, ResultsHandler handler);
+
     Uid authenticate(String username, GuardedString password);
 
     XMLHandler init();
 
     void dispose();
 
+    /**
+     * Writes the changes made since the last flush to the file.
+     */
+    void flush();
+
     boolean isSupportUid(ObjectClass objectClass);
 }
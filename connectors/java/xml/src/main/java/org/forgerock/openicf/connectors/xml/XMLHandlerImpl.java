@@ -27,17 +27,20 @@ package org.forgerock.openicf.connectors.xml;
 
 import org.forgerock.openicf.connectors.xml.util.AttributeTypeUtil;
 import org.forgerock.openicf.connectors.xml.util.ElementIdentifierFieldType;
+import org.forgerock.openicf.connectors.xml.util.ElementIndex;
 import org.forgerock.openicf.connectors.xml.util.GuardedStringAccessor;
 import org.forgerock.openicf.connectors.xml.util.NamespaceLookupUtil;
 import org.forgerock.openicf.connectors.xml.util.XmlHandlerUtil;
 import org.forgerock.openicf.connectors.xml.query.abstracts.Query;
+import org.forgerock.openicf.connectors.xml.query.abstracts.QueryPart;
+import org.forgerock.openicf.connectors.xml.query.ComparisonQuery;
 import org.forgerock.openicf.connectors.xml.query.QueryBuilder;
-import org.forgerock.openicf.connectors.xml.query.XQueryHandler;
+import org.forgerock.openicf.connectors.xml.query.XQueryCache;
 import com.sun.xml.xsom.XSSchema;
 import com.sun.xml.xsom.XSSchemaSet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -61,8 +64,6 @@ import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
-import javax.xml.xquery.XQException;
-import javax.xml.xquery.XQResultSequence;
 
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
@@ -76,9 +77,11 @@ import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.ObjectClassInfo;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.Schema;
 import org.identityconnectors.common.Assertions;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.AttributeInfoUtil;
 import org.identityconnectors.framework.common.objects.Uid;
@@ -98,7 +101,12 @@ public class XMLHandlerImpl implements XMLHandler {
     private XSSchema icfSchema;
     private XSSchema riSchema;
     private long lastModified = 0l;
-    private volatile long version = 0l;
+    private long length = 0l;
+    private int pendingChanges = 0;
+    private XPathExpression emptyTextNodesExpression = null;
+    private Transformer transformer = null;
+    private final XQueryCache queryCache = new XQueryCache();
+    private final ElementIndex index;
     public static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
     public static final String ICF_NAMESPACE_PREFIX = "icf";
     public static final String RI_NAMESPACE_PREFIX = "ri";
@@ -113,11 +121,22 @@ public class XMLHandlerImpl implements XMLHandler {
         this.riSchema = xsdSchemas.getSchema(1);
         this.icfSchema = xsdSchemas.getSchema(2);
 
+        if (config.isUseEntryIndex()) {
+            index = new ElementIndex(icfSchema.getTargetNamespace(), riSchema.getTargetNamespace());
+        } else {
+            index = null;
+        }
+
         NamespaceLookupUtil.INSTANCE.initialize(icfSchema, riSchema);
     }
 
     public XMLHandler init() {
-        buildDocument();
+        // The document is kept while it has unsaved changes or the file is unchanged
+        if (null == document || (0 == pendingChanges && isExternallyModified())) {
+            buildDocument();
+        } else if (0 != pendingChanges && isExternallyModified()) {
+            log.error("UPDATE COLLUSION: File has been modified after read into memory and the data in memory has not been synced before.");
+        }
         return this;
     }
 
@@ -220,6 +239,10 @@ public class XMLHandlerImpl implements XMLHandler {
         }
 
         getDocument().getDocumentElement().appendChild(objElement);
+        if (null != index) {
+            index.add(objClass, objElement);
+        }
+        pendingChanges++;
 
         log.info("Exit {0}", method);
 
@@ -239,59 +262,70 @@ public class XMLHandlerImpl implements XMLHandler {
 
             Element entry = getEntry(objClass, uid, ElementIdentifierFieldType.AUTO);
 
-            for (Attribute attribute : replaceAttributes) {
-
-                if (!objAttributes.containsKey(attribute.getName())) {
-                    throw new IllegalArgumentException("Data field: " + attribute.getName() + " is not supported.");
-                }
+            // The identifiers may change, the entry is indexed again afterwards
+            if (null != index) {
+                index.remove(objClass, entry);
+            }
+            try {
+                for (Attribute attribute : replaceAttributes) {
 
-                AttributeInfo attributeInfo = objAttributes.get(attribute.getName());
-                String attributeName = attribute.getName();
+                    if (!objAttributes.containsKey(attribute.getName())) {
+                        throw new IllegalArgumentException("Data field: " + attribute.getName() + " is not supported.");
+                    }
 
-                if (!attributeInfo.isUpdateable()) {
-                    throw new IllegalArgumentException(attributeName + " is not updatable.");
-                }
+                    AttributeInfo attributeInfo = objAttributes.get(attribute.getName());
+                    String attributeName = attribute.getName();
 
-                if (attributeInfo.isRequired()) {
-                    List<String> values = AttributeTypeUtil.findAttributeValue(attribute, attributeInfo);
-                    if (values.isEmpty()) {
-                        throw new IllegalArgumentException("No values provided for required attribute: " + attributeName);
+                    if (!attributeInfo.isUpdateable()) {
+                        throw new IllegalArgumentException(attributeName + " is not updatable.");
                     }
-                    for (String value : values) {
-                        Assertions.blankCheck(value, attributeName);
-                        Assertions.nullCheck(value, attributeName);
+
+                    if (attributeInfo.isRequired()) {
+                        List<String> values = AttributeTypeUtil.findAttributeValue(attribute, attributeInfo);
+                        if (values.isEmpty()) {
+                            throw new IllegalArgumentException("No values provided for required attribute: " + attributeName);
+                        }
+                        for (String value : values) {
+                            Assertions.blankCheck(value, attributeName);
+                            Assertions.nullCheck(value, attributeName);
+                        }
                     }
-                }
 
-                // Check if the provided value is the same as the class defined in schema
-                Class expectedClass = attributeInfo.getType();
+                    // Check if the provided value is the same as the class defined in schema
+                    Class expectedClass = attributeInfo.getType();
 
-                if (attribute.getValue() != null) {
-                    if (!valuesAreExpectedClass(expectedClass, attribute.getValue())) {
-                        throw new IllegalArgumentException(attributeName + " contains values of illegal type");
+                    if (attribute.getValue() != null) {
+                        if (!valuesAreExpectedClass(expectedClass, attribute.getValue())) {
+                            throw new IllegalArgumentException(attributeName + " contains values of illegal type");
+                        }
                     }
-                }
 
-                // Remove existing nodes from entry
-                removeChildrenFromElement(entry, prefixAttributeName(attributeName));
+                    // Remove existing nodes from entry
+                    removeChildrenFromElement(entry, prefixAttributeName(attributeName));
 
-                // Add updated nodes to entry
-                List<String> values = AttributeTypeUtil.findAttributeValue(attribute, attributeInfo);
+                    // Add updated nodes to entry
+                    List<String> values = AttributeTypeUtil.findAttributeValue(attribute, attributeInfo);
 
-                if (!attributeInfo.isMultiValued() && values.size() > 1) {
-                    throw new IllegalArgumentException("Data field: " + attributeName + " is not multivalued  can not have more than one value");
-                }
+                    if (!attributeInfo.isMultiValued() && values.size() > 1) {
+                        throw new IllegalArgumentException("Data field: " + attributeName + " is not multivalued  can not have more than one value");
+                    }
 
-                // Append empty element if no values is provided
-                if (values.isEmpty()) {
-                    Element updatedElement = createDomElement(attributeName, "");
-                    entry.appendChild(updatedElement);
-                } else {
-                    for (String value : values) {
-                        Element updatedElement = createDomElement(attributeName, value);
+                    // Append empty element if no values is provided
+                    if (values.isEmpty()) {
+                        Element updatedElement = createDomElement(attributeName, "");
                         entry.appendChild(updatedElement);
+                    } else {
+                        for (String value : values) {
+                            Element updatedElement = createDomElement(attributeName, value);
+                            entry.appendChild(updatedElement);
+                        }
                     }
                 }
+            } finally {
+                if (null != index) {
+                    index.add(objClass, entry);
+                }
+                pendingChanges++;
             }
         } else {
             throw new UnknownUidException("Could not update entry. No entry of type " + objClass.getObjectClassValue() + " with the id " + uid.getUidValue() + " found.");
@@ -310,7 +344,11 @@ public class XMLHandlerImpl implements XMLHandler {
 
         if (entryExists(objClass, uid, ElementIdentifierFieldType.AUTO)) {
             Element elementToRemove = getEntry(objClass, uid, ElementIdentifierFieldType.AUTO);
+            if (null != index) {
+                index.remove(objClass, elementToRemove);
+            }
             getDocument().getDocumentElement().removeChild(elementToRemove);
+            pendingChanges++;
             log.info("Deleting entry: " + elementToRemove.toString());
         } else {
             throw new UnknownUidException("Deleting entry failed. Could not find an entry of type " + objClass.getObjectClassValue() + " with the uid " + uid.getUidValue());
@@ -323,123 +361,210 @@ public class XMLHandlerImpl implements XMLHandler {
         final String method = "search";
         log.info("Entry {0}", method);
 
-        List<ConnectorObject> results = new ArrayList<ConnectorObject>();
+        final List<ConnectorObject> results = new ArrayList<ConnectorObject>();
 
         if (query != null && !query.isEmpty() && objClass != null) {
+            search(query, objClass, new ResultsHandler() {
+                public boolean handle(ConnectorObject obj) {
+                    return results.add(obj);
+                }
+            });
+        }
+        log.info("Exit {0}", method);
 
-            ObjectClassInfo objInfo = connSchema.findObjectClassInfo(objClass.getObjectClassValue());
-            Set<AttributeInfo> objAttributes = objInfo.getAttributeInfo();
+        return results;
+    }
+
+    public void search(Query query, ObjectClass objClass, ResultsHandler handler) {
+        final String method = "search";
+        log.info("Entry {0}", method);
 
-            // Map with the attribute-names and what class they are
-            HashMap<String, String> attributeClassMap = new HashMap<String, String>();
-            for (AttributeInfo info : objAttributes) {
-                attributeClassMap.put(info.getName(), info.getType().getSimpleName());
+        ComparisonQuery lookup = getIndexedLookup(query);
+        if (null != lookup) {
+            String field = lookup.getName().endsWith(":" + Uid.NAME) ? Uid.NAME : Name.NAME;
+            Element entry = index.get(getDocument(), objClass, field, unescape(lookup.getValue()));
+            if (null != entry) {
+                handler.handle(createConnectorObjectCreator(objClass).createConnectorObject(entry.getChildNodes()));
             }
+        } else {
+            search(new QueryBuilder(query, objClass).toString(), objClass, handler);
+        }
 
-            // Map with the AttributeInfo for each attribute
-            HashMap<String, AttributeInfo> attributeInfoMap =
-                    new HashMap<String, AttributeInfo>(AttributeInfoUtil.toMap(objInfo.getAttributeInfo()));
+        log.info("Exit {0}", method);
+    }
 
-            XQueryHandler xqHandler = null;
-            try {
-                xqHandler = new XQueryHandler(query, getDocument());
-                XQResultSequence queryResult = xqHandler.getResultSequence();
+    private void search(String query, ObjectClass objClass, final ResultsHandler handler) {
+        final ConnectorObjectCreator conObjCreator = createConnectorObjectCreator(objClass);
 
+        queryCache.execute(query, getDocument(), new XQueryCache.NodeHandler() {
+            public boolean handle(Node resultNode) {
+                NodeList nodes = resultNode.getChildNodes();
+                return handler.handle(conObjCreator.createConnectorObject(nodes));
+            }
+        });
+    }
 
-                ConnectorObjectCreator conObjCreator =
-                        new ConnectorObjectCreator(attributeClassMap, attributeInfoMap, objClass);
+    private ConnectorObjectCreator createConnectorObjectCreator(ObjectClass objClass) {
+        ObjectClassInfo objInfo = connSchema.findObjectClassInfo(objClass.getObjectClassValue());
+        Set<AttributeInfo> objAttributes = objInfo.getAttributeInfo();
 
-                while (queryResult.next()) {
+        // Map with the attribute-names and what class they are
+        HashMap<String, String> attributeClassMap = new HashMap<String, String>();
+        for (AttributeInfo info : objAttributes) {
+            attributeClassMap.put(info.getName(), info.getType().getSimpleName());
+        }
 
-                    Node resultNode = queryResult.getItem().getNode();
+        // Map with the AttributeInfo for each attribute
+        HashMap<String, AttributeInfo> attributeInfoMap =
+                new HashMap<String, AttributeInfo>(AttributeInfoUtil.toMap(objInfo.getAttributeInfo()));
 
-                    NodeList nodes = resultNode.getChildNodes();
+        return new ConnectorObjectCreator(attributeClassMap, attributeInfoMap, objClass);
+    }
 
-                    ConnectorObject conObj = conObjCreator.createConnectorObject(nodes);
-                    results.add(conObj);
-                }
-            } catch (XQException ex) {
-                log.error("Error while searching: {0}", ex);
-                throw new ConnectorException(ex);
-            } finally {
-                if (null != xqHandler) {
-                    xqHandler.close();
-                }
+    /**
+     * Returns the comparison if the query is a single equality on the
+     * {@link Uid} or {@link Name} element and the index can answer it.
+     */
+    private ComparisonQuery getIndexedLookup(Query query) {
+        if (null == index || null == query || query.getParts().size() != 1) {
+            return null;
+        }
+        QueryPart part = query.getParts().iterator().next();
+        if (part instanceof ComparisonQuery) {
+            ComparisonQuery comparison = (ComparisonQuery) part;
+            String uidField = "$x/" + ICF_NAMESPACE_PREFIX + ":" + Uid.NAME;
+            String nameField = "$x/" + ICF_NAMESPACE_PREFIX + ":" + Name.NAME;
+            if ("=".equals(comparison.getOperator())
+                    && (uidField.equals(comparison.getName()) || nameField.equals(comparison.getName()))) {
+                return comparison;
             }
         }
-        log.info("Exit {0}", method);
+        return null;
+    }
 
-        return results;
+    private String unescape(String literal) {
+        return literal.substring(1, literal.length() - 1).replace("''", "'");
     }
 
     private boolean isExternallyModified() {
         boolean modified = false;
         if (config.getXmlFilePath().exists()) {
-            modified = lastModified != config.getXmlFilePath().lastModified();
+            modified = lastModified != config.getXmlFilePath().lastModified()
+                    || length != config.getXmlFilePath().length();
         }
         return modified;
     }
 
     public void dispose() {
-        final String method = "serialize";
+        // In write-behind mode the pending changes are flushed by the owner of the handler
+        if (config.getWriteBehindInterval() <= 0) {
+            flush();
+        }
+        queryCache.close();
+    }
+
+    public synchronized void flush() {
+        final String method = "flush";
         log.info("Entry {0}", method);
-        if (version != lastModified && isExternallyModified()) {
+
+        File xmlFile = config.getXmlFilePath();
+        if (null == document || (0 == pendingChanges && xmlFile.exists())) {
+            log.info("Exit {0}", method);
+            return;
+        }
+        if (isExternallyModified()) {
             log.error("UPDATE COLLUSION: File has been modified after read into memory and the data in memory has not been synced before.");
         }
 
+        long start = System.currentTimeMillis();
+        removeEmptyTextNodes();
+
+        File tmpFile = null;
         try {
+            // Write a complete copy next to the file and replace the file only when it is synced
+            tmpFile = File.createTempFile(xmlFile.getName(), ".tmp", xmlFile.getAbsoluteFile().getParentFile());
+            FileOutputStream fos = new FileOutputStream(tmpFile);
             try {
+                /* Running this code in java 5 we had to change
+                StreamResult result = new StreamResult(config.getXmlFilePath());
+                into
+                StreamResult result = new StreamResult(config.getXmlFilePath().getPath());
+                Otherwise you get the following error:
+                javax.xml.transform.TransformerException: java.io.FileNotFoundException:
+                 */
+                /*
+                 * If the safePath is not escaped then it throws
+                 * net.sf.saxon.trans.XPathException: java.net.URISyntaxException:
+                 * Illegal character in safePath at index 9: /temp/XML Connector/test.xml
+                 * String safePath = config.getXmlFilePath().getPath().replaceAll(" ", "%20");
+                 */
+                BufferedOutputStream out = new BufferedOutputStream(fos);
+                getTransformer().transform(new DOMSource(document), new StreamResult(out));
+                out.flush();
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+            long bytes = tmpFile.length();
+
+            if (!tmpFile.renameTo(xmlFile)) {
+                // Windows does not replace an existing file on rename
+                if (!xmlFile.delete() || !tmpFile.renameTo(xmlFile)) {
+                    throw new ConnectorIOException("Couldn't replace " + xmlFile.getAbsolutePath() + " with "
+                            + tmpFile.getAbsolutePath());
+                }
+            }
+            tmpFile = null;
+            lastModified = xmlFile.lastModified();
+            length = xmlFile.length();
+
+            log.info("Saved {0} change(s) to {1}: {2} bytes in {3} ms", pendingChanges, xmlFile.getPath(), bytes,
+                    System.currentTimeMillis() - start);
+            pendingChanges = 0;
+        } catch (TransformerException ex) {
+            log.error("Failed saving changes to xml file: {0}", ex);
+            throw ConnectorException.wrap(ex);
+        } catch (IOException ex) {
+            log.error("Failed saving changes to xml file: {0}", ex);
+            throw new ConnectorIOException(ex);
+        } finally {
+            if (null != tmpFile) {
+                tmpFile.delete();
+            }
+        }
+
+        log.info("Exit {0}", method);
+    }
+
+    private void removeEmptyTextNodes() {
+        try {
+            if (null == emptyTextNodesExpression) {
                 XPathFactory xpathFactory = new net.sf.saxon.xpath.XPathFactoryImpl();
                 // XPath to find empty text nodes.
-                XPathExpression xpathExp = xpathFactory.newXPath().compile("//text()[normalize-space(.) = '']");
-                NodeList emptyTextNodes = null;
-                emptyTextNodes = (NodeList) xpathExp.evaluate(document, XPathConstants.NODESET);
-
-                // Remove each empty text node from document.
-                for (int i = 0; i < emptyTextNodes.getLength(); i++) {
-                    Node emptyTextNode = emptyTextNodes.item(i);
-                    emptyTextNode.getParentNode().removeChild(emptyTextNode);
-                }
-            } catch (XPathExpressionException e) {
-                //We don't care. It's just formatting.
+                emptyTextNodesExpression = xpathFactory.newXPath().compile("//text()[normalize-space(.) = '']");
             }
+            NodeList emptyTextNodes = (NodeList) emptyTextNodesExpression.evaluate(document, XPathConstants.NODESET);
 
+            // Remove each empty text node from document.
+            for (int i = 0; i < emptyTextNodes.getLength(); i++) {
+                Node emptyTextNode = emptyTextNodes.item(i);
+                emptyTextNode.getParentNode().removeChild(emptyTextNode);
+            }
+        } catch (XPathExpressionException e) {
+            //We don't care. It's just formatting.
+        }
+    }
+
+    private Transformer getTransformer() throws TransformerException {
+        if (null == transformer) {
             TransformerFactory transformerFactory = new net.sf.saxon.TransformerFactoryImpl();
-            Transformer transformer = transformerFactory.newTransformer();
+            transformer = transformerFactory.newTransformer();
             transformer.setOutputProperty(OutputKeys.INDENT, "yes");
             transformer.setOutputProperty(OutputKeys.METHOD, "xml");
             transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
             transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-
-            DOMSource source = new DOMSource(document);
-            /* Running this code in java 5 we had to change
-            StreamResult result = new StreamResult(config.getXmlFilePath());
-            into
-            StreamResult result = new StreamResult(config.getXmlFilePath().getPath());
-            Otherwise you get the following error:
-            javax.xml.transform.TransformerException: java.io.FileNotFoundException:
-             */
-            /*
-             * If the safePath is not escaped then it throws
-             * net.sf.saxon.trans.XPathException: java.net.URISyntaxException:
-             * Illegal character in safePath at index 9: /temp/XML Connector/test.xml
-             * String safePath = config.getXmlFilePath().getPath().replaceAll(" ", "%20");
-             */
-            FileOutputStream fos = new FileOutputStream(config.getXmlFilePath());
-            StreamResult result = new StreamResult(fos);
-
-            transformer.transform(source, result);
-
-            log.info("Saving changes to xml file");
-        } catch (TransformerException ex) {
-            log.error("Failed saving changes to xml file: {0}", ex);
-            throw ConnectorException.wrap(ex);
-        } catch (FileNotFoundException ex) {
-            log.error("Failed saving changes to xml file: {0}", ex);
-            throw ConnectorException.wrap(ex);
         }
-
-        log.info("Entry {0}", method);
+        return transformer;
     }
 
     public Uid authenticate(String username, GuardedString password) {
@@ -542,7 +667,7 @@ public class XMLHandlerImpl implements XMLHandler {
             docBuilder = docBuilderFactory.newDocumentBuilder();
             document = docBuilder.parse(xmlFile);
             lastModified = xmlFile.lastModified();
-            version = lastModified;
+            length = xmlFile.length();
             log.info("Loading XML document from: {0}", xmlFile.getPath());
         } catch (ParserConfigurationException ex) {
             throw ConnectorException.wrap(ex);
@@ -559,6 +684,10 @@ public class XMLHandlerImpl implements XMLHandler {
         final String method = "buildDocument";
         log.info("Entry {0}", method);
 
+        if (null != index) {
+            index.clear();
+        }
+
         File xmlFile = config.getXmlFilePath();
         if (!xmlFile.exists()) {
             if (config.isCreateFileIfNotExists()) {
@@ -596,6 +725,13 @@ public class XMLHandlerImpl implements XMLHandler {
 
         Element result = null;
 
+        if (null != index) {
+            result = index.get(getDocument(), objClass, getElementIdentifierField(objClass, identifierField),
+                    uid.getUidValue());
+            log.info("Exit {0}", method);
+            return result;
+        }
+
         // Build search query
         XMLFilterTranslator translator = new XMLFilterTranslator(isSupportUid(objClass));
         String idField = getElementIdentifierField(objClass, identifierField);
@@ -607,22 +743,16 @@ public class XMLHandlerImpl implements XMLHandler {
         QueryBuilder queryBuilder = new QueryBuilder(query, objClass);
 
         // Execute query
-        XQueryHandler xqHandler = null;
-
-        try {
-            xqHandler = new XQueryHandler(queryBuilder.toString(), document);
-            XQResultSequence results = xqHandler.getResultSequence();
-
-            if (results.next()) {
-                result = (Element) results.getItem().getNode();
-                log.info("Entry found: ", result.toString());
-            }
-        } catch (XQException ex) {
-            throw ConnectorException.wrap(ex);
-        } finally {
-            if (null != xqHandler) {
-                xqHandler.close();
+        final Element[] found = new Element[1];
+        queryCache.execute(queryBuilder.toString(), getDocument(), new XQueryCache.NodeHandler() {
+            public boolean handle(Node node) {
+                found[0] = (Element) node;
+                return false;
             }
+        });
+        result = found[0];
+        if (null != result) {
+            log.info("Entry found: ", result.toString());
         }
 
         log.info("Exit {0}", method);
@@ -45,4 +45,16 @@ public class ComparisonQuery implements QueryPart {
     public String getExpression() {
         return String.format("%s %s %s", this.name, this.operator, this.value);
     }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    public String getValue() {
+        return value;
+    }
 }
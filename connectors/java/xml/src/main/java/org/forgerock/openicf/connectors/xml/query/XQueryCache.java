@@ -0,0 +1,235 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+
+package org.forgerock.openicf.connectors.xml.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.namespace.QName;
+import javax.xml.xquery.XQConnection;
+import javax.xml.xquery.XQConstants;
+import javax.xml.xquery.XQDataSource;
+import javax.xml.xquery.XQException;
+import javax.xml.xquery.XQPreparedExpression;
+import javax.xml.xquery.XQResultSequence;
+import net.sf.saxon.xqj.SaxonXQDataSource;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.w3c.dom.Node;
+
+/**
+ * Keeps compiled XQuery expressions keyed by the shape of the query.
+ * <p/>
+ * The queries built by {@link QueryBuilder} inline every filter value as a
+ * quoted string literal. Before compiling, the literals are replaced with
+ * external variables so that queries that only differ in their values share
+ * one compiled expression. The expressions are pooled per shape because an
+ * {@link XQPreparedExpression} can not be executed by two threads at once.
+ *
+ * @since 1.1
+ */
+public class XQueryCache {
+
+    /**
+     * Callback receiving the result nodes of a query.
+     */
+    public interface NodeHandler {
+
+        /**
+         * Handles one result node.
+         *
+         * @param node the node matched by the query
+         * @return {@code false} to stop the evaluation
+         */
+        boolean handle(Node node);
+    }
+
+    /**
+     * Upper limit of the distinct query shapes kept compiled.
+     */
+    static final int MAX_SHAPES = 256;
+
+    static final String PARAMETER_PREFIX = "p";
+
+    private static final String FLWOR_START = "for $x in ";
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+
+    /**
+     * Setup logging for the {@link XQueryCache}.
+     */
+    private static final Log log = Log.getLog(XQueryCache.class);
+
+    private final XQDataSource datasource = new SaxonXQDataSource();
+    private final ConcurrentMap<String, Queue<XQPreparedExpression>> expressions =
+            new ConcurrentHashMap<String, Queue<XQPreparedExpression>>();
+    private XQConnection connection;
+
+    /**
+     * Evaluates the query against the context node and passes each result
+     * to the handler until the handler returns {@code false}.
+     *
+     * @param query the query as built by {@link QueryBuilder}
+     * @param contextItem the document the query is evaluated against
+     * @param handler receives the matching nodes
+     */
+    public void execute(String query, Node contextItem, NodeHandler handler) {
+        List<String> parameters = new ArrayList<String>();
+        String shape = parameterize(query, parameters);
+
+        XQPreparedExpression expression = acquire(shape);
+        boolean reusable = false;
+        try {
+            expression.bindNode(XQConstants.CONTEXT_ITEM, contextItem, null);
+            for (int i = 0; i < parameters.size(); i++) {
+                expression.bindString(new QName(PARAMETER_PREFIX + i), parameters.get(i), null);
+            }
+            XQResultSequence sequence = expression.executeQuery();
+            try {
+                while (sequence.next()) {
+                    if (!handler.handle(sequence.getNode())) {
+                        break;
+                    }
+                }
+            } finally {
+                sequence.close();
+            }
+            reusable = true;
+        } catch (XQException ex) {
+            log.warn(ex, "Failed to evaluate query: {0}", shape);
+            throw ConnectorException.wrap(ex);
+        } finally {
+            release(shape, expression, reusable);
+        }
+    }
+
+    /**
+     * Closes the cached expressions and the underlying connection. The cache
+     * opens a new connection on the next use.
+     */
+    public synchronized void close() {
+        for (Queue<XQPreparedExpression> pool : expressions.values()) {
+            XQPreparedExpression expression;
+            while ((expression = pool.poll()) != null) {
+                closeQuietly(expression);
+            }
+        }
+        expressions.clear();
+        if (null != connection) {
+            try {
+                connection.close();
+            } catch (XQException ex) {
+                log.warn(ex, "Failed to close XQuery connection");
+            }
+            connection = null;
+        }
+    }
+
+    /**
+     * Replaces the string literals of the query body with external variables.
+     *
+     * @param query the query as built by {@link QueryBuilder}
+     * @param parameters receives the unescaped literal values in order
+     * @return the query with declarations of the external variables
+     */
+    static String parameterize(String query, List<String> parameters) {
+        int body = query.indexOf(FLWOR_START);
+        if (body < 0) {
+            return query;
+        }
+        Matcher matcher = STRING_LITERAL.matcher(query);
+        matcher.region(body, query.length());
+        StringBuffer sb = new StringBuffer(query.length());
+        while (matcher.find()) {
+            String literal = matcher.group();
+            parameters.add(literal.substring(1, literal.length() - 1).replace("''", "'"));
+            matcher.appendReplacement(sb, Matcher.quoteReplacement("$" + PARAMETER_PREFIX
+                    + (parameters.size() - 1)));
+        }
+        matcher.appendTail(sb);
+
+        // Variable declarations follow the namespace declarations of the prolog
+        StringBuilder declarations = new StringBuilder();
+        for (int i = 0; i < parameters.size(); i++) {
+            declarations.append("declare variable $").append(PARAMETER_PREFIX).append(i).append(
+                    " as xs:string external; ");
+        }
+        sb.insert(body, declarations);
+        return sb.toString();
+    }
+
+    private XQPreparedExpression acquire(String shape) {
+        Queue<XQPreparedExpression> pool = expressions.get(shape);
+        XQPreparedExpression expression = null != pool ? pool.poll() : null;
+        if (null == expression) {
+            expression = prepare(shape);
+        }
+        return expression;
+    }
+
+    private void release(String shape, XQPreparedExpression expression, boolean reusable) {
+        if (reusable) {
+            Queue<XQPreparedExpression> pool = expressions.get(shape);
+            if (null == pool && expressions.size() < MAX_SHAPES) {
+                Queue<XQPreparedExpression> newPool = new ConcurrentLinkedQueue<XQPreparedExpression>();
+                pool = expressions.putIfAbsent(shape, newPool);
+                if (null == pool) {
+                    pool = newPool;
+                }
+            }
+            if (null != pool) {
+                pool.offer(expression);
+                return;
+            }
+        }
+        closeQuietly(expression);
+    }
+
+    private synchronized XQPreparedExpression prepare(String shape) {
+        try {
+            if (null == connection || connection.isClosed()) {
+                connection = datasource.getConnection();
+            }
+            return connection.prepareExpression(shape);
+        } catch (XQException ex) {
+            log.warn(ex, "Failed to compile query: {0}", shape);
+            throw ConnectorException.wrap(ex);
+        }
+    }
+
+    private static void closeQuietly(XQPreparedExpression expression) {
+        try {
+            expression.close();
+        } catch (XQException ex) {
+            log.warn(ex, "Failed to close compiled query");
+        }
+    }
+}
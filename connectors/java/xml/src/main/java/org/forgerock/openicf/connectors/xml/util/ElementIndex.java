@@ -0,0 +1,144 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+
+package org.forgerock.openicf.connectors.xml.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Maps the {@link Uid} and {@link Name} values of the entries to their DOM
+ * elements so single entry lookups do not have to evaluate an XQuery.
+ * <p/>
+ * The index of an object class is built on first use from the document and
+ * kept up to date by the caller through {@link #add} and {@link #remove}.
+ * When more entries share a value the first one in document order wins, the
+ * same entry the XQuery lookup would return.
+ *
+ * @since 1.1
+ */
+public class ElementIndex {
+
+    private final String icfNamespace;
+    private final String riNamespace;
+    private final Map<String, Map<String, Element>> uidIndexes = new HashMap<String, Map<String, Element>>();
+    private final Map<String, Map<String, Element>> nameIndexes = new HashMap<String, Map<String, Element>>();
+
+    public ElementIndex(String icfNamespace, String riNamespace) {
+        this.icfNamespace = icfNamespace;
+        this.riNamespace = riNamespace;
+    }
+
+    /**
+     * Finds the entry element.
+     *
+     * @param document the document the index is built from
+     * @param objClass the type of the entry
+     * @param field either {@link Uid#NAME} or {@link Name#NAME}
+     * @param value the value of the identifier element
+     * @return the element or {@code null} if there is no such entry
+     */
+    public synchronized Element get(Document document, ObjectClass objClass, String field, String value) {
+        String type = objClass.getObjectClassValue();
+        if (!uidIndexes.containsKey(type)) {
+            build(document, type);
+        }
+        Map<String, Element> index = Uid.NAME.equals(field) ? uidIndexes.get(type) : nameIndexes.get(type);
+        return index.get(value);
+    }
+
+    /**
+     * Registers a new or updated entry element.
+     */
+    public synchronized void add(ObjectClass objClass, Element entry) {
+        String type = objClass.getObjectClassValue();
+        if (uidIndexes.containsKey(type)) {
+            put(uidIndexes.get(type), getIdentifier(entry, Uid.NAME), entry);
+            put(nameIndexes.get(type), getIdentifier(entry, Name.NAME), entry);
+        }
+    }
+
+    /**
+     * Unregisters an entry element before it is removed or its identifiers
+     * are changed.
+     */
+    public synchronized void remove(ObjectClass objClass, Element entry) {
+        String type = objClass.getObjectClassValue();
+        if (uidIndexes.containsKey(type)) {
+            remove(uidIndexes.get(type), getIdentifier(entry, Uid.NAME), entry);
+            remove(nameIndexes.get(type), getIdentifier(entry, Name.NAME), entry);
+        }
+    }
+
+    /**
+     * Drops all indexes, they are rebuilt from the next document on demand.
+     */
+    public synchronized void clear() {
+        uidIndexes.clear();
+        nameIndexes.clear();
+    }
+
+    private void build(Document document, String type) {
+        Map<String, Element> uids = new HashMap<String, Element>();
+        Map<String, Element> names = new HashMap<String, Element>();
+        NodeList entries = document.getElementsByTagNameNS(riNamespace, type);
+        for (int i = 0; i < entries.getLength(); i++) {
+            Element entry = (Element) entries.item(i);
+            put(uids, getIdentifier(entry, Uid.NAME), entry);
+            put(names, getIdentifier(entry, Name.NAME), entry);
+        }
+        uidIndexes.put(type, uids);
+        nameIndexes.put(type, names);
+    }
+
+    private String getIdentifier(Element entry, String field) {
+        for (Node child = entry.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && field.equals(child.getLocalName())
+                    && icfNamespace.equals(child.getNamespaceURI())) {
+                return child.getTextContent();
+            }
+        }
+        return null;
+    }
+
+    private static void put(Map<String, Element> index, String value, Element entry) {
+        if (null != value && !index.containsKey(value)) {
+            index.put(value, entry);
+        }
+    }
+
+    private static void remove(Map<String, Element> index, String value, Element entry) {
+        if (null != value && index.get(value) == entry) {
+            index.remove(value);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+
+package org.forgerock.openicf.connectors.xml;
+
+import static org.forgerock.openicf.connectors.xml.XmlConnectorTestUtil.*;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.forgerock.openicf.connectors.xml.query.abstracts.Query;
+import org.forgerock.openicf.connectors.xml.xsdparser.SchemaParser;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+public class WriteBehindTests {
+
+    @Test
+    public void changesShouldBeWrittenWhenChangeLimitIsReached() {
+        File xmlFile = getRandomXMLFile();
+        XMLHandler handler = createHandler(xmlFile, 60000, 2);
+
+        handler.create(ObjectClass.ACCOUNT, createAccountAttributes("leia"));
+        AssertJUnit.assertFalse(xmlFile.exists());
+
+        handler.create(ObjectClass.ACCOUNT, createAccountAttributes("luke"));
+        AssertJUnit.assertTrue(xmlFile.exists());
+
+        final int[] count = new int[1];
+        createHandler(xmlFile, 0, 0).search((Query) null, ObjectClass.ACCOUNT, new ResultsHandler() {
+            public boolean handle(ConnectorObject obj) {
+                count[0]++;
+                return true;
+            }
+        });
+        AssertJUnit.assertEquals(2, count[0]);
+    }
+
+    @Test
+    public void lastDisposeShouldWriteInWriteBehindMode() {
+        File xmlFile = getRandomXMLFile();
+        XMLHandler handler = createHandler(xmlFile, 60000, 0);
+        handler.init();
+
+        handler.create(ObjectClass.ACCOUNT, createAccountAttributes("han"));
+        handler.dispose();
+        AssertJUnit.assertFalse(xmlFile.exists());
+
+        handler.dispose();
+        AssertJUnit.assertTrue(xmlFile.exists());
+    }
+
+    @Test
+    public void disposeShouldWriteWithoutWriteBehind() {
+        File xmlFile = getRandomXMLFile();
+        XMLHandler handler = createHandler(xmlFile, 0, 0);
+
+        handler.create(ObjectClass.ACCOUNT, createAccountAttributes("chewie"));
+        AssertJUnit.assertFalse(xmlFile.exists());
+
+        handler.dispose();
+        AssertJUnit.assertTrue(xmlFile.exists());
+    }
+
+    private XMLHandler createHandler(File xmlFile, long interval, int maxChanges) {
+        XMLConfiguration config = new XMLConfiguration();
+        config.setXmlFilePath(xmlFile);
+        config.setXsdFilePath(XSD_SCHEMA_FILEPATH);
+        config.setCreateFileIfNotExists(true);
+        config.setWriteBehindInterval(interval);
+        config.setWriteBehindMaxChanges(maxChanges);
+        SchemaParser parser = new SchemaParser(XMLConnector.class, config.getXsdFilePath());
+
+        XMLHandler handler = new ConcurrentXMLHandler(config, parser.parseSchema(), parser.getXsdSchema());
+        return handler.init();
+    }
+
+    private Set<Attribute> createAccountAttributes(String name) {
+        Set<Attribute> attributes = new HashSet<Attribute>();
+        for (Attribute attribute : getRequiredAccountAttributes()) {
+            if (!attribute.is(Name.NAME)) {
+                attributes.add(attribute);
+            }
+        }
+        attributes.add(new Name(name));
+        return attributes;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+
+package org.forgerock.openicf.connectors.xml;
+
+import static org.forgerock.openicf.connectors.xml.XmlConnectorTestUtil.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.forgerock.openicf.connectors.xml.query.abstracts.Query;
+import org.forgerock.openicf.connectors.xml.xsdparser.SchemaParser;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class XMLHandlerIndexTests {
+
+    private static XMLHandler handler;
+
+    @BeforeClass
+    public static void setUp() {
+        XMLConfiguration config = new XMLConfiguration();
+        config.setXmlFilePath(getRandomXMLFile());
+        config.setXsdFilePath(XSD_SCHEMA_FILEPATH);
+        config.setCreateFileIfNotExists(true);
+        config.setUseEntryIndex(true);
+        SchemaParser parser = new SchemaParser(XMLConnector.class, config.getXsdFilePath());
+
+        handler = new ConcurrentXMLHandler(config, parser.parseSchema(), parser.getXsdSchema());
+        handler.init();
+
+        handler.create(ObjectClass.ACCOUNT, getRequiredAccountAttributes());
+    }
+
+    @Test
+    public void searchByNameShouldReturnEntry() {
+        List<ConnectorObject> hits = searchByName(ATTR_ACCOUNT_VALUE_NAME);
+
+        AssertJUnit.assertEquals(1, hits.size());
+        AssertJUnit.assertEquals(ATTR_ACCOUNT_VALUE_NAME, hits.get(0).getName().getNameValue());
+    }
+
+    @Test
+    public void searchByRenamedEntryShouldReturnNewName() {
+        Uid uid = handler.create(ObjectClass.ACCOUNT, createAccountAttributes("leia"));
+
+        Set<Attribute> replaceAttributes = new HashSet<Attribute>();
+        replaceAttributes.add(new Name("organa"));
+        handler.update(ObjectClass.ACCOUNT, uid, replaceAttributes);
+
+        AssertJUnit.assertTrue(searchByName("leia").isEmpty());
+        AssertJUnit.assertEquals(1, searchByName("organa").size());
+    }
+
+    @Test
+    public void searchByDeletedEntryShouldReturnSizeZero() {
+        Uid uid = handler.create(ObjectClass.ACCOUNT, createAccountAttributes("luke"));
+        AssertJUnit.assertEquals(1, searchByName("luke").size());
+
+        handler.delete(ObjectClass.ACCOUNT, uid);
+
+        AssertJUnit.assertTrue(searchByName("luke").isEmpty());
+    }
+
+    @Test
+    public void searchShouldStopWhenHandlerReturnsFalse() {
+        handler.create(ObjectClass.ACCOUNT, createAccountAttributes("han"));
+
+        final List<ConnectorObject> hits = new ArrayList<ConnectorObject>();
+        handler.search((Query) null, ObjectClass.ACCOUNT, new ResultsHandler() {
+            public boolean handle(ConnectorObject obj) {
+                hits.add(obj);
+                return false;
+            }
+        });
+
+        AssertJUnit.assertEquals(1, hits.size());
+    }
+
+    private Set<Attribute> createAccountAttributes(String name) {
+        Set<Attribute> attributes = new HashSet<Attribute>();
+        for (Attribute attribute : getRequiredAccountAttributes()) {
+            if (!attribute.is(Name.NAME)) {
+                attributes.add(attribute);
+            }
+        }
+        attributes.add(new Name(name));
+        return attributes;
+    }
+
+    private List<ConnectorObject> searchByName(String name) {
+        XMLFilterTranslator filterTranslator = new XMLFilterTranslator(true);
+        Query query = filterTranslator.createEqualsExpression(new EqualsFilter(new Name(name)), false);
+
+        final List<ConnectorObject> hits = new ArrayList<ConnectorObject>();
+        handler.search(query, ObjectClass.ACCOUNT, new ResultsHandler() {
+            public boolean handle(ConnectorObject obj) {
+                return hits.add(obj);
+            }
+        });
+        return hits;
+    }
+}
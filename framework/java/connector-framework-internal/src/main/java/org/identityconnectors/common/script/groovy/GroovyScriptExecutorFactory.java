@@ -26,8 +26,10 @@ import groovy.lang.Binding;
 import groovy.lang.GroovyShell;
 import groovy.lang.Script;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+import org.codehaus.groovy.runtime.InvokerHelper;
 import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.script.ScriptExecutor;
 import org.identityconnectors.common.script.ScriptExecutorFactory;
@@ -35,10 +37,34 @@ import org.identityconnectors.common.script.ScriptExecutorFactory;
 
 /**
  * Creates a new ScriptExecutorFactory for executing Groovy scripts. Scripts are
- * compiled at the creation of a new instance of {@link ScriptExecutor}.
+ * compiled at the creation of a new instance of {@link ScriptExecutor}, unless
+ * the same script was already compiled for the same class loader.
+ * <p>
+ * The compiled scripts are kept in a least recently used cache. Its size is
+ * set with the {@value #CACHE_SIZE_PROP} system property.
  */
 public class GroovyScriptExecutorFactory extends ScriptExecutorFactory {
 
+    /**
+     * System property to set the maximum number of compiled scripts kept.
+     */
+    public static final String CACHE_SIZE_PROP =
+            "org.identityconnectors.common.script.groovy.cacheSize";
+
+    /**
+     * The number of compiled scripts kept if {@link #CACHE_SIZE_PROP} is not
+     * set.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 100;
+
+    /**
+     * Compiled scripts of all class loaders. A compiled class keeps its class
+     * loader and its metaspace until the entry is evicted and no executor uses
+     * it any more.
+     */
+    private static final ScriptCache SCRIPT_CACHE =
+            new ScriptCache(Integer.getInteger(CACHE_SIZE_PROP, DEFAULT_CACHE_SIZE));
+
     /**
      * Make sure we blow up if Groovy does not exist.
      */
@@ -57,16 +83,84 @@ public class GroovyScriptExecutorFactory extends ScriptExecutorFactory {
         return new GroovyScriptExecutor(loader, script);
     }
 
+    /**
+     * The compiled scripts by class loader and script text. Different scripts
+     * are compiled concurrently, the same script only once.
+     */
+    static class ScriptCache {
+        private final Map<ScriptKey, CompiledScript> scripts;
+
+        ScriptCache(final int maxSize) {
+            scripts = new LinkedHashMap<ScriptKey, CompiledScript>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ScriptKey, CompiledScript> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        Class<?> getScriptClass(ClassLoader loader, String script) {
+            ScriptKey key = new ScriptKey(loader, script);
+            CompiledScript compiled;
+            synchronized (scripts) {
+                compiled = scripts.get(key);
+                if (compiled == null) {
+                    compiled = new CompiledScript();
+                    scripts.put(key, compiled);
+                }
+            }
+            return compiled.getScriptClass(loader, script);
+        }
+    }
+
+    private static class ScriptKey {
+        private final ClassLoader loader;
+        private final String script;
+
+        ScriptKey(ClassLoader loader, String script) {
+            this.loader = loader;
+            this.script = script;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ScriptKey)) {
+                return false;
+            }
+            ScriptKey other = (ScriptKey) obj;
+            return loader == other.loader && script.equals(other.script);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(loader) * 31 + script.hashCode();
+        }
+    }
+
+    private static class CompiledScript {
+        private Class<?> scriptClass;
+
+        synchronized Class<?> getScriptClass(ClassLoader loader, String script) {
+            if (scriptClass == null) {
+                scriptClass = new GroovyShell(loader).parse(script).getClass();
+            }
+            return scriptClass;
+        }
+    }
+
     private static class GroovyScriptExecutor implements ScriptExecutor {
-        private final Script groovyScript;
+        private final Class<?> scriptClass;
 
         public GroovyScriptExecutor(ClassLoader loader, String script) {
-            groovyScript = new GroovyShell(loader).parse(script);
+            scriptClass = SCRIPT_CACHE.getScriptClass(loader, script);
         }
 
         public Object execute(Map<String, Object> arguments) throws Exception {
             Map<String, Object> args = CollectionUtil.nullAsEmpty(arguments);
-            groovyScript.setBinding(new Binding(args));
+            // A new instance per call, so the executor can be used concurrently
+            Script groovyScript = InvokerHelper.createScript(scriptClass, new Binding(args));
             return groovyScript.run();
         }
     }
@@ -320,7 +320,11 @@ public abstract class AbstractConnectorFacade implements ConnectorFacade {
         int timeout = getAPIConfiguration().getTimeout(api);
         int bufferSize = getAPIConfiguration().getProducerBufferSize();
 
-        DelegatingTimeoutProxy handler = new DelegatingTimeoutProxy(target, timeout, bufferSize);
+        AbstractConnectorInfo connectorInfo = getAPIConfiguration().getConnectorInfo();
+
+        DelegatingTimeoutProxy handler =
+                new DelegatingTimeoutProxy(target, timeout, bufferSize,
+                        null != connectorInfo ? connectorInfo.getConnectorKey() : null);
 
         return newAPIOperationProxy(api, handler);
     }
@@ -32,6 +32,7 @@ import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.impl.api.local.ConnectorPoolManager;
 import org.identityconnectors.framework.impl.api.local.LocalConnectorFacadeImpl;
 import org.identityconnectors.framework.impl.api.local.LocalConnectorInfoImpl;
+import org.identityconnectors.framework.impl.api.remote.RemoteConnectionPoolManager;
 import org.identityconnectors.framework.impl.api.remote.RemoteConnectorFacadeImpl;
 import org.identityconnectors.framework.impl.api.remote.RemoteConnectorInfoImpl;
 
@@ -94,6 +95,8 @@ public class ConnectorFacadeFactoryImpl extends ConnectorFacadeFactory {
     @Override
     public void dispose() {
         ConnectorPoolManager.dispose();
+        RemoteConnectionPoolManager.dispose();
+        TimeoutExecutorManager.dispose();
     }
 
 }
@@ -26,6 +26,7 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
+import org.identityconnectors.framework.api.ConnectorKey;
 import org.identityconnectors.framework.api.operations.APIOperation;
 
 /**
@@ -49,6 +50,11 @@ public class DelegatingTimeoutProxy implements InvocationHandler {
      */
     private final int bufferSize;
 
+    /**
+     * The connector whose executor runs the operations
+     */
+    private final ConnectorKey connectorKey;
+
     /**
      * Create a new MethodTimeoutProxy.
      *
@@ -57,9 +63,26 @@ public class DelegatingTimeoutProxy implements InvocationHandler {
      * @param timeoutMillis
      */
     public DelegatingTimeoutProxy(Object target, long timeoutMillis, int bufferSize) {
+        this(target, timeoutMillis, bufferSize, null);
+    }
+
+    /**
+     * Create a new MethodTimeoutProxy.
+     *
+     * @param target
+     *            The object we are wrapping
+     * @param timeoutMillis
+     * @param connectorKey
+     *            The connector to select the executor of, null to use the
+     *            shared one
+     * @since 1.4
+     */
+    public DelegatingTimeoutProxy(Object target, long timeoutMillis, int bufferSize,
+            ConnectorKey connectorKey) {
         this.target = target;
         this.timeoutMillis = timeoutMillis;
         this.bufferSize = bufferSize;
+        this.connectorKey = connectorKey;
     }
 
     public Object invoke(final Object proxy, final Method method, final Object[] args)
@@ -84,7 +107,9 @@ public class DelegatingTimeoutProxy implements InvocationHandler {
         else {
             if (timeoutMillis != APIOperation.NO_TIMEOUT) {
                 // everything else is a general purpose timeout proxy
-                handler = new MethodTimeoutProxy(target, timeoutMillis);
+                handler =
+                        new MethodTimeoutProxy(target, timeoutMillis, TimeoutExecutorManager
+                                .getExecutor(connectorKey));
             }
         }
 
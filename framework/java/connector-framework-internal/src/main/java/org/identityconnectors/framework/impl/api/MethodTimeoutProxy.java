@@ -28,8 +28,6 @@ import java.lang.reflect.Method;
 import java.util.Locale;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -48,11 +46,6 @@ import org.identityconnectors.framework.common.exceptions.OperationTimeoutExcept
  */
 public class MethodTimeoutProxy implements InvocationHandler {
 
-    /**
-     * Get a pool of threads to use for operational timeouts.
-     */
-    private static final ExecutorService THREADPOOL = Executors.newCachedThreadPool();
-
     /**
      * The underlying operation that we are providing a timeout for
      */
@@ -64,15 +57,36 @@ public class MethodTimeoutProxy implements InvocationHandler {
     private final long timeoutMillis;
 
     /**
-     * Create a new MethodTimeoutProxy.
+     * The pool of threads to use for operational timeouts.
+     */
+    private final TimeoutExecutorManager.TimeoutExecutor executor;
+
+    /**
+     * Create a new MethodTimeoutProxy using the shared executor.
      *
      * @param target
      *            The object we are wrapping
      * @param timeoutMillis
      */
     public MethodTimeoutProxy(Object target, long timeoutMillis) {
+        this(target, timeoutMillis, TimeoutExecutorManager.getExecutor(null));
+    }
+
+    /**
+     * Create a new MethodTimeoutProxy.
+     *
+     * @param target
+     *            The object we are wrapping
+     * @param timeoutMillis
+     * @param executor
+     *            The executor of the connector
+     * @since 1.4
+     */
+    public MethodTimeoutProxy(Object target, long timeoutMillis,
+            TimeoutExecutorManager.TimeoutExecutor executor) {
         this.target = target;
         this.timeoutMillis = timeoutMillis;
+        this.executor = executor;
     }
 
     public Object invoke(final Object proxy, final Method method, final Object[] args)
@@ -112,17 +126,24 @@ public class MethodTimeoutProxy implements InvocationHandler {
             }
         };
 
+        // package in a future task so we can set a timeout..
+        FutureTask<Object> t = new FutureTask<Object>(callable);
+        // execute it in the thread pool so we don't waste resources.
+        executor.execute(t);
         try {
-            // package in a future task so we can set a timeout..
-            FutureTask<Object> t = new FutureTask<Object>(callable);
-            // execute it in the thread pool so we don't waste resources.
-            THREADPOOL.execute(t);
             // execute and hope it doesn't timeout :)
             return t.get(timeoutMillis, TimeUnit.MILLISECONDS);
         } catch (TimeoutException ex) {
+            // do not leave the operation running or queued
+            executor.cancel(t, method);
             throw new OperationTimeoutException(ex);
         } catch (ExecutionException ex) {
             throw ex.getCause();
+        } finally {
+            if (!t.isDone()) {
+                // interrupted while waiting
+                t.cancel(true);
+            }
         }
     }
 }
@@ -0,0 +1,359 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+
+package org.identityconnectors.framework.impl.api;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.api.ConnectorKey;
+import org.identityconnectors.framework.common.exceptions.RetryableException;
+
+/**
+ * Keeps a bounded thread pool for the operations with a timeout of each
+ * connector.
+ * <p/>
+ * At most {@link #getMaxThreads()} operations of a connector run at the same
+ * time, up to {@link #getMaxQueuedTasks()} more wait for a thread. Further
+ * operations fail with a {@link RetryableException} instead of starting new
+ * threads while the target system is slow. The time spent in the queue counts
+ * against the timeout of the operation.
+ * <p/>
+ * The limits default to the {@value #MAX_THREADS_PROP} and
+ * {@value #MAX_QUEUED_TASKS_PROP} system properties, the connector server sets
+ * them from its {@code connectorserver.timeoutMaxThreads} and
+ * {@code connectorserver.timeoutMaxQueuedTasks} properties.
+ *
+ * @since 1.4
+ */
+public class TimeoutExecutorManager {
+
+    private static final Log LOG = Log.getLog(TimeoutExecutorManager.class);
+
+    /**
+     * System property with the default of {@link #getMaxThreads()}.
+     */
+    public static final String MAX_THREADS_PROP =
+            "org.identityconnectors.framework.timeoutMaxThreads";
+
+    /**
+     * System property with the default of {@link #getMaxQueuedTasks()}.
+     */
+    public static final String MAX_QUEUED_TASKS_PROP =
+            "org.identityconnectors.framework.timeoutMaxQueuedTasks";
+
+    public static final int DEFAULT_MAX_THREADS = 100;
+
+    public static final int DEFAULT_MAX_QUEUED_TASKS = 100;
+
+    /**
+     * Idle threads are stopped after this time.
+     */
+    private static final long KEEP_ALIVE_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    /**
+     * Executes the operations of one connector.
+     */
+    public static class TimeoutExecutor {
+
+        private final String name;
+
+        private final ThreadPoolExecutor executor;
+
+        private final AtomicLong rejectedCount = new AtomicLong();
+
+        private final ConcurrentMap<String, AtomicLong> timeouts =
+                new ConcurrentHashMap<String, AtomicLong>();
+
+        TimeoutExecutor(final String name, final int maxThreads, final int maxQueuedTasks) {
+            this.name = name;
+            BlockingQueue<Runnable> queue;
+            if (maxQueuedTasks > 0) {
+                queue = new ArrayBlockingQueue<Runnable>(maxQueuedTasks);
+            } else {
+                queue = new SynchronousQueue<Runnable>();
+            }
+            executor =
+                    new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_MILLIS,
+                            TimeUnit.MILLISECONDS, queue, new ThreadFactory() {
+                                private final AtomicInteger count = new AtomicInteger();
+
+                                public Thread newThread(Runnable r) {
+                                    Thread thread =
+                                            new Thread(r, "TimeoutExecutor[" + name + "]-"
+                                                    + count.incrementAndGet());
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        /**
+         * Starts the task.
+         *
+         * @throws RetryableException
+         *             if all threads are busy and the queue is full.
+         */
+        public void execute(final FutureTask<?> task) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                rejectedCount.incrementAndGet();
+                throw RetryableException.wrap("Too many concurrent operations on " + name
+                        + ", active: " + executor.getActiveCount() + ", queued: "
+                        + executor.getQueue().size(), e);
+            }
+        }
+
+        /**
+         * Cancels a task which did not complete in time. The thread running it
+         * is interrupted, a queued task is removed from the queue.
+         */
+        public void cancel(final FutureTask<?> task, final Method method) {
+            task.cancel(true);
+            executor.remove(task);
+            String operation = method.getDeclaringClass().getSimpleName();
+            AtomicLong count = timeouts.get(operation);
+            if (count == null) {
+                AtomicLong previous = timeouts.putIfAbsent(operation, count = new AtomicLong());
+                if (previous != null) {
+                    count = previous;
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        /**
+         * Gets a snapshot of the statistics.
+         */
+        public Statistics getStatistics() {
+            Map<String, Long> timeoutCounts = new HashMap<String, Long>();
+            for (Map.Entry<String, AtomicLong> entry : timeouts.entrySet()) {
+                timeoutCounts.put(entry.getKey(), entry.getValue().get());
+            }
+            return new Statistics(executor.getActiveCount(), executor.getPoolSize(), executor
+                    .getQueue().size(), executor.getCompletedTaskCount(), rejectedCount.get(),
+                    timeoutCounts);
+        }
+
+        void shutdown() {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Statistics bean for a {@link TimeoutExecutor}.
+     */
+    public static final class Statistics {
+
+        private final int activeThreads;
+        private final int poolSize;
+        private final int queuedTasks;
+        private final long completedTasks;
+        private final long rejectedTasks;
+        private final Map<String, Long> timeouts;
+
+        private Statistics(int activeThreads, int poolSize, int queuedTasks,
+                long completedTasks, long rejectedTasks, Map<String, Long> timeouts) {
+            this.activeThreads = activeThreads;
+            this.poolSize = poolSize;
+            this.queuedTasks = queuedTasks;
+            this.completedTasks = completedTasks;
+            this.rejectedTasks = rejectedTasks;
+            this.timeouts = timeouts;
+        }
+
+        /**
+         * Returns the approximate number of threads running an operation.
+         */
+        public int getActiveThreads() {
+            return activeThreads;
+        }
+
+        /**
+         * Returns the number of threads, including the idle ones.
+         */
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        /**
+         * Returns the number of operations waiting for a thread.
+         */
+        public int getQueuedTasks() {
+            return queuedTasks;
+        }
+
+        /**
+         * Returns the approximate number of operations completed, including
+         * the cancelled ones.
+         */
+        public long getCompletedTasks() {
+            return completedTasks;
+        }
+
+        /**
+         * Returns the number of operations rejected because the queue was
+         * full.
+         */
+        public long getRejectedTasks() {
+            return rejectedTasks;
+        }
+
+        /**
+         * Returns the number of timeouts by the simple name of the operation
+         * interface, e.g. {@code CreateApiOp}.
+         */
+        public Map<String, Long> getTimeouts() {
+            return timeouts;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder("{");
+            builder.append("active=").append(activeThreads);
+            builder.append(", poolSize=").append(poolSize);
+            builder.append(", queued=").append(queuedTasks);
+            builder.append(", completed=").append(completedTasks);
+            builder.append(", rejected=").append(rejectedTasks);
+            builder.append(", timeouts=").append(timeouts);
+            return builder.append('}').toString();
+        }
+    }
+
+    /**
+     * Key of the executor used when the connector is not known.
+     */
+    private static final Object SHARED_KEY = new Object();
+
+    private static final ConcurrentMap<Object, TimeoutExecutor> EXECUTORS =
+            new ConcurrentHashMap<Object, TimeoutExecutor>();
+
+    private static volatile int maxThreads = Integer.getInteger(MAX_THREADS_PROP,
+            DEFAULT_MAX_THREADS);
+
+    private static volatile int maxQueuedTasks = Integer.getInteger(MAX_QUEUED_TASKS_PROP,
+            DEFAULT_MAX_QUEUED_TASKS);
+
+    /**
+     * Gets the maximum number of operations running at the same time per
+     * connector.
+     */
+    public static int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Sets the maximum number of operations running at the same time per
+     * connector. Applies to the executors created after this call, call
+     * {@link #dispose()} to apply it to the existing ones.
+     */
+    public static void setMaxThreads(int maxThreads) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("The maxThreads must be greater than zero");
+        }
+        TimeoutExecutorManager.maxThreads = maxThreads;
+    }
+
+    /**
+     * Gets the maximum number of operations waiting for a thread per
+     * connector.
+     */
+    public static int getMaxQueuedTasks() {
+        return maxQueuedTasks;
+    }
+
+    /**
+     * Sets the maximum number of operations waiting for a thread per
+     * connector, zero to reject the operations as soon as all threads are
+     * busy. Applies to the executors created after this call, call
+     * {@link #dispose()} to apply it to the existing ones.
+     */
+    public static void setMaxQueuedTasks(int maxQueuedTasks) {
+        if (maxQueuedTasks < 0) {
+            throw new IllegalArgumentException("The maxQueuedTasks must not be negative");
+        }
+        TimeoutExecutorManager.maxQueuedTasks = maxQueuedTasks;
+    }
+
+    /**
+     * Gets the executor of the connector.
+     *
+     * @param key
+     *            the connector, null for the executor shared by the unknown
+     *            ones.
+     */
+    public static TimeoutExecutor getExecutor(final ConnectorKey key) {
+        Object mapKey = null != key ? key : SHARED_KEY;
+        TimeoutExecutor executor = EXECUTORS.get(mapKey);
+        if (executor == null) {
+            String name = null != key ? key.getConnectorName() : "shared";
+            LOG.info("Creating new timeout executor: {0}", name);
+            executor = new TimeoutExecutor(name, maxThreads, maxQueuedTasks);
+            TimeoutExecutor previous = EXECUTORS.putIfAbsent(mapKey, executor);
+            // Use the executor made by other thread
+            if (previous != null) {
+                executor.shutdown();
+                executor = previous;
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Gets a snapshot of the statistics of the executor of the connector.
+     *
+     * @return null if no operation of the connector was executed.
+     */
+    public static Statistics getStatistics(final ConnectorKey key) {
+        TimeoutExecutor executor = EXECUTORS.get(null != key ? key : SHARED_KEY);
+        return null != executor ? executor.getStatistics() : null;
+    }
+
+    /**
+     * Shuts the executors down, the running operations complete.
+     */
+    public static void dispose() {
+        for (TimeoutExecutor executor : EXECUTORS.values()) {
+            executor.shutdown();
+        }
+        EXECUTORS.clear();
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+
+package org.identityconnectors.framework.impl.api.local;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.identityconnectors.common.Assertions;
+import org.identityconnectors.common.pooling.ObjectPoolConfiguration;
+
+/**
+ * Base class of the object pools, it keeps the configuration, the handler and
+ * the statistics of the pool.
+ *
+ * @since 1.4
+ */
+public abstract class AbstractObjectPool<T> {
+
+    /**
+     * Statistics bean
+     */
+    public static final class Statistics {
+
+        /**
+         * Upper bounds in milliseconds of the buckets of
+         * {@link #getWaitHistogram()}, the last bucket has no upper bound.
+         */
+        public static final long[] WAIT_HISTOGRAM_BOUNDS_MILLIS = { 1, 10, 100, 1000, 10000 };
+
+        private final int numIdle;
+        private final int numActive;
+        private final long numBorrowed;
+        private final long numCreated;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+        private final long[] waitHistogram;
+
+        Statistics(final int numIdle, final int numActive, final long numBorrowed,
+                final long numCreated, final long totalWaitNanos, final long maxWaitNanos,
+                final long[] waitHistogram) {
+            this.numIdle = numIdle;
+            this.numActive = numActive;
+            this.numBorrowed = numBorrowed;
+            this.numCreated = numCreated;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.waitHistogram = waitHistogram;
+        }
+
+        /**
+         * Returns the number of idle objects
+         */
+        public int getNumIdle() {
+            return numIdle;
+        }
+
+        /**
+         * Returns the number of active objects
+         */
+        public int getNumActive() {
+            return numActive - numIdle;
+        }
+
+        /**
+         * Returns the number of successful borrows since the pool was created.
+         */
+        public long getNumBorrowed() {
+            return numBorrowed;
+        }
+
+        /**
+         * Returns the number of objects made by the pool since it was created.
+         */
+        public long getNumCreated() {
+            return numCreated;
+        }
+
+        /**
+         * Returns the ratio of borrows served by an already pooled object.
+         *
+         * @return value between 0 and 1, or 0 if nothing was borrowed yet.
+         */
+        public double getHitRate() {
+            if (numBorrowed == 0) {
+                return 0;
+            }
+            return Math.max(0, numBorrowed - numCreated) / (double) numBorrowed;
+        }
+
+        /**
+         * Returns the average time in milliseconds a borrower had to wait for
+         * an object, including the time to make and test it.
+         */
+        public double getAverageWaitMillis() {
+            if (numBorrowed == 0) {
+                return 0;
+            }
+            return totalWaitNanos / (double) numBorrowed / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        /**
+         * Returns the longest time in milliseconds a borrower had to wait for
+         * an object.
+         */
+        public long getMaxWaitMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+        }
+
+        /**
+         * Returns the number of borrows by the time the borrower had to wait.
+         * The element {@code i} counts the waits shorter than
+         * {@code WAIT_HISTOGRAM_BOUNDS_MILLIS[i]} and not counted by the
+         * previous element, the last element counts the longer waits.
+         */
+        public long[] getWaitHistogram() {
+            return waitHistogram.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "{idle=" + getNumIdle() + ", active=" + getNumActive() + ", borrowed="
+                    + numBorrowed + ", created=" + numCreated + ", hitRate=" + getHitRate()
+                    + ", avgWaitMillis=" + getAverageWaitMillis() + ", maxWaitMillis="
+                    + getMaxWaitMillis() + ", waitHistogram=" + Arrays.toString(waitHistogram)
+                    + "}";
+        }
+    }
+
+    /**
+     * ObjectPoolHandler we use for managing object lifecycle
+     */
+    protected final ObjectPoolHandler<T> handler;
+
+    /**
+     * Configuration for this pool.
+     */
+    protected final ObjectPoolConfiguration poolConfiguration;
+
+    /**
+     * Is the pool shutdown
+     */
+    private volatile boolean isShutdown = false;
+
+    /**
+     * Counters reported by {@link #getStatistics()}.
+     */
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong createCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLongArray waitHistogram = new AtomicLongArray(
+            Statistics.WAIT_HISTOGRAM_BOUNDS_MILLIS.length + 1);
+
+    /**
+     * Creates the pool which the configuration selects.
+     *
+     * @param handler
+     *            Handler for objects
+     * @param config
+     *            Configuration for the pool
+     * @return a {@link ConcurrentObjectPool} if
+     *         {@link ObjectPoolConfiguration#isConcurrent()} is set, an
+     *         {@link ObjectPool} otherwise.
+     */
+    public static <T> AbstractObjectPool<T> newInstance(final ObjectPoolHandler<T> handler,
+            final ObjectPoolConfiguration config) {
+        Assertions.nullCheck(config, "config");
+        if (config.isConcurrent()) {
+            return new ConcurrentObjectPool<T>(handler, config);
+        }
+        return new ObjectPool<T>(handler, config);
+    }
+
+    /**
+     * Create a new pool
+     *
+     * @param handler
+     *            Handler for objects
+     * @param config
+     *            Configuration for the pool
+     */
+    protected AbstractObjectPool(final ObjectPoolHandler<T> handler,
+            final ObjectPoolConfiguration config) {
+
+        Assertions.nullCheck(handler, "handler");
+        Assertions.nullCheck(config, "config");
+
+        this.handler = handler;
+        // clone it
+        poolConfiguration = this.handler.validate(config);
+    }
+
+    /**
+     * Get the state of the pool.
+     *
+     * @return true if the {@link #shutdown()} method was called before.
+     */
+    public boolean isShutdown() {
+        return isShutdown;
+    }
+
+    /**
+     * Borrow an object from the pool.
+     *
+     * @return An object
+     */
+    public abstract ObjectPoolEntry<T> borrowObject();
+
+    /**
+     * Borrow an idle object from the pool or create a new one if the pool is
+     * not full, without waiting for an object to be returned.
+     *
+     * @return An object or null if all objects are in use.
+     */
+    public abstract ObjectPoolEntry<T> tryBorrowObject();
+
+    /**
+     * Disposes the idle objects which are older than the
+     * {@code MinEvictableIdleTime} but keeps at least {@code MinIdle} objects
+     * in the pool.
+     */
+    public abstract void evictIdle();
+
+    /**
+     * Closes any idle objects in the pool.
+     * <p/>
+     * Existing active objects will remain alive and be allowed to shutdown
+     * gracefully, but no more objects will be allocated.
+     */
+    public void shutdown() {
+        isShutdown = true;
+        // just evict idle objects
+        // if there are any active objects still
+        // going, leave them alone so they can return
+        // gracefully
+        try {
+            disposeIdle();
+        } finally {
+            handler.shutdown();
+        }
+    }
+
+    /**
+     * Disposes all idle objects, called by {@link #shutdown()}.
+     */
+    protected abstract void disposeIdle();
+
+    /**
+     * Gets a snapshot of the pool's stats at a point in time.
+     *
+     * @return The statistics
+     */
+    public abstract Statistics getStatistics();
+
+    void recordBorrow(final long waitNanos) {
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        long max = maxWaitNanos.get();
+        while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+            max = maxWaitNanos.get();
+        }
+        final long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        int bucket = 0;
+        while (bucket < Statistics.WAIT_HISTOGRAM_BOUNDS_MILLIS.length
+                && waitMillis >= Statistics.WAIT_HISTOGRAM_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        waitHistogram.incrementAndGet(bucket);
+    }
+
+    void recordCreate() {
+        createCount.incrementAndGet();
+    }
+
+    Statistics newStatistics(final int numIdle, final int numObjects) {
+        final long[] histogram = new long[waitHistogram.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = waitHistogram.get(i);
+        }
+        return new Statistics(numIdle, numObjects, borrowCount.get(), createCount.get(),
+                totalWaitNanos.get(), maxWaitNanos.get(), histogram);
+    }
+}
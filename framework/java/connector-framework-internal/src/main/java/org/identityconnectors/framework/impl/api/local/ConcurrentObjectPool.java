@@ -0,0 +1,309 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+
+package org.identityconnectors.framework.impl.api.local;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.common.pooling.ObjectPoolConfiguration;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * An object pool which borrows and returns the objects without locking the
+ * pool.
+ * <p/>
+ * The idle objects are kept in a deque. Depending on
+ * {@link ObjectPoolConfiguration#isLifo()} the most recently returned or the
+ * oldest idle object is borrowed first. A fair semaphore limits the number of
+ * borrowed objects, the threads waiting for an object get one in the order
+ * they arrived. The idle objects older than the
+ * {@code minEvictableIdleTimeMillis} are disposed by a background thread, so
+ * returning an object does not depend on the size of the pool.
+ * <p/>
+ * The pool managers use it when {@link ObjectPoolConfiguration#isConcurrent()}
+ * is set, see {@link AbstractObjectPool#newInstance}.
+ *
+ * @since 1.4
+ */
+public class ConcurrentObjectPool<T> extends AbstractObjectPool<T> {
+
+    private static final Log LOG = Log.getLog(ConcurrentObjectPool.class);
+
+    /**
+     * The shortest interval between two evictions.
+     */
+    private static final long MIN_EVICTION_INTERVAL = 100L;
+
+    /**
+     * Thread shared by the pools to evict the idle objects.
+     */
+    private static final ScheduledThreadPoolExecutor EVICTOR;
+
+    static {
+        EVICTOR = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = Executors.defaultThreadFactory().newThread(r);
+                thread.setName("ObjectPoolEvictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        EVICTOR.setRemoveOnCancelPolicy(true);
+    }
+
+    private final class PooledObject implements ObjectPoolEntry<T> {
+
+        private final T object;
+
+        private final AtomicBoolean borrowed = new AtomicBoolean(true);
+
+        private volatile long idleSince;
+
+        PooledObject(final T object) {
+            this.object = object;
+        }
+
+        public T getPooledObject() {
+            return object;
+        }
+
+        public void close() throws IOException {
+            // ignore the second close
+            if (borrowed.compareAndSet(true, false)) {
+                returnObject(this);
+            }
+        }
+
+        boolean isOlderThan(final long maxAge) {
+            return maxAge < (System.currentTimeMillis() - idleSince);
+        }
+    }
+
+    /**
+     * Idle objects, the one borrowed next comes first.
+     */
+    private final ConcurrentLinkedDeque<PooledObject> idleObjects =
+            new ConcurrentLinkedDeque<PooledObject>();
+
+    /**
+     * Permits to borrow an object, there are {@code maxObjects} permits.
+     */
+    private final Semaphore permits;
+
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private final AtomicInteger objectCount = new AtomicInteger();
+
+    private final ScheduledFuture<?> evictor;
+
+    /**
+     * Create a new ConcurrentObjectPool
+     *
+     * @param handler
+     *            Handler for objects
+     * @param config
+     *            Configuration for the pool
+     */
+    public ConcurrentObjectPool(final ObjectPoolHandler<T> handler,
+            final ObjectPoolConfiguration config) {
+        super(handler, config);
+        permits = new Semaphore(poolConfiguration.getMaxObjects(), true);
+        final long interval =
+                Math.max(MIN_EVICTION_INTERVAL,
+                        poolConfiguration.getMinEvictableIdleTimeMillis() / 2);
+        evictor = EVICTOR.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    evictIdle();
+                } catch (Exception e) {
+                    LOG.warn(e, "Failed to evict idle objects");
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public ObjectPoolEntry<T> borrowObject() {
+        if (isShutdown()) {
+            throw new IllegalStateException("Object pool already shutdown");
+        }
+        final long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(poolConfiguration.getMaxWait(), TimeUnit.SECONDS)) {
+                throw new ConnectorException("TimeOut");
+            }
+        } catch (InterruptedException e) {
+            LOG.error(e, "Failed to borrow object from pool.");
+            throw ConnectorException.wrap(e);
+        }
+        final PooledObject rv = borrowPermitted();
+        recordBorrow(System.nanoTime() - start);
+        return rv;
+    }
+
+    @Override
+    public ObjectPoolEntry<T> tryBorrowObject() {
+        if (isShutdown() || !permits.tryAcquire()) {
+            return null;
+        }
+        final long start = System.nanoTime();
+        final PooledObject rv = borrowPermitted();
+        recordBorrow(System.nanoTime() - start);
+        return rv;
+    }
+
+    /**
+     * Takes an idle object or makes a new one, the caller holds a permit.
+     */
+    private PooledObject borrowPermitted() {
+        try {
+            for (PooledObject pooled = idleObjects.pollFirst(); pooled != null; pooled =
+                    idleObjects.pollFirst()) {
+                idleCount.decrementAndGet();
+                try {
+                    handler.testObject(pooled.getPooledObject());
+                } catch (Exception e) {
+                    dispose(pooled);
+                    continue;
+                }
+                pooled.borrowed.set(true);
+                return pooled;
+            }
+            // there is a permit, so the pool is not full
+            final PooledObject pooled = new PooledObject(handler.makeObject());
+            objectCount.incrementAndGet();
+            recordCreate();
+            try {
+                handler.testObject(pooled.getPooledObject());
+            } catch (Exception e) {
+                dispose(pooled);
+                throw ConnectorException.wrap(e);
+            }
+            return pooled;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void returnObject(final PooledObject pooled) {
+        try {
+            final int maxIdle = poolConfiguration.getMaxIdle();
+            int idle;
+            do {
+                idle = idleCount.get();
+                if (isShutdown() || idle >= maxIdle) {
+                    dispose(pooled);
+                    return;
+                }
+            } while (!idleCount.compareAndSet(idle, idle + 1));
+            pooled.idleSince = System.currentTimeMillis();
+            if (poolConfiguration.isLifo()) {
+                idleObjects.offerFirst(pooled);
+            } else {
+                idleObjects.offerLast(pooled);
+            }
+            if (isShutdown()) {
+                // shutdown() may have missed it
+                disposeIdle();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Disposes the idle objects which are older than the
+     * {@code MinEvictableIdleTime} but keeps at least {@code MinIdle} objects
+     * in the pool.
+     * <p/>
+     * The pool calls this method periodically from a background thread.
+     */
+    @Override
+    public void evictIdle() {
+        final long maxAge = poolConfiguration.getMinEvictableIdleTimeMillis();
+        final boolean lifo = poolConfiguration.isLifo();
+        while (idleCount.get() > poolConfiguration.getMinIdle()) {
+            // the oldest idle object is at the end borrowed from last
+            final PooledObject oldest = lifo ? idleObjects.peekLast() : idleObjects.peekFirst();
+            if (null == oldest || !oldest.isOlderThan(maxAge)) {
+                break;
+            }
+            if (lifo ? idleObjects.removeLastOccurrence(oldest) : idleObjects
+                    .removeFirstOccurrence(oldest)) {
+                idleCount.decrementAndGet();
+                dispose(oldest);
+            }
+        }
+    }
+
+    /**
+     * Closes any idle objects in the pool.
+     * <p/>
+     * Existing active objects will remain alive and be allowed to shutdown
+     * gracefully, but no more objects will be allocated.
+     */
+    @Override
+    public void shutdown() {
+        evictor.cancel(false);
+        super.shutdown();
+    }
+
+    @Override
+    public Statistics getStatistics() {
+        return newStatistics(idleCount.get(), objectCount.get());
+    }
+
+    @Override
+    protected void disposeIdle() {
+        for (PooledObject pooled = idleObjects.pollFirst(); pooled != null; pooled =
+                idleObjects.pollFirst()) {
+            idleCount.decrementAndGet();
+            dispose(pooled);
+        }
+    }
+
+    /**
+     * Dispose of an object, but don't throw any exceptions
+     */
+    private void dispose(final PooledObject pooled) {
+        objectCount.decrementAndGet();
+        try {
+            handler.disposeObject(pooled.getPooledObject());
+        } catch (Exception e) {
+            LOG.warn(e, "disposeObject() is not supposed to throw");
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.identityconnectors.framework.impl.api.local;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import org.identityconnectors.common.IOUtil;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.spi.ConnectorClass;
+
+/**
+ * Finds the classes of a bundle which may carry the {@link ConnectorClass}
+ * annotation without defining them. The class files are read as bytes and
+ * only the classes whose constant pool refers to the annotation are reported.
+ * <p/>
+ * If the {@value #CACHE_FILE_PROP} system property names a file, the result
+ * is kept there keyed by the checksum of the bundle JAR, so an unchanged
+ * bundle is not read again on the next start.
+ */
+final class ConnectorClassScanner {
+
+    private static final Log LOG = Log.getLog(ConnectorClassScanner.class);
+
+    /**
+     * System property with the file where the scan results are cached.
+     */
+    static final String CACHE_FILE_PROP = "org.identityconnectors.framework.bundleScanCache";
+
+    private static final String CONNECTOR_CLASS_DESCRIPTOR =
+            "L" + ConnectorClass.class.getName().replace('.', '/') + ";";
+
+    private static final int CLASS_MAGIC = 0xCAFEBABE;
+
+    private final File cacheFile;
+
+    private final Properties cache = new Properties();
+
+    private volatile boolean cacheChanged = false;
+
+    ConnectorClassScanner() {
+        String cachePath = System.getProperty(CACHE_FILE_PROP);
+        cacheFile = StringUtil.isNotBlank(cachePath) ? new File(cachePath) : null;
+        if (cacheFile != null && cacheFile.isFile()) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(cacheFile);
+                cache.load(in);
+            } catch (IOException e) {
+                LOG.warn(e, "Unable to read the bundle scan cache {0}", cacheFile);
+            } finally {
+                IOUtil.quietClose(in);
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the classes of the bundle that refer to the
+     * {@link ConnectorClass} annotation.
+     */
+    List<String> findCandidateClasses(final WorkingBundleInfo bundleInfo, final ClassLoader loader) {
+        final String checksum = cacheFile != null ? getChecksum(bundleInfo) : null;
+        if (checksum != null) {
+            final String cached = cache.getProperty(bundleInfo.getOriginalLocation());
+            if (cached != null && cached.startsWith(checksum + ":")) {
+                LOG.ok("Using cached scan result of bundle {0}", bundleInfo.getOriginalLocation());
+                return split(cached.substring(checksum.length() + 1));
+            }
+        }
+
+        final List<String> rv = new ArrayList<String>();
+        for (String name : bundleInfo.getImmediateBundleContents()) {
+            if (name.endsWith(".class")) {
+                String className = name.substring(0, name.length() - ".class".length());
+                className = className.replace('/', '.');
+                InputStream in = null;
+                try {
+                    in = loader.getResourceAsStream(name);
+                    if (in == null || refersToConnectorClass(in)) {
+                        rv.add(className);
+                    }
+                } catch (IOException e) {
+                    // Let the class loader decide on the class.
+                    LOG.ok(e, "Unable to read class file {0} from bundle {1}", name, bundleInfo
+                            .getOriginalLocation());
+                    rv.add(className);
+                } finally {
+                    IOUtil.quietClose(in);
+                }
+            }
+        }
+        if (checksum != null) {
+            final StringBuilder value = new StringBuilder(checksum).append(':');
+            for (int i = 0; i < rv.size(); i++) {
+                if (i > 0) {
+                    value.append(',');
+                }
+                value.append(rv.get(i));
+            }
+            cache.setProperty(bundleInfo.getOriginalLocation(), value.toString());
+            cacheChanged = true;
+        }
+        return rv;
+    }
+
+    /**
+     * Writes the cache file if any bundle was scanned.
+     */
+    void saveCache() {
+        if (cacheFile == null || !cacheChanged) {
+            return;
+        }
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(cacheFile);
+            cache.store(out, "Connector bundle scan cache");
+        } catch (IOException e) {
+            LOG.warn(e, "Unable to write the bundle scan cache {0}", cacheFile);
+        } finally {
+            IOUtil.quietClose(out);
+        }
+    }
+
+    /**
+     * Checks whether the constant pool of the class file contains the
+     * descriptor of the {@link ConnectorClass} annotation. This is the case
+     * for every class annotated with it, the class itself is verified when it
+     * is loaded.
+     */
+    static boolean refersToConnectorClass(final InputStream classFile) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(classFile));
+        if (in.readInt() != CLASS_MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        // minor_version, major_version
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+        final int count = in.readUnsignedShort();
+        for (int i = 1; i < count; i++) {
+            final int tag = in.readUnsignedByte();
+            switch (tag) {
+            case 1: // Utf8
+                if (CONNECTOR_CLASS_DESCRIPTOR.equals(in.readUTF())) {
+                    return true;
+                }
+                break;
+            case 7: // Class
+            case 8: // String
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                skip(in, 2);
+                break;
+            case 15: // MethodHandle
+                skip(in, 3);
+                break;
+            case 3: // Integer
+            case 4: // Float
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                skip(in, 4);
+                break;
+            case 5: // Long
+            case 6: // Double
+                skip(in, 8);
+                // Takes two entries
+                i++;
+                break;
+            default:
+                throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+        return false;
+    }
+
+    private static void skip(final DataInputStream in, final int length) throws IOException {
+        if (in.skipBytes(length) != length) {
+            throw new EOFException();
+        }
+    }
+
+    private static List<String> split(final String value) {
+        if (value.length() == 0) {
+            return Collections.emptyList();
+        }
+        final List<String> rv = new ArrayList<String>();
+        for (String className : value.split(",")) {
+            rv.add(className);
+        }
+        return rv;
+    }
+
+    /**
+     * Returns the checksum of the bundle JAR, or {@code null} if the bundle is
+     * not a local file.
+     */
+    private static String getChecksum(final WorkingBundleInfo bundleInfo) {
+        if (bundleInfo.getImmediateClassPath().size() != 1) {
+            return null;
+        }
+        final URL url = bundleInfo.getImmediateClassPath().get(0);
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            final File file = new File(url.toURI());
+            if (!file.isFile()) {
+                return null;
+            }
+            in = new FileInputStream(file);
+            final CRC32 crc = new CRC32();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+            return Long.toHexString(crc.getValue()) + "-" + file.length();
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.ok(e, "Unable to compute the checksum of bundle {0}", bundleInfo
+                    .getOriginalLocation());
+            return null;
+        } finally {
+            IOUtil.quietClose(in);
+        }
+    }
+}
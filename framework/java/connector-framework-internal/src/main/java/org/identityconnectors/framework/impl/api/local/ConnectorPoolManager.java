@@ -169,15 +169,15 @@ public class ConnectorPoolManager {
     /**
      * Cache of the various POOLS..
      */
-    private static final ConcurrentMap<ConnectorPoolKey, ObjectPool<PoolableConnector>> POOLS =
-            new ConcurrentHashMap<ConnectorPoolKey, ObjectPool<PoolableConnector>>();
+    private static final ConcurrentMap<ConnectorPoolKey, AbstractObjectPool<PoolableConnector>> POOLS =
+            new ConcurrentHashMap<ConnectorPoolKey, AbstractObjectPool<PoolableConnector>>();
 
     private static final Log LOG = Log.getLog(ConnectorPoolManager.class);
 
     /**
      * Get a object pool for this connector if it supports connector pooling.
      */
-    public static Pair<ConnectorPoolKey, ObjectPool<PoolableConnector>> getPool(
+    public static Pair<ConnectorPoolKey, AbstractObjectPool<PoolableConnector>> getPool(
             final APIConfigurationImpl impl, final LocalConnectorInfoImpl localInfo) {
         try {
             return getPool2(impl, localInfo);
@@ -189,11 +189,12 @@ public class ConnectorPoolManager {
     /**
      * Get a object pool for this connector if it was created before.
      */
-    public static ObjectPool<PoolableConnector> getPool(final ConnectorPoolKey connectorPoolKey) {
+    public static AbstractObjectPool<PoolableConnector> getPool(
+            final ConnectorPoolKey connectorPoolKey) {
         return POOLS.get(connectorPoolKey);
     }
 
-    private static Pair<ConnectorPoolKey, ObjectPool<PoolableConnector>> getPool2(
+    private static Pair<ConnectorPoolKey, AbstractObjectPool<PoolableConnector>> getPool2(
             final APIConfigurationImpl impl, final LocalConnectorInfoImpl localInfo)
             throws InstantiationException, IllegalAccessException {
         // determine if this connector wants generic connector pooling..
@@ -203,20 +204,21 @@ public class ConnectorPoolManager {
                             .getConfigurationProperties(), impl.getConnectorPoolConfiguration());
 
             // get the pool associated..
-            ObjectPool<PoolableConnector> pool = POOLS.get(key);
+            AbstractObjectPool<PoolableConnector> pool = POOLS.get(key);
             // create a new pool if it doesn't exist..
             if (pool == null) {
                 LOG.info("Creating new pool: {0}", impl.getConnectorInfo().getConnectorKey());
                 // this instance is strictly used for the pool..
                 pool =
-                        new ObjectPool<PoolableConnector>(
-                                new ConnectorPoolHandler(impl, localInfo), impl
-                                        .getConnectorPoolConfiguration());
+                        AbstractObjectPool.newInstance(new ConnectorPoolHandler(impl, localInfo),
+                                impl.getConnectorPoolConfiguration());
                 // add back to the map of POOLS..
 
-                ObjectPool<PoolableConnector> previousPool = POOLS.putIfAbsent(key, pool);
+                AbstractObjectPool<PoolableConnector> previousPool =
+                        POOLS.putIfAbsent(key, pool);
                 // Use the pool made by other thread
                 if (previousPool != null) {
+                    pool.shutdown();
                     pool = previousPool;
                 }
             }
@@ -230,7 +232,7 @@ public class ConnectorPoolManager {
 
     public static void dispose(final ConnectorPoolKey connectorPoolKey) {
         synchronized (POOLS) {
-            ObjectPool<PoolableConnector> pool = POOLS.remove(connectorPoolKey);
+            AbstractObjectPool<PoolableConnector> pool = POOLS.remove(connectorPoolKey);
             if (null != pool) {
                 try {
                     pool.shutdown();
@@ -244,7 +246,7 @@ public class ConnectorPoolManager {
     public static void dispose() {
         synchronized (POOLS) {
             // close each pool..
-            for (ObjectPool<PoolableConnector> pool : POOLS.values()) {
+            for (AbstractObjectPool<PoolableConnector> pool : POOLS.values()) {
                 try {
                     pool.shutdown();
                 } catch (Exception e) {
@@ -44,6 +44,12 @@ import java.util.Random;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
@@ -234,83 +240,130 @@ public class LocalConnectorInfoManagerImpl implements ConnectorInfoManager {
     }
 
     /**
-     * Final pass - create connector infos
+     * Final pass - create connector infos. The bundles are scanned in parallel.
      */
     private static List<ConnectorInfo> createConnectorInfo(
             final Collection<WorkingBundleInfo> parsed, final ClassLoader bundleParentClassLoader)
             throws ConfigurationException {
+        final ConnectorClassScanner scanner = new ConnectorClassScanner();
         final List<ConnectorInfo> rv = new ArrayList<ConnectorInfo>();
-        for (WorkingBundleInfo bundleInfo : parsed) {
-            final ClassLoader loader =
-                    new BundleClassLoader(bundleInfo.getEffectiveClassPath(), bundleInfo
-                            .getEffectiveNativeLibraries(), bundleParentClassLoader);
-            for (String name : bundleInfo.getImmediateBundleContents()) {
-                Class<?> connectorClass = null;
-                ConnectorClass options = null;
-                if (name.endsWith(".class")) {
-                    String className = name.substring(0, name.length() - ".class".length());
-                    className = className.replace('/', '.');
-                    try {
-                        connectorClass = loader.loadClass(className);
-                        options = connectorClass.getAnnotation(ConnectorClass.class);
-                    } catch (Throwable e) {
-                        // probe for the class. this might not be an error since
-                        // it might be from a bundle
-                        // fragment ( a bundle only included by other bundles ).
-                        // However, we should definitely warn
-                        LOG.info(LOG.isOk() ?
-                                 e : null,
-                                "Unable to load class {0} from bundle {1}. Class will be ignored and will not be listed in list of connectors.",
-                                className, bundleInfo.getOriginalLocation());
-                    }
-                    if (connectorClass != null && options == null) {
-	                    for (Annotation annotation: connectorClass.getAnnotations()) {
-	                    	if (ConnectorClass.class.getName().equals(annotation.annotationType().getName())) {
-	                    		// Same class name as the annotation we are looking for. But the previous code haven't found it.
-	                    		// So it looks like the annotation on this class is actually the correct one but it is loaded
-	                    		// by wrong classloader. 
-	                    		// Note: This error is very difficult to diagnose. Therefore we are explicitly checking for it here.
-	                    		throw new ConfigurationException("Class "+connectorClass.getName()+" has ConnectorClass annotation but it looks like it is " +
-	                    				"loaded by a wrong classloader. Maybe the connector bundle contains the connector frameworks JAR? (it should NOT contain it).");
-	                    	}
-	                    }
-                    }
+        final int threads = Math.min(parsed.size(), Runtime.getRuntime().availableProcessors());
+        if (threads <= 1) {
+            for (WorkingBundleInfo bundleInfo : parsed) {
+                rv.addAll(createConnectorInfo(bundleInfo, bundleParentClassLoader, scanner));
+            }
+        } else {
+            final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = Executors.defaultThreadFactory().newThread(r);
+                    thread.setName("BundleScanner-" + thread.getName());
+                    thread.setDaemon(true);
+                    return thread;
                 }
-                if (connectorClass != null && options != null) {
-                    if (!Connector.class.isAssignableFrom(connectorClass)) {
-                        throw new ConfigurationException("Class " + connectorClass
-                                + " does not implement " + Connector.class.getName());
-                    }
-                    final LocalConnectorInfoImpl info = new LocalConnectorInfoImpl();
-                    info.setConnectorClass(connectorClass.asSubclass(Connector.class));
-                    try {
-                        info.setConnectorConfigurationClass(options.configurationClass());
-                        info.setConnectorDisplayNameKey(options.displayNameKey());
-                        info.setConnectorCategoryKey(options.categoryKey());
-                        info.setConnectorKey(new ConnectorKey(bundleInfo.getManifest().getBundleName(),
-                                bundleInfo.getManifest().getBundleVersion(), connectorClass.getName()));
-                        final ConnectorMessagesImpl messages =
-                                loadMessageCatalog(bundleInfo.getEffectiveContents(), loader, info
-                                        .getConnectorClass());
-                        info.setMessages(messages);
-                        info.setDefaultAPIConfiguration(createDefaultAPIConfiguration(info));
-                        rv.add(info);
-                        LOG.info("Add ConnectorInfo {0} to Local Connector Info Manager from {1}",
-                                info.getConnectorKey(), bundleInfo.getOriginalLocation());
-                    } catch (final NoClassDefFoundError e) {
-                        LOG.info(LOG.isOk() ?
-                                e : null,
-                                "Unable to load configuration class of connector {0} from bundle {1}. Class will be ignored and will not be listed in list of connectors.",
-                                connectorClass, bundleInfo.getOriginalLocation());
-                    } catch (final TypeNotPresentException e) {
-                        LOG.info(LOG.isOk() ?
-                                 e : null,
-                                "Unable to load configuration class of connector {0} from bundle {1}. Class will be ignored and will not be listed in list of connectors.",
-                                connectorClass, bundleInfo.getOriginalLocation());
+            });
+            try {
+                final List<Future<List<ConnectorInfo>>> results =
+                        new ArrayList<Future<List<ConnectorInfo>>>(parsed.size());
+                for (final WorkingBundleInfo bundleInfo : parsed) {
+                    results.add(executor.submit(new Callable<List<ConnectorInfo>>() {
+                        public List<ConnectorInfo> call() throws ConfigurationException {
+                            return createConnectorInfo(bundleInfo, bundleParentClassLoader, scanner);
+                        }
+                    }));
+                }
+                // Keep the order of the bundles
+                for (Future<List<ConnectorInfo>> result : results) {
+                    rv.addAll(result.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw ConnectorException.wrap(e);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw ConnectorException.wrap(cause);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        scanner.saveCache();
+        return rv;
+    }
+
+    private static List<ConnectorInfo> createConnectorInfo(final WorkingBundleInfo bundleInfo,
+            final ClassLoader bundleParentClassLoader, final ConnectorClassScanner scanner)
+            throws ConfigurationException {
+        final long start = System.currentTimeMillis();
+        final List<ConnectorInfo> rv = new ArrayList<ConnectorInfo>();
+        final ClassLoader loader =
+                new BundleClassLoader(bundleInfo.getEffectiveClassPath(), bundleInfo
+                        .getEffectiveNativeLibraries(), bundleParentClassLoader);
+        for (String className : scanner.findCandidateClasses(bundleInfo, loader)) {
+            Class<?> connectorClass = null;
+            ConnectorClass options = null;
+            try {
+                connectorClass = loader.loadClass(className);
+                options = connectorClass.getAnnotation(ConnectorClass.class);
+            } catch (Throwable e) {
+                // probe for the class. this might not be an error since
+                // it might be from a bundle
+                // fragment ( a bundle only included by other bundles ).
+                // However, we should definitely warn
+                LOG.info(LOG.isOk() ?
+                         e : null,
+                        "Unable to load class {0} from bundle {1}. Class will be ignored and will not be listed in list of connectors.",
+                        className, bundleInfo.getOriginalLocation());
+            }
+            if (connectorClass != null && options == null) {
+                for (Annotation annotation: connectorClass.getAnnotations()) {
+                    if (ConnectorClass.class.getName().equals(annotation.annotationType().getName())) {
+                        // Same class name as the annotation we are looking for. But the previous code haven't found it.
+                        // So it looks like the annotation on this class is actually the correct one but it is loaded
+                        // by wrong classloader. 
+                        // Note: This error is very difficult to diagnose. Therefore we are explicitly checking for it here.
+                        throw new ConfigurationException("Class "+connectorClass.getName()+" has ConnectorClass annotation but it looks like it is " +
+                                "loaded by a wrong classloader. Maybe the connector bundle contains the connector frameworks JAR? (it should NOT contain it).");
                     }
                 }
             }
+            if (connectorClass != null && options != null) {
+                if (!Connector.class.isAssignableFrom(connectorClass)) {
+                    throw new ConfigurationException("Class " + connectorClass
+                            + " does not implement " + Connector.class.getName());
+                }
+                final LocalConnectorInfoImpl info = new LocalConnectorInfoImpl();
+                info.setConnectorClass(connectorClass.asSubclass(Connector.class));
+                try {
+                    info.setConnectorConfigurationClass(options.configurationClass());
+                    info.setConnectorDisplayNameKey(options.displayNameKey());
+                    info.setConnectorCategoryKey(options.categoryKey());
+                    info.setConnectorKey(new ConnectorKey(bundleInfo.getManifest().getBundleName(),
+                            bundleInfo.getManifest().getBundleVersion(), connectorClass.getName()));
+                    final ConnectorMessagesImpl messages =
+                            loadMessageCatalog(bundleInfo.getEffectiveContents(), loader, info
+                                    .getConnectorClass());
+                    info.setMessages(messages);
+                    info.setDefaultAPIConfiguration(createDefaultAPIConfiguration(info));
+                    rv.add(info);
+                    LOG.info("Add ConnectorInfo {0} to Local Connector Info Manager from {1}",
+                            info.getConnectorKey(), bundleInfo.getOriginalLocation());
+                } catch (final NoClassDefFoundError e) {
+                    LOG.info(LOG.isOk() ?
+                            e : null,
+                            "Unable to load configuration class of connector {0} from bundle {1}. Class will be ignored and will not be listed in list of connectors.",
+                            connectorClass, bundleInfo.getOriginalLocation());
+                } catch (final TypeNotPresentException e) {
+                    LOG.info(LOG.isOk() ?
+                             e : null,
+                            "Unable to load configuration class of connector {0} from bundle {1}. Class will be ignored and will not be listed in list of connectors.",
+                            connectorClass, bundleInfo.getOriginalLocation());
+                }
+            }
         }
+        LOG.info("Scanned bundle {0} in {1} ms, found {2} connector(s)", bundleInfo
+                .getOriginalLocation(), System.currentTimeMillis() - start, rv.size());
         return rv;
     }
 
@@ -33,42 +33,14 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
-import org.identityconnectors.common.Assertions;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.pooling.ObjectPoolConfiguration;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 
-public class ObjectPool<T> {
+public class ObjectPool<T> extends AbstractObjectPool<T> {
 
     private static final Log LOG = Log.getLog(ObjectPool.class);
 
-    /**
-     * Statistics bean
-     */
-    public static final class Statistics {
-        private final int numIdle;
-        private final int numActive;
-
-        private Statistics(final int numIdle, final int numActive) {
-            this.numIdle = numIdle;
-            this.numActive = numActive;
-        }
-
-        /**
-         * Returns the number of idle objects
-         */
-        public int getNumIdle() {
-            return numIdle;
-        }
-
-        /**
-         * Returns the number of active objects
-         */
-        public int getNumActive() {
-            return numActive - numIdle;
-        }
-    }
-
     /**
      * An object plus additional book-keeping information about the object
      */
@@ -162,21 +134,6 @@ public class ObjectPool<T> {
     /** Wait queue for waiting takes */
     private final Condition notEmpty = takeLock.newCondition();
 
-    /**
-     * ObjectPoolHandler we use for managing object lifecycle
-     */
-    private final ObjectPoolHandler<T> handler;
-
-    /**
-     * Configuration for this pool.
-     */
-    private final ObjectPoolConfiguration poolConfiguration;
-
-    /**
-     * Is the pool shutdown
-     */
-    private volatile boolean isShutdown = false;
-
     /**
      * Create a new ObjectPool
      *
@@ -186,26 +143,12 @@ public class ObjectPool<T> {
      *            Configuration for the pool
      */
     public ObjectPool(final ObjectPoolHandler<T> handler, final ObjectPoolConfiguration config) {
-
-        Assertions.nullCheck(handler, "handler");
-        Assertions.nullCheck(config, "config");
-
-        this.handler = handler;
-        // clone it
-        poolConfiguration = this.handler.validate(config);
-        activeObjects = new HashSet<PooledObject>(poolConfiguration.getMaxObjects());
+        super(handler, config);
+        // MaxObjects may be effectively unlimited, do not size the set by it
+        activeObjects = new HashSet<PooledObject>();
         totalPermit = new Semaphore(poolConfiguration.getMaxObjects());
     }
 
-    /**
-     * Get the state of the pool.
-     *
-     * @return true if the {@link #shutdown()} method was called before.
-     */
-    public boolean isShutdown() {
-        return isShutdown;
-    }
-
     /**
      * Return an object to the pool
      *
@@ -238,8 +181,10 @@ public class ObjectPool<T> {
      *
      * @return An object
      */
+    @Override
     public ObjectPoolEntry<T> borrowObject() {
         PooledObject rv = null;
+        final long start = System.nanoTime();
         try {
             do {
                 rv = borrowObjectNoTest();
@@ -258,6 +203,7 @@ public class ObjectPool<T> {
                 }
             } while (null == rv);
             rv.setActive(true);
+            recordBorrow(System.nanoTime() - start);
         } catch (InterruptedException e) {
             LOG.error(e, "Failed to borrow object from pool.");
             throw ConnectorException.wrap(e);
@@ -265,6 +211,49 @@ public class ObjectPool<T> {
         return rv;
     }
 
+    /**
+     * Borrow an idle object from the pool or create a new one if the pool is
+     * not full, without waiting for an object to be returned.
+     *
+     * @return An object or null if all objects are in use.
+     */
+    @Override
+    public ObjectPoolEntry<T> tryBorrowObject() {
+        final long start = System.nanoTime();
+        try {
+            while (!isShutdown()) {
+                PooledObject rv = borrowIdleObject();
+                if (null == rv) {
+                    if (!totalPermit.tryAcquire()) {
+                        return null;
+                    }
+                    try {
+                        rv = makeObject();
+                    } catch (RuntimeException e) {
+                        totalPermit.release();
+                        throw e;
+                    }
+                }
+                try {
+                    handler.testObject(rv.getPooledObject());
+                } catch (Exception e) {
+                    dispose(rv);
+                    if (rv.isNew()) {
+                        throw ConnectorException.wrap(e);
+                    }
+                    continue;
+                }
+                rv.setActive(true);
+                recordBorrow(System.nanoTime() - start);
+                return rv;
+            }
+            return null;
+        } catch (InterruptedException e) {
+            LOG.error(e, "Failed to borrow object from pool.");
+            throw ConnectorException.wrap(e);
+        }
+    }
+
     /**
      * Borrow an object from the pool, but don't test it (it gets tested by the
      * caller *outside* of synchronization)
@@ -340,27 +329,41 @@ public class ObjectPool<T> {
     }
 
     /**
-     * Closes any idle objects in the pool.
+     * Disposes the idle objects which are older than the
+     * {@code MinEvictableIdleTime} but keeps at least {@code MinIdle} objects
+     * in the pool.
      * <p/>
-     * Existing active objects will remain alive and be allowed to shutdown
-     * gracefully, but no more objects will be allocated.
+     * The pool only evicts when an object is borrowed or returned, this method
+     * can be called periodically to release the resources held by a pool which
+     * is not used for a while.
      */
-    public void shutdown() {
-        isShutdown = true;
-        // just evict idle objects
-        // if there are any active objects still
-        // going, leave them alone so they can return
-        // gracefully
-        try {
-            for (PooledObject entry = idleObjects.poll(); entry != null; entry = idleObjects.poll()) {
+    @Override
+    public void evictIdle() {
+        for (PooledObject entry : idleObjects) {
+            if (idleObjects.size() <= poolConfiguration.getMinIdle()) {
+                break;
+            }
+            if (entry.isOlderThan(poolConfiguration.getMinEvictableIdleTimeMillis())
+                    && idleObjects.remove(entry)) {
                 try {
                     dispose(entry);
                 } catch (InterruptedException e) {
                     LOG.error(e, "Failed to dispose PooledObject object");
+                    Thread.currentThread().interrupt();
+                    break;
                 }
             }
-        } finally {
-            handler.shutdown();
+        }
+    }
+
+    @Override
+    protected void disposeIdle() {
+        for (PooledObject entry = idleObjects.poll(); entry != null; entry = idleObjects.poll()) {
+            try {
+                dispose(entry);
+            } catch (InterruptedException e) {
+                LOG.error(e, "Failed to dispose PooledObject object");
+            }
         }
     }
 
@@ -369,8 +372,9 @@ public class ObjectPool<T> {
      *
      * @return The statistics
      */
+    @Override
     public Statistics getStatistics() {
-        return new Statistics(idleObjects.size(), activeObjects.size());
+        return newStatistics(idleObjects.size(), activeObjects.size());
     }
 
     /**
@@ -386,6 +390,7 @@ public class ObjectPool<T> {
                     new PooledObject((activeObjects.size() > 0) ? handler.makeObject() : handler
                             .makeObject());
             activeObjects.add(pooledConn);
+            recordCreate();
             return pooledConn;
         }
     }
@@ -29,7 +29,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 import org.identityconnectors.common.logging.Log;
-import org.identityconnectors.framework.impl.api.local.ObjectPool;
+import org.identityconnectors.framework.impl.api.local.AbstractObjectPool;
 import org.identityconnectors.framework.impl.api.local.ObjectPoolEntry;
 import org.identityconnectors.framework.spi.Connector;
 import org.identityconnectors.framework.spi.PoolableConnector;
@@ -76,7 +76,7 @@ public class ConnectorAPIOperationRunnerProxy implements InvocationHandler {
         }
         Object ret = null;
         Connector connector = null;
-        ObjectPool<PoolableConnector> pool = context.getPool();
+        AbstractObjectPool<PoolableConnector> pool = context.getPool();
         ObjectPoolEntry<PoolableConnector> poolEntry = null;
         // get the connector class..
         Class<? extends Connector> connectorClazz = context.getConnectorClass();
@@ -26,7 +26,7 @@ package org.identityconnectors.framework.impl.api.local.operations;
 import org.identityconnectors.common.Pair;
 import org.identityconnectors.framework.impl.api.APIConfigurationImpl;
 import org.identityconnectors.framework.impl.api.local.ConnectorPoolManager;
-import org.identityconnectors.framework.impl.api.local.ObjectPool;
+import org.identityconnectors.framework.impl.api.local.AbstractObjectPool;
 import org.identityconnectors.framework.impl.api.local.LocalConnectorInfoImpl;
 import org.identityconnectors.framework.spi.Connector;
 import org.identityconnectors.framework.spi.PoolableConnector;
@@ -47,19 +47,20 @@ public class ConnectorOperationalContext extends OperationalContext {
         super(connectorInfo, apiConfiguration);
     }
 
-    public ObjectPool<PoolableConnector> getPool() {
+    public AbstractObjectPool<PoolableConnector> getPool() {
         if (apiConfiguration.isConnectorPoolingSupported()) {
             if (null == connectorPoolKey) {
-                Pair<ConnectorPoolManager.ConnectorPoolKey, ObjectPool<PoolableConnector>> pool =
+                Pair<ConnectorPoolManager.ConnectorPoolKey, AbstractObjectPool<PoolableConnector>> pool =
                         ConnectorPoolManager.getPool(apiConfiguration, connectorInfo);
 
                 connectorPoolKey = pool.getKey();
                 return pool.getValue();
             } else {
-                ObjectPool<PoolableConnector> pool = ConnectorPoolManager.getPool(connectorPoolKey);
+                AbstractObjectPool<PoolableConnector> pool =
+                        ConnectorPoolManager.getPool(connectorPoolKey);
                 if (null == pool) {
                     //
-                    Pair<ConnectorPoolManager.ConnectorPoolKey, ObjectPool<PoolableConnector>> poolPair =
+                    Pair<ConnectorPoolManager.ConnectorPoolKey, AbstractObjectPool<PoolableConnector>> poolPair =
                             ConnectorPoolManager.getPool(apiConfiguration, connectorInfo);
 
                     connectorPoolKey = poolPair.getKey();
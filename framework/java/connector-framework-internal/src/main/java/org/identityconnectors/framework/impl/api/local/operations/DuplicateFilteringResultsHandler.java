@@ -23,8 +23,7 @@
  */
 package org.identityconnectors.framework.impl.api.local.operations;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.io.File;
 
 import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.ResultsHandler;
@@ -33,13 +32,23 @@ import org.identityconnectors.framework.spi.SearchResultsHandler;
 
 public final class DuplicateFilteringResultsHandler implements SearchResultsHandler {
 
+    /**
+     * Default number of uids kept in memory before they are written to the
+     * spill directory.
+     */
+    public static final int DEFAULT_MAX_MEMORY_UIDS = 1 << 20;
+
+    private static volatile int maxMemoryUids = DEFAULT_MAX_MEMORY_UIDS;
+
+    private static volatile File spillDirectory = null;
+
     // =======================================================================
     // Fields
     // =======================================================================
     private final SearchResultsHandler handler;
-    private final Set<String> visitedUIDs = new HashSet<String>();
+    private final VisitedUidSet visitedUIDs;
 
-    private boolean stillHandling;
+    private boolean stillHandling = true;
 
     // =======================================================================
     // Constructors
@@ -52,11 +61,72 @@ public final class DuplicateFilteringResultsHandler implements SearchResultsHand
      *
      */
     public DuplicateFilteringResultsHandler(final SearchResultsHandler handler) {
+        this(handler, new FingerprintUidSet(maxMemoryUids, spillDirectory));
+    }
+
+    /**
+     * Filter chain for producers.
+     *
+     * @param handler
+     *            Producer to filter.
+     * @param visitedUIDs
+     *            Set of the uids already passed on.
+     * @since 1.4
+     */
+    public DuplicateFilteringResultsHandler(final SearchResultsHandler handler,
+            final VisitedUidSet visitedUIDs) {
         // there must be a producer..
         if (handler == null) {
             throw new IllegalArgumentException("Handler must not be null!");
         }
+        if (visitedUIDs == null) {
+            throw new IllegalArgumentException("VisitedUIDs must not be null!");
+        }
         this.handler = handler;
+        this.visitedUIDs = visitedUIDs;
+    }
+
+    /**
+     * Gets the number of uids kept in memory by the default set.
+     *
+     * @since 1.4
+     */
+    public static int getMaxMemoryUids() {
+        return maxMemoryUids;
+    }
+
+    /**
+     * Sets the number of uids kept in memory by the default set before they
+     * are written to the spill directory. Ignored while the spill directory
+     * is not set.
+     *
+     * @since 1.4
+     */
+    public static void setMaxMemoryUids(int maxMemoryUids) {
+        if (maxMemoryUids < 1) {
+            throw new IllegalArgumentException("The maxMemoryUids must be greater than zero");
+        }
+        DuplicateFilteringResultsHandler.maxMemoryUids = maxMemoryUids;
+    }
+
+    /**
+     * Gets the directory of the temporary files of the default set.
+     *
+     * @return null if the uids are kept in memory.
+     * @since 1.4
+     */
+    public static File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Sets the directory of the temporary files of the default set, null to
+     * keep all uids in memory.
+     *
+     * @since 1.4
+     */
+    public static void setSpillDirectory(File spillDirectory) {
+        DuplicateFilteringResultsHandler.spillDirectory = spillDirectory;
     }
 
     public boolean handle(ConnectorObject object) {
@@ -77,4 +147,13 @@ public final class DuplicateFilteringResultsHandler implements SearchResultsHand
     public boolean isStillHandling() {
         return stillHandling;
     }
+
+    /**
+     * Releases the set of the visited uids.
+     *
+     * @since 1.4
+     */
+    public void close() {
+        visitedUIDs.close();
+    }
 }
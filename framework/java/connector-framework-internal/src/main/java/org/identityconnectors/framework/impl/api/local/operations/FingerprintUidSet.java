@@ -0,0 +1,366 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+
+package org.identityconnectors.framework.impl.api.local.operations;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Compact {@link VisitedUidSet} which keeps a 64 bit fingerprint of each uid
+ * in an open addressing table of longs instead of the uid strings.
+ * <p/>
+ * Two different uids with the same fingerprint are taken for duplicates, the
+ * chance of that is about {@code n * n / 2^65} for {@code n} uids, less than
+ * one in a million for ten million uids.
+ * <p/>
+ * If a spill directory is given, the table is sorted and written to a
+ * temporary file each time it holds {@code maxMemoryUids} fingerprints. A
+ * Bloom filter is kept in memory for each file, so the files are read only for
+ * the duplicates and the few false positives of the filter.
+ *
+ * @since 1.4
+ */
+public class FingerprintUidSet implements VisitedUidSet {
+
+    private static final Log logger = Log.getLog(FingerprintUidSet.class);
+
+    /**
+     * The fingerprint marking an empty slot of the table.
+     */
+    private static final long EMPTY = 0L;
+
+    /**
+     * Bits of the Bloom filter per spilled fingerprint and the number of hash
+     * functions, about one percent false positives.
+     */
+    private static final int BLOOM_BITS_PER_UID = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Sorted fingerprints written to a file.
+     */
+    private static final class SpilledRun {
+
+        private final File file;
+
+        private final RandomAccessFile input;
+
+        private final int size;
+
+        private final long[] bloom;
+
+        private final long bloomBits;
+
+        SpilledRun(final File file, final long[] sorted, final int size) throws IOException {
+            this.file = file;
+            this.size = size;
+            bloomBits = Math.max(64L, (long) size * BLOOM_BITS_PER_UID);
+            bloom = new long[(int) ((bloomBits + 63) >>> 6)];
+            final DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                            64 * 1024));
+            try {
+                for (int i = 0; i < size; i++) {
+                    out.writeLong(sorted[i]);
+                    long hash = sorted[i];
+                    final long step = mix(hash) | 1L;
+                    for (int k = 0; k < BLOOM_HASHES; k++, hash += step) {
+                        final long bit = (hash & Long.MAX_VALUE) % bloomBits;
+                        bloom[(int) (bit >>> 6)] |= 1L << bit;
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            input = new RandomAccessFile(file, "r");
+        }
+
+        boolean mightContain(final long fingerprint) {
+            long hash = fingerprint;
+            final long step = mix(hash) | 1L;
+            for (int k = 0; k < BLOOM_HASHES; k++, hash += step) {
+                final long bit = (hash & Long.MAX_VALUE) % bloomBits;
+                if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean contains(final long fingerprint) throws IOException {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                input.seek((long) mid * 8);
+                final long value = input.readLong();
+                if (value < fingerprint) {
+                    low = mid + 1;
+                } else if (value > fingerprint) {
+                    high = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void close() {
+            try {
+                input.close();
+            } catch (IOException e) {
+                logger.warn(e, "Failed to close {0}", file);
+            }
+            if (!file.delete()) {
+                logger.warn("Failed to delete {0}", file);
+            }
+        }
+    }
+
+    private final int maxMemoryUids;
+
+    private final File spillDirectory;
+
+    private final List<SpilledRun> runs = new ArrayList<SpilledRun>();
+
+    private long[] table;
+
+    private int size;
+
+    private long count;
+
+    private long duplicates;
+
+    private long spilled;
+
+    private long prefilterHits;
+
+    private long prefilterFalsePositives;
+
+    /**
+     * Creates a set which keeps all fingerprints in memory.
+     */
+    public FingerprintUidSet() {
+        this(Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Creates a set.
+     *
+     * @param maxMemoryUids
+     *            the number of fingerprints kept in memory before they are
+     *            written to the spill directory.
+     * @param spillDirectory
+     *            the directory of the temporary files, null to keep all
+     *            fingerprints in memory.
+     */
+    public FingerprintUidSet(final int maxMemoryUids, final File spillDirectory) {
+        if (maxMemoryUids < 1) {
+            throw new IllegalArgumentException("The maxMemoryUids must be greater than zero");
+        }
+        this.maxMemoryUids = maxMemoryUids;
+        this.spillDirectory = spillDirectory;
+        table = new long[MIN_CAPACITY];
+    }
+
+    public boolean add(final String uid) {
+        final long fingerprint = fingerprint(uid);
+        count++;
+        if (tableContains(fingerprint) || spilledContains(fingerprint)) {
+            duplicates++;
+            return false;
+        }
+        if (null != spillDirectory && size >= maxMemoryUids) {
+            spill();
+        }
+        tableAdd(fingerprint);
+        return true;
+    }
+
+    public void close() {
+        if (logger.isOk()) {
+            logger.ok("Duplicate filter statistics: {0}", getStatistics());
+        }
+        for (SpilledRun run : runs) {
+            run.close();
+        }
+        runs.clear();
+        table = new long[MIN_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Returns the number of uids in memory and in the spill files.
+     */
+    public long size() {
+        return size + spilled;
+    }
+
+    /**
+     * Returns the approximate number of bytes used in memory.
+     */
+    public long getMemoryUsage() {
+        long bytes = (long) table.length * 8;
+        for (SpilledRun run : runs) {
+            bytes += (long) run.bloom.length * 8;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the memory usage and collision statistics for the log.
+     */
+    public String getStatistics() {
+        final double n = size();
+        final StringBuilder builder = new StringBuilder("{");
+        builder.append("uids=").append(count);
+        builder.append(", duplicates=").append(duplicates);
+        builder.append(", memoryBytes=").append(getMemoryUsage());
+        builder.append(", spilledUids=").append(spilled);
+        builder.append(", spillFiles=").append(runs.size());
+        builder.append(", prefilterHits=").append(prefilterHits);
+        builder.append(", prefilterFalsePositives=").append(prefilterFalsePositives);
+        builder.append(", collisionProbability=").append(
+                Math.min(1.0, n * (n - 1) / Math.pow(2, 65)));
+        return builder.append('}').toString();
+    }
+
+    private boolean tableContains(final long fingerprint) {
+        final int mask = table.length - 1;
+        for (int i = (int) fingerprint & mask;; i = (i + 1) & mask) {
+            final long value = table[i];
+            if (value == fingerprint) {
+                return true;
+            } else if (value == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    private void tableAdd(final long fingerprint) {
+        // keep the load factor under 3/4
+        if ((size + 1) * 4L > table.length * 3L) {
+            final long[] old = table;
+            table = new long[old.length * 2];
+            for (long value : old) {
+                if (value != EMPTY) {
+                    tableInsert(value);
+                }
+            }
+        }
+        tableInsert(fingerprint);
+        size++;
+    }
+
+    private void tableInsert(final long fingerprint) {
+        final int mask = table.length - 1;
+        int i = (int) fingerprint & mask;
+        while (table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        table[i] = fingerprint;
+    }
+
+    private boolean spilledContains(final long fingerprint) {
+        try {
+            for (SpilledRun run : runs) {
+                if (run.mightContain(fingerprint)) {
+                    prefilterHits++;
+                    if (run.contains(fingerprint)) {
+                        return true;
+                    }
+                    prefilterFalsePositives++;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            throw ConnectorException.wrap(e);
+        }
+    }
+
+    private void spill() {
+        final long[] sorted = new long[size];
+        int i = 0;
+        for (long value : table) {
+            if (value != EMPTY) {
+                sorted[i++] = value;
+            }
+        }
+        Arrays.sort(sorted);
+        File file = null;
+        try {
+            file = File.createTempFile("uids", ".bin", spillDirectory);
+            runs.add(new SpilledRun(file, sorted, size));
+        } catch (IOException e) {
+            if (null != file && !file.delete()) {
+                logger.warn("Failed to delete {0}", file);
+            }
+            throw ConnectorException.wrap(e);
+        }
+        logger.ok("Spilled {0} uids to {1}", size, file);
+        spilled += size;
+        Arrays.fill(table, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Calculates the 64 bit FNV-1a hash of the characters and mixes the bits
+     * so the low bits can be used as the index of the table.
+     */
+    static long fingerprint(final String uid) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < uid.length(); i++) {
+            final char c = uid.charAt(i);
+            hash ^= c & 0xff;
+            hash *= 0x100000001b3L;
+            hash ^= c >>> 8;
+            hash *= 0x100000001b3L;
+        }
+        hash = mix(hash);
+        return hash == EMPTY ? 1L : hash;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -23,13 +23,25 @@
  */
 package org.identityconnectors.framework.impl.api.local.operations;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.identityconnectors.common.Assertions;
+import org.identityconnectors.common.l10n.CurrentLocale;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.api.ResultsHandlerConfiguration;
 import org.identityconnectors.framework.api.operations.SearchApiOp;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
@@ -38,7 +50,11 @@ import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.SearchResult;
 import org.identityconnectors.framework.common.objects.filter.Filter;
 import org.identityconnectors.framework.common.objects.filter.FilterTranslator;
+import org.identityconnectors.framework.impl.api.local.AbstractObjectPool;
+import org.identityconnectors.framework.impl.api.local.ObjectPoolEntry;
+import org.identityconnectors.framework.impl.api.local.ThreadClassLoaderManager;
 import org.identityconnectors.framework.spi.Connector;
+import org.identityconnectors.framework.spi.PoolableConnector;
 import org.identityconnectors.framework.spi.SearchResultsHandler;
 import org.identityconnectors.framework.spi.operations.SearchOp;
 
@@ -46,6 +62,21 @@ public class SearchImpl extends ConnectorAPIOperationRunner implements SearchApi
 
     private static final Log logger = Log.getLog(SearchImpl.class);
 
+    /**
+     * Threads running the queries on the borrowed connectors. The number of
+     * threads is limited by the size of the connector pools.
+     */
+    private static final ExecutorService QUERY_EXECUTOR = Executors
+            .newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SearchImpl-query-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
     /**
      * Initializes the operation works.
      */
@@ -115,6 +146,12 @@ public class SearchImpl extends ConnectorAPIOperationRunner implements SearchApi
 
         final ResultsHandler handlerChain = handler;
 
+        // borrow more connectors only if the user asked for it
+        AbstractObjectPool<PoolableConnector> pool = null;
+        if (hdlCfg.isEnableParallelQueries() && null != getOperationalContext()) {
+            pool = getOperationalContext().getPool();
+        }
+
         final AtomicReference<SearchResult> result = new AtomicReference<SearchResult>(null);
         rawSearch(search, objectClass, actualFilter, new SearchResultsHandler() {
 
@@ -125,7 +162,7 @@ public class SearchImpl extends ConnectorAPIOperationRunner implements SearchApi
             public boolean handle(ConnectorObject connectorObject) {
                 return handlerChain.handle(connectorObject);
             }
-        }, options);
+        }, options, pool);
         return result.get();
     }
 
@@ -146,31 +183,198 @@ public class SearchImpl extends ConnectorAPIOperationRunner implements SearchApi
      */
     public static void rawSearch(SearchOp<?> search, ObjectClass objectClass, Filter filter,
             SearchResultsHandler handler, OperationOptions options) {
+        rawSearch(search, objectClass, filter, handler, options, null);
+    }
+
+    /**
+     * Raw, SPI-level search which runs the native queries on the connectors
+     * borrowed from the pool at the same time.
+     * <p/>
+     * When the filter is translated into more than one query each idle or
+     * new connector of the pool takes the next query. The search does not
+     * wait for busy connectors, the queries left are executed by the given
+     * connector. The results are passed to the handler one at a time and
+     * once it returns false no more results are passed and the queries not
+     * started yet are skipped.
+     *
+     * @param search
+     *            The underlying implementation of search (generally the
+     *            connector itself)
+     * @param objectClass
+     *            The object class
+     * @param filter
+     *            The filter
+     * @param handler
+     *            The handler
+     * @param options
+     *            The options
+     * @param pool
+     *            The pool of the connector, null to execute the queries one
+     *            after the other
+     * @since 1.4
+     */
+    public static void rawSearch(SearchOp<?> search, ObjectClass objectClass, Filter filter,
+            SearchResultsHandler handler, OperationOptions options,
+            AbstractObjectPool<PoolableConnector> pool) {
         FilterTranslator<?> translator = search.createFilterTranslator(objectClass, options);
         List<?> queries = translator.translate(filter);
 
         if (queries.size() == 0) {
             search.executeQuery(objectClass, null, handler, options);
+        } else if (queries.size() == 1) {
+            @SuppressWarnings("unchecked")
+            SearchOp<Object> hack = (SearchOp<Object>) search;
+            hack.executeQuery(objectClass, queries.get(0), handler, options);
         } else {
             // eliminate dups if more than one
-            boolean eliminateDups = queries.size() > 1;
-            if (eliminateDups) {
-                handler = new DuplicateFilteringResultsHandler(handler);
+            DuplicateFilteringResultsHandler dups = new DuplicateFilteringResultsHandler(handler);
+            try {
+                if (null != pool) {
+                    parallelSearch(search, objectClass, queries,
+                            new SynchronizedResultsHandler(dups), options, pool);
+                } else {
+                    for (Object query : queries) {
+                        @SuppressWarnings("unchecked")
+                        SearchOp<Object> hack = (SearchOp<Object>) search;
+                        hack.executeQuery(objectClass, query, dups, options);
+                        // don't run any more queries if the consumer
+                        // has stopped
+                        if (!dups.isStillHandling()) {
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                dups.close();
             }
-            for (Object query : queries) {
-                @SuppressWarnings("unchecked")
-                SearchOp<Object> hack = (SearchOp<Object>) search;
-                hack.executeQuery(objectClass, query, handler, options);
-                // don't run any more queries if the consumer
-                // has stopped
-                if (handler instanceof DuplicateFilteringResultsHandler) {
-                    DuplicateFilteringResultsHandler h = (DuplicateFilteringResultsHandler) handler;
-                    if (!h.isStillHandling()) {
-                        break;
+        }
+    }
+
+    private static void parallelSearch(final SearchOp<?> search, final ObjectClass objectClass,
+            final List<?> queries, final SynchronizedResultsHandler handler,
+            final OperationOptions options, final AbstractObjectPool<PoolableConnector> pool) {
+        final ConcurrentLinkedQueue<Object> pending = new ConcurrentLinkedQueue<Object>(queries);
+        final ClassLoader classLoader =
+                ThreadClassLoaderManager.getInstance().getCurrentClassLoader();
+        final Locale locale = CurrentLocale.isSet() ? CurrentLocale.get() : null;
+
+        List<Future<Void>> workers = new ArrayList<Future<Void>>(queries.size() - 1);
+        RuntimeException error = null;
+        try {
+            for (int i = 1; i < queries.size(); i++) {
+                ObjectPoolEntry<PoolableConnector> borrowed = null;
+                try {
+                    borrowed = pool.tryBorrowObject();
+                } catch (RuntimeException e) {
+                    // the given connector executes the queries left
+                    logger.warn(e, "Failed to borrow connector for parallel query");
+                }
+                if (null == borrowed) {
+                    break;
+                }
+                final ObjectPoolEntry<PoolableConnector> entry = borrowed;
+                workers.add(QUERY_EXECUTOR.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        // propagate the context of the caller
+                        ThreadClassLoaderManager.getInstance().pushClassLoader(classLoader);
+                        if (null != locale) {
+                            CurrentLocale.set(locale);
+                        }
+                        try {
+                            executeQueries((SearchOp<?>) entry.getPooledObject(), objectClass,
+                                    pending, handler, options);
+                        } finally {
+                            CurrentLocale.clear();
+                            ThreadClassLoaderManager.getInstance().popClassLoader();
+                            try {
+                                entry.close();
+                            } catch (Exception e) {
+                                logger.error(e, null);
+                            }
+                        }
+                        return null;
                     }
+                }));
+            }
+            logger.ok("Executing {0} queries on {1} connectors", queries.size(),
+                    workers.size() + 1);
+            executeQueries(search, objectClass, pending, handler, options);
+        } catch (RuntimeException e) {
+            handler.stop();
+            error = e;
+        }
+
+        // do not return while the other connectors may call the handler
+        for (Future<Void> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException e) {
+                handler.stop();
+                if (null == error) {
+                    error = ConnectorException.wrap(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                handler.stop();
+                Thread.currentThread().interrupt();
+                if (null == error) {
+                    error = ConnectorException.wrap(e);
+                }
+                break;
+            }
+        }
+        if (null != error) {
+            throw error;
+        }
+    }
+
+    private static void executeQueries(final SearchOp<?> search, final ObjectClass objectClass,
+            final ConcurrentLinkedQueue<Object> pending, final SynchronizedResultsHandler handler,
+            final OperationOptions options) {
+        @SuppressWarnings("unchecked")
+        SearchOp<Object> hack = (SearchOp<Object>) search;
+        Object query = null;
+        while (handler.isStillHandling() && null != (query = pending.poll())) {
+            hack.executeQuery(objectClass, query, handler, options);
+        }
+    }
+
+    /**
+     * Passes the results of the queries running at the same time to the
+     * handler one at a time.
+     */
+    private static final class SynchronizedResultsHandler implements SearchResultsHandler {
+
+        private final SearchResultsHandler handler;
+
+        private volatile boolean stillHandling = true;
+
+        SynchronizedResultsHandler(final SearchResultsHandler handler) {
+            this.handler = handler;
+        }
+
+        public boolean handle(final ConnectorObject object) {
+            if (!stillHandling) {
+                return false;
+            }
+            synchronized (this) {
+                if (stillHandling && !handler.handle(object)) {
+                    stillHandling = false;
                 }
+                return stillHandling;
             }
         }
+
+        public synchronized void handleResult(final SearchResult result) {
+            handler.handleResult(result);
+        }
+
+        boolean isStillHandling() {
+            return stillHandling;
+        }
+
+        void stop() {
+            stillHandling = false;
+        }
     }
 
     private ResultsHandler getAttributesToGetResutlsHandler(ResultsHandler handler,
@@ -0,0 +1,220 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.identityconnectors.framework.impl.api.remote;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.identityconnectors.common.Assertions;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.common.pooling.ObjectPoolConfiguration;
+import org.identityconnectors.framework.api.RemoteFrameworkConnectionInfo;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+import org.identityconnectors.framework.impl.api.local.AbstractObjectPool;
+import org.identityconnectors.framework.impl.api.local.ObjectPoolHandler;
+
+/**
+ * Keeps a pool of open {@link RemoteFrameworkConnection}s for each connector
+ * server.
+ * <p/>
+ * The connector server processes the requests of a connection in a loop so a
+ * connection can be reused as long as the previous response was read
+ * completely. Reusing the connection saves the TCP connect and the SSL
+ * handshake on every operation.
+ * <p/>
+ * Every idle connection keeps a worker thread busy on the connector server,
+ * the idle connections are closed after
+ * {@link ObjectPoolConfiguration#getMinEvictableIdleTimeMillis()}. Set the
+ * {@code MaxIdle} to zero to open a new connection for every request.
+ * <p/>
+ * The pool is configured by
+ * {@link RemoteFrameworkConnectionInfo#getConnectionPoolConfiguration()}. By
+ * default it opens up to {@link #DEFAULT_MAX_CONNECTIONS} connections, the
+ * default number of worker threads of the connector server, so a burst of
+ * calls can not pin all the workers of the server with idle connections. A
+ * borrow waits up to {@link #DEFAULT_MAX_WAIT} seconds for a free connection
+ * when the limit is reached, a search handler which calls the same connector
+ * server while the search is running holds two connections meanwhile.
+ *
+ * @since 1.4
+ */
+public class RemoteConnectionPoolManager {
+
+    private static final Log LOG = Log.getLog(RemoteConnectionPoolManager.class);
+
+    /**
+     * How often the idle connections are checked.
+     */
+    private static final long EVICTION_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * The default maximum number of connections to one connector server.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 100;
+
+    /**
+     * The default time in seconds to wait for a free connection.
+     */
+    public static final long DEFAULT_MAX_WAIT = 60;
+
+    private static class RemoteConnectionHandler implements
+            ObjectPoolHandler<RemoteFrameworkConnection> {
+
+        private final RemoteFrameworkConnectionInfo connectionInfo;
+
+        public RemoteConnectionHandler(final RemoteFrameworkConnectionInfo connectionInfo) {
+            this.connectionInfo = connectionInfo;
+        }
+
+        public ObjectPoolConfiguration validate(ObjectPoolConfiguration original) {
+            ObjectPoolConfiguration configuration = new ObjectPoolConfiguration(original);
+            configuration.validate();
+            return configuration;
+        }
+
+        public RemoteFrameworkConnection makeObject() {
+            return new RemoteFrameworkConnection(connectionInfo);
+        }
+
+        public void testObject(RemoteFrameworkConnection object) {
+            if (!object.isAlive()) {
+                throw new ConnectorIOException("Connection is closed: " + connectionInfo);
+            }
+        }
+
+        public void disposeObject(RemoteFrameworkConnection object) {
+            try {
+                object.close();
+            } catch (Exception e) {
+                LOG.ok(e, "Failed to close connection to {0}", connectionInfo);
+            }
+        }
+
+        public void shutdown() {
+        }
+    }
+
+    /**
+     * Cache of the various POOLS..
+     */
+    private static final ConcurrentMap<RemoteFrameworkConnectionInfo, AbstractObjectPool<RemoteFrameworkConnection>> POOLS =
+            new ConcurrentHashMap<RemoteFrameworkConnectionInfo, AbstractObjectPool<RemoteFrameworkConnection>>();
+
+    private static Timer evictor = null;
+
+    /**
+     * Gets the configuration of the connection pool used when the
+     * {@link RemoteFrameworkConnectionInfo} does not have one.
+     * <p/>
+     * Up to {@link #DEFAULT_MAX_CONNECTIONS} connections are opened and a
+     * borrow waits up to {@link #DEFAULT_MAX_WAIT} seconds for a free one, up
+     * to 10 idle connections are kept open for 60 seconds.
+     */
+    public static ObjectPoolConfiguration newDefaultConfiguration() {
+        ObjectPoolConfiguration configuration = new ObjectPoolConfiguration();
+        configuration.setMaxObjects(DEFAULT_MAX_CONNECTIONS);
+        configuration.setMaxIdle(10);
+        configuration.setMinIdle(0);
+        configuration.setMaxWait(DEFAULT_MAX_WAIT);
+        configuration.setMinEvictableIdleTimeMillis(TimeUnit.SECONDS.toMillis(60));
+        return configuration;
+    }
+
+    /**
+     * Get the connection pool of the connector server.
+     */
+    public static AbstractObjectPool<RemoteFrameworkConnection> getPool(
+            final RemoteFrameworkConnectionInfo info) {
+        Assertions.nullCheck(info, "info");
+        AbstractObjectPool<RemoteFrameworkConnection> pool = POOLS.get(info);
+        if (pool == null) {
+            LOG.info("Creating new connection pool: {0}", info);
+            ObjectPoolConfiguration configuration = info.getConnectionPoolConfiguration();
+            pool =
+                    AbstractObjectPool.newInstance(new RemoteConnectionHandler(info),
+                            null != configuration ? configuration : newDefaultConfiguration());
+            AbstractObjectPool<RemoteFrameworkConnection> previousPool =
+                    POOLS.putIfAbsent(info, pool);
+            // Use the pool made by other thread
+            if (previousPool != null) {
+                pool.shutdown();
+                pool = previousPool;
+            } else {
+                startEvictor();
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Gets a snapshot of the statistics of the connection pool.
+     *
+     * @return null if there was no connection made to the connector server.
+     */
+    public static AbstractObjectPool.Statistics getStatistics(
+            final RemoteFrameworkConnectionInfo info) {
+        AbstractObjectPool<RemoteFrameworkConnection> pool = POOLS.get(info);
+        return null != pool ? pool.getStatistics() : null;
+    }
+
+    private static synchronized void startEvictor() {
+        if (null == evictor) {
+            evictor = new Timer("RemoteConnectionPoolEvictor", true);
+            evictor.schedule(new TimerTask() {
+                public void run() {
+                    for (AbstractObjectPool<RemoteFrameworkConnection> pool : POOLS.values()) {
+                        try {
+                            pool.evictIdle();
+                        } catch (Exception e) {
+                            LOG.warn(e, "Failed to evict idle connections");
+                        }
+                    }
+                }
+            }, EVICTION_INTERVAL, EVICTION_INTERVAL);
+        }
+    }
+
+    public static void dispose() {
+        synchronized (RemoteConnectionPoolManager.class) {
+            if (null != evictor) {
+                evictor.cancel();
+                evictor = null;
+            }
+        }
+        for (RemoteFrameworkConnectionInfo info : POOLS.keySet()) {
+            AbstractObjectPool<RemoteFrameworkConnection> pool = POOLS.remove(info);
+            if (null != pool) {
+                try {
+                    pool.shutdown();
+                } catch (Exception e) {
+                    LOG.warn(e, "Failed to close pool: {0}", info);
+                }
+            }
+        }
+    }
+}
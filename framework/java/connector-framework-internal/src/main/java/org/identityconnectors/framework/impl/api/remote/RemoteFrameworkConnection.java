@@ -23,11 +23,13 @@
 package org.identityconnectors.framework.impl.api.remote;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.util.List;
 
 import javax.net.ssl.SSLContext;
@@ -42,11 +44,21 @@ import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
 import org.identityconnectors.framework.common.serializer.BinaryObjectDeserializer;
 import org.identityconnectors.framework.common.serializer.BinaryObjectSerializer;
 import org.identityconnectors.framework.common.serializer.ObjectSerializerFactory;
+import org.identityconnectors.framework.impl.serializer.binary.BinaryObjectEncoder;
 
 public class RemoteFrameworkConnection implements Closeable {
 
     private static final Log LOG = Log.getLog(RemoteFrameworkConnection.class);
+
+    /**
+     * Connections used within this time are not probed by
+     * {@link #isAlive()}.
+     */
+    private static final long ALIVE_CHECK_INTERVAL = 1000;
+
     private Socket socket;
+    private volatile long lastActivity = System.currentTimeMillis();
+    private long readCount = 0;
     private BinaryObjectSerializer encoder;
     private BinaryObjectDeserializer decoder;
 
@@ -77,6 +89,8 @@ public class RemoteFrameworkConnection implements Closeable {
     private void init(RemoteFrameworkConnectionInfo connectionInfo) throws Exception {
         Socket socket = new Socket();
         socket.setSoTimeout(connectionInfo.getTimeout());
+        // pooled connections may stay idle between the requests
+        socket.setKeepAlive(true);
         socket.connect(new InetSocketAddress(connectionInfo.getHost(), connectionInfo.getPort()),
                 connectionInfo.getTimeout());
         try {
@@ -123,19 +137,74 @@ public class RemoteFrameworkConnection implements Closeable {
     }
 
     public void close() {
-        flush();
+        if (socket.isClosed()) {
+            return;
+        }
         try {
-            if (socket instanceof SSLSocket) {
-                // SSLSocket doesn't like shutdownOutput/shutdownInput
-                socket.close();
-            } else {
-                socket.shutdownOutput();
-                socket.shutdownInput();
-                socket.close();
+            flush();
+        } finally {
+            try {
+                if (socket instanceof SSLSocket) {
+                    // SSLSocket doesn't like shutdownOutput/shutdownInput
+                    socket.close();
+                } else {
+                    socket.shutdownOutput();
+                    socket.shutdownInput();
+                    socket.close();
+                }
+            } catch (Exception e) {
+                LOG.info(e, "Failed to close connection.");
+                throw ConnectorException.wrap(e);
+            }
+        }
+    }
+
+    /**
+     * Checks if the connection can be used to send the next request.
+     * <p/>
+     * This must be called only on an idle connection, when the response of
+     * the previous request was read completely. The remote side is not
+     * expected to send anything so a short read tells apart a live connection
+     * (the read times out) from the one closed by the connector server (end
+     * of stream). The probe is skipped if the connection was used recently,
+     * a request sent on a connection closed meanwhile fails without any
+     * response and can be sent again, see {@link #getReadCount()}.
+     *
+     * @return true if the connection is open and there is no pending data.
+     */
+    public boolean isAlive() {
+        if (socket.isClosed() || !socket.isConnected()) {
+            return false;
+        }
+        if (System.currentTimeMillis() - lastActivity < ALIVE_CHECK_INTERVAL) {
+            return true;
+        }
+        try {
+            int timeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            try {
+                socket.getInputStream().read();
+                // end of stream or an unexpected byte, either way the
+                // connection is not usable anymore
+                return false;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                socket.setSoTimeout(timeout);
             }
         } catch (Exception e) {
-            LOG.info(e, "Failed to close connection.");
-            throw ConnectorException.wrap(e);
+            LOG.ok(e, "Connection is not alive: {0}", socket);
+            return false;
+        }
+    }
+
+    /**
+     * Enables interned strings for the objects written to the peer, see
+     * {@link BinaryObjectEncoder#setInternStrings(boolean)}.
+     */
+    public void setInternStrings(boolean internStrings) {
+        if (encoder instanceof BinaryObjectEncoder) {
+            ((BinaryObjectEncoder) encoder).setInternStrings(internStrings);
         }
     }
 
@@ -147,10 +216,39 @@ public class RemoteFrameworkConnection implements Closeable {
         encoder.writeObject(object);
     }
 
+    /**
+     * Returns {@code true} if the peer sent data which can be read without
+     * blocking. Data the decoder has already buffered is not seen, so
+     * {@code false} does not mean that {@link #readObject()} would block.
+     */
+    public boolean hasPendingInput() {
+        try {
+            return socket.getInputStream().available() > 0;
+        } catch (IOException e) {
+            throw ConnectorException.wrap(e);
+        }
+    }
+
     public Object readObject() {
         // flush first in case there is any data in the
         // output buffer
         flush();
-        return decoder.readObject();
+        Object object = decoder.readObject();
+        lastActivity = System.currentTimeMillis();
+        readCount++;
+        return object;
+    }
+
+    /**
+     * Gets the number of objects read from the peer.
+     * <p/>
+     * A connection with a read count above zero was reused from the pool, if
+     * the count did not change since the request was written the peer did
+     * not answer any part of it.
+     *
+     * @return the number of objects read so far.
+     */
+    public long getReadCount() {
+        return readCount;
     }
 }
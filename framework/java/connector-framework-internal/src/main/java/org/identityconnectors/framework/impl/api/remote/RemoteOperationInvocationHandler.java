@@ -23,6 +23,7 @@
  */
 package org.identityconnectors.framework.impl.api.remote;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -30,22 +31,36 @@ import java.util.List;
 
 import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.l10n.CurrentLocale;
+import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.api.RemoteFrameworkConnectionInfo;
 import org.identityconnectors.framework.api.operations.APIOperation;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.impl.api.ObjectStreamHandler;
 import org.identityconnectors.framework.impl.api.StreamHandlerUtil;
+import org.identityconnectors.framework.impl.api.local.ObjectPoolEntry;
 import org.identityconnectors.framework.impl.api.remote.messages.OperationRequest;
 import org.identityconnectors.framework.impl.api.remote.messages.OperationRequestMoreData;
 import org.identityconnectors.framework.impl.api.remote.messages.OperationRequestStopData;
 import org.identityconnectors.framework.impl.api.remote.messages.OperationResponseEnd;
 import org.identityconnectors.framework.impl.api.remote.messages.OperationResponsePart;
 import org.identityconnectors.framework.impl.api.remote.messages.OperationResponsePause;
+import org.identityconnectors.framework.impl.api.remote.messages.OperationResponseWindow;
 
 /**
  * Invocation handler for all of our operations
  */
 public class RemoteOperationInvocationHandler implements InvocationHandler {
+
+    private static final Log LOG = Log.getLog(RemoteOperationInvocationHandler.class);
+
+    /**
+     * Number of streamed results the server may send ahead of the client.
+     * Half of it is granted again each time the client consumed that many, so
+     * over a slow link the server does not stop for a round trip as long as a
+     * half window covers the latency.
+     */
+    static final int STREAM_WINDOW = 1000;
+
     private final RemoteConnectorInfoImpl connectorInfo;
     private final String connectorFacadeKey;
     private final Class<? extends APIOperation> operation;
@@ -73,13 +88,45 @@ public class RemoteOperationInvocationHandler implements InvocationHandler {
         RemoteFrameworkConnectionInfo connectionInfo = connectorInfo.getRemoteConnectionInfo();
         OperationRequest request =
                 new OperationRequest(connectorInfo.getConnectorKey(), connectorFacadeKey,
-                        operation, method.getName(), simpleMarshallArgs);
+                        operation, method.getName(), simpleMarshallArgs,
+                        streamHandlerArg != null ? STREAM_WINDOW : 0, true);
 
-        // create the connection
-        RemoteFrameworkConnection connection = null;
+        // borrow a connection, the connector server keeps reading the
+        // requests until the connection is closed
+        boolean retried = false;
+        while (true) {
+            ObjectPoolEntry<RemoteFrameworkConnection> entry =
+                    RemoteConnectionPoolManager.getPool(connectionInfo).borrowObject();
+            RemoteFrameworkConnection connection = entry.getPooledObject();
+            long readCount = connection.getReadCount();
+            try {
+                return invoke(connection, request, streamHandlerArg);
+            } catch (ConnectorException e) {
+                // the connector server closed the pooled connection before
+                // it read the request, nothing was processed
+                if (retried || readCount == 0 || connection.getReadCount() != readCount
+                        || !(e.getCause() instanceof IOException)) {
+                    throw e;
+                }
+                LOG.ok(e, "Stale pooled connection, sending the request again: {0}",
+                        connectionInfo);
+                retried = true;
+            } finally {
+                entry.close();
+            }
+        }
+    }
 
+    /**
+     * Sends the request and reads the response, the connection is closed
+     * unless the whole response was read.
+     */
+    private Object invoke(final RemoteFrameworkConnection connection,
+            final OperationRequest request, final ObjectStreamHandler streamHandlerArg)
+            throws Throwable {
+        RemoteFrameworkConnectionInfo connectionInfo = connectorInfo.getRemoteConnectionInfo();
+        boolean completed = false;
         try {
-            connection = new RemoteFrameworkConnection(connectionInfo);
             connection.writeObject(CurrentLocale.get());
             connection.writeObject(connectionInfo.getKey());
             // send the request
@@ -92,25 +139,40 @@ public class RemoteOperationInvocationHandler implements InvocationHandler {
 
             // finally return the actual return value
             OperationResponsePart response = (OperationResponsePart) connection.readObject();
+            // the whole response was read, the connection can be reused
+            completed = true;
             if (response.getException() != null) {
                 throw response.getException();
             }
             return response.getResult();
         } finally {
-            if (null != connection) {
-                connection.close();
+            if (!completed) {
+                // the rest of the response is unknown, close it so the pool
+                // drops the connection on the next borrow
+                try {
+                    connection.close();
+                } catch (Exception e) {
+                    /* ignore */
+                }
             }
         }
-
     }
 
     /**
-     * Handles a stream response until the end of the stream
+     * Handles a stream response until the end of the stream.
+     * <p>
+     * Servers which do not know the stream window answer with the pause based
+     * flow control, otherwise they confirm with an
+     * {@link OperationResponseWindow} first.
      */
     private static void handleStreamResponse(final RemoteFrameworkConnection connection,
             final ObjectStreamHandler streamHandler) throws ConnectorException {
         Object response;
         boolean handleMore = true;
+        // credit based flow control state
+        int grant = 0;
+        long count = 0;
+        boolean stopSent = false;
         while (true) {
             response = connection.readObject();
             if (response instanceof OperationResponsePart) {
@@ -122,6 +184,20 @@ public class RemoteOperationInvocationHandler implements InvocationHandler {
                 if (handleMore) {
                     handleMore = streamHandler.handle(object);
                 }
+                // one answer per started grant interval until the stop, the
+                // stop is sent as soon as the handler is done so the server
+                // can end early. They go out with the next read.
+                if (grant > 0 && !stopSent) {
+                    count++;
+                    if (!handleMore) {
+                        connection.writeObject(new OperationRequestStopData());
+                        stopSent = true;
+                    } else if (count % grant == 0) {
+                        connection.writeObject(new OperationRequestMoreData(grant));
+                    }
+                }
+            } else if (response instanceof OperationResponseWindow) {
+                grant = ((OperationResponseWindow) response).getGrantInterval();
             } else if (response instanceof OperationResponsePause) {
                 if (handleMore) {
                     connection.writeObject(new OperationRequestMoreData());
@@ -129,6 +205,11 @@ public class RemoteOperationInvocationHandler implements InvocationHandler {
                     connection.writeObject(new OperationRequestStopData());
                 }
             } else if (response instanceof OperationResponseEnd) {
+                if (grant > 0 && !stopSent && count % grant != 0) {
+                    // answer the last, partial interval, the server reads it
+                    // before the final response
+                    connection.writeObject(new OperationRequestStopData());
+                }
                 break;
             } else {
                 throw new ConnectorException("Unexpected response: " + response);
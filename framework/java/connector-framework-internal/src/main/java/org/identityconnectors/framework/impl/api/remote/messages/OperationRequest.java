@@ -32,6 +32,20 @@ import org.identityconnectors.framework.api.operations.APIOperation;
 /**
  * Sent to request an operation. Response will consist of one-or-more
  * {@link OperationResponsePart}'s followed by an {@link OperationResponseEnd}.
+ * <p>
+ * If the operation streams its results and the request carries a positive
+ * {@link #getStreamWindow() stream window} the server confirms with an
+ * {@link OperationResponseWindow} and sends up to that many parts without
+ * waiting. The client keeps the server going by granting more credit with
+ * {@link OperationRequestMoreData} messages instead of answering an
+ * {@link OperationResponsePause} every few hundred objects.
+ * <p>
+ * A connection carries one request at a time, the messages carry no request
+ * ID. Concurrent operations use separate pooled connections.
+ * <p>
+ * A request with {@link #isInternStrings() interned strings} tells the server
+ * that the client decodes string values sent by reference to the constant
+ * pool, the server then uses them for the rest of the connection.
  */
 public class OperationRequest implements Message {
 
@@ -63,14 +77,40 @@ public class OperationRequest implements Message {
      */
     private final List<Object> arguments;
 
+    /**
+     * The number of streamed results the server may send before it has to
+     * wait for more credit. Zero selects the pause based flow control.
+     */
+    private final int streamWindow;
+
+    /**
+     * Whether the client decodes interned string values.
+     */
+    private final boolean internStrings;
+
     public OperationRequest(ConnectorKey key, String connectorFacadeKey,
             Class<? extends APIOperation> operation, String operationMethodName,
             List<Object> arguments) {
+        this(key, connectorFacadeKey, operation, operationMethodName, arguments, 0);
+    }
+
+    public OperationRequest(ConnectorKey key, String connectorFacadeKey,
+            Class<? extends APIOperation> operation, String operationMethodName,
+            List<Object> arguments, int streamWindow) {
+        this(key, connectorFacadeKey, operation, operationMethodName, arguments, streamWindow,
+                false);
+    }
+
+    public OperationRequest(ConnectorKey key, String connectorFacadeKey,
+            Class<? extends APIOperation> operation, String operationMethodName,
+            List<Object> arguments, int streamWindow, boolean internStrings) {
         connectorKey = key;
         configuration = connectorFacadeKey;
         this.operation = operation;
         this.operationMethodName = operationMethodName;
         this.arguments = CollectionUtil.newReadOnlyList(arguments);
+        this.streamWindow = streamWindow;
+        this.internStrings = internStrings;
     }
 
     public ConnectorKey getConnectorKey() {
@@ -92,4 +132,12 @@ public class OperationRequest implements Message {
     public List<Object> getArguments() {
         return arguments;
     }
+
+    public int getStreamWindow() {
+        return streamWindow;
+    }
+
+    public boolean isInternStrings() {
+        return internStrings;
+    }
 }
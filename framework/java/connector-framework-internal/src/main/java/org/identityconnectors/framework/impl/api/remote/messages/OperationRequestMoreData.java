@@ -24,10 +24,28 @@ package org.identityconnectors.framework.impl.api.remote.messages;
 
 /**
  * Sent by the client to request more data.
+ * <p>
+ * In response to an {@link OperationResponsePause} the credit is ignored. With
+ * credit based flow control the client sends it unsolicited and the server
+ * may send that many more parts.
  */
 public class OperationRequestMoreData implements Message {
 
+    /**
+     * The number of additional parts the server may send.
+     */
+    private final int credit;
+
     public OperationRequestMoreData() {
+        this(0);
+    }
+
+    public OperationRequestMoreData(int credit) {
+        this.credit = credit;
+    }
+
+    public int getCredit() {
+        return credit;
     }
 
 }
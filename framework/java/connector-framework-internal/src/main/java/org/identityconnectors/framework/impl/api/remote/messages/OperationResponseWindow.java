@@ -0,0 +1,62 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.identityconnectors.framework.impl.api.remote.messages;
+
+/**
+ * Sent by the server before the first streamed part when it accepted the
+ * stream window of the {@link OperationRequest}. Until the end of the stream
+ * the server sends no {@link OperationResponsePause}.
+ * <p>
+ * After every {@link #getGrantInterval()} parts the client answers with an
+ * {@link OperationRequestMoreData} granting that many parts again. As soon as
+ * it wants no more data it sends a single {@link OperationRequestStopData}
+ * instead, and it answers a last, partial interval with a stop when it gets
+ * the {@link OperationResponseEnd}. So there is one answer per started
+ * interval up to the stop, and after the end the server knows how many
+ * answers are still to be read.
+ */
+public class OperationResponseWindow implements Message {
+
+    /**
+     * The number of parts the server sends before it waits for credit.
+     */
+    private final int window;
+
+    public OperationResponseWindow(int window) {
+        this.window = window;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Returns the number of parts the client answers.
+     */
+    public int getGrantInterval() {
+        return Math.max(1, window / 2);
+    }
+
+}
@@ -58,6 +58,8 @@ class APIConfigurationHandlers {
                 rv.setMinEvictableIdleTimeMillis(decoder.readLongField(
                         "minEvictableIdleTimeMillis", rv.getMinEvictableIdleTimeMillis()));
                 rv.setMinIdle(decoder.readIntField("minIdle", rv.getMinIdle()));
+                rv.setLifo(decoder.readBooleanField("lifo", rv.isLifo()));
+                rv.setConcurrent(decoder.readBooleanField("concurrent", rv.isConcurrent()));
                 return rv;
             }
 
@@ -69,6 +71,13 @@ class APIConfigurationHandlers {
                 encoder.writeLongField("minEvictableIdleTimeMillis", val
                         .getMinEvictableIdleTimeMillis());
                 encoder.writeIntField("minIdle", val.getMinIdle());
+                // older peers do not know it, write only when enabled
+                if (val.isLifo()) {
+                    encoder.writeBooleanField("lifo", true);
+                }
+                if (val.isConcurrent()) {
+                    encoder.writeBooleanField("concurrent", true);
+                }
             }
 
         });
@@ -87,6 +96,8 @@ class APIConfigurationHandlers {
                 rv.setEnableAttributesToGetSearchResultsHandler(decoder.readBooleanField(
                         "enableAttributesToGetSearchResultsHandler", rv
                                 .isEnableAttributesToGetSearchResultsHandler()));
+                rv.setEnableParallelQueries(decoder.readBooleanField("enableParallelQueries", rv
+                        .isEnableParallelQueries()));
                 return rv;
             }
 
@@ -100,6 +111,10 @@ class APIConfigurationHandlers {
                         .isEnableCaseInsensitiveFilter());
                 encoder.writeBooleanField("enableAttributesToGetSearchResultsHandler", val
                         .isEnableAttributesToGetSearchResultsHandler());
+                // older peers do not know it, write only when enabled
+                if (val.isEnableParallelQueries()) {
+                    encoder.writeBooleanField("enableParallelQueries", true);
+                }
             }
         });
 
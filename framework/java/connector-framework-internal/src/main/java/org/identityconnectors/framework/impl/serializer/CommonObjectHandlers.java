@@ -96,7 +96,7 @@ class CommonObjectHandlers {
 
         public final void serialize(final Object object, final ObjectEncoder encoder) {
             final Attribute val = (Attribute) object;
-            encoder.writeStringField("name", val.getName());
+            encoder.writeInternedStringField("name", val.getName());
             encoder.writeObjectField("Values", val.getValue(), true);
         }
 
@@ -422,7 +422,7 @@ class CommonObjectHandlers {
 
             public void serialize(final Object object, final ObjectEncoder encoder) {
                 final ObjectClass val = (ObjectClass) object;
-                encoder.writeStringField("type", val.getObjectClassValue());
+                encoder.writeInternedStringField("type", val.getObjectClassValue());
             }
         });
 
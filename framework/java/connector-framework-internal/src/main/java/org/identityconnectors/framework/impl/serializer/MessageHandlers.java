@@ -40,6 +40,7 @@ import org.identityconnectors.framework.impl.api.remote.messages.OperationReques
 import org.identityconnectors.framework.impl.api.remote.messages.OperationResponseEnd;
 import org.identityconnectors.framework.impl.api.remote.messages.OperationResponsePart;
 import org.identityconnectors.framework.impl.api.remote.messages.OperationResponsePause;
+import org.identityconnectors.framework.impl.api.remote.messages.OperationResponseWindow;
 
 /**
  * Serialization handles for remote messages.
@@ -107,8 +108,10 @@ class MessageHandlers {
                 @SuppressWarnings("unchecked")
                 final List<Object> arguments =
                         (List) decoder.readObjectField("Arguments", List.class, null);
+                final int streamWindow = decoder.readIntField("streamWindow", 0);
+                final boolean internStrings = decoder.readBooleanField("internStrings", false);
                 return new OperationRequest(connectorKey, connectorFacadeKey, operation,
-                        operationMethodName, arguments);
+                        operationMethodName, arguments, streamWindow, internStrings);
             }
 
             public void serialize(final Object object, final ObjectEncoder encoder) {
@@ -118,6 +121,12 @@ class MessageHandlers {
                 encoder.writeObjectField("ConnectorKey", val.getConnectorKey(), true);
                 encoder.writeStringField("connectorFacadeKey", val.getConnectorFacadeKey());
                 encoder.writeObjectField("Arguments", val.getArguments(), true);
+                if (val.getStreamWindow() > 0) {
+                    encoder.writeIntField("streamWindow", val.getStreamWindow());
+                }
+                if (val.isInternStrings()) {
+                    encoder.writeBooleanField("internStrings", true);
+                }
             }
         });
 
@@ -154,10 +163,14 @@ class MessageHandlers {
                 "OperationRequestMoreData") {
 
             public Object deserialize(final ObjectDecoder decoder) {
-                return new OperationRequestMoreData();
+                return new OperationRequestMoreData(decoder.readIntField("credit", 0));
             }
 
             public void serialize(final Object object, final ObjectEncoder encoder) {
+                final OperationRequestMoreData val = (OperationRequestMoreData) object;
+                if (val.getCredit() > 0) {
+                    encoder.writeIntField("credit", val.getCredit());
+                }
             }
         });
 
@@ -183,6 +196,19 @@ class MessageHandlers {
             }
         });
 
+        HANDLERS.add(new AbstractObjectSerializationHandler(OperationResponseWindow.class,
+                "OperationResponseWindow") {
+
+            public Object deserialize(final ObjectDecoder decoder) {
+                return new OperationResponseWindow(decoder.readIntField("window", 0));
+            }
+
+            public void serialize(final Object object, final ObjectEncoder encoder) {
+                final OperationResponseWindow val = (OperationResponseWindow) object;
+                encoder.writeIntField("window", val.getWindow());
+            }
+        });
+
         HANDLERS.add(new AbstractObjectSerializationHandler(EchoMessage.class, "EchoMessage") {
 
             public Object deserialize(final ObjectDecoder decoder) {
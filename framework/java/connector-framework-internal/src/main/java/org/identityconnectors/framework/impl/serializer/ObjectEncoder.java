@@ -94,6 +94,16 @@ public interface ObjectEncoder {
      */
     public void writeStringField(String fieldName, String v);
 
+    /**
+     * Writes a String which is expected to repeat across the objects of a
+     * stream, like an attribute name. The binary serialization may send it
+     * only once per stream and refer to it afterwards.
+     * @param fieldName A hint of the field name. Ignored for binary
+     * serialization. Becomes the attribute name for xml serialization
+     * @param v The value to serialize
+     */
+    public void writeInternedStringField(String fieldName, String v);
+
     /**
      * Writes the value in-line.
      */
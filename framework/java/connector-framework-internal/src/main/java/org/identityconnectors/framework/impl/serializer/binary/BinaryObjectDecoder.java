@@ -23,8 +23,8 @@
 package org.identityconnectors.framework.impl.serializer.binary;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Array;
@@ -32,7 +32,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.serializer.BinaryObjectDeserializer;
@@ -43,31 +42,85 @@ import org.identityconnectors.framework.impl.serializer.ObjectTypeMapper;
 
 public class BinaryObjectDecoder implements ObjectDecoder, BinaryObjectDeserializer {
 
+    /**
+     * The fields of an object being read. The contents are not copied, only
+     * their position in the buffer of the top-level object is kept.
+     */
     private static class ReadState {
-        public Map<String, byte[]> objectFields = new HashMap<String, byte[]>();
-        public List<byte[]> anonymousFields = new ArrayList<byte[]>();
-        public DataInputStream currentInput;
+        private String[] fieldNames = new String[8];
+        private int[] fieldPositions = new int[16];
+        private int fieldCount = 0;
+        private int[] anonymousPositions = new int[16];
+        private int anonymousCount = 0;
+
+        /**
+         * The field being read.
+         */
+        public int position;
+        public int limit;
+
+        public void reset() {
+            for (int i = 0; i < fieldCount; i++) {
+                fieldNames[i] = null;
+            }
+            fieldCount = 0;
+            anonymousCount = 0;
+            position = 0;
+            limit = 0;
+        }
+
+        public void addField(String name, int start, int length) {
+            if (fieldCount == fieldNames.length) {
+                String[] names = new String[fieldCount * 2];
+                System.arraycopy(fieldNames, 0, names, 0, fieldCount);
+                fieldNames = names;
+                fieldPositions = grow(fieldPositions);
+            }
+            fieldNames[fieldCount] = name;
+            fieldPositions[fieldCount * 2] = start;
+            fieldPositions[fieldCount * 2 + 1] = start + length;
+            fieldCount++;
+        }
+
+        public void addAnonymousField(int start, int length) {
+            if (anonymousCount * 2 == anonymousPositions.length) {
+                anonymousPositions = grow(anonymousPositions);
+            }
+            anonymousPositions[anonymousCount * 2] = start;
+            anonymousPositions[anonymousCount * 2 + 1] = start + length;
+            anonymousCount++;
+        }
 
-        public ReadState() {
+        public int getNumAnonymousFields() {
+            return anonymousCount;
         }
 
         public boolean startField(String name) {
-            currentInput = null;
-            byte[] content = objectFields.get(name);
-            if (content == null) {
-                return false;
-            } else {
-                currentInput = new DataInputStream(new ByteArrayInputStream(content));
-                return true;
+            // the last one wins if a field was written twice
+            for (int i = fieldCount - 1; i >= 0; i--) {
+                if (name.equals(fieldNames[i])) {
+                    position = fieldPositions[i * 2];
+                    limit = fieldPositions[i * 2 + 1];
+                    return true;
+                }
             }
+            position = 0;
+            limit = 0;
+            return false;
         }
 
         public void startAnonymousField(int index) {
-            if (index >= anonymousFields.size()) {
+            if (index >= anonymousCount) {
                 throw new ConnectorException("Anonymous content not found");
             }
-            currentInput =
-                    new DataInputStream(new ByteArrayInputStream(anonymousFields.get(index)));
+            position = anonymousPositions[index * 2];
+            limit = anonymousPositions[index * 2 + 1];
+        }
+
+        private static int[] grow(int[] array) {
+            int[] rv = new int[array.length * 2];
+            System.arraycopy(array, 0, rv, 0, array.length);
+            return rv;
         }
     }
 
@@ -77,7 +130,19 @@ public class BinaryObjectDecoder implements ObjectDecoder, BinaryObjectDeseriali
 
         private final Map<Integer, String> constantPool = new HashMap<Integer, String>();
 
-        private final Stack<ReadState> readStateStack = new Stack<ReadState>();
+        /**
+         * Read states by depth, reused for the following objects.
+         */
+        private final List<ReadState> readStates = new ArrayList<ReadState>();
+        private int depth = 0;
+
+        /**
+         * Field contents of the top-level object being read, nested objects
+         * are decoded in place.
+         */
+        private byte[] buffer = new byte[1024];
+        private int bufferSize = 0;
+
         private final DataInputStream rootInput;
 
         public InternalDecoder(DataInputStream input) {
@@ -99,35 +164,59 @@ public class BinaryObjectDecoder implements ObjectDecoder, BinaryObjectDeseriali
             }
 
             // if it's a top-level object, it's proceeded by a constant pool
-            if (readStateStack.size() == 0) {
+            if (depth == 0) {
                 int size = readInt();
+                if (size < 0) {
+                    // the encoder has reset its pool
+                    constantPool.clear();
+                    size = -1 - size;
+                }
                 for (int i = 0; i < size; i++) {
                     String constant = readString(false);
                     int code = readInt();
                     constantPool.put(code, constant);
                 }
+                try {
+                    return readObjectBody(decoder);
+                } finally {
+                    depth = 0;
+                    bufferSize = 0;
+                    if (buffer.length > BinaryObjectEncoder.MAX_RETAINED_BUFFER) {
+                        buffer = new byte[1024];
+                    }
+                }
             }
+            return readObjectBody(decoder);
+        }
 
+        private Object readObjectBody(ObjectDecoder decoder) {
             Class<?> clazz = readClass();
-            ReadState state = new ReadState();
+            ReadState state;
+            if (depth == readStates.size()) {
+                state = new ReadState();
+                readStates.add(state);
+            } else {
+                state = readStates.get(depth);
+                state.reset();
+            }
 
             while (true) {
                 byte type = readByte();
                 if (type == BinaryObjectEncoder.FIELD_TYPE_END_OBJECT) {
                     break;
                 } else if (type == BinaryObjectEncoder.FIELD_TYPE_ANONYMOUS_FIELD) {
-                    byte[] bytes = readByteArray();
-                    state.anonymousFields.add(bytes);
+                    int length = readInt();
+                    state.addAnonymousField(skipField(length), length);
                 } else if (type == BinaryObjectEncoder.FIELD_TYPE_NAMED_FIELD) {
                     String fieldName = readString(true);
-                    byte[] bytes = readByteArray();
-                    state.objectFields.put(fieldName, bytes);
+                    int length = readInt();
+                    state.addField(fieldName, skipField(length), length);
                 } else {
                     throw new ConnectorException("Unknown type: " + type);
                 }
             }
             // push the state on the stack before we read the body
-            readStateStack.push(state);
+            depth++;
 
             Object rv;
             if (clazz == null) {
@@ -155,10 +244,46 @@ public class BinaryObjectDecoder implements ObjectDecoder, BinaryObjectDeseriali
                 }
             }
             // pop
-            readStateStack.pop();
+            depth--;
             return rv;
         }
 
+        /**
+         * Steps over the contents of a field of the object being read.
+         *
+         * @return the start of the contents in the buffer.
+         */
+        private int skipField(int length) {
+            if (length < 0) {
+                throw new ConnectorException("Bad field length: " + length);
+            }
+            if (depth == 0) {
+                // copy the fields of the top-level object once
+                int start = bufferSize;
+                ensureCapacity(length);
+                try {
+                    rootInput.readFully(buffer, start, length);
+                } catch (IOException e) {
+                    throw ConnectorException.wrap(e);
+                }
+                bufferSize += length;
+                return start;
+            }
+            ReadState state = getCurrentState();
+            int start = state.position;
+            checkAvailable(state, length);
+            state.position += length;
+            return start;
+        }
+
+        private void ensureCapacity(int length) {
+            if (bufferSize + length > buffer.length) {
+                byte[] newBuffer = new byte[Math.max(buffer.length * 2, bufferSize + length)];
+                System.arraycopy(buffer, 0, newBuffer, 0, bufferSize);
+                buffer = newBuffer;
+            }
+        }
+
         public Class<?> readClass() {
             int type = readByte();
             if (type == BinaryObjectEncoder.OBJECT_TYPE_NULL) {
@@ -179,69 +304,82 @@ public class BinaryObjectDecoder implements ObjectDecoder, BinaryObjectDeseriali
         }
 
         public int getNumAnonymousFields() {
-            ReadState readState = readStateStack.get(readStateStack.size() - 1);
-            return readState.anonymousFields.size();
+            return getCurrentState().getNumAnonymousFields();
         }
 
         public void startAnonymousField(int index) {
-            ReadState readState = readStateStack.get(readStateStack.size() - 1);
-            readState.startAnonymousField(index);
+            getCurrentState().startAnonymousField(index);
         }
 
         public boolean startField(String name) {
-            ReadState readState = readStateStack.get(readStateStack.size() - 1);
-            return readState.startField(name);
+            return getCurrentState().startField(name);
         }
 
         public int readInt() {
-            try {
-                return getCurrentInput().readInt();
-            } catch (IOException e) {
-                throw ConnectorException.wrap(e);
+            if (depth == 0) {
+                try {
+                    return rootInput.readInt();
+                } catch (IOException e) {
+                    throw ConnectorException.wrap(e);
+                }
             }
+            ReadState state = getCurrentState();
+            checkAvailable(state, 4);
+            int p = state.position;
+            state.position += 4;
+            return ((buffer[p] & 0xFF) << 24) | ((buffer[p + 1] & 0xFF) << 16)
+                    | ((buffer[p + 2] & 0xFF) << 8) | (buffer[p + 3] & 0xFF);
         }
 
         public long readLong() {
-            try {
-                return getCurrentInput().readLong();
-            } catch (IOException e) {
-                throw ConnectorException.wrap(e);
+            if (depth == 0) {
+                try {
+                    return rootInput.readLong();
+                } catch (IOException e) {
+                    throw ConnectorException.wrap(e);
+                }
             }
+            long high = readInt();
+            return (high << 32) | (readInt() & 0xFFFFFFFFL);
         }
 
         public double readDouble() {
-            try {
-                return getCurrentInput().readDouble();
-            } catch (IOException e) {
-                throw ConnectorException.wrap(e);
-            }
+            return Double.longBitsToDouble(readLong());
         }
 
         public byte[] readByteArray() {
-            try {
-                int length = getCurrentInput().readInt();
-                byte[] rv = new byte[length];
-                getCurrentInput().readFully(rv);
-                return rv;
-            } catch (IOException e) {
-                throw ConnectorException.wrap(e);
+            int length = readInt();
+            byte[] rv = new byte[length];
+            if (depth == 0) {
+                try {
+                    rootInput.readFully(rv);
+                } catch (IOException e) {
+                    throw ConnectorException.wrap(e);
+                }
+            } else {
+                ReadState state = getCurrentState();
+                checkAvailable(state, length);
+                System.arraycopy(buffer, state.position, rv, 0, length);
+                state.position += length;
             }
+            return rv;
         }
 
         public byte readByte() {
-            try {
-                return getCurrentInput().readByte();
-            } catch (IOException e) {
-                throw ConnectorException.wrap(e);
+            if (depth == 0) {
+                try {
+                    return rootInput.readByte();
+                } catch (IOException e) {
+                    throw ConnectorException.wrap(e);
+                }
             }
+            ReadState state = getCurrentState();
+            checkAvailable(state, 1);
+            return buffer[state.position++];
         }
 
         public boolean readBoolean() {
-            try {
-                return getCurrentInput().readBoolean();
-            } catch (IOException e) {
-                throw ConnectorException.wrap(e);
-            }
+            return readByte() != 0;
         }
 
         public String readString(boolean interned) {
@@ -254,22 +392,41 @@ public class BinaryObjectDecoder implements ObjectDecoder, BinaryObjectDeseriali
                 return name;
             }
 
+            int length = readInt();
+            if (length < 0) {
+                // interned value
+                String value = constantPool.get(-1 - length);
+                if (value == null) {
+                    throw new ConnectorException("Undeclared code: " + (-1 - length));
+                }
+                return value;
+            }
             try {
-                byte[] bytes = readByteArray();
-                return new String(bytes, "UTF8");
+                if (depth == 0) {
+                    byte[] bytes = new byte[length];
+                    rootInput.readFully(bytes);
+                    return new String(bytes, "UTF8");
+                }
+                // decode in place
+                ReadState state = getCurrentState();
+                checkAvailable(state, length);
+                String rv = new String(buffer, state.position, length, "UTF8");
+                state.position += length;
+                return rv;
             } catch (IOException e) {
                 throw ConnectorException.wrap(e);
             }
         }
 
-        private DataInputStream getCurrentInput() {
-            if (readStateStack.size() > 0) {
-                ReadState state = readStateStack.get(readStateStack.size() - 1);
-                return state.currentInput;
-            } else {
-                return rootInput;
+        private void checkAvailable(ReadState state, int length) {
+            if (length < 0 || state.position + length > state.limit) {
+                throw ConnectorException.wrap(new EOFException());
             }
         }
+
+        private ReadState getCurrentState() {
+            return readStates.get(depth - 1);
+        }
     }
 
     private InternalDecoder internalDecoder;
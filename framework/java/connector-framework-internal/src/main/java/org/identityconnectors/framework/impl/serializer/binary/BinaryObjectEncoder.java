@@ -32,9 +32,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
-import org.identityconnectors.common.Pair;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.serializer.BinaryObjectSerializer;
 import org.identityconnectors.framework.impl.serializer.ObjectEncoder;
@@ -60,9 +58,43 @@ public class BinaryObjectEncoder implements ObjectEncoder, BinaryObjectSerialize
     public static final byte FIELD_TYPE_NAMED_FIELD = 71;
     public static final byte FIELD_TYPE_END_OBJECT = 72;
 
-    private static class OutputBuffer extends Pair<ByteArrayOutputStream, DataOutputStream> {
-        public OutputBuffer(ByteArrayOutputStream buf, DataOutputStream data) {
-            super(buf, data);
+    /**
+     * Buffers larger than this are released after the object was written
+     * rather than kept for the next one.
+     */
+    static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+
+    /**
+     * With interned strings the constant pool is reset before the next
+     * top-level object once it has grown to this size.
+     */
+    static final int MAX_CONSTANT_POOL_SIZE = 4096;
+
+    /**
+     * Longer strings are not interned.
+     */
+    static final int MAX_INTERNED_STRING_LENGTH = 256;
+
+    /**
+     * Buffer of the top-level object being written. The fields are length
+     * prefixed, the length is written as a placeholder and filled in when the
+     * field ends.
+     */
+    private static class ObjectBuffer extends ByteArrayOutputStream {
+
+        public ObjectBuffer() {
+            super(1024);
+        }
+
+        public int capacity() {
+            return buf.length;
+        }
+
+        public void setInt(int position, int v) {
+            buf[position] = (byte) (v >>> 24);
+            buf[position + 1] = (byte) (v >>> 16);
+            buf[position + 2] = (byte) (v >>> 8);
+            buf[position + 3] = (byte) v;
         }
     }
 
@@ -75,9 +107,19 @@ public class BinaryObjectEncoder implements ObjectEncoder, BinaryObjectSerialize
 
         private List<String> constantBuffer = new ArrayList<String>();
 
-        private Stack<OutputBuffer> outputBufferStack = new Stack<OutputBuffer>();
+        private ObjectBuffer objectBuffer = new ObjectBuffer();
+        private DataOutputStream objectOutput = new DataOutputStream(objectBuffer);
+
+        /**
+         * Positions of the length placeholders of the open fields.
+         */
+        private int[] fieldStack = new int[16];
+        private int fieldDepth = 0;
+
+        private int objectDepth = 0;
         private DataOutputStream rootOutput;
         private boolean firstObject = true;
+        private boolean internStrings = false;
 
         public InternalEncoder(DataOutputStream output) {
             rootOutput = output;
@@ -91,15 +133,48 @@ public class BinaryObjectEncoder implements ObjectEncoder, BinaryObjectSerialize
                 firstObject = false;
             }
 
-            // push the stack
-            OutputBuffer objectBuffer;
-            {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                DataOutputStream data = new DataOutputStream(baos);
-                objectBuffer = new OutputBuffer(baos, data);
-                outputBufferStack.push(objectBuffer);
+            if (objectDepth == 0) {
+                boolean resetConstants = false;
+                if (internStrings && constantPool.size() >= MAX_CONSTANT_POOL_SIZE) {
+                    constantPool.clear();
+                    constantBuffer.clear();
+                    resetConstants = true;
+                }
+                try {
+                    objectDepth++;
+                    writeObjectBody(encoder, object);
+                    objectDepth--;
+                } catch (RuntimeException e) {
+                    // start the next object on a clean buffer
+                    resetObjectBuffer();
+                    throw e;
+                }
+
+                // it's a top-level object, flush the constant pool, a negative
+                // size tells the decoder to drop its pool first
+                writeInt(resetConstants ? -1 - constantBuffer.size() : constantBuffer.size());
+                for (String constant : constantBuffer) {
+                    writeString(constant, false);
+                    writeInt(constantPool.get(constant));
+                }
+                constantBuffer.clear();
+
+                // now write the actual object
+                try {
+                    objectBuffer.writeTo(rootOutput);
+                } catch (IOException e) {
+                    throw ConnectorException.wrap(e);
+                } finally {
+                    resetObjectBuffer();
+                }
+            } else {
+                objectDepth++;
+                writeObjectBody(encoder, object);
+                objectDepth--;
             }
+        }
 
+        private void writeObjectBody(ObjectEncoder encoder, Object object) {
             if (object == null) {
                 writeByte(OBJECT_TYPE_NULL);
             } else {
@@ -127,28 +202,17 @@ public class BinaryObjectEncoder implements ObjectEncoder, BinaryObjectSerialize
             }
             writeByte(FIELD_TYPE_END_OBJECT); // write end-object into the
                                               // current obj buffer
+        }
 
-            // pop the stack
-            outputBufferStack.pop();
-
-            // it's a top-level object, flush the constant pool
-            if (outputBufferStack.size() == 0) {
-                writeInt(constantBuffer.size());
-                for (String constant : constantBuffer) {
-                    writeString(constant, false);
-                    writeInt(constantPool.get(constant));
-                }
-                constantBuffer.clear();
-            }
-
-            // now write the actual object
-            try {
-                objectBuffer.second.close();
-            } catch (IOException e) {
-                throw ConnectorException.wrap(e);
+        private void resetObjectBuffer() {
+            objectDepth = 0;
+            fieldDepth = 0;
+            if (objectBuffer.capacity() > MAX_RETAINED_BUFFER) {
+                objectBuffer = new ObjectBuffer();
+                objectOutput = new DataOutputStream(objectBuffer);
+            } else {
+                objectBuffer.reset();
             }
-            byte[] bytes = objectBuffer.first.toByteArray();
-            writeBytes(bytes);
         }
 
         public void writeClass(Class<?> clazz) {
@@ -171,28 +235,28 @@ public class BinaryObjectEncoder implements ObjectEncoder, BinaryObjectSerialize
 
         public void startAnonymousField() {
             writeByte(FIELD_TYPE_ANONYMOUS_FIELD);
-            ByteArrayOutputStream buf = new ByteArrayOutputStream();
-            DataOutputStream data = new DataOutputStream(buf);
-            outputBufferStack.push(new OutputBuffer(buf, data));
+            startFieldContent();
         }
 
         public void startField(String name) {
             writeByte(FIELD_TYPE_NAMED_FIELD);
             writeString(name, true);
-            ByteArrayOutputStream buf = new ByteArrayOutputStream();
-            DataOutputStream data = new DataOutputStream(buf);
-            outputBufferStack.push(new OutputBuffer(buf, data));
+            startFieldContent();
         }
 
-        public void endField() {
-            OutputBuffer buf = outputBufferStack.pop();
-            try {
-                buf.second.close();
-            } catch (IOException e) {
-                throw ConnectorException.wrap(e);
+        private void startFieldContent() {
+            if (fieldDepth == fieldStack.length) {
+                int[] newStack = new int[fieldStack.length * 2];
+                System.arraycopy(fieldStack, 0, newStack, 0, fieldDepth);
+                fieldStack = newStack;
             }
-            byte[] bytes = buf.first.toByteArray();
-            writeByteArray(bytes);
+            fieldStack[fieldDepth++] = objectBuffer.size();
+            writeInt(0);
+        }
+
+        public void endField() {
+            int position = fieldStack[--fieldDepth];
+            objectBuffer.setInt(position, objectBuffer.size() - position - 4);
         }
 
         public void writeInt(int v) {
@@ -258,11 +322,15 @@ public class BinaryObjectEncoder implements ObjectEncoder, BinaryObjectSerialize
             }
         }
 
-        private void writeBytes(byte[] v) {
-            try {
-                getCurrentOutput().write(v);
-            } catch (IOException e) {
-                throw ConnectorException.wrap(e);
+        /**
+         * Writes a string value by reference to the constant pool, the
+         * negative length tells it apart from the inline strings.
+         */
+        public void writeInternedString(String str) {
+            if (internStrings && str.length() <= MAX_INTERNED_STRING_LENGTH) {
+                writeInt(-1 - internIdentifier(str));
+            } else {
+                writeString(str, false);
             }
         }
 
@@ -277,10 +345,10 @@ public class BinaryObjectEncoder implements ObjectEncoder, BinaryObjectSerialize
         }
 
         private DataOutputStream getCurrentOutput() {
-            if (outputBufferStack.size() == 0) {
+            if (objectDepth == 0) {
                 return rootOutput;
             } else {
-                return outputBufferStack.peek().second;
+                return objectOutput;
             }
         }
     }
@@ -292,6 +360,17 @@ public class BinaryObjectEncoder implements ObjectEncoder, BinaryObjectSerialize
                 new InternalEncoder(new DataOutputStream(new BufferedOutputStream(output, 4096)));
     }
 
+    /**
+     * Enables sending the values of {@link #writeInternedStringField} by
+     * reference to the constant pool of the stream. Must only be enabled if
+     * the peer's decoder knows about it, since older ones read them as
+     * malformed strings. The pool is then bounded and reset when it grows
+     * too large.
+     */
+    public void setInternStrings(boolean internStrings) {
+        internalEncoder.internStrings = internStrings;
+    }
+
     public void flush() {
         try {
             internalEncoder.rootOutput.flush();
@@ -426,4 +505,12 @@ public class BinaryObjectEncoder implements ObjectEncoder, BinaryObjectSerialize
             internalEncoder.endField();
         }
     }
+
+    public void writeInternedStringField(String fieldName, String v) {
+        if (v != null) {
+            internalEncoder.startField(fieldName);
+            internalEncoder.writeInternedString(v);
+            internalEncoder.endField();
+        }
+    }
 }
@@ -43,6 +43,9 @@ public abstract class ConnectorServer {
     private static final String IMPL_NAME =
             "org.identityconnectors.framework.server.impl.ConnectorServerImpl";
 
+    private static final String NIO_IMPL_NAME =
+            "org.identityconnectors.framework.server.impl.NIOConnectorServerImpl";
+
     protected Log logger = Log.getLog(ConnectorServer.class);
 
     /**
@@ -107,8 +110,26 @@ public abstract class ConnectorServer {
      * Get the singleton instance of the {@link ConnectorServer}.
      */
     public static ConnectorServer newInstance() {
+        return newInstance(IMPL_NAME);
+    }
+
+    /**
+     * Get a {@link ConnectorServer} which watches the idle connections with a
+     * single selector thread and occupies a worker thread only while a request
+     * is processed.
+     * <p/>
+     * The {@link #getMaxWorkers()} limits the number of concurrently processed
+     * requests instead of the number of open connections.
+     *
+     * @since 1.4
+     */
+    public static ConnectorServer newNIOInstance() {
+        return newInstance(NIO_IMPL_NAME);
+    }
+
+    private static ConnectorServer newInstance(final String implName) {
         try {
-            final Class<?> clazz = Class.forName(IMPL_NAME);
+            final Class<?> clazz = Class.forName(implName);
             return (ConnectorServer) clazz.newInstance();
         } catch (Exception e) {
             throw ConnectorException.wrap(e);
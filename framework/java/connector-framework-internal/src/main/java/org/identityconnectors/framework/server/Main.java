@@ -44,6 +44,7 @@ import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.SecurityUtil;
 import org.identityconnectors.framework.api.ConnectorInfoManagerFactory;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.impl.api.TimeoutExecutorManager;
 
 public final class Main {
 
@@ -55,6 +56,10 @@ public final class Main {
     private static final String PROP_KEY = "connectorserver.key";
     private static final String PROP_FACADE_LIFETIME = "connectorserver.maxFacadeLifeTime";
     private static final String PROP_LOGGER_CLASS = "connectorserver.loggerClass";
+    private static final String PROP_NIO = "connectorserver.nio";
+    private static final String PROP_TIMEOUT_MAX_THREADS = "connectorserver.timeoutMaxThreads";
+    private static final String PROP_TIMEOUT_MAX_QUEUED_TASKS =
+            "connectorserver.timeoutMaxQueuedTasks";
 
     private static final String DEFAULT_LOG_SPI =
             "org.identityconnectors.common.logging.StdOutLogger";
@@ -207,6 +212,9 @@ public final class Main {
         String keyHash = properties.getProperty(PROP_KEY);
         String facadeLifeTime = properties.getProperty(PROP_FACADE_LIFETIME);
         String loggerClass = properties.getProperty(PROP_LOGGER_CLASS);
+        String nioStr = properties.getProperty(PROP_NIO);
+        String timeoutMaxThreads = properties.getProperty(PROP_TIMEOUT_MAX_THREADS);
+        String timeoutMaxQueuedTasks = properties.getProperty(PROP_TIMEOUT_MAX_QUEUED_TASKS);
         if (portStr == null) {
             throw new ConnectorException("connectorserver.properties is missing " + PROP_PORT);
         }
@@ -232,7 +240,11 @@ public final class Main {
             Thread.currentThread().setContextClassLoader(Main.class.getClassLoader());
         }
 
-        connectorServer = ConnectorServer.newInstance();
+        if (Boolean.parseBoolean(nioStr)) {
+            connectorServer = ConnectorServer.newNIOInstance();
+        } else {
+            connectorServer = ConnectorServer.newInstance();
+        }
         connectorServer.setPort(port);
         connectorServer.setBundleURLs(buildBundleURLs(new File(bundleDirStr)));
         if (libDirStr != null) {
@@ -249,6 +261,12 @@ public final class Main {
         if (facadeLifeTime != null) {
             connectorServer.setMaxFacadeLifeTime(Long.parseLong(facadeLifeTime));
         }
+        if (timeoutMaxThreads != null) {
+            TimeoutExecutorManager.setMaxThreads(Integer.parseInt(timeoutMaxThreads));
+        }
+        if (timeoutMaxQueuedTasks != null) {
+            TimeoutExecutorManager.setMaxQueuedTasks(Integer.parseInt(timeoutMaxQueuedTasks));
+        }
     }
 
     public static void stop(String[] args) {
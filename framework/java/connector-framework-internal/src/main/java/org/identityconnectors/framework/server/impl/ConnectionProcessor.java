@@ -63,6 +63,7 @@ import org.identityconnectors.framework.impl.api.remote.messages.OperationReques
 import org.identityconnectors.framework.impl.api.remote.messages.OperationResponseEnd;
 import org.identityconnectors.framework.impl.api.remote.messages.OperationResponsePart;
 import org.identityconnectors.framework.impl.api.remote.messages.OperationResponsePause;
+import org.identityconnectors.framework.impl.api.remote.messages.OperationResponseWindow;
 import org.identityconnectors.framework.server.ConnectorServer;
 
 public class ConnectionProcessor implements Runnable {
@@ -73,10 +74,31 @@ public class ConnectionProcessor implements Runnable {
         private static final int PAUSE_INTERVAL = 200;
 
         private final RemoteFrameworkConnection connection;
+        private final OperationResponseWindow window;
         private long count = 0;
+        private long credit;
+        private long answers = 0;
+        private boolean stopped = false;
 
-        public RemoteResultsHandler(RemoteFrameworkConnection conn) {
+        /**
+         * @param window
+         *            the stream window requested by the client, zero or less
+         *            for the pause based flow control.
+         */
+        public RemoteResultsHandler(RemoteFrameworkConnection conn, int window) {
             connection = conn;
+            this.window = window > 0 ? new OperationResponseWindow(window) : null;
+            credit = window;
+        }
+
+        /**
+         * Called before the operation is invoked with this handler, confirms
+         * the stream window to the client.
+         */
+        public void start() {
+            if (null != window) {
+                connection.writeObject(window);
+            }
         }
 
         public boolean handle(Object obj) {
@@ -84,7 +106,17 @@ public class ConnectionProcessor implements Runnable {
                 OperationResponsePart part = new OperationResponsePart(null, obj);
                 connection.writeObject(part);
                 count++;
-                if (count % PAUSE_INTERVAL == 0) {
+                if (null != window) {
+                    credit--;
+                    // take the answers which have arrived so an early stop
+                    // ends the stream, wait only when the credit is used up.
+                    // readObject flushes, normally the client answered the
+                    // first half of the window before we get there.
+                    while (!stopped && (credit == 0 || connection.hasPendingInput())) {
+                        credit += readAnswer();
+                    }
+                    return !stopped;
+                } else if (count % PAUSE_INTERVAL == 0) {
                     connection.writeObject(new OperationResponsePause());
                     Object message = connection.readObject();
                     return message instanceof OperationRequestMoreData;
@@ -100,6 +132,32 @@ public class ConnectionProcessor implements Runnable {
             }
         }
 
+        /**
+         * Reads the answers the client still owes, one per started grant
+         * interval unless it stopped, so the next request starts on a clean
+         * stream. Must be called after the {@link OperationResponseEnd} was
+         * sent and before the final response, the client does not send the
+         * next request before it got that.
+         */
+        public void drain() {
+            if (null != window) {
+                long intervals = (count + window.getGrantInterval() - 1) / window.getGrantInterval();
+                while (!stopped && answers < intervals) {
+                    readAnswer();
+                }
+            }
+        }
+
+        private long readAnswer() {
+            Object message = connection.readObject();
+            answers++;
+            if (message instanceof OperationRequestMoreData) {
+                return ((OperationRequestMoreData) message).getCredit();
+            }
+            stopped = true;
+            return 0;
+        }
+
     }
 
     private final ConnectorServer connectorServer;
@@ -120,18 +178,30 @@ public class ConnectionProcessor implements Runnable {
                     }
                 }
             } finally {
-                try {
-                    connection.close();
-                } catch (Exception e) {
-                    LOG.error(e, null);
-                }
+                close();
             }
         } catch (Throwable e) {
             LOG.error(e, null);
         }
     }
 
-    private boolean processRequest() throws Exception {
+    /**
+     * Closes the connection, errors are logged only.
+     */
+    void close() {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            LOG.error(e, null);
+        }
+    }
+
+    /**
+     * Reads and processes one request from the connection.
+     *
+     * @return false if the client has closed the connection.
+     */
+    boolean processRequest() throws Exception {
         Locale locale;
         try {
             locale = (Locale) connection.readObject();
@@ -170,6 +240,10 @@ public class ConnectionProcessor implements Runnable {
                 connection.writeObject(part);
             } else {
                 OperationRequest opRequest = (OperationRequest) requestObject;
+                if (opRequest.isInternStrings()) {
+                    // the client keeps the pool for the connection
+                    connection.setInternStrings(true);
+                }
                 OperationResponsePart part = processOperationRequest(opRequest);
                 connection.writeObject(part);
             }
@@ -193,6 +267,8 @@ public class ConnectionProcessor implements Runnable {
         } else {
             throw new ConnectorException("Unexpected request: " + requestObject);
         }
+        // send the response before waiting for the next request
+        connection.flush();
         return true;
     }
 
@@ -264,8 +340,10 @@ public class ConnectionProcessor implements Runnable {
             Method method = getOperationMethod(request);
             APIOperation operation = getAPIOperation(request);
             List<Object> arguments = request.getArguments();
+            RemoteResultsHandler stream =
+                    new RemoteResultsHandler(connection, request.getStreamWindow());
             List<Object> argumentsAndStreamHandlers =
-                    populateStreamHandlers(method.getParameterTypes(), arguments);
+                    populateStreamHandlers(method.getParameterTypes(), arguments, stream);
             try {
                 result = method.invoke(operation, argumentsAndStreamHandlers.toArray());
             } catch (InvocationTargetException e) {
@@ -275,6 +353,7 @@ public class ConnectionProcessor implements Runnable {
             if (anyStreams) {
                 try {
                     connection.writeObject(new OperationResponseEnd());
+                    stream.drain();
                 } catch (RuntimeException e) {
                     if (e.getCause() instanceof IOException) {
                         throw new BrokenConnectionException((IOException) e.getCause());
@@ -294,7 +373,8 @@ public class ConnectionProcessor implements Runnable {
         return new OperationResponsePart(exception, result);
     }
 
-    private List<Object> populateStreamHandlers(Class<?>[] paramTypes, List<Object> arguments) {
+    private List<Object> populateStreamHandlers(Class<?>[] paramTypes, List<Object> arguments,
+            RemoteResultsHandler stream) {
         List<Object> rv = new ArrayList<Object>();
         boolean firstStream = true;
         Iterator<Object> argIt = arguments.iterator();
@@ -304,8 +384,8 @@ public class ConnectionProcessor implements Runnable {
                     throw new UnsupportedOperationException(
                             "At most one stream handler is supported");
                 }
-                ObjectStreamHandler osh = new RemoteResultsHandler(connection);
-                rv.add(StreamHandlerUtil.adaptFromObjectStreamHandler(paramType, osh));
+                stream.start();
+                rv.add(StreamHandlerUtil.adaptFromObjectStreamHandler(paramType, stream));
                 firstStream = false;
             } else {
                 rv.add(argIt.next());
@@ -27,7 +27,6 @@ package org.identityconnectors.framework.server.impl;
 import java.net.ServerSocket;
 import java.util.Date;
 import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -40,7 +39,6 @@ import org.identityconnectors.framework.api.ConnectorFacadeFactory;
 import org.identityconnectors.framework.api.ConnectorInfoManagerFactory;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.impl.api.ConnectorInfoManagerFactoryImpl;
-import org.identityconnectors.framework.impl.api.ManagedConnectorFacadeFactoryImpl;
 import org.identityconnectors.framework.server.ConnectorServer;
 
 public class ConnectorServerImpl extends ConnectorServer {
@@ -87,7 +85,7 @@ public class ConnectorServerImpl extends ConnectorServer {
         // Create an inferred delegate that invokes methods for the timer.
         if (getMaxFacadeLifeTime() > 0) {
             FacadeDisposer statusChecker =
-                    new FacadeDisposer(getMaxFacadeLifeTime() * 60, TimeUnit.SECONDS);
+                    new FacadeDisposer(logger, getMaxFacadeLifeTime() * 60, TimeUnit.SECONDS);
             timer = new Timer();
             timer.scheduleAtFixedRate(statusChecker, new Date(), TimeUnit.SECONDS.toMillis(Math
                     .min(getMaxFacadeLifeTime() * 60, 600)));
@@ -153,25 +151,4 @@ public class ConnectorServerImpl extends ConnectorServer {
     public void awaitStop() throws InterruptedException {
         stopLatch.await();
     }
-
-    private class FacadeDisposer extends TimerTask {
-        private final long delay;
-        private final TimeUnit unit;
-
-        public FacadeDisposer(long time, TimeUnit unit) {
-            this.delay = time;
-            this.unit = unit;
-
-        }
-
-        @Override
-        public void run() {
-            logger.ok("Invoking Managed ConnectorFacade Disposer");
-            ConnectorFacadeFactory factory = ConnectorFacadeFactory.getManagedInstance();
-            if (factory instanceof ManagedConnectorFacadeFactoryImpl) {
-                ((ManagedConnectorFacadeFactoryImpl) factory).evictIdle(delay, unit);
-            }
-        }
-    }
-
 }
@@ -0,0 +1,57 @@
+/*
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2010-2014 ForgeRock AS.
+ */
+
+package org.identityconnectors.framework.server.impl;
+
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.api.ConnectorFacadeFactory;
+import org.identityconnectors.framework.impl.api.ManagedConnectorFacadeFactoryImpl;
+
+/**
+ * Evicts the managed ConnectorFacades which were not used for the given time.
+ */
+class FacadeDisposer extends TimerTask {
+    private final Log logger;
+    private final long delay;
+    private final TimeUnit unit;
+
+    public FacadeDisposer(Log logger, long time, TimeUnit unit) {
+        this.logger = logger;
+        this.delay = time;
+        this.unit = unit;
+
+    }
+
+    @Override
+    public void run() {
+        logger.ok("Invoking Managed ConnectorFacade Disposer");
+        ConnectorFacadeFactory factory = ConnectorFacadeFactory.getManagedInstance();
+        if (factory instanceof ManagedConnectorFacadeFactoryImpl) {
+            ((ManagedConnectorFacadeFactoryImpl) factory).evictIdle(delay, unit);
+        }
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.identityconnectors.framework.server.impl;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.server.ConnectorServer;
+
+/**
+ * Accepts the connections and waits for the requests on a single selector
+ * thread.
+ * <p/>
+ * The connections are watched by the selector while they are idle. When a
+ * request arrives the connection is taken out of the selector, switched to
+ * blocking mode and handed over to a worker which processes exactly one
+ * request with the {@link ConnectionProcessor}. The connection is given back
+ * to the selector afterwards. An idle connection does not hold a worker thread
+ * so the number of open connections is limited only by
+ * {@link ConnectorServer#getMaxConnections()} on the client side pools.
+ * <p/>
+ * When all the workers are busy and their queue is full the ready connections
+ * wait in the backlog and no new connection is accepted until the backlog is
+ * dispatched, letting the operating system queue (and eventually reject) the
+ * incoming connections.
+ */
+class NIOConnectionListener extends CCLWatchThread {
+
+    private static final Log LOG = Log.getLog(NIOConnectionListener.class);
+
+    /**
+     * A client connection and the processor reading its requests.
+     */
+    private class Session implements Runnable {
+
+        private final SocketChannel channel;
+
+        private ConnectionProcessor processor = null;
+
+        private long readySince;
+
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        public Session(final SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        public void run() {
+            boolean keepOpen = false;
+            try {
+                recordDispatch(System.nanoTime() - readySince);
+                channel.configureBlocking(true);
+                if (null == processor) {
+                    processor = new ConnectionProcessor(connectorServer, createSocket(channel));
+                }
+                keepOpen = processor.processRequest();
+                if (keepOpen) {
+                    channel.configureBlocking(false);
+                }
+            } catch (Throwable e) {
+                LOG.error(e, null);
+                keepOpen = false;
+            } finally {
+                if (keepOpen && !isStopped()) {
+                    returned.add(this);
+                } else {
+                    close();
+                }
+                // let the selector dispatch the backlog
+                selector.wakeup();
+            }
+        }
+
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            openConnections.decrementAndGet();
+            if (null != processor) {
+                processor.close();
+            } else {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOG.ok(e, "Failed to close channel");
+                }
+            }
+        }
+    }
+
+    /**
+     * The server object that we are using
+     */
+    private final ConnectorServer connectorServer;
+
+    /**
+     * The server channel. This must be bound at the time of creation.
+     */
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * Factory to layer the SSL sockets over the accepted connections, null if
+     * SSL is not used.
+     */
+    private final SSLSocketFactory sslSocketFactory;
+
+    private final Selector selector;
+
+    private final SelectionKey acceptKey;
+
+    /**
+     * Pool of executors
+     */
+    private final ThreadPoolExecutor threadPool;
+
+    /**
+     * Sessions with a pending request the thread pool did not accept yet.
+     * Used only by the selector thread.
+     */
+    private final Queue<Session> backlog = new ArrayDeque<Session>();
+
+    /**
+     * Sessions handed back by the workers after the request was processed.
+     */
+    private final Queue<Session> returned = new ConcurrentLinkedQueue<Session>();
+
+    /**
+     * Set to indicated we need to start shutting down
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * Start of the current back-pressure period, 0 if new connections are
+     * accepted.
+     */
+    private long pausedSince = 0;
+
+    /**
+     * Start of the last back-pressure period until the next accept, the
+     * connections accepted then were waiting since.
+     */
+    private long acceptWaitingSince = 0;
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger backlogSize = new AtomicInteger();
+    private final AtomicLong acceptCount = new AtomicLong();
+    private final AtomicLong acceptLatencyNanos = new AtomicLong();
+    private final AtomicLong maxAcceptLatencyNanos = new AtomicLong();
+    private final AtomicLong dispatchCount = new AtomicLong();
+    private final AtomicLong dispatchLatencyNanos = new AtomicLong();
+
+    /**
+     * Creates the listener thread
+     *
+     * @param server
+     *            The server object
+     * @param channel
+     *            The channel (should already be bound)
+     * @param sslSocketFactory
+     *            factory of the server side SSL sockets or null
+     */
+    public NIOConnectionListener(ConnectorServer server, ServerSocketChannel channel,
+            SSLSocketFactory sslSocketFactory) throws IOException {
+        super("NIOConnectionListener");
+        connectorServer = server;
+        serverChannel = channel;
+        this.sslSocketFactory = sslSocketFactory;
+        selector = Selector.open();
+        serverChannel.configureBlocking(false);
+        acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        // the queue is as long as the pool, beyond that the requests
+        // wait in the backlog
+        threadPool =
+                new ThreadPoolExecutor(server.getMinWorkers(), server.getMaxWorkers(), 30,
+                        TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(server.getMaxWorkers(),
+                                true), // fair
+                        new CCLWatchThreadFactory());
+    }
+
+    @Override
+    public void run() {
+        while (!isStopped()) {
+            try {
+                selector.select();
+                final long selected = System.nanoTime();
+                registerReturned();
+                List<Session> ready = new ArrayList<Session>();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(selected);
+                    } else if (key.isReadable()) {
+                        Session session = (Session) key.attachment();
+                        session.readySince = selected;
+                        key.cancel();
+                        ready.add(session);
+                    }
+                }
+                if (!ready.isEmpty()) {
+                    // complete the deregistration before the channels are
+                    // switched to blocking mode
+                    selector.selectNow();
+                    backlog.addAll(ready);
+                }
+                dispatch(selected);
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (Throwable e) {
+                // log the error unless it's because we've stopped
+                if (!isStopped()) {
+                    LOG.error(e, "Error processing request");
+                }
+            }
+        }
+    }
+
+    private void accept(final long selected) throws IOException {
+        final long since = acceptWaitingSince != 0 ? acceptWaitingSince : selected;
+        acceptWaitingSince = 0;
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            Session session = new Session(channel);
+            channel.register(selector, SelectionKey.OP_READ, session);
+            openConnections.incrementAndGet();
+            final long latency = System.nanoTime() - since;
+            acceptCount.incrementAndGet();
+            acceptLatencyNanos.addAndGet(latency);
+            long max = maxAcceptLatencyNanos.get();
+            while (latency > max && !maxAcceptLatencyNanos.compareAndSet(max, latency)) {
+                max = maxAcceptLatencyNanos.get();
+            }
+        }
+    }
+
+    private void registerReturned() {
+        for (Session session = returned.poll(); session != null; session = returned.poll()) {
+            try {
+                session.channel.register(selector, SelectionKey.OP_READ, session);
+            } catch (Exception e) {
+                LOG.ok(e, "Failed to register returned connection");
+                session.close();
+            }
+        }
+    }
+
+    private void dispatch(final long selected) {
+        while (!backlog.isEmpty()) {
+            try {
+                threadPool.execute(backlog.peek());
+                backlog.poll();
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        backlogSize.set(backlog.size());
+        if (backlog.isEmpty()) {
+            if (pausedSince != 0) {
+                acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                LOG.info("Accepting connections again after {0}ms", TimeUnit.NANOSECONDS
+                        .toMillis(selected - pausedSince));
+                acceptWaitingSince = pausedSince;
+                pausedSince = 0;
+            }
+        } else if (pausedSince == 0) {
+            // explicit back-pressure: leave the new connections in the
+            // accept queue of the operating system
+            acceptKey.interestOps(0);
+            pausedSince = selected;
+            LOG.info("All workers are busy, queue depth: {0}, stop accepting connections",
+                    getQueueDepth());
+        }
+    }
+
+    private Socket createSocket(final SocketChannel channel) throws IOException {
+        Socket socket = channel.socket();
+        if (null != sslSocketFactory) {
+            SSLSocket sslSocket =
+                    (SSLSocket) sslSocketFactory.createSocket(socket, socket.getInetAddress()
+                            .getHostAddress(), socket.getPort(), true);
+            sslSocket.setUseClientMode(false);
+            return sslSocket;
+        }
+        return socket;
+    }
+
+    private void recordDispatch(final long latency) {
+        dispatchCount.incrementAndGet();
+        dispatchLatencyNanos.addAndGet(latency);
+    }
+
+    private boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Returns the number of requests waiting for a worker.
+     */
+    public int getQueueDepth() {
+        return threadPool.getQueue().size() + backlogSize.get();
+    }
+
+    /**
+     * Returns the number of busy workers.
+     */
+    public int getActiveWorkers() {
+        return threadPool.getActiveCount();
+    }
+
+    /**
+     * Returns the number of open client connections.
+     */
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * Returns the average time in milliseconds between the selector noticed a
+     * pending connection and the connection was accepted, including the time
+     * the accept was paused by back-pressure.
+     */
+    public double getAverageAcceptLatencyMillis() {
+        long count = acceptCount.get();
+        return count == 0 ? 0 : acceptLatencyNanos.get() / (double) count / 1000000;
+    }
+
+    /**
+     * Returns the longest accept latency in milliseconds.
+     */
+    public long getMaxAcceptLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxAcceptLatencyNanos.get());
+    }
+
+    /**
+     * Returns the average time in milliseconds a request waited for a worker.
+     */
+    public double getAverageDispatchLatencyMillis() {
+        long count = dispatchCount.get();
+        return count == 0 ? 0 : dispatchLatencyNanos.get() / (double) count / 1000000;
+    }
+
+    public void shutdown() {
+        if (Thread.currentThread() == this) {
+            throw new IllegalArgumentException("Shutdown may not be called from this thread");
+        }
+        if (!isStopped()) {
+            try {
+                stopped = true;
+                selector.wakeup();
+                // wait for the selector thread to die so we don't
+                // get any new requests
+                join();
+                serverChannel.close();
+                // close the idle connections, the busy ones are closed by
+                // the workers
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Session) {
+                        ((Session) key.attachment()).close();
+                    }
+                }
+                for (Session session : backlog) {
+                    session.close();
+                }
+                for (Session session = returned.poll(); session != null; session =
+                        returned.poll()) {
+                    session.close();
+                }
+                selector.close();
+                // wait for all in-progress requests to finish
+                threadPool.shutdown();
+                LOG.info("Connection listener stopped, accepted: {0}, "
+                        + "average accept latency: {1}ms, average dispatch latency: {2}ms",
+                        acceptCount.get(), getAverageAcceptLatencyMillis(),
+                        getAverageDispatchLatencyMillis());
+            } catch (Exception e) {
+                throw ConnectorException.wrap(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.identityconnectors.framework.server.impl;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Date;
+import java.util.Timer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.identityconnectors.framework.api.ConnectorFacadeFactory;
+import org.identityconnectors.framework.api.ConnectorInfoManagerFactory;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.impl.api.ConnectorInfoManagerFactoryImpl;
+import org.identityconnectors.framework.server.ConnectorServer;
+
+/**
+ * Connector server which watches the idle connections with a selector and
+ * uses the worker threads only to process the requests.
+ *
+ * @see NIOConnectionListener
+ * @since 1.4
+ */
+public class NIOConnectorServerImpl extends ConnectorServer {
+
+    private NIOConnectionListener listener;
+    private CountDownLatch stopLatch;
+    private Timer timer = null;
+    private Long startDate = null;
+
+    @Override
+    public Long getStartTime() {
+        return startDate;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return listener != null;
+    }
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            throw new IllegalStateException("Server is already running.");
+        }
+        if (getPort() == 0) {
+            throw new IllegalStateException("Port must be set prior to starting server.");
+        }
+        if (getKeyHash() == null) {
+            throw new IllegalStateException("Key hash must be set prior to starting server.");
+        }
+        // make sure we are configured properly
+        final ConnectorInfoManagerFactoryImpl factory =
+                (ConnectorInfoManagerFactoryImpl) ConnectorInfoManagerFactory.getInstance();
+        factory.getLocalManager(getBundleURLs(), getBundleParentClassLoader());
+
+        ServerSocketChannel channel = null;
+        final NIOConnectionListener listener;
+        try {
+            channel = ServerSocketChannel.open();
+            if (getIfAddress() == null) {
+                channel.socket().bind(new InetSocketAddress(getPort()), getMaxConnections());
+            } else {
+                channel.socket().bind(new InetSocketAddress(getIfAddress(), getPort()),
+                        getMaxConnections());
+            }
+            listener =
+                    new NIOConnectionListener(this, channel, getUseSSL() ? createSSLSocketFactory()
+                            : null);
+        } catch (Exception e) {
+            if (null != channel) {
+                try {
+                    channel.close();
+                } catch (Exception e2) {
+                    /* ignore */
+                }
+            }
+            throw ConnectorException.wrap(e);
+        }
+        listener.setDaemon(true);
+        listener.start();
+        stopLatch = new CountDownLatch(1);
+        startDate = System.currentTimeMillis();
+        this.listener = listener;
+
+        if (getMaxFacadeLifeTime() > 0) {
+            FacadeDisposer statusChecker =
+                    new FacadeDisposer(logger, getMaxFacadeLifeTime() * 60, TimeUnit.SECONDS);
+            timer = new Timer();
+            timer.scheduleAtFixedRate(statusChecker, new Date(), TimeUnit.SECONDS.toMillis(Math
+                    .min(getMaxFacadeLifeTime() * 60, 600)));
+        }
+    }
+
+    private SSLSocketFactory createSSLSocketFactory() throws Exception {
+        KeyManager[] keyManagers = null;
+        // convert empty to null
+        if (getKeyManagers().size() > 0) {
+            keyManagers = getKeyManagers().toArray(new KeyManager[getKeyManagers().size()]);
+        }
+        // the only way to get the default keystore is this way
+        if (keyManagers == null) {
+            return SSLContext.getDefault().getSocketFactory();
+        } else {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers, null, null);
+            return context.getSocketFactory();
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting for a worker thread.
+     */
+    public int getQueueDepth() {
+        return null != listener ? listener.getQueueDepth() : 0;
+    }
+
+    /**
+     * Returns the number of open client connections.
+     */
+    public int getOpenConnections() {
+        return null != listener ? listener.getOpenConnections() : 0;
+    }
+
+    /**
+     * Returns the average time in milliseconds a pending connection waited to
+     * be accepted.
+     */
+    public double getAverageAcceptLatencyMillis() {
+        return null != listener ? listener.getAverageAcceptLatencyMillis() : 0;
+    }
+
+    /**
+     * Returns the longest time in milliseconds a pending connection waited to
+     * be accepted.
+     */
+    public long getMaxAcceptLatencyMillis() {
+        return null != listener ? listener.getMaxAcceptLatencyMillis() : 0;
+    }
+
+    @Override
+    public void stop() {
+        if (listener != null) {
+            try {
+                listener.shutdown();
+            } finally {
+                stopLatch.countDown();
+            }
+            stopLatch = null;
+            startDate = null;
+            listener = null;
+        }
+        if (null != timer) {
+            timer.cancel();
+            timer = null;
+        }
+        ConnectorFacadeFactory.getManagedInstance().dispose();
+    }
+
+    @Override
+    public void awaitStop() throws InterruptedException {
+        stopLatch.await();
+    }
+}
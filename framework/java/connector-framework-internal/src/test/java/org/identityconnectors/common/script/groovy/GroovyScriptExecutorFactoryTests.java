@@ -23,6 +23,11 @@
 package org.identityconnectors.common.script.groovy;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import java.net.URL;
+import java.net.URLClassLoader;
 
 import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.script.ScriptExecutor;
@@ -52,6 +57,34 @@ public class GroovyScriptExecutorFactoryTests {
         assertEquals(actual, 3);
     }
 
+    @Test
+    public void testCompiledScriptIsReused() throws Exception {
+        String script = "return getClass()";
+        Object first = getScriptExecutor(script).execute(null);
+        Object second = getScriptExecutor(script).execute(null);
+        assertSame(first, second);
+
+        ClassLoader loader = new URLClassLoader(new URL[0], getClass().getClassLoader());
+        Object other =
+                ScriptExecutorFactory.newInstance("GROOVY").newScriptExecutor(loader, script,
+                        false).execute(null);
+        assertNotSame(first, other);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedScriptIsEvicted() throws Exception {
+        ClassLoader loader = getClass().getClassLoader();
+        GroovyScriptExecutorFactory.ScriptCache cache =
+                new GroovyScriptExecutorFactory.ScriptCache(2);
+        Class<?> first = cache.getScriptClass(loader, "return 1");
+        Class<?> second = cache.getScriptClass(loader, "return 2");
+        assertSame(cache.getScriptClass(loader, "return 1"), first);
+
+        cache.getScriptClass(loader, "return 3");
+        assertSame(cache.getScriptClass(loader, "return 1"), first);
+        assertNotSame(cache.getScriptClass(loader, "return 2"), second);
+    }
+
     private ScriptExecutor getScriptExecutor(String script) {
         ClassLoader loader = getClass().getClassLoader();
         return ScriptExecutorFactory.newInstance("GROOVY").newScriptExecutor(loader, script, false);
@@ -0,0 +1,185 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+
+package org.identityconnectors.framework.impl.api;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.identityconnectors.framework.api.ConnectorKey;
+import org.identityconnectors.framework.api.operations.TestApiOp;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+import org.identityconnectors.framework.common.exceptions.RetryableException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class MethodTimeoutProxyTests {
+
+    private static class BlockingTestOp implements TestApiOp {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        public void test() {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        TimeoutExecutorManager.dispose();
+        TimeoutExecutorManager.setMaxThreads(TimeoutExecutorManager.DEFAULT_MAX_THREADS);
+        TimeoutExecutorManager.setMaxQueuedTasks(TimeoutExecutorManager.DEFAULT_MAX_QUEUED_TASKS);
+    }
+
+    @Test
+    public void testTimeoutCancelsOperation() throws Exception {
+        TimeoutExecutorManager.TimeoutExecutor executor =
+                new TimeoutExecutorManager.TimeoutExecutor("test", 1, 0);
+        BlockingTestOp op = new BlockingTestOp();
+        try {
+            createTestProxy(op, 50, executor).test();
+            fail("expected timeout");
+        } catch (OperationTimeoutException e) {
+            /* expected */
+        }
+        assertTrue(op.interrupted.await(5, TimeUnit.SECONDS));
+        TimeoutExecutorManager.Statistics statistics = executor.getStatistics();
+        assertEquals(statistics.getTimeouts().get("TestApiOp"), Long.valueOf(1L));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRejectWhenSaturated() throws Exception {
+        TimeoutExecutorManager.TimeoutExecutor executor =
+                new TimeoutExecutorManager.TimeoutExecutor("test", 1, 1);
+        final BlockingTestOp running = new BlockingTestOp();
+        final BlockingTestOp queued = new BlockingTestOp();
+        final TestApiOp runningProxy = createTestProxy(running, 10000, executor);
+        final TestApiOp queuedProxy = createTestProxy(queued, 10000, executor);
+        Thread first = new Thread() {
+            public void run() {
+                runningProxy.test();
+            }
+        };
+        Thread second = new Thread() {
+            public void run() {
+                queuedProxy.test();
+            }
+        };
+        first.start();
+        assertTrue(running.started.await(5, TimeUnit.SECONDS));
+        second.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getStatistics().getQueuedTasks() == 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        try {
+            createTestProxy(new BlockingTestOp(), 10000, executor).test();
+            fail("expected rejection");
+        } catch (RetryableException e) {
+            /* expected */
+        }
+        TimeoutExecutorManager.Statistics statistics = executor.getStatistics();
+        assertEquals(statistics.getActiveThreads(), 1);
+        assertEquals(statistics.getQueuedTasks(), 1);
+        assertEquals(statistics.getRejectedTasks(), 1L);
+
+        running.release.countDown();
+        queued.release.countDown();
+        first.join(5000);
+        second.join(5000);
+        assertTrue(queued.started.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testExecutorPerConnector() {
+        ConnectorKey key1 = new ConnectorKey("bundle", "1.0", "Connector1");
+        ConnectorKey key2 = new ConnectorKey("bundle", "1.0", "Connector2");
+        assertNull(TimeoutExecutorManager.getStatistics(key1));
+        TimeoutExecutorManager.TimeoutExecutor executor =
+                TimeoutExecutorManager.getExecutor(key1);
+        assertTrue(executor == TimeoutExecutorManager.getExecutor(key1));
+        assertTrue(executor != TimeoutExecutorManager.getExecutor(key2));
+        assertTrue(executor != TimeoutExecutorManager.getExecutor(null));
+        createTestProxy(new TestApiOp() {
+            public void test() {
+            }
+        }, 1000, executor).test();
+        assertEquals(TimeoutExecutorManager.getStatistics(key1).getRejectedTasks(), 0L);
+    }
+
+    @Test
+    public void testConfiguredLimits() throws Exception {
+        TimeoutExecutorManager.setMaxThreads(1);
+        TimeoutExecutorManager.setMaxQueuedTasks(0);
+        ConnectorKey key = new ConnectorKey("bundle", "1.0", "Connector1");
+        TimeoutExecutorManager.TimeoutExecutor executor =
+                TimeoutExecutorManager.getExecutor(key);
+        final BlockingTestOp running = new BlockingTestOp();
+        final TestApiOp runningProxy = createTestProxy(running, 10000, executor);
+        Thread first = new Thread() {
+            public void run() {
+                runningProxy.test();
+            }
+        };
+        first.start();
+        assertTrue(running.started.await(5, TimeUnit.SECONDS));
+        try {
+            createTestProxy(new BlockingTestOp(), 10000, executor).test();
+            fail("expected rejection");
+        } catch (RetryableException e) {
+            /* expected */
+        }
+        assertEquals(TimeoutExecutorManager.getStatistics(key).getRejectedTasks(), 1L);
+        running.release.countDown();
+        first.join(5000);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidMaxThreads() {
+        TimeoutExecutorManager.setMaxThreads(0);
+    }
+
+    private static TestApiOp createTestProxy(TestApiOp op, long timeout,
+            TimeoutExecutorManager.TimeoutExecutor executor) {
+        MethodTimeoutProxy timeoutHandler = new MethodTimeoutProxy(op, timeout, executor);
+        return (TestApiOp) Proxy.newProxyInstance(TestApiOp.class.getClassLoader(),
+                new Class<?>[] { TestApiOp.class }, timeoutHandler);
+    }
+}
@@ -38,6 +38,9 @@ import org.identityconnectors.framework.api.ConnectorInfo;
 import org.identityconnectors.framework.api.ConnectorInfoManager;
 import org.identityconnectors.framework.api.ConnectorInfoManagerFactory;
 import org.identityconnectors.framework.api.RemoteFrameworkConnectionInfo;
+import org.identityconnectors.framework.impl.api.local.AbstractObjectPool;
+import org.identityconnectors.framework.impl.api.remote.RemoteConnectionPoolManager;
+import org.identityconnectors.framework.impl.api.remote.RemoteConnectorInfoImpl;
 import org.identityconnectors.framework.impl.api.remote.RemoteConnectorInfoManagerImpl;
 import org.identityconnectors.framework.impl.api.remote.messages.HelloResponse;
 import org.identityconnectors.framework.server.ConnectorServer;
@@ -104,6 +107,28 @@ public class RemoteConnectorInfoManagerClearTests extends ConnectorInfoManagerTe
         Assert.assertEquals(mgr.getConnectorKeys().size(), 4);
     }
 
+    @Test
+    public void testConnectionReuse() throws Exception {
+        ConnectorInfoManager manager = getConnectorInfoManager();
+        ConnectorInfo info =
+                findConnectorInfo(manager, "1.0.0.0",
+                        "org.identityconnectors.testconnector.TstConnector");
+        ConnectorFacade facade =
+                ConnectorFacadeFactory.getInstance().newInstance(
+                        info.createDefaultAPIConfiguration());
+        facade.schema();
+        RemoteFrameworkConnectionInfo connInfo =
+                ((RemoteConnectorInfoImpl) info).getRemoteConnectionInfo();
+        AbstractObjectPool.Statistics before = RemoteConnectionPoolManager.getStatistics(connInfo);
+        for (int i = 0; i < 5; i++) {
+            facade.schema();
+        }
+        AbstractObjectPool.Statistics after = RemoteConnectionPoolManager.getStatistics(connInfo);
+        Assert.assertEquals(after.getNumBorrowed() - before.getNumBorrowed(), 5);
+        Assert.assertEquals(after.getNumCreated(), before.getNumCreated());
+        Assert.assertTrue(after.getHitRate() > 0);
+    }
+
     @Test
     public void testFacadeEviction() throws Exception {
         ConnectorServer server = ConnectorServer.newInstance();
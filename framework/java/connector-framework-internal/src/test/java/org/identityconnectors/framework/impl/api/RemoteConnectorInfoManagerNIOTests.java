@@ -0,0 +1,198 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.identityconnectors.framework.impl.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.common.security.SecurityUtil;
+import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.api.ConnectorFacadeFactory;
+import org.identityconnectors.framework.api.ConnectorInfo;
+import org.identityconnectors.framework.api.ConnectorInfoManager;
+import org.identityconnectors.framework.api.ConnectorInfoManagerFactory;
+import org.identityconnectors.framework.api.RemoteFrameworkConnectionInfo;
+import org.identityconnectors.framework.impl.api.local.AbstractObjectPool;
+import org.identityconnectors.framework.impl.api.remote.RemoteConnectionPoolManager;
+import org.identityconnectors.framework.impl.api.remote.RemoteConnectorInfoManagerImpl;
+import org.identityconnectors.framework.impl.api.remote.messages.HelloResponse;
+import org.identityconnectors.framework.server.ConnectorServer;
+import org.identityconnectors.framework.server.impl.NIOConnectorServerImpl;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RemoteConnectorInfoManagerNIOTests extends ConnectorInfoManagerTestBase {
+
+    private static ConnectorServer _server;
+
+    final int PORT = 8761;
+
+    @Override
+    protected ConnectorInfoManager getConnectorInfoManager() throws Exception {
+        List<URL> urls = getTestBundles();
+
+        synchronized (RemoteConnectorInfoManagerNIOTests.class) {
+            if (_server == null) {
+                _server = ConnectorServer.newNIOInstance();
+                _server.setKeyHash(SecurityUtil.computeBase64SHA1Hash("changeit".toCharArray()));
+                _server.setBundleURLs(urls);
+                _server.setPort(PORT);
+                _server.setIfAddress(InetAddress.getByName("127.0.0.1"));
+                _server.start();
+            }
+        }
+        ConnectorInfoManagerFactory fact = ConnectorInfoManagerFactory.getInstance();
+
+        RemoteFrameworkConnectionInfo connInfo =
+                new RemoteFrameworkConnectionInfo("127.0.0.1", PORT, new GuardedString("changeit"
+                        .toCharArray()), false, null, 0);
+
+        return fact.getRemoteManager(connInfo);
+    }
+
+    @Override
+    protected synchronized void shutdownConnnectorInfoManager() {
+        synchronized (RemoteConnectorInfoManagerNIOTests.class) {
+            if (_server != null) {
+                _server.stop();
+                _server = null;
+            }
+        }
+        // These are initialized by the connector server.
+        ConnectorFacadeFactory.getInstance().dispose();
+        ConnectorInfoManagerFactory.getInstance().clearLocalCache();
+    }
+
+    @Test
+    public void testIdleConnections() throws Exception {
+        getConnectorInfoManager();
+        RemoteConnectorInfoManagerImpl mgr =
+                new RemoteConnectorInfoManagerImpl(new RemoteFrameworkConnectionInfo("127.0.0.1",
+                        PORT, new GuardedString("changeit".toCharArray())));
+        // idle connections must not block the server
+        List<Socket> idle = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i < _server.getMaxWorkers() + 10; i++) {
+                idle.add(new Socket("127.0.0.1", PORT));
+            }
+            Assert.assertNotNull(mgr.getServerInfo().get(HelloResponse.SERVER_START_TIME));
+            Assert.assertEquals(((NIOConnectorServerImpl) _server).getQueueDepth(), 0);
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testStaleConnectionRetried() throws Exception {
+        getConnectorInfoManager();
+        // the connections go through a proxy which drops them like a server
+        // closing an idle connection
+        final ServerSocket proxy = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final List<Socket> clients = new CopyOnWriteArrayList<Socket>();
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    while (true) {
+                        Socket client = proxy.accept();
+                        Socket server = new Socket("127.0.0.1", PORT);
+                        clients.add(client);
+                        pipe(client, server);
+                        pipe(server, client);
+                    }
+                } catch (IOException e) {
+                    /* closed */
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        try {
+            RemoteFrameworkConnectionInfo connInfo =
+                    new RemoteFrameworkConnectionInfo("127.0.0.1", proxy.getLocalPort(),
+                            new GuardedString("changeit".toCharArray()), false, null, 0);
+            ConnectorInfo info =
+                    findConnectorInfo(ConnectorInfoManagerFactory.getInstance().getRemoteManager(
+                            connInfo), "1.0.0.0", "org.identityconnectors.testconnector.TstConnector");
+            ConnectorFacade facade =
+                    ConnectorFacadeFactory.getInstance().newInstance(
+                            info.createDefaultAPIConfiguration());
+            facade.schema();
+            AbstractObjectPool.Statistics before =
+                    RemoteConnectionPoolManager.getStatistics(connInfo);
+            for (Socket client : clients) {
+                client.close();
+            }
+            // the pooled connection was used just now, it is not probed
+            Assert.assertNotNull(facade.schema());
+            AbstractObjectPool.Statistics after =
+                    RemoteConnectionPoolManager.getStatistics(connInfo);
+            Assert.assertEquals(after.getNumCreated() - before.getNumCreated(), 1);
+        } finally {
+            proxy.close();
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    private static void pipe(final Socket from, final Socket to) {
+        Thread thread = new Thread() {
+            public void run() {
+                byte[] buffer = new byte[8192];
+                try {
+                    InputStream in = from.getInputStream();
+                    OutputStream out = to.getOutputStream();
+                    int count;
+                    while ((count = in.read(buffer)) >= 0) {
+                        out.write(buffer, 0, count);
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    /* closed */
+                } finally {
+                    try {
+                        from.close();
+                        to.close();
+                    } catch (IOException e) {
+                        /* ignore */
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
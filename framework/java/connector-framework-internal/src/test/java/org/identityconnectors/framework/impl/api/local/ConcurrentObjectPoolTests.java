@@ -0,0 +1,246 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+
+package org.identityconnectors.framework.impl.api.local;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.identityconnectors.common.pooling.ObjectPoolConfiguration;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.impl.api.local.AbstractObjectPool.Statistics;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ConcurrentObjectPoolTests {
+
+    private static class MyTestConnection {
+        private volatile boolean good = true;
+
+        public boolean isGood() {
+            return good;
+        }
+    }
+
+    private static class MyTestConnectionFactory implements ObjectPoolHandler<MyTestConnection> {
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger disposed = new AtomicInteger();
+
+        public ObjectPoolConfiguration validate(ObjectPoolConfiguration original) {
+            ObjectPoolConfiguration configuration = new ObjectPoolConfiguration(original);
+            configuration.validate();
+            return configuration;
+        }
+
+        public MyTestConnection makeObject() {
+            created.incrementAndGet();
+            return new MyTestConnection();
+        }
+
+        public void testObject(MyTestConnection object) {
+            if (!object.isGood()) {
+                throw new ConnectorException("Connection is bad");
+            }
+        }
+
+        public void disposeObject(MyTestConnection object) {
+            disposed.incrementAndGet();
+            object.good = false;
+        }
+
+        public void shutdown() {
+        }
+    }
+
+    private static ObjectPoolConfiguration newConfiguration(int maxObjects) {
+        ObjectPoolConfiguration config = new ObjectPoolConfiguration();
+        config.setMaxObjects(maxObjects);
+        config.setMaxIdle(maxObjects);
+        config.setMinIdle(0);
+        config.setMinEvictableIdleTimeMillis(60 * 1000);
+        config.setMaxWait(60);
+        return config;
+    }
+
+    @Test
+    public void testWithManyThreads() throws Exception {
+        final int maxObjects = 7;
+        final MyTestConnectionFactory fact = new MyTestConnectionFactory();
+        final ConcurrentObjectPool<MyTestConnection> pool =
+                new ConcurrentObjectPool<MyTestConnection>(fact, newConfiguration(maxObjects));
+        final AtomicInteger borrowed = new AtomicInteger();
+        final AtomicInteger maxBorrowed = new AtomicInteger();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        Thread[] threads = new Thread[20];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 200; j++) {
+                            ObjectPoolEntry<MyTestConnection> entry = pool.borrowObject();
+                            int n = borrowed.incrementAndGet();
+                            int max = maxBorrowed.get();
+                            while (n > max && !maxBorrowed.compareAndSet(max, n)) {
+                                max = maxBorrowed.get();
+                            }
+                            Assert.assertTrue(entry.getPooledObject().isGood());
+                            Thread.yield();
+                            borrowed.decrementAndGet();
+                            entry.close();
+                        }
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(errors.isEmpty(), errors.toString());
+        Assert.assertTrue(maxBorrowed.get() <= maxObjects);
+        Assert.assertTrue(fact.created.get() <= maxObjects);
+
+        Statistics stats = pool.getStatistics();
+        Assert.assertEquals(stats.getNumBorrowed(), 20 * 200);
+        Assert.assertEquals(stats.getNumActive(), 0);
+        Assert.assertEquals(stats.getNumIdle(), fact.created.get());
+        long total = 0;
+        for (long count : stats.getWaitHistogram()) {
+            total += count;
+        }
+        Assert.assertEquals(total, stats.getNumBorrowed());
+
+        pool.shutdown();
+        Assert.assertEquals(pool.getStatistics().getNumIdle(), 0);
+        Assert.assertEquals(fact.disposed.get(), fact.created.get());
+    }
+
+    @Test
+    public void testLifoAndFifo() throws Exception {
+        for (boolean lifo : new boolean[] { true, false }) {
+            ObjectPoolConfiguration config = newConfiguration(2);
+            config.setLifo(lifo);
+            ConcurrentObjectPool<MyTestConnection> pool =
+                    new ConcurrentObjectPool<MyTestConnection>(new MyTestConnectionFactory(),
+                            config);
+            ObjectPoolEntry<MyTestConnection> first = pool.borrowObject();
+            ObjectPoolEntry<MyTestConnection> second = pool.borrowObject();
+            first.close();
+            second.close();
+            ObjectPoolEntry<MyTestConnection> next = pool.borrowObject();
+            Assert.assertSame(next.getPooledObject(), lifo ? second.getPooledObject() : first
+                    .getPooledObject());
+            next.close();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMaxWait() throws Exception {
+        ObjectPoolConfiguration config = newConfiguration(1);
+        config.setMaxWait(0);
+        ConcurrentObjectPool<MyTestConnection> pool =
+                new ConcurrentObjectPool<MyTestConnection>(new MyTestConnectionFactory(), config);
+        ObjectPoolEntry<MyTestConnection> entry = pool.borrowObject();
+        Assert.assertNull(pool.tryBorrowObject());
+        try {
+            pool.borrowObject();
+            Assert.fail("expected exception");
+        } catch (ConnectorException e) {
+            Assert.assertEquals(e.getMessage(), "TimeOut");
+        }
+        entry.close();
+        // closing twice does not add a permit
+        entry.close();
+        entry = pool.borrowObject();
+        Assert.assertNull(pool.tryBorrowObject());
+        entry.close();
+        pool.shutdown();
+    }
+
+    @Test
+    public void testBadConnection() throws Exception {
+        MyTestConnectionFactory fact = new MyTestConnectionFactory();
+        ConcurrentObjectPool<MyTestConnection> pool =
+                new ConcurrentObjectPool<MyTestConnection>(fact, newConfiguration(3));
+        ObjectPoolEntry<MyTestConnection> conn = pool.borrowObject();
+        conn.close();
+        conn.getPooledObject().good = false;
+        conn = pool.borrowObject();
+        Assert.assertTrue(conn.getPooledObject().isGood());
+        Assert.assertEquals(fact.created.get(), 2);
+        conn.close();
+        Assert.assertEquals(pool.getStatistics().getNumIdle(), 1);
+        pool.shutdown();
+    }
+
+    @Test
+    public void testBackgroundEviction() throws Exception {
+        ObjectPoolConfiguration config = newConfiguration(3);
+        config.setMinIdle(1);
+        config.setMinEvictableIdleTimeMillis(200);
+        MyTestConnectionFactory fact = new MyTestConnectionFactory();
+        ConcurrentObjectPool<MyTestConnection> pool =
+                new ConcurrentObjectPool<MyTestConnection>(fact, config);
+        ObjectPoolEntry<MyTestConnection> conn1 = pool.borrowObject();
+        ObjectPoolEntry<MyTestConnection> conn2 = pool.borrowObject();
+        ObjectPoolEntry<MyTestConnection> conn3 = pool.borrowObject();
+        conn1.close();
+        conn2.close();
+        conn3.close();
+        Assert.assertEquals(pool.getStatistics().getNumIdle(), 3);
+        // no borrow or return, the evictor thread disposes them
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getStatistics().getNumIdle() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(pool.getStatistics().getNumIdle(), 1);
+        Assert.assertEquals(fact.disposed.get(), 2);
+        // the newest is kept
+        Assert.assertFalse(conn1.getPooledObject().isGood());
+        Assert.assertFalse(conn2.getPooledObject().isGood());
+        Assert.assertTrue(conn3.getPooledObject().isGood());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testOptIn() throws Exception {
+        ObjectPoolConfiguration config = newConfiguration(2);
+        AbstractObjectPool<MyTestConnection> pool =
+                AbstractObjectPool.newInstance(new MyTestConnectionFactory(), config);
+        Assert.assertEquals(pool.getClass(), ObjectPool.class);
+        pool.shutdown();
+        config.setConcurrent(true);
+        pool = AbstractObjectPool.newInstance(new MyTestConnectionFactory(), config);
+        Assert.assertEquals(pool.getClass(), ConcurrentObjectPool.class);
+        pool.shutdown();
+        Assert.assertTrue(pool.isShutdown());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.identityconnectors.framework.impl.api.local;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.identityconnectors.common.IOUtil;
+import org.identityconnectors.framework.spi.Configuration;
+import org.identityconnectors.framework.spi.ConnectorClass;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ConnectorClassScannerTests {
+
+    @ConnectorClass(configurationClass = Configuration.class, displayNameKey = "Annotated")
+    private static class Annotated {
+    }
+
+    @Test
+    public void testAnnotatedClass() throws IOException {
+        Assert.assertTrue(refersToConnectorClass(Annotated.class));
+    }
+
+    @Test
+    public void testPlainClass() throws IOException {
+        Assert.assertFalse(refersToConnectorClass(ObjectPool.class));
+        Assert.assertFalse(refersToConnectorClass(ConnectorClassScannerTests.class));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNotAClassFile() throws IOException {
+        ConnectorClassScanner.refersToConnectorClass(new ByteArrayInputStream("PK".getBytes()));
+    }
+
+    private static boolean refersToConnectorClass(Class<?> clazz) throws IOException {
+        final String name = clazz.getName();
+        final InputStream in =
+                clazz.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class");
+        Assert.assertNotNull(in);
+        try {
+            return ConnectorClassScanner.refersToConnectorClass(in);
+        } finally {
+            IOUtil.quietClose(in);
+        }
+    }
+}
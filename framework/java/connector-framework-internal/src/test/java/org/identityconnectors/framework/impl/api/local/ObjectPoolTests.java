@@ -27,7 +27,7 @@ import org.testng.Assert;
 import org.testng.annotations.Test;
 import org.identityconnectors.common.pooling.ObjectPoolConfiguration;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
-import org.identityconnectors.framework.impl.api.local.ObjectPool.Statistics;
+import org.identityconnectors.framework.impl.api.local.AbstractObjectPool.Statistics;
 
 
 public class ObjectPoolTests {
@@ -232,6 +232,55 @@ public class ObjectPoolTests {
         Assert.assertEquals(true, conn4.getPooledObject().isGood());
     }
 
+    @Test
+    public void testStatistics() throws Exception {
+        ObjectPoolConfiguration config = new ObjectPoolConfiguration();
+        config.setMaxObjects(2);
+        config.setMaxIdle(2);
+        config.setMinIdle(0);
+        config.setMinEvictableIdleTimeMillis(100);
+        MyTestConnectionFactory fact = new MyTestConnectionFactory();
+
+        ObjectPool<MyTestConnection> pool = new ObjectPool<MyTestConnection>(fact, config);
+        for (int i = 0; i < 4; i++) {
+            pool.borrowObject().close();
+        }
+        Statistics stats = pool.getStatistics();
+        Assert.assertEquals(stats.getNumBorrowed(), 4);
+        Assert.assertEquals(stats.getNumCreated(), 1);
+        Assert.assertEquals(stats.getHitRate(), 0.75, 0.001);
+        Assert.assertEquals(stats.getNumIdle(), 1);
+
+        Thread.sleep(config.getMinEvictableIdleTimeMillis() + 100);
+        pool.evictIdle();
+        Assert.assertEquals(pool.getStatistics().getNumIdle(), 0);
+        Assert.assertEquals(pool.getStatistics().getNumActive(), 0);
+    }
+
+    @Test
+    public void testTryBorrowObject() throws Exception {
+        ObjectPoolConfiguration config = new ObjectPoolConfiguration();
+        config.setMaxObjects(2);
+        config.setMaxIdle(2);
+        config.setMinIdle(0);
+        MyTestConnectionFactory fact = new MyTestConnectionFactory();
+
+        ObjectPool<MyTestConnection> pool = new ObjectPool<MyTestConnection>(fact, config);
+        ObjectPoolEntry<MyTestConnection> first = pool.tryBorrowObject();
+        ObjectPoolEntry<MyTestConnection> second = pool.tryBorrowObject();
+        Assert.assertNotNull(first);
+        Assert.assertNotNull(second);
+        // the pool is full, do not wait
+        Assert.assertNull(pool.tryBorrowObject());
+        second.close();
+        ObjectPoolEntry<MyTestConnection> third = pool.tryBorrowObject();
+        Assert.assertNotNull(third);
+        Assert.assertSame(third.getPooledObject(), second.getPooledObject());
+        Assert.assertEquals(fact.getTotalCreatedConnections(), 2);
+        first.close();
+        third.close();
+    }
+
     @Test
     public void testCreateBadConnection()
         throws Exception
@@ -0,0 +1,112 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+
+package org.identityconnectors.framework.impl.api.local.operations;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+
+import org.identityconnectors.common.IOUtil;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
+import org.testng.annotations.Test;
+
+public class FingerprintUidSetTests {
+
+    @Test
+    public void testInMemory() {
+        FingerprintUidSet set = new FingerprintUidSet();
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(set.add("uid" + i));
+        }
+        for (int i = 0; i < 100000; i += 7) {
+            assertFalse(set.add("uid" + i));
+        }
+        assertTrue(set.add(""));
+        assertFalse(set.add(""));
+        assertEquals(set.size(), 100001L);
+        // far less than the strings would take
+        assertTrue(set.getMemoryUsage() <= 100001L * 24, String.valueOf(set.getMemoryUsage()));
+        set.close();
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        File dir = File.createTempFile("uidset", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        try {
+            FingerprintUidSet set = new FingerprintUidSet(1000, dir);
+            for (int i = 0; i < 10500; i++) {
+                assertTrue(set.add("uid" + i));
+            }
+            assertEquals(dir.listFiles().length, 10);
+            assertEquals(set.size(), 10500L);
+            for (int i = 0; i < 10500; i += 3) {
+                assertFalse(set.add("uid" + i));
+            }
+            for (int i = 10500; i < 11000; i++) {
+                assertTrue(set.add("uid" + i));
+            }
+            set.close();
+            assertEquals(dir.listFiles().length, 0);
+        } finally {
+            IOUtil.delete(dir);
+        }
+    }
+
+    @Test
+    public void testDuplicateFilteringResultsHandlerSpill() throws Exception {
+        File dir = File.createTempFile("uidset", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        try {
+            FingerprintUidSet set = new FingerprintUidSet(10, dir);
+            final int[] count = new int[1];
+            DuplicateFilteringResultsHandler handler =
+                    new DuplicateFilteringResultsHandler(new SearchResultsHandler() {
+                        public boolean handle(ConnectorObject obj) {
+                            count[0]++;
+                            return true;
+                        }
+
+                        public void handleResult(SearchResult result) {
+                        }
+                    }, set);
+            SearchImplTests tests = new SearchImplTests();
+            for (int i = 0; i < 100; i++) {
+                handler.handle(tests.createObject(i));
+                handler.handle(tests.createObject(i / 2));
+            }
+            assertEquals(count[0], 100);
+            handler.close();
+            assertEquals(dir.listFiles().length, 0);
+        } finally {
+            IOUtil.delete(dir);
+        }
+    }
+}
@@ -26,11 +26,15 @@ package org.identityconnectors.framework.impl.api.local.operations;
 import org.identityconnectors.framework.common.objects.filter.FilterVisitor;
 import org.testng.annotations.Test;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
 import org.identityconnectors.common.CollectionUtil;
+import org.identityconnectors.common.pooling.ObjectPoolConfiguration;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
@@ -38,10 +42,15 @@ import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
 import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.SearchResult;
 import org.identityconnectors.framework.common.objects.filter.Filter;
 import org.identityconnectors.framework.common.objects.filter.FilterTranslator;
 import org.identityconnectors.framework.spi.Configuration;
+import org.identityconnectors.framework.impl.api.local.ObjectPool;
+import org.identityconnectors.framework.impl.api.local.ObjectPoolHandler;
 import org.identityconnectors.framework.spi.Connector;
+import org.identityconnectors.framework.spi.PoolableConnector;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
 import org.identityconnectors.framework.spi.operations.SearchOp;
 import org.identityconnectors.test.common.TestHelpers;
 import org.testng.Assert;
@@ -85,6 +94,21 @@ public class SearchImplTests {
         Assert.assertEquals(expecteList, actual);
     }
 
+    @Test
+    public void testEmptyFirstQuery() {
+        List<List<ConnectorObject>> main = new ArrayList<List<ConnectorObject>>();
+        main.add(new ArrayList<ConnectorObject>());
+        List<ConnectorObject> data = new ArrayList<ConnectorObject>();
+        for (int i = 0; i < 5; i++) {
+            data.add(createObject(i));
+        }
+        main.add(data);
+        List<ConnectorObject> actual = TestHelpers.searchToList(
+                new DuplicateProvider(), ObjectClass.ACCOUNT, new MockFilter(
+                        main), null);
+        Assert.assertEquals(actual, data);
+    }
+
     @Test
     public void testAttrsToGetQuery() {
         // create duplicate data..
@@ -114,6 +138,94 @@ public class SearchImplTests {
         Assert.assertEquals(expecteList, actual);
     }
 
+    @Test
+    public void testParallelQueries() {
+        Set<ConnectorObject> expected = new HashSet<ConnectorObject>();
+        List<List<ConnectorObject>> main = new ArrayList<List<ConnectorObject>>();
+        for (int q = 0; q < 4; q++) {
+            List<ConnectorObject> data = new ArrayList<ConnectorObject>();
+            // overlapping batches
+            for (int i = q * 10; i < q * 10 + 15; i++) {
+                data.add(createObject(i));
+                expected.add(createObject(i));
+            }
+            main.add(data);
+        }
+        final Set<Object> connectors = newConnectorSet();
+        ObjectPool<PoolableConnector> pool = createPool(connectors, 4);
+        final List<ConnectorObject> actual = new ArrayList<ConnectorObject>();
+        SearchImpl.rawSearch(new SlowPoolableProvider(connectors), ObjectClass.ACCOUNT,
+                new MockFilter(main), new SearchResultsHandler() {
+                    public void handleResult(SearchResult result) {
+                    }
+
+                    public boolean handle(ConnectorObject object) {
+                        actual.add(object);
+                        return true;
+                    }
+                }, null, pool);
+        Assert.assertEquals(actual.size(), expected.size());
+        Assert.assertEquals(new HashSet<ConnectorObject>(actual), expected);
+        Assert.assertTrue(connectors.size() > 1);
+        // all borrowed connectors are returned
+        Assert.assertEquals(pool.getStatistics().getNumActive(), 0);
+    }
+
+    @Test
+    public void testParallelQueriesStop() {
+        List<List<ConnectorObject>> main = new ArrayList<List<ConnectorObject>>();
+        for (int q = 0; q < 4; q++) {
+            List<ConnectorObject> data = new ArrayList<ConnectorObject>();
+            for (int i = q * 100; i < q * 100 + 100; i++) {
+                data.add(createObject(i));
+            }
+            main.add(data);
+        }
+        Set<Object> connectors = newConnectorSet();
+        final List<ConnectorObject> actual = new ArrayList<ConnectorObject>();
+        SearchImpl.rawSearch(new SlowPoolableProvider(connectors), ObjectClass.ACCOUNT,
+                new MockFilter(main), new SearchResultsHandler() {
+                    public void handleResult(SearchResult result) {
+                    }
+
+                    public boolean handle(ConnectorObject object) {
+                        actual.add(object);
+                        return actual.size() < 5;
+                    }
+                }, null, createPool(connectors, 4));
+        Assert.assertEquals(actual.size(), 5);
+    }
+
+    private Set<Object> newConnectorSet() {
+        return Collections.synchronizedSet(Collections
+                .newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+    }
+
+    private ObjectPool<PoolableConnector> createPool(final Set<Object> connectors, int size) {
+        ObjectPoolConfiguration config = new ObjectPoolConfiguration();
+        config.setMaxObjects(size);
+        config.setMaxIdle(size);
+        config.setMinIdle(0);
+        return new ObjectPool<PoolableConnector>(new ObjectPoolHandler<PoolableConnector>() {
+            public ObjectPoolConfiguration validate(ObjectPoolConfiguration original) {
+                return original;
+            }
+
+            public PoolableConnector makeObject() {
+                return new SlowPoolableProvider(connectors);
+            }
+
+            public void testObject(PoolableConnector object) {
+            }
+
+            public void disposeObject(PoolableConnector object) {
+            }
+
+            public void shutdown() {
+            }
+        }, config);
+    }
+
     ConnectorObject createObject(int uid) {
         ConnectorObjectBuilder bld = new ConnectorObjectBuilder();
         bld.setUid("" + uid);
@@ -168,6 +280,36 @@ public class SearchImplTests {
         }
     }
 
+    /**
+     * Records the connectors which executed a query.
+     */
+    public static class SlowPoolableProvider extends DuplicateProvider implements
+            PoolableConnector {
+        private final Set<Object> connectors;
+
+        public SlowPoolableProvider(Set<Object> connectors) {
+            this.connectors = connectors;
+        }
+
+        public void executeQuery(ObjectClass objectClass, List<ConnectorObject> query,
+                ResultsHandler handler, OperationOptions options) {
+            connectors.add(this);
+            for (ConnectorObject obj : query) {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (!handler.handle(obj)) {
+                    break;
+                }
+            }
+        }
+
+        public void checkAlive() {
+        }
+    }
+
     /**
      * Use the filter to pass objects to the filter translator.
      */
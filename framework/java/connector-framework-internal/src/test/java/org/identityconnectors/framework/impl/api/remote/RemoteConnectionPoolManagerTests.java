@@ -0,0 +1,177 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2014 ForgeRock AS. All Rights Reserved
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://forgerock.org/license/CDDLv1.0.html
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://forgerock.org/license/CDDLv1.0.html
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+
+package org.identityconnectors.framework.impl.api.remote;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.identityconnectors.common.pooling.ObjectPoolConfiguration;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.api.RemoteFrameworkConnectionInfo;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.impl.api.local.AbstractObjectPool;
+import org.identityconnectors.framework.impl.api.local.ObjectPoolEntry;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class RemoteConnectionPoolManagerTests {
+
+    private ServerSocket serverSocket;
+
+    private final List<Socket> accepted = new CopyOnWriteArrayList<Socket>();
+
+    @BeforeMethod
+    public void startServer() throws Exception {
+        serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        accepted.add(serverSocket.accept());
+                    }
+                } catch (Exception e) {
+                    /* closed */
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterMethod
+    public void stopServer() throws Exception {
+        RemoteConnectionPoolManager.dispose();
+        serverSocket.close();
+        for (Socket socket : accepted) {
+            socket.close();
+        }
+    }
+
+    private RemoteFrameworkConnectionInfo newConnectionInfo(ObjectPoolConfiguration configuration) {
+        return new RemoteFrameworkConnectionInfo("127.0.0.1", serverSocket.getLocalPort(),
+                new GuardedString("changeit".toCharArray()), false, null, 5000, configuration);
+    }
+
+    @Test
+    public void testConcurrentBorrowDoesNotBlock() throws Exception {
+        final AbstractObjectPool<RemoteFrameworkConnection> pool =
+                RemoteConnectionPoolManager.getPool(newConnectionInfo(null));
+        final int count = 25;
+        final CountDownLatch borrowed = new CountDownLatch(count);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                executor.submit(new Runnable() {
+                    public void run() {
+                        ObjectPoolEntry<RemoteFrameworkConnection> entry = pool.borrowObject();
+                        try {
+                            borrowed.countDown();
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            try {
+                                entry.close();
+                            } catch (Exception e) {
+                                /* ignore */
+                            }
+                        }
+                    }
+                });
+            }
+            Assert.assertTrue(borrowed.await(10, TimeUnit.SECONDS),
+                    "Concurrent remote operations are blocked by the connection pool");
+            Assert.assertEquals(pool.getStatistics().getNumActive(), count);
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testDefaultLimitWaits() throws Exception {
+        final AbstractObjectPool<RemoteFrameworkConnection> pool =
+                RemoteConnectionPoolManager.getPool(newConnectionInfo(null));
+        List<ObjectPoolEntry<RemoteFrameworkConnection>> entries =
+                new ArrayList<ObjectPoolEntry<RemoteFrameworkConnection>>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < RemoteConnectionPoolManager.DEFAULT_MAX_CONNECTIONS; i++) {
+                entries.add(pool.borrowObject());
+            }
+            Assert.assertNull(pool.tryBorrowObject(),
+                    "The default pool should not open more connections than the server workers");
+            Future<ObjectPoolEntry<RemoteFrameworkConnection>> waiting =
+                    executor.submit(new Callable<ObjectPoolEntry<RemoteFrameworkConnection>>() {
+                        public ObjectPoolEntry<RemoteFrameworkConnection> call() {
+                            return pool.borrowObject();
+                        }
+                    });
+            Thread.sleep(200);
+            Assert.assertFalse(waiting.isDone());
+            entries.remove(0).close();
+            entries.add(waiting.get(10, TimeUnit.SECONDS));
+        } finally {
+            for (ObjectPoolEntry<RemoteFrameworkConnection> entry : entries) {
+                entry.close();
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConfiguredLimitFailsFast() throws Exception {
+        ObjectPoolConfiguration configuration = new ObjectPoolConfiguration();
+        configuration.setMaxObjects(1);
+        configuration.setMaxIdle(1);
+        configuration.setMinIdle(0);
+        configuration.setMaxWait(0);
+        AbstractObjectPool<RemoteFrameworkConnection> pool =
+                RemoteConnectionPoolManager.getPool(newConnectionInfo(configuration));
+        ObjectPoolEntry<RemoteFrameworkConnection> entry = pool.borrowObject();
+        long start = System.currentTimeMillis();
+        try {
+            pool.borrowObject();
+            Assert.fail("The pool should not create more than MaxObjects connections");
+        } catch (ConnectorException e) {
+            Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        } finally {
+            entry.close();
+        }
+    }
+}
@@ -32,6 +32,7 @@ import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.math.BigDecimal;
@@ -106,6 +107,9 @@ import org.identityconnectors.framework.common.objects.filter.LessThanOrEqualFil
 import org.identityconnectors.framework.common.objects.filter.NotFilter;
 import org.identityconnectors.framework.common.objects.filter.OrFilter;
 import org.identityconnectors.framework.common.objects.filter.StartsWithFilter;
+import org.identityconnectors.framework.common.serializer.BinaryObjectDeserializer;
+import org.identityconnectors.framework.common.serializer.BinaryObjectSerializer;
+import org.identityconnectors.framework.common.serializer.ObjectSerializerFactory;
 import org.identityconnectors.framework.common.serializer.SerializerUtil;
 import org.identityconnectors.framework.impl.api.APIConfigurationImpl;
 import org.identityconnectors.framework.impl.api.ConfigurationPropertiesImpl;
@@ -121,6 +125,8 @@ import org.identityconnectors.framework.impl.api.remote.messages.OperationReques
 import org.identityconnectors.framework.impl.api.remote.messages.OperationResponseEnd;
 import org.identityconnectors.framework.impl.api.remote.messages.OperationResponsePart;
 import org.identityconnectors.framework.impl.api.remote.messages.OperationResponsePause;
+import org.identityconnectors.framework.impl.api.remote.messages.OperationResponseWindow;
+import org.identityconnectors.framework.impl.serializer.binary.BinaryObjectEncoder;
 
 
 public class ObjectSerializationTests {
@@ -422,6 +428,8 @@ public class ObjectSerializationTests {
         v1.setMaxWait(3);
         v1.setMinEvictableIdleTimeMillis(4);
         v1.setMinIdle(5);
+        v1.setLifo(true);
+        v1.setConcurrent(true);
 
         ObjectPoolConfiguration v2 =
             (ObjectPoolConfiguration)cloneObject(v1);
@@ -432,6 +440,8 @@ public class ObjectSerializationTests {
         assertEquals(2, v2.getMaxIdle());
         assertEquals(3, v2.getMaxWait());
         assertEquals(4, v2.getMinEvictableIdleTimeMillis());
+        assertTrue(v2.isLifo());
+        assertTrue(v2.isConcurrent());
         assertEquals(5, v2.getMinIdle());
     }
 
@@ -508,6 +518,7 @@ public class ObjectSerializationTests {
         v1.setConfigurationProperties(props1);
         v1.setConnectorPoolingSupported(true);
         v1.setProducerBufferSize(200);
+        v1.getResultsHandlerConfiguration().setEnableParallelQueries(true);
         v1.setSupportedOperations(FrameworkUtil.allAPIOperations());
         Map<Class<? extends APIOperation>,Integer> map =
             CollectionUtil.<Class<? extends APIOperation>,Integer>newMap(CreateApiOp.class,new Integer(6));
@@ -522,6 +533,8 @@ public class ObjectSerializationTests {
         assertEquals(v1.getConfigurationProperties(),v2.getConfigurationProperties());
         assertTrue(v2.isConnectorPoolingSupported());
         assertEquals(200, v2.getProducerBufferSize());
+        assertEquals(v1.getResultsHandlerConfiguration(), v2.getResultsHandlerConfiguration());
+        assertTrue(v2.getResultsHandlerConfiguration().isEnableParallelQueries());
         assertEquals(FrameworkUtil.allAPIOperations(),
                 v2.getSupportedOperations());
         assertEquals(map, v2.getTimeoutMap());
@@ -617,6 +630,80 @@ public class ObjectSerializationTests {
         assertEquals(v1, v2);
     }
 
+    @Test
+    public void testBinaryObjectStream() {
+        // the buffers are reused between the objects of a stream and
+        // released after an unusually large one
+        List<Object> objects = new ArrayList<Object>();
+        for (int i = 0; i < 100; i++) {
+            ConnectorObjectBuilder bld = new ConnectorObjectBuilder();
+            bld.setUid("uid" + i);
+            bld.setName("name" + i);
+            bld.addAttribute("multi", "a" + i, "b" + i);
+            bld.addAttribute("long", (long) i << 40);
+            if (i == 50) {
+                bld.addAttribute("large", new byte[2 * 1024 * 1024]);
+            }
+            objects.add(new OperationResponsePart(null, bld.build()));
+        }
+        objects.add(new OperationResponseEnd());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryObjectSerializer encoder =
+                ObjectSerializerFactory.getInstance().newBinarySerializer(out);
+        for (Object object : objects) {
+            encoder.writeObject(object);
+        }
+        encoder.flush();
+
+        BinaryObjectDeserializer decoder =
+                ObjectSerializerFactory.getInstance().newBinaryDeserializer(
+                        new ByteArrayInputStream(out.toByteArray()));
+        for (int i = 0; i < 100; i++) {
+            OperationResponsePart part = (OperationResponsePart) decoder.readObject();
+            assertEquals(part.getResult(), ((OperationResponsePart) objects.get(i)).getResult());
+        }
+        assertTrue(decoder.readObject() instanceof OperationResponseEnd);
+    }
+
+    @Test
+    public void testBinaryObjectStreamInternStrings() {
+        // enough distinct attribute names to reset the constant pool
+        List<ConnectorObject> objects = new ArrayList<ConnectorObject>();
+        for (int i = 0; i < 5000; i++) {
+            ConnectorObjectBuilder bld = new ConnectorObjectBuilder();
+            bld.setObjectClass(new ObjectClass("person"));
+            bld.setUid("uid" + i);
+            bld.setName("name" + i);
+            bld.addAttribute("givenName", "given" + i);
+            bld.addAttribute("attr" + i, "value" + i);
+            objects.add(bld.build());
+        }
+
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        BinaryObjectEncoder encoder = new BinaryObjectEncoder(plain);
+        for (ConnectorObject object : objects) {
+            encoder.writeObject(object);
+        }
+        encoder.flush();
+
+        ByteArrayOutputStream interned = new ByteArrayOutputStream();
+        encoder = new BinaryObjectEncoder(interned);
+        encoder.setInternStrings(true);
+        for (ConnectorObject object : objects) {
+            encoder.writeObject(object);
+        }
+        encoder.flush();
+        assertTrue(interned.size() < plain.size());
+
+        BinaryObjectDeserializer decoder =
+                ObjectSerializerFactory.getInstance().newBinaryDeserializer(
+                        new ByteArrayInputStream(interned.toByteArray()));
+        for (ConnectorObject object : objects) {
+            assertEquals(decoder.readObject(), object);
+        }
+    }
+
     @Test
     public void testName() {
         Name v1 = new Name("test");
@@ -950,6 +1037,20 @@ public class ObjectSerializationTests {
         assertEquals(CreateApiOp.class, v2.getOperation());
         assertEquals("mymethodName", v2.getOperationMethodName());
         assertEquals(args, v2.getArguments());
+        assertEquals(0, v2.getStreamWindow());
+
+        OperationRequest v3 =
+                new OperationRequest(v1.getConnectorKey(), v1.getConnectorFacadeKey(),
+                        CreateApiOp.class, "mymethodName", args, 1000);
+        OperationRequest v4 = (OperationRequest) cloneObject(v3);
+        assertEquals(1000, v4.getStreamWindow());
+        assertFalse(v4.isInternStrings());
+
+        OperationRequest v5 =
+                new OperationRequest(v1.getConnectorKey(), v1.getConnectorFacadeKey(),
+                        CreateApiOp.class, "mymethodName", args, 0, true);
+        OperationRequest v6 = (OperationRequest) cloneObject(v5);
+        assertTrue(v6.isInternStrings());
     }
 
     @Test
@@ -979,6 +1080,17 @@ public class ObjectSerializationTests {
         OperationRequestMoreData v1 = new OperationRequestMoreData();
         OperationRequestMoreData v2 = (OperationRequestMoreData)cloneObject(v1);
         assertNotNull(v2);
+        assertEquals(0, v2.getCredit());
+        OperationRequestMoreData v3 =
+                (OperationRequestMoreData) cloneObject(new OperationRequestMoreData(500));
+        assertEquals(500, v3.getCredit());
+    }
+
+    @Test
+    public void testOperationResponseWindow() {
+        OperationResponseWindow v1 = new OperationResponseWindow(1000);
+        OperationResponseWindow v2 = (OperationResponseWindow) cloneObject(v1);
+        assertEquals(1000, v2.getWindow());
     }
 
     @Test
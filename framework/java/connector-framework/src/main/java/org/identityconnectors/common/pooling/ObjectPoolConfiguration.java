@@ -40,6 +40,8 @@ public final class ObjectPoolConfiguration {
         this.setMaxWait(other.getMaxWait());
         this.setMinEvictableIdleTimeMillis(other.getMinEvictableIdleTimeMillis());
         this.setMinIdle(other.getMinIdle());
+        this.setLifo(other.isLifo());
+        this.setConcurrent(other.isConcurrent());
     }
 
     /**
@@ -69,6 +71,16 @@ public final class ObjectPoolConfiguration {
      */
     private int minIdle = 1;
 
+    /**
+     * Borrow the most recently returned idle object first.
+     */
+    private boolean lifo = false;
+
+    /**
+     * Borrow and return the objects without locking the pool.
+     */
+    private boolean concurrent = false;
+
     /**
      * Get the set number of maximum objects (idle+active).
      */
@@ -144,6 +156,46 @@ public final class ObjectPoolConfiguration {
         this.minIdle = minIdle;
     }
 
+    /**
+     * Returns true if the most recently returned idle object is borrowed
+     * first, false if the oldest one is.
+     *
+     * @since 1.4
+     */
+    public boolean isLifo() {
+        return lifo;
+    }
+
+    /**
+     * Sets whether the most recently returned idle object is borrowed first
+     * (LIFO) or the oldest one (FIFO).
+     *
+     * @since 1.4
+     */
+    public void setLifo(boolean lifo) {
+        this.lifo = lifo;
+    }
+
+    /**
+     * Returns true if the pool borrows and returns the objects without locking
+     * the pool and disposes the idle objects in the background.
+     *
+     * @since 1.4
+     */
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
+    /**
+     * Sets whether the pool borrows and returns the objects without locking
+     * the pool. The default pool is used if it is false.
+     *
+     * @since 1.4
+     */
+    public void setConcurrent(boolean concurrent) {
+        this.concurrent = concurrent;
+    }
+
     public void validate() {
         if (minIdle < 0) {
             throw new IllegalArgumentException("Min idle is less than zero.");
@@ -171,7 +223,8 @@ public final class ObjectPoolConfiguration {
     @Override
     public int hashCode() {
         return (int) (getMaxObjects() + getMaxIdle() + getMaxWait()
-                + getMinEvictableIdleTimeMillis() + getMinIdle());
+                + getMinEvictableIdleTimeMillis() + getMinIdle() + (isLifo() ? 1 : 0)
+                + (isConcurrent() ? 2 : 0));
     }
 
     @Override
@@ -194,6 +247,12 @@ public final class ObjectPoolConfiguration {
             if (getMinIdle() != other.getMinIdle()) {
                 return false;
             }
+            if (isLifo() != other.isLifo()) {
+                return false;
+            }
+            if (isConcurrent() != other.isConcurrent()) {
+                return false;
+            }
             return true;
         }
         return false;
@@ -208,6 +267,8 @@ public final class ObjectPoolConfiguration {
         bld.put("MaxWait", getMaxWait());
         bld.put("MinEvictableIdleTimeMillis", getMinEvictableIdleTimeMillis());
         bld.put("MinIdle", getMinIdle());
+        bld.put("Lifo", isLifo());
+        bld.put("Concurrent", isConcurrent());
         return bld.toString();
     }
 }
@@ -83,6 +83,15 @@ public interface APIConfiguration {
      *            milliseconds that the operation will wait in order to
      *            complete. Values less than or equal to zero are considered to
      *            disable the timeout property.
+     *            <p/>
+     *            The operations with a timeout of a connector share a bounded
+     *            thread pool, an operation fails with a
+     *            {@link org.identityconnectors.framework.common.exceptions.RetryableException}
+     *            when all of its threads are busy and its queue is full. The
+     *            {@code org.identityconnectors.framework.timeoutMaxThreads}
+     *            and
+     *            {@code org.identityconnectors.framework.timeoutMaxQueuedTasks}
+     *            system properties set the limits, 100 by default.
      */
     void setTimeout(Class<? extends APIOperation> operation, int timeout);
 
@@ -28,6 +28,7 @@ import javax.net.ssl.TrustManager;
 
 import org.identityconnectors.common.Assertions;
 import org.identityconnectors.common.CollectionUtil;
+import org.identityconnectors.common.pooling.ObjectPoolConfiguration;
 import org.identityconnectors.common.security.GuardedString;
 
 /**
@@ -41,6 +42,7 @@ public final class RemoteFrameworkConnectionInfo {
     private final boolean useSSL;
     private final List<TrustManager> trustManagers;
     private final int timeout;
+    private final ObjectPoolConfiguration connectionPoolConfiguration;
 
     /**
      * Creates a new instance of RemoteFrameworkConnectionInfo, using a clear
@@ -79,6 +81,37 @@ public final class RemoteFrameworkConnectionInfo {
      */
     public RemoteFrameworkConnectionInfo(String host, int port, GuardedString key, boolean useSSL,
             List<TrustManager> trustManagers, int timeout) {
+        this(host, port, key, useSSL, trustManagers, timeout, null);
+    }
+
+    /**
+     * Creates a new instance of RemoteFrameworkConnectionInfo.
+     *
+     * @param host
+     *            The host to connect to
+     * @param port
+     *            The port to connect to
+     * @param key
+     *            The remote framework key
+     * @param useSSL
+     *            Set to true if we are to connect via SSL.
+     * @param trustManagers
+     *            List of {@link TrustManager}'s to use for establising the SSL
+     *            connection. May be null or empty, in which case the default
+     *            installed providers for the JVM will be used. Ignored if
+     *            'useSSL' is false.
+     * @param timeout
+     *            The timeout to use (in milliseconds). A value of 0 means
+     *            infinite timeout;
+     * @param connectionPoolConfiguration
+     *            The configuration of the pool of connections to the connector
+     *            server. May be null, in which case the number of connections
+     *            is not limited.
+     * @since 1.4
+     */
+    public RemoteFrameworkConnectionInfo(String host, int port, GuardedString key, boolean useSSL,
+            List<TrustManager> trustManagers, int timeout,
+            ObjectPoolConfiguration connectionPoolConfiguration) {
         Assertions.nullCheck(host, "host");
         Assertions.nullCheck(key, "key");
         this.host = host;
@@ -87,6 +120,13 @@ public final class RemoteFrameworkConnectionInfo {
         this.useSSL = useSSL;
         this.trustManagers = CollectionUtil.newReadOnlyList(trustManagers);
         this.timeout = timeout;
+        if (null != connectionPoolConfiguration) {
+            connectionPoolConfiguration.validate();
+            this.connectionPoolConfiguration =
+                    new ObjectPoolConfiguration(connectionPoolConfiguration);
+        } else {
+            this.connectionPoolConfiguration = null;
+        }
     }
 
     /**
@@ -145,6 +185,18 @@ public final class RemoteFrameworkConnectionInfo {
         return timeout;
     }
 
+    /**
+     * Returns the configuration of the pool of connections to the connector
+     * server.
+     *
+     * @return a copy of the configuration or null if the default is used.
+     * @since 1.4
+     */
+    public ObjectPoolConfiguration getConnectionPoolConfiguration() {
+        return null != connectionPoolConfiguration ? new ObjectPoolConfiguration(
+                connectionPoolConfiguration) : null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -170,6 +222,11 @@ public final class RemoteFrameworkConnectionInfo {
             if (getTimeout() != other.getTimeout()) {
                 return false;
             }
+            if (null != connectionPoolConfiguration ? !connectionPoolConfiguration
+                    .equals(other.connectionPoolConfiguration)
+                    : null != other.connectionPoolConfiguration) {
+                return false;
+            }
 
             return true;
         }
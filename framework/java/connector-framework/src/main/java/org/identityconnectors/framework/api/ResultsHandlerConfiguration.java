@@ -62,6 +62,13 @@ public class ResultsHandlerConfiguration {
      * in the handler chain.
      */
     boolean enableAttributesToGetSearchResultsHandler = true;
+    /**
+     * Enables running the queries of a filter translated into more than one
+     * native query on separate pooled connectors at the same time.
+     *
+     * @since 1.4
+     */
+    boolean enableParallelQueries = false;
 
     /**
      * default empty constructor.
@@ -81,6 +88,7 @@ public class ResultsHandlerConfiguration {
         this.enableCaseInsensitiveFilter = source.isEnableCaseInsensitiveFilter();
         this.enableAttributesToGetSearchResultsHandler =
                 source.isEnableAttributesToGetSearchResultsHandler();
+        this.enableParallelQueries = source.isEnableParallelQueries();
     }
 
     public boolean isEnableAttributesToGetSearchResultsHandler() {
@@ -108,6 +116,14 @@ public class ResultsHandlerConfiguration {
         this.enableFilteredResultsHandler = enableFilteredResultsHandler;
     }
 
+    public boolean isEnableParallelQueries() {
+        return enableParallelQueries;
+    }
+
+    public void setEnableParallelQueries(boolean enableParallelQueries) {
+        this.enableParallelQueries = enableParallelQueries;
+    }
+
     public boolean isEnableNormalizingResultsHandler() {
         return enableNormalizingResultsHandler;
     }
@@ -137,6 +153,9 @@ public class ResultsHandlerConfiguration {
         if (this.enableAttributesToGetSearchResultsHandler != other.enableAttributesToGetSearchResultsHandler) {
             return false;
         }
+        if (this.enableParallelQueries != other.enableParallelQueries) {
+            return false;
+        }
         return true;
     }
 
@@ -147,6 +166,7 @@ public class ResultsHandlerConfiguration {
         hash = 79 * hash + (this.enableFilteredResultsHandler ? 1 : 0);
         hash = 79 * hash + (this.enableCaseInsensitiveFilter ? 1 : 0);
         hash = 79 * hash + (this.enableAttributesToGetSearchResultsHandler ? 1 : 0);
+        hash = 79 * hash + (this.enableParallelQueries ? 1 : 0);
         return hash;
     }
 
@@ -156,6 +176,7 @@ public class ResultsHandlerConfiguration {
                 + enableNormalizingResultsHandler + "\nenableFilteredResultsHandler="
                 + enableFilteredResultsHandler + "\nenableCaseInsensitiveFilter="
                 + enableCaseInsensitiveFilter + "\nenableAttributesToGetSearchResultsHandler="
-                + enableAttributesToGetSearchResultsHandler + '}';
+                + enableAttributesToGetSearchResultsHandler + "\nenableParallelQueries="
+                + enableParallelQueries + '}';
     }
 }